@@ -12315,7 +12315,8 @@ CREATE TABLE costnormsformaterials_technologyinstoperproductincomp (
     costfororder numeric(12,5) DEFAULT (0)::numeric,
     lastoffercost numeric(12,5),
     averageoffercost numeric(12,5),
-    entityversion bigint DEFAULT 0
+    entityversion bigint DEFAULT 0,
+    outboundquantity numeric(12,5)
 );
 
 
@@ -18368,7 +18369,11 @@ CREATE SEQUENCE materialflowresources_resourcedto_id_seq
 CREATE TABLE materialflowresources_resourcestock (
     id bigint NOT NULL,
     location_id bigint,
-    product_id bigint
+    product_id bigint,
+    quantity numeric(14,5) DEFAULT 0::numeric,
+    blockedquantity numeric(14,5) DEFAULT 0::numeric,
+    reservedquantity numeric(14,5) DEFAULT 0::numeric,
+    availablequantity numeric(14,5) DEFAULT 0::numeric
 );
 
 
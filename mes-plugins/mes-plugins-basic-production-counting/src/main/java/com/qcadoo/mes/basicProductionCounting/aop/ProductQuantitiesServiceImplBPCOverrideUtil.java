@@ -23,6 +23,7 @@
  */
 package com.qcadoo.mes.basicProductionCounting.aop;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingConstants;
 import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingOperationRunFields;
@@ -60,12 +61,10 @@ public class ProductQuantitiesServiceImplBPCOverrideUtil {
             final Map<Long, BigDecimal> operationRuns, final Set<OperationProductComponentHolder> nonComponents,
             final boolean onTheFly) {
         Map<Long, OperationProductComponentWithQuantityContainer> productComponentWithQuantitiesForOrders = Maps.newHashMap();
+        List<Entity> ordersToExplode = Lists.newArrayList();
 
         for (Entity order : orders) {
-            BigDecimal plannedQuantity = order.getDecimalField(OrderFields.PLANNED_QUANTITY);
-
             Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
-            Entity product = order.getBelongsToField(OrderFields.PRODUCT);
 
             if (technology == null) {
                 throw new IllegalStateException("Order doesn't contain technology.");
@@ -81,12 +80,13 @@ public class ProductQuantitiesServiceImplBPCOverrideUtil {
                 fillOperationRuns(operationRuns, order);
                 fillNonComponents(nonComponents, order);
             } else {
-                productComponentWithQuantitiesForOrders.put(order.getId(),
-                        productQuantitiesServiceImpl.getProductComponentWithQuantitiesForTechnology(technology, product, plannedQuantity,
-                                operationRuns, nonComponents));
+                ordersToExplode.add(order);
             }
         }
 
+        productComponentWithQuantitiesForOrders.putAll(productQuantitiesServiceImpl
+                .getProductComponentWithQuantitiesForOrdersTechnologies(ordersToExplode, true, operationRuns, nonComponents));
+
         return productQuantitiesServiceImpl.groupOperationProductComponentWithQuantities(productComponentWithQuantitiesForOrders);
     }
 
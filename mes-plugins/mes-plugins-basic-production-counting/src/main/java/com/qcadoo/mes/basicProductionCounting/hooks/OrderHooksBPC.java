@@ -26,6 +26,8 @@ package com.qcadoo.mes.basicProductionCounting.hooks;
 import com.google.common.collect.Lists;
 import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
 import com.qcadoo.mes.basicProductionCounting.constants.OrderFieldsBPC;
+import com.qcadoo.mes.orders.OrderChanges;
+import com.qcadoo.mes.orders.OrderChangesService;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
 import com.qcadoo.model.api.BigDecimalUtils;
@@ -44,8 +46,12 @@ public class OrderHooksBPC {
     @Autowired
     private BasicProductionCountingService basicProductionCountingService;
 
+    @Autowired
+    private OrderChangesService orderChangesService;
+
     public void onSave(final DataDefinition orderDD, final Entity order) {
         if (Objects.nonNull(order.getBelongsToField(OrderFields.TECHNOLOGY))) {
+            OrderChanges orderChanges = orderChangesService.getChanges(orderDD, order);
             boolean shouldCreateProductionCounting = checkIfShouldCreateProductionCounting(order);
             if (shouldCreateProductionCounting) {
                 boolean productToProductGroupTechnologyDoesntExists = basicProductionCountingService
@@ -53,7 +59,7 @@ public class OrderHooksBPC {
                 if (productToProductGroupTechnologyDoesntExists) {
                     order.addGlobalMessage("basicProductionCounting.productionCountingQuantity.error.productToProductGroupTechnologyDoesntExists");
                 }
-            } else if (checkIfShouldReCreateProductionCounting(order)) {
+            } else if (checkIfShouldReCreateProductionCounting(orderChanges)) {
                 for (Entity pcq : order.getHasManyField(OrderFieldsBPC.PRODUCTION_COUNTING_QUANTITIES)) {
                     pcq.getDataDefinition().delete(pcq.getId());
                 }
@@ -71,7 +77,7 @@ public class OrderHooksBPC {
                 }
             } else {
 
-                updateProductionCountingQuantitiesAndOperationRuns(order);
+                updateProductionCountingQuantitiesAndOperationRuns(order, orderChanges);
                 updateProducedQuantity(order);
             }
         } else if (Objects.nonNull(order.getId())) {
@@ -81,16 +87,8 @@ public class OrderHooksBPC {
         }
     }
 
-    private boolean checkIfShouldReCreateProductionCounting(Entity order) {
-        Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
-        Entity product = order.getBelongsToField(OrderFields.PRODUCT);
-        Entity technologyDb = order.getDataDefinition().get(order.getId()).getBelongsToField(OrderFields.TECHNOLOGY);
-        Entity productDb = order.getDataDefinition().get(order.getId()).getBelongsToField(OrderFields.PRODUCT);
-        if (Objects.isNull(technologyDb) || !technology.getId().equals(technologyDb.getId())
-                || !product.getId().equals(productDb.getId())) {
-            return true;
-        }
-        return false;
+    private boolean checkIfShouldReCreateProductionCounting(final OrderChanges orderChanges) {
+        return orderChanges.isChanged(OrderFields.TECHNOLOGY, OrderFields.PRODUCT);
     }
 
     private boolean checkIfShouldCreateProductionCounting(final Entity order) {
@@ -102,12 +100,12 @@ public class OrderHooksBPC {
         return order.getHasManyField(OrderFieldsBPC.BASIC_PRODUCTION_COUNTINGS).isEmpty();
     }
 
-    private void updateProductionCountingQuantitiesAndOperationRuns(final Entity order) {
+    private void updateProductionCountingQuantitiesAndOperationRuns(final Entity order, final OrderChanges orderChanges) {
         BigDecimal plannedQuantity = order.getDecimalField(OrderFields.PLANNED_QUANTITY);
 
         String state = order.getStringField(OrderFields.STATE);
 
-        if (checkOrderState(state) && hasPlannedQuantityChanged(order, plannedQuantity)) {
+        if (checkOrderState(state) && hasPlannedQuantityChanged(orderChanges, plannedQuantity)) {
             basicProductionCountingService.updateProductionCountingQuantitiesAndOperationRuns(order);
         }
     }
@@ -125,8 +123,8 @@ public class OrderHooksBPC {
         }
     }
 
-    private boolean hasPlannedQuantityChanged(final Entity order, final BigDecimal plannedQuantity) {
-        Entity existingOrder = getExistingOrder(order);
+    private boolean hasPlannedQuantityChanged(final OrderChanges orderChanges, final BigDecimal plannedQuantity) {
+        Entity existingOrder = orderChanges.getPersistedOrder().orElse(null);
 
         if (existingOrder == null) {
             return false;
@@ -141,20 +139,4 @@ public class OrderHooksBPC {
         return !BigDecimalUtils.valueEquals(existingOrderPlannedQuantity, plannedQuantity);
     }
 
-    private Entity getExistingOrder(final Entity order) {
-        if (order.getId() == null) {
-            return null;
-        }
-
-        StringBuilder query = new StringBuilder();
-
-        query.append("SELECT ord.id AS id, ord.plannedQuantity AS plannedQuantity ");
-        query.append("FROM #orders_order ord WHERE id = :id");
-
-        Entity orderDB = order.getDataDefinition().find(query.toString()).setLong("id", order.getId()).setMaxResults(1)
-                .uniqueResult();
-
-        return orderDB;
-    }
-
 }
@@ -0,0 +1,152 @@
+package com.qcadoo.mes.basic;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Writes log rows in background, in JDBC batches, so logging doesn't add a round trip to transactions of callers.
+ *
+ * Rows wait in a bounded queue. When it's full, callers wait a moment for the writer to catch up and, if it doesn't, are
+ * told to write their rows themselves, so no row is dropped. Rows still queued on shutdown are written before the writer stops.
+ */
+@Service
+public class LogBatchWriter {
+
+    private static final Logger LOGGER = Logger.getLogger(LogBatchWriter.class);
+
+    private static final int L_BATCH_SIZE = 500;
+
+    private static final long L_OFFER_TIMEOUT_MILLISECONDS = 500;
+
+    private static final long L_POLL_TIMEOUT_SECONDS = 1;
+
+    private static final String L_INSERT = "INSERT INTO basic_log "
+            + "(createtime, user_id, message, item1, item2, item3, details, loglevel, logtype, action) "
+            + "VALUES (:createTime, :userId, :message, :item1, :item2, :item3, :details, :logLevel, :logType, :action)";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Value("${asyncLogs:true}")
+    private boolean enabled;
+
+    @Value("${asyncLogsQueueCapacity:10000}")
+    private int queueCapacity;
+
+    private BlockingQueue<MapSqlParameterSource> queue;
+
+    private ExecutorService writerExecutor;
+
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            queue = new ArrayBlockingQueue<>(queueCapacity);
+            running = true;
+            writerExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("logWriter-%d")
+                    .setDaemon(true).build());
+            writerExecutor.execute(this::writeQueuedRows);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        if (running) {
+            running = false;
+            writerExecutor.shutdown();
+
+            if (!writerExecutor.awaitTermination(L_POLL_TIMEOUT_SECONDS * 10, TimeUnit.SECONDS)) {
+                writerExecutor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Queues row of basic_log table to be written in background.
+     *
+     * @param row
+     *            values of row, named as parameters of insert
+     * @return false if row wasn't queued, because writing in background is disabled or the queue stays full, then caller has
+     *         to write it
+     */
+    public boolean write(final MapSqlParameterSource row) {
+        if (!running) {
+            return false;
+        }
+
+        try {
+            return queue.offer(row, L_OFFER_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return false;
+        }
+    }
+
+    private void writeQueuedRows() {
+        List<MapSqlParameterSource> rows = Lists.newArrayListWithCapacity(L_BATCH_SIZE);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                MapSqlParameterSource row = queue.poll(L_POLL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+                if (row == null) {
+                    continue;
+                }
+
+                rows.add(row);
+                queue.drainTo(rows, L_BATCH_SIZE - 1);
+
+                writeRows(rows);
+            } catch (InterruptedException e) {
+                running = false;
+
+                Thread.currentThread().interrupt();
+            } finally {
+                rows.clear();
+            }
+        }
+
+        rows.addAll(queue);
+
+        if (!rows.isEmpty()) {
+            writeRows(rows);
+        }
+    }
+
+    private void writeRows(final List<MapSqlParameterSource> rows) {
+        try {
+            jdbcTemplate.batchUpdate(L_INSERT, rows.toArray(new SqlParameterSource[0]));
+        } catch (RuntimeException batchException) {
+            LOGGER.warn("Batch of " + rows.size() + " logs couldn't be written, writing them one by one.", batchException);
+
+            for (MapSqlParameterSource row : rows) {
+                try {
+                    jdbcTemplate.update(L_INSERT, row);
+                } catch (RuntimeException exception) {
+                    LOGGER.warn(row.getValues(), exception);
+                }
+            }
+        }
+    }
+
+}
@@ -21,6 +21,7 @@ import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
@@ -45,6 +46,11 @@ public class LogService {
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private LogBatchWriter logBatchWriter;
+
+    private static final int L_ITEM_MAX_LENGTH = 2048;
+
     public final static class Builder {
 
         private Builder() {
@@ -134,12 +140,45 @@ public class LogService {
         }
     }
 
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    /**
+     * Adds log. Errors are saved at once, other logs are written in background and then returned log is not saved yet.
+     */
     public Entity add(Builder builder) {
         validate(builder);
 
-        DataDefinition logDD = getLogDD();
-        Entity logEntity = logDD.create();
+        if (isWrittenInBackground(builder)) {
+            Entity logEntity = createLogEntity(builder);
+
+            if (logBatchWriter.write(createLogRow(logEntity))) {
+                return logEntity;
+            }
+        }
+
+        return save(builder);
+    }
+
+    /**
+     * Saves log at once, in its own transaction, whatever its level is.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Entity save(Builder builder) {
+        validate(builder);
+
+        Entity logEntity = createLogEntity(builder);
+        Entity saved = logEntity.getDataDefinition().save(logEntity);
+        if(!saved.isValid()) {
+            StringBuilder logErrors = new StringBuilder();
+            for (Map.Entry<String, ErrorMessage> errorEntry : saved.getErrors().entrySet()) {
+                logErrors.append(errorEntry.getKey() + " : " + errorEntry.getValue().getMessage());
+            }
+            LOGGER.warn(saved.toString());
+            LOGGER.warn(logErrors.toString());
+        }
+        return saved;
+    }
+
+    private Entity createLogEntity(Builder builder) {
+        Entity logEntity = getLogDD().create();
 
         logEntity.setField(LogFields.ACTION, builder.action);
         if (builder.createTime == null) {
@@ -156,16 +195,29 @@ public class LogService {
         logEntity.setField(LogFields.LOG_TYPE, builder.type);
         Long userId = securityService.getCurrentUserOrQcadooBotId();
         logEntity.setField(LogFields.USER, userId);
-        Entity saved = logDD.save(logEntity);
-        if(!saved.isValid()) {
-            StringBuilder logErrors = new StringBuilder();
-            for (Map.Entry<String, ErrorMessage> errorEntry : saved.getErrors().entrySet()) {
-                logErrors.append(errorEntry.getKey() + " : " + errorEntry.getValue().getMessage());
-            }
-            LOGGER.warn(saved.toString());
-            LOGGER.warn(logErrors.toString());
-        }
-        return saved;
+        return logEntity;
+    }
+
+    private MapSqlParameterSource createLogRow(Entity logEntity) {
+        return new MapSqlParameterSource().addValue("createTime", logEntity.getDateField(LogFields.CREATE_TIME))
+                .addValue("userId", logEntity.getField(LogFields.USER))
+                .addValue("message", logEntity.getStringField(LogFields.MESSAGE))
+                .addValue("item1", logEntity.getStringField(LogFields.ITEM_1))
+                .addValue("item2", logEntity.getStringField(LogFields.ITEM_2))
+                .addValue("item3", logEntity.getStringField(LogFields.ITEM_3))
+                .addValue("details", logEntity.getStringField(LogFields.DETAILS))
+                .addValue("logLevel", logEntity.getStringField(LogFields.LOG_LEVEL))
+                .addValue("logType", logEntity.getStringField(LogFields.LOG_TYPE))
+                .addValue("action", logEntity.getStringField(LogFields.ACTION));
+    }
+
+    private boolean isWrittenInBackground(final Builder builder) {
+        return builder.logLevel != LogLevel.ERROR && builder.logLevel != LogLevel.FATAL && isShorterThanMax(builder.item1)
+                && isShorterThanMax(builder.item2) && isShorterThanMax(builder.item3);
+    }
+
+    private boolean isShorterThanMax(final String item) {
+        return item == null || item.length() <= L_ITEM_MAX_LENGTH;
     }
 
     private DataDefinition getLogDD() {
@@ -34,6 +34,15 @@ public class ShiftExceptionService {
             exceptions = timetableExceptionService.findFor(productionLine, shiftEntity, dateOfDay);
         }
 
+        return manageExceptions(shiftWorkDateTime, exceptions, shiftEntity, dateOfDay, removeFreeTimeException);
+    }
+
+    private List<DateTimeRange> manageExceptions(List<DateTimeRange> shiftWorkDateTime, final List<Entity> exceptions,
+            final Entity shiftEntity, final Date dateOfDay, final boolean removeFreeTimeException) {
+        if (exceptions.isEmpty()) {
+            return shiftWorkDateTime;
+        }
+
         Shift shiftForDay = new Shift(shiftEntity, new DateTime(dateOfDay), false);
 
         for (Entity exception : exceptions) {
@@ -53,6 +62,21 @@ public class ShiftExceptionService {
 
     public List<DateTimeRange> getShiftWorkDateTimes(final Entity productionLine, final Shift shift, DateTime dateOfDay,
             final boolean removeFreeTimeException) {
+        return manageExceptions(getShiftWorkDateTimes(shift, dateOfDay), productionLine, shift, dateOfDay.toDate(),
+                removeFreeTimeException);
+    }
+
+    /**
+     * Returns work time of shift at given day with already loaded timetable exceptions of that day, the same as
+     * {@link #getShiftWorkDateTimes(Entity, Shift, DateTime, boolean)} does with exceptions it looks for.
+     */
+    public List<DateTimeRange> getShiftWorkDateTimes(final Shift shift, final Entity shiftEntity, final DateTime dateOfDay,
+            final List<Entity> exceptions, final boolean removeFreeTimeException) {
+        return manageExceptions(getShiftWorkDateTimes(shift, dateOfDay), exceptions, shiftEntity, dateOfDay.toDate(),
+                removeFreeTimeException);
+    }
+
+    private List<DateTimeRange> getShiftWorkDateTimes(final Shift shift, final DateTime dateOfDay) {
         List<TimeRange> shiftWorkTime = Lists.newArrayList();
         List<DateTimeRange> shiftWorkDateTime = Lists.newArrayList();
         if (shift.worksAt(dateOfDay.dayOfWeek().get())) {
@@ -62,9 +86,6 @@ public class ShiftExceptionService {
             shiftWorkDateTime.add(new DateTimeRange(dateOfDay, range));
         }
 
-        shiftWorkDateTime = manageExceptions(shiftWorkDateTime, productionLine, shift, dateOfDay.toDate(),
-                removeFreeTimeException);
-
         return shiftWorkDateTime;
     }
 
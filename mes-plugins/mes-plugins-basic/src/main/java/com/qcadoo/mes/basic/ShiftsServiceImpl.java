@@ -30,6 +30,8 @@ import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ShiftFields;
 import com.qcadoo.mes.basic.constants.TimetableExceptionType;
 import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.shift.WeeklyShiftTable;
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendar;
 import com.qcadoo.mes.basic.util.DateTimeRange;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
@@ -55,10 +57,10 @@ import java.util.Optional;
 import java.util.stream.Collectors;
 
 import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
 import org.joda.time.Days;
 import org.joda.time.IllegalFieldValueException;
 import org.joda.time.Interval;
+import org.joda.time.LocalDate;
 import org.joda.time.LocalTime;
 import org.joda.time.Period;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -96,6 +98,8 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     private static final int MILLS = 1000;
 
+    private static final int CALENDAR_DAYS = 62;
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
@@ -105,6 +109,9 @@ public class ShiftsServiceImpl implements ShiftsService {
     @Autowired
     private ShiftExceptionService shiftExceptionService;
 
+    @Autowired
+    private WorkingTimeCalendarService workingTimeCalendarService;
+
     private static final String[] WEEK_DAYS = { L_MONDAY, L_TUESDAY, L_WENSDAY, L_THURSDAY, L_FRIDAY, L_SATURDAY, L_SUNDAY };
 
     private static final Map<Integer, String> DAY_OF_WEEK = buildDayNumToNameMap();
@@ -160,31 +167,35 @@ public class ShiftsServiceImpl implements ShiftsService {
     }
 
     @Override
-    public Optional<DateTime> getNearestWorkingDate(DateTime dateFrom, Entity productionLine) {
-        List<Shift> shifts = findAll(productionLine);
-        List<DateTimeRange> finalShiftWorkTimes = Lists.newArrayList();
+    public Optional<DateTime> getNearestWorkingDate(final DateTime dateFrom, final Entity productionLine) {
+        LocalDate fromDay = dateFrom.toLocalDate().minusDays(1);
+        LocalDate lastDay = fromDay.plusDays(MAX_LOOPS);
 
-        DateTime currentDate = dateFrom.minusDays(1);
-
-        if (shifts.stream().noneMatch(shift -> checkShiftWorkingAfterDate(dateFrom, productionLine, shift))) {
+        if (!getWorkingTimeCalendar(productionLine, true, fromDay, fromDay).hasWorkingWeekdays() && findAll(productionLine)
+                .stream().noneMatch(shift -> checkShiftWorkingAfterDate(dateFrom, productionLine, shift))) {
             return Optional.empty();
         }
 
-        while (finalShiftWorkTimes.isEmpty()) {
-            for (Shift shift : shifts) {
-                getNearestWorkingDateForShift(shift, productionLine, dateFrom, currentDate, finalShiftWorkTimes);
-            }
+        LocalDate toDay = fromDay;
 
-            currentDate = currentDate.plusDays(1);
-        }
+        do {
+            toDay = getEarlier(toDay.plusDays(CALENDAR_DAYS), lastDay);
 
-        DateTime result = finalShiftWorkTimes.stream().min(Comparator.comparing(DateTimeRange::getFrom)).get().getFrom();
+            Optional<Date> nearestWorkingDate = getWorkingTimeCalendar(productionLine, true, fromDay, toDay)
+                    .findNearestWorkingDate(dateFrom.toDate(), fromDay, toDay);
 
-        if (result.compareTo(dateFrom) <= 0) {
-            return Optional.of(dateFrom);
-        }
+            if (nearestWorkingDate.isPresent()) {
+                DateTime result = new DateTime(nearestWorkingDate.get());
 
-        return Optional.of(result);
+                if (result.compareTo(dateFrom) <= 0) {
+                    return Optional.of(dateFrom);
+                }
+
+                return Optional.of(result);
+            }
+        } while (toDay.isBefore(lastDay));
+
+        return Optional.empty();
     }
 
     private void getNearestWorkingDateForShift(final Shift shift, final Entity productionLine, final DateTime dateFrom,
@@ -343,68 +354,71 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     @Override
     public Date findDateToForProductionLine(final Date dateFrom, final long seconds, final Entity productionLine) {
-        if (getShiftDataDefinition().find().list().getTotalNumberOfEntities() == 0) {
-            return Date.from(dateFrom.toInstant().plusSeconds(seconds));
+        Date defaultDateTo = Date.from(dateFrom.toInstant().plusSeconds(seconds));
+
+        if (seconds <= 0) {
+            return defaultDateTo;
         }
 
-        DateTime dateFromDT = new DateTime(dateFrom, DateTimeZone.getDefault());
+        LocalDate fromDay = new LocalDate(dateFrom).minusDays(1);
+        LocalDate lastDay = fromDay.plusDays(MAX_LOOPS);
+        LocalDate toDay = fromDay;
 
-        List<Shift> shifts = findAll(productionLine);
-        DateTime dateOfDay = new DateTime(dateFrom);
-        dateOfDay = dateOfDay.minusDays(1);
-        dateOfDay = dateOfDay.toLocalDate().toDateTimeAtStartOfDay();
-        long leftMilliseconds = seconds * MILLS;
-        int loopCount = 0;
-        while (leftMilliseconds > 0L) {
-            if (loopCount > MAX_LOOPS) {
-                return Date.from(dateFrom.toInstant().plusSeconds(seconds));
+        do {
+            toDay = getEarlier(toDay.plusDays(CALENDAR_DAYS), lastDay);
+
+            WorkingTimeCalendar calendar = getWorkingTimeCalendar(productionLine, true, fromDay, toDay);
+
+            if (!calendar.hasShifts()) {
+                return defaultDateTo;
             }
-            for (Shift shift : shifts) {
-                for (DateTimeRange range : shiftExceptionService.getShiftWorkDateTimes(productionLine, shift, dateOfDay, true)) {
-                    if (dateFrom.after(dateOfDay.toDate())) {
-                        range = range.trimBefore(dateFromDT);
-                    }
-                    if (range != null) {
-                        if (leftMilliseconds > range.durationMillis()) {
-                            leftMilliseconds = leftMilliseconds - range.durationMillis();
-                        } else {
-                            return range.getFrom().plusMillis((int) leftMilliseconds).toDate();
-                        }
-                    }
-                }
+
+            Optional<Date> dateTo = calendar.findDateTo(dateFrom, seconds * MILLS, fromDay, toDay);
+
+            if (dateTo.isPresent()) {
+                return dateTo.get();
             }
-            loopCount++;
-            dateOfDay = dateOfDay.plusDays(1);
-        }
+        } while (toDay.isBefore(lastDay));
 
-        return Date.from(dateFrom.toInstant().plusSeconds(seconds));
+        return defaultDateTo;
     }
 
     @Override
     public long getTotalAvailableTimeForProductionLine(final Date dateFrom, final Date dateTo, final Entity productionLine) {
-        if (getShiftDataDefinition().find().list().getTotalNumberOfEntities() == 0) {
-            return (dateTo.getTime() - dateFrom.getTime()) / 1000;
+        long defaultAvailableTime = (dateTo.getTime() - dateFrom.getTime()) / 1000;
+        int days = 0;
+
+        if (!dateFrom.after(dateTo)) {
+            days = Days.daysBetween(new DateTime(dateFrom), new DateTime(dateTo)).getDays() + 1;
         }
 
-        long totalAvailableTime = 0;
+        if (days > MAX_LOOPS + 1) {
+            return defaultAvailableTime;
+        }
 
-        List<Shift> shifts = findAll(productionLine);
-        DateTime dateOfDay = new DateTime(dateFrom);
-        int loopCount = 0;
-        while (!dateOfDay.isAfter(new DateTime(dateTo))) {
-            if (loopCount > MAX_LOOPS) {
-                return (dateTo.getTime() - dateFrom.getTime()) / 1000;
-            }
-            for (Shift shift : shifts) {
-                for (DateTimeRange range : shiftExceptionService.getShiftWorkDateTimes(productionLine, shift, dateOfDay, false)) {
-                    totalAvailableTime += range.durationMillis();
-                }
-            }
-            loopCount++;
-            dateOfDay = dateOfDay.plusDays(1);
+        LocalDate fromDay = new LocalDate(dateFrom);
+        LocalDate toDay = fromDay.plusDays(days - 1);
+        WorkingTimeCalendar calendar = getWorkingTimeCalendar(productionLine, false, fromDay, getLater(fromDay, toDay));
+
+        if (!calendar.hasShifts()) {
+            return defaultAvailableTime;
         }
 
-        return totalAvailableTime / 1000;
+        return calendar.getWorkingTime(fromDay, toDay) / 1000;
+    }
+
+    private WorkingTimeCalendar getWorkingTimeCalendar(final Entity productionLine, final boolean removeFreeTimeException,
+            final LocalDate fromDay, final LocalDate toDay) {
+        return workingTimeCalendarService.getCalendar(productionLine, removeFreeTimeException, fromDay, toDay,
+                () -> findAll(productionLine));
+    }
+
+    private static LocalDate getEarlier(final LocalDate day, final LocalDate otherDay) {
+        return day.isBefore(otherDay) ? day : otherDay;
+    }
+
+    private static LocalDate getLater(final LocalDate day, final LocalDate otherDay) {
+        return day.isAfter(otherDay) ? day : otherDay;
     }
 
     @Override
@@ -507,50 +521,8 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     @Override
     public Entity getShiftFromDateWithTime(final Date date) {
-        List<Entity> shifts = getShiftsWorkingAtDate(date);
-
-        for (Entity shift : shifts) {
-            String stringHours = shift.getStringField(getDayOfWeekName(date) + HOURS_LITERAL);
-            LocalTime[][] dayHours = convertDayHoursToInt(stringHours);
-
-            for (LocalTime[] dayHour : dayHours) {
-                if (dayHour[1].getHourOfDay() < dayHour[0].getHourOfDay()) {
-                    if (checkIfStartDateShiftIsEarlierThanDate(dayHour, date)
-                            || checkIfEndDateShiftIsLaterThanDate(dayHour, date)) {
-                        return shift;
-                    }
-                } else {
-                    if (checkIfStartDateShiftIsEarlierThanDate(dayHour, date)
-                            && checkIfEndDateShiftIsLaterThanDate(dayHour, date)) {
-                        return shift;
-                    }
-                }
-            }
-        }
-
-        return null;
-    }
-
-    private boolean checkIfStartDateShiftIsEarlierThanDate(final LocalTime[] dayHour, final Date date) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(date);
-
-        int hourOfDay = cal.get(Calendar.HOUR_OF_DAY);
-        int minuteOfHour = cal.get(Calendar.MINUTE);
-
-        return dayHour[0].getHourOfDay() < hourOfDay
-                || (dayHour[0].getHourOfDay() == hourOfDay && dayHour[0].getMinuteOfHour() <= minuteOfHour);
-    }
-
-    private boolean checkIfEndDateShiftIsLaterThanDate(final LocalTime[] dayHour, final Date date) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(date);
-
-        int hourOfDay = cal.get(Calendar.HOUR_OF_DAY);
-        int minuteOfHour = cal.get(Calendar.MINUTE);
-
-        return hourOfDay < dayHour[1].getHourOfDay()
-                || (hourOfDay == dayHour[1].getHourOfDay() && minuteOfHour < dayHour[1].getMinuteOfHour());
+        return workingTimeCalendarService
+                .getWeeklyShiftTable(() -> WeeklyShiftTable.compile(getShifts(), this::convertDayHoursToInt)).getShiftAt(date);
     }
 
     @Override
@@ -22,15 +22,22 @@ class TimetableExceptionService {
     private DataDefinitionService dataDefinitionService;
 
     List<Entity> findFor(final Entity productionLine, final Entity shift, final Date date) {
-        return findFor(Lists.newArrayList(productionLine.getId()), Lists.newArrayList(shift.getId()), date, null);
+        return findFor(Lists.newArrayList(productionLine.getId()), Lists.newArrayList(shift.getId()), date, date, null);
     }
 
     List<Entity> findFor(final Entity productionLine, final Entity shift, final Date date, final String type) {
-        return findFor(Lists.newArrayList(productionLine.getId()), Lists.newArrayList(shift.getId()), date, type);
+        return findFor(Lists.newArrayList(productionLine.getId()), Lists.newArrayList(shift.getId()), date, date, type);
     }
 
-    private List<Entity> findFor(final List<Long> productionLineIds, final List<Long> shiftIds, final Date date,
-            final String type) {
+    /**
+     * Returns exceptions of production line and shift lasting at any of days between given dates.
+     */
+    List<Entity> findFor(final Entity productionLine, final Entity shift, final Date dateFrom, final Date dateTo) {
+        return findFor(Lists.newArrayList(productionLine.getId()), Lists.newArrayList(shift.getId()), dateFrom, dateTo, null);
+    }
+
+    private List<Entity> findFor(final List<Long> productionLineIds, final List<Long> shiftIds, final Date dateFrom,
+            final Date dateTo, final String type) {
         List<Entity> shiftTimetableExceptions = Lists.newArrayList();
 
         if (!productionLineIds.isEmpty() && !shiftIds.isEmpty()) {
@@ -42,9 +49,9 @@ class TimetableExceptionService {
             query.append(" WHERE productionLine.id IN (:productionLines)");
             query.append(" AND shift.id IN (:shifts)");
 
-            if (date != null) {
-                query.append(
-                        " AND to_char(timetableException.fromDate,'yyyy-MM-dd') <= :date AND to_char(timetableException.toDate,'yyyy-MM-dd') >= :date");
+            if (dateFrom != null) {
+                query.append(" AND to_char(timetableException.fromDate,'yyyy-MM-dd') <= :dateTo");
+                query.append(" AND to_char(timetableException.toDate,'yyyy-MM-dd') >= :dateFrom");
             }
 
             if (StringUtils.isNotEmpty(type)) {
@@ -54,8 +61,9 @@ class TimetableExceptionService {
             SearchQueryBuilder searchQueryBuilder = getShiftTimetableExceptionDD().find(query.toString())
                     .setParameterList("productionLines", productionLineIds).setParameterList("shifts", shiftIds);
 
-            if (date != null) {
-                searchQueryBuilder.setParameter("date", DateUtils.toDateString(date));
+            if (dateFrom != null) {
+                searchQueryBuilder.setParameter("dateFrom", DateUtils.toDateString(dateFrom));
+                searchQueryBuilder.setParameter("dateTo", DateUtils.toDateString(dateTo));
             }
 
             if (StringUtils.isNotEmpty(type)) {
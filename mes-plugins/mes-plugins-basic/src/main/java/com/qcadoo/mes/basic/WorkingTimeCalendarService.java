@@ -0,0 +1,212 @@
+package com.qcadoo.mes.basic;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.constants.ShiftFields;
+import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
+import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.shift.WeeklyShiftTable;
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendar;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Keeps {@link WorkingTimeCalendar compiled calendars} of production lines, separately with and without free time exceptions,
+ * and {@link WeeklyShiftTable table of shifts} working at each minute of week.
+ *
+ * Calendars are compiled in chunks of days, loading timetable exceptions once per shift and chunk, and extended when asked for
+ * days they don't cover yet. They are dropped when shifts, timetable exceptions or production lines change and also expire
+ * after a while, so changes made by other nodes are seen too.
+ */
+@Service
+public class WorkingTimeCalendarService {
+
+    private static final int L_CHUNK_DAYS = 62;
+
+    private static final int L_MAXIMUM_DAYS = 3660;
+
+    private static final long L_MAXIMUM_SIZE = 200;
+
+    private static final long L_EXPIRE_AFTER_MINUTES = 10;
+
+    private static final int[] L_WEEKDAYS = IntStream.rangeClosed(1, 7).toArray();
+
+    @Autowired
+    private ShiftExceptionService shiftExceptionService;
+
+    @Autowired
+    private TimetableExceptionService timetableExceptionService;
+
+    private final Cache<List<Object>, WorkingTimeCalendar> calendars = CacheBuilder.newBuilder().maximumSize(L_MAXIMUM_SIZE)
+            .expireAfterWrite(L_EXPIRE_AFTER_MINUTES, TimeUnit.MINUTES).build();
+
+    private volatile WeeklyShiftTable weeklyShiftTable;
+
+    /**
+     * Returns calendar of production line covering at least given days.
+     *
+     * @param productionLine
+     *            production line, or null for all shifts without production line exceptions
+     * @param removeFreeTimeException
+     *            true if free time exceptions should be removed from work time
+     * @param fromDay
+     *            first needed day
+     * @param toDay
+     *            last needed day
+     * @param shifts
+     *            shifts of production line, asked for only when days have to be compiled
+     * @return calendar covering given days
+     */
+    public WorkingTimeCalendar getCalendar(final Entity productionLine, final boolean removeFreeTimeException,
+            final LocalDate fromDay, final LocalDate toDay, final Supplier<List<Shift>> shifts) {
+        if (Objects.nonNull(productionLine) && Objects.isNull(productionLine.getId())) {
+            return compile(productionLine, removeFreeTimeException, shifts.get(), fromDay, toDay);
+        }
+
+        List<Object> key = Arrays.asList(Objects.isNull(productionLine) ? null : productionLine.getId(),
+                removeFreeTimeException);
+        WorkingTimeCalendar calendar = calendars.getIfPresent(key);
+
+        if (Objects.nonNull(calendar) && calendar.covers(fromDay, toDay)) {
+            return calendar;
+        }
+
+        if (Objects.isNull(calendar) || Days.daysBetween(min(fromDay, calendar.getFirstDay()),
+                max(toDay, calendar.getLastDay())).getDays() >= L_MAXIMUM_DAYS) {
+            calendar = compile(productionLine, removeFreeTimeException, shifts.get(), fromDay,
+                    max(toDay, fromDay.plusDays(L_CHUNK_DAYS - 1)));
+        } else {
+            List<Shift> calendarShifts = shifts.get();
+
+            if (fromDay.isBefore(calendar.getFirstDay())) {
+                calendar = compile(productionLine, removeFreeTimeException, calendarShifts, fromDay,
+                        calendar.getFirstDay().minusDays(1)).append(calendar);
+            }
+
+            if (toDay.isAfter(calendar.getLastDay())) {
+                calendar = calendar.append(compile(productionLine, removeFreeTimeException, calendarShifts,
+                        calendar.getLastDay().plusDays(1), max(toDay, calendar.getLastDay().plusDays(L_CHUNK_DAYS))));
+            }
+        }
+
+        calendars.put(key, calendar);
+
+        return calendar;
+    }
+
+    /**
+     * Returns table of shifts working at each minute of week, compiling it when there is none yet or it's expired.
+     */
+    public WeeklyShiftTable getWeeklyShiftTable(final Supplier<WeeklyShiftTable> compiler) {
+        WeeklyShiftTable table = weeklyShiftTable;
+
+        if (Objects.isNull(table)
+                || table.isCompiledBefore(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(L_EXPIRE_AFTER_MINUTES))) {
+            table = compiler.get();
+
+            weeklyShiftTable = table;
+        }
+
+        return table;
+    }
+
+    /**
+     * Drops compiled calendars and shift table, now and once current transaction completes, so ones compiled meanwhile from
+     * not yet committed data are dropped too.
+     */
+    public void invalidate() {
+        calendars.invalidateAll();
+        weeklyShiftTable = null;
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    calendars.invalidateAll();
+                    weeklyShiftTable = null;
+                }
+
+            });
+        }
+    }
+
+    private WorkingTimeCalendar compile(final Entity productionLine, final boolean removeFreeTimeException,
+            final List<Shift> shifts, final LocalDate fromDay, final LocalDate toDay) {
+        Map<Long, Entity> shiftEntities = Maps.newHashMap();
+        Map<Long, List<Entity>> shiftsExceptions = Maps.newHashMap();
+
+        for (Shift shift : shifts) {
+            Entity shiftEntity = shift.getEntity();
+
+            shiftEntities.put(shift.getId(), shiftEntity);
+
+            if (Objects.isNull(productionLine)) {
+                shiftsExceptions.put(shift.getId(), shiftEntity.getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS));
+            } else {
+                shiftsExceptions.put(shift.getId(),
+                        timetableExceptionService.findFor(productionLine, shiftEntity, fromDay.toDate(), toDay.toDate()));
+            }
+        }
+
+        List<List<DateTimeRange>> rangesPerDay = Lists.newArrayList();
+
+        for (LocalDate day = fromDay; !day.isAfter(toDay); day = day.plusDays(1)) {
+            List<DateTimeRange> ranges = Lists.newArrayList();
+
+            for (Shift shift : shifts) {
+                List<Entity> exceptions = shiftsExceptions.get(shift.getId());
+
+                if (Objects.nonNull(productionLine)) {
+                    exceptions = getExceptionsAt(exceptions, day);
+                }
+
+                ranges.addAll(shiftExceptionService.getShiftWorkDateTimes(shift, shiftEntities.get(shift.getId()),
+                        day.toDateTimeAtStartOfDay(), exceptions, removeFreeTimeException));
+            }
+
+            rangesPerDay.add(ranges);
+        }
+
+        boolean withWorkingWeekdays = shifts.stream()
+                .anyMatch(shift -> Arrays.stream(L_WEEKDAYS).anyMatch(shift::worksAt));
+
+        return WorkingTimeCalendar.compile(fromDay, !shifts.isEmpty(), withWorkingWeekdays, rangesPerDay);
+    }
+
+    private List<Entity> getExceptionsAt(final List<Entity> exceptions, final LocalDate day) {
+        return exceptions.stream().filter(exception -> {
+            LocalDate fromDay = new LocalDate(exception.getDateField(ShiftTimetableExceptionFields.FROM_DATE));
+            LocalDate toDay = new LocalDate(exception.getDateField(ShiftTimetableExceptionFields.TO_DATE));
+
+            return !fromDay.isAfter(day) && !toDay.isBefore(day);
+        }).collect(Collectors.toList());
+    }
+
+    private static LocalDate min(final LocalDate day, final LocalDate otherDay) {
+        return day.isBefore(otherDay) ? day : otherDay;
+    }
+
+    private static LocalDate max(final LocalDate day, final LocalDate otherDay) {
+        return day.isAfter(otherDay) ? day : otherDay;
+    }
+
+}
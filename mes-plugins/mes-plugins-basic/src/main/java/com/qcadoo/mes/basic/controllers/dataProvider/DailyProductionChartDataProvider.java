@@ -1,37 +1,127 @@
 package com.qcadoo.mes.basic.controllers.dataProvider;
 
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
+import org.joda.time.LocalDate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Pending, in progress and done quantities of orders planned for today, computed in one query and shared by all dashboards.
+ *
+ * Quantities are computed again when they expire or, no more often than every few seconds, after an order was saved.
+ */
 @Service
 public class DailyProductionChartDataProvider {
 
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
+    private static final long L_EXPIRE_AFTER_MILLISECONDS = TimeUnit.SECONDS.toMillis(60);
+
+    private static final long L_REFRESH_AFTER_CHANGE_MILLISECONDS = TimeUnit.SECONDS.toMillis(5);
+
     private static final String QUERY_DATE_PART = "AND date_trunc('day', o.startdate) <= current_date AND current_date <= date_trunc('day', o.finishdate) ";
 
+    private static final String L_IN_PROGRESS_CONDITION = "o.plannedquantity > 0 "
+            + "AND o.donequantity * 100 / o.plannedquantity > 0 AND o.donequantity * 100 / o.plannedquantity < 100";
+
+    private static final String L_DONE_CONDITION = "(o.plannedquantity > 0 AND o.donequantity * 100 / o.plannedquantity >= 100) "
+            + "OR o.state = '04completed'";
+
+    private volatile DailyProduction dailyProduction;
+
+    private volatile long changeTime;
+
     public List<Long> getData() {
-        List<Long> data = Lists.newArrayList();
-        String pendingQuery = "SELECT coalesce(sum(o.plannedquantity), 0) FROM orders_order o "
-                + "WHERE o.state NOT IN ('05declined', '07abandoned', '04completed') " + QUERY_DATE_PART
-                + "AND coalesce(o.donequantity, 0) = 0";
-        String inProgressQuery = "SELECT coalesce(sum(o.plannedquantity), 0) FROM orders_order o "
-                + "WHERE o.state NOT IN ('05declined', '07abandoned','04completed') " + QUERY_DATE_PART
-                + "AND (o.plannedquantity > 0 AND o.donequantity * 100 / o.plannedquantity > 0 AND o.donequantity * 100 / o.plannedquantity < 100)";
-        String doneQuery = "SELECT coalesce(sum(o.donequantity), 0) FROM orders_order o "
-                + "WHERE o.state not in ('05declined', '07abandoned') " + QUERY_DATE_PART
-                + "AND ((o.plannedquantity > 0 AND o.donequantity * 100 / o.plannedquantity >= 100) OR o.state = '04completed')";
-
-        data.add(jdbcTemplate.queryForObject(pendingQuery, Collections.emptyMap(), Long.class));
-        data.add(jdbcTemplate.queryForObject(inProgressQuery, Collections.emptyMap(), Long.class));
-        data.add(jdbcTemplate.queryForObject(doneQuery, Collections.emptyMap(), Long.class));
-        return data;
+        DailyProduction current = dailyProduction;
+
+        if (isUpToDate(current)) {
+            return current.data;
+        }
+
+        synchronized (this) {
+            current = dailyProduction;
+
+            if (!isUpToDate(current)) {
+                long computationTime = System.currentTimeMillis();
+
+                current = new DailyProduction(computeData(), computationTime);
+
+                dailyProduction = current;
+            }
+        }
+
+        return current.data;
+    }
+
+    /**
+     * Makes quantities be computed again once current transaction commits, called when orders change.
+     */
+    public void invalidate() {
+        changeTime = System.currentTimeMillis();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCommit() {
+                    changeTime = System.currentTimeMillis();
+                }
+
+            });
+        }
+    }
+
+    private boolean isUpToDate(final DailyProduction current) {
+        if (Objects.isNull(current) || !current.day.equals(LocalDate.now())) {
+            return false;
+        }
+
+        long age = System.currentTimeMillis() - current.computationTime;
+
+        if (changeTime >= current.computationTime) {
+            return age < L_REFRESH_AFTER_CHANGE_MILLISECONDS;
+        }
+
+        return age < L_EXPIRE_AFTER_MILLISECONDS;
+    }
+
+    private List<Long> computeData() {
+        String query = "SELECT "
+                + "coalesce(sum(CASE WHEN o.state <> '04completed' AND coalesce(o.donequantity, 0) = 0 "
+                + "THEN o.plannedquantity END), 0) AS pending, "
+                + "coalesce(sum(CASE WHEN o.state <> '04completed' AND " + L_IN_PROGRESS_CONDITION
+                + " THEN o.plannedquantity END), 0) AS inprogress, "
+                + "coalesce(sum(CASE WHEN " + L_DONE_CONDITION + " THEN o.donequantity END), 0) AS done "
+                + "FROM orders_order o WHERE o.state NOT IN ('05declined', '07abandoned') " + QUERY_DATE_PART;
+
+        return jdbcTemplate.queryForObject(query, Collections.emptyMap(), (resultSet, rowNum) -> ImmutableList.of(
+                resultSet.getBigDecimal("pending").longValue(), resultSet.getBigDecimal("inprogress").longValue(),
+                resultSet.getBigDecimal("done").longValue()));
+    }
+
+    private static final class DailyProduction {
+
+        private final List<Long> data;
+
+        private final LocalDate day;
+
+        private final long computationTime;
+
+        private DailyProduction(final List<Long> data, final long computationTime) {
+            this.data = data;
+            this.day = new LocalDate(computationTime);
+            this.computationTime = computationTime;
+        }
+
     }
 
 }
@@ -25,6 +25,8 @@ import com.qcadoo.mes.basic.controllers.dataProvider.responses.FaultTypeResponse
 import com.qcadoo.mes.basic.controllers.dataProvider.responses.ProductsGridResponse;
 import com.qcadoo.mes.basic.controllers.dataProvider.responses.SubassembliesResponse;
 import com.qcadoo.mes.basic.controllers.dataProvider.responses.WorkstationTypesResponse;
+import com.qcadoo.mes.basic.typeahead.TypeaheadResult;
+import com.qcadoo.mes.basic.typeahead.TypeaheadService;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.DictionaryService;
 import com.qcadoo.model.api.Entity;
@@ -33,6 +35,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -55,8 +58,13 @@ public class DataProvider {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private TypeaheadService typeaheadService;
+
     public static final int MAX_RESULTS = 20;
 
+    private static final int L_TYPEAHEAD_RESULTS = 10;
+
     private String prepareProductsQuery() {
         return "SELECT product.id AS id, product.number AS code, product.number AS number, product.unit AS unit, product.name AS name "
                 + "FROM basic_product product WHERE product.active = true AND product.number ilike :query ;";
@@ -123,16 +131,27 @@ public class DataProvider {
     }
 
     public DataResponse getProductsResponseByQuery(final String query) {
-        return getDataResponse(query, prepareProductsQuery(), getProductsByQuery(query), Maps.newHashMap());
+        return typeaheadService.findProducts(query, MAX_RESULTS).map(this::getTypeaheadResponse).orElseGet(
+                () -> getDataResponse(query, prepareProductsQuery(), getProductsByQuery(query), Maps.newHashMap()));
     }
 
     public DataResponse getAdditionalCodesResponseByQuery(final String query, final String productnumber) {
-        return getDataResponse(query, prepareAdditionalCodeQuery(productnumber), getAdditionalCodesByQuery(query, productnumber),
-                Maps.newHashMap());
+        return typeaheadService.findAdditionalCodes(query, productnumber, MAX_RESULTS).map(this::getTypeaheadResponse).orElseGet(
+                () -> getDataResponse(query, prepareAdditionalCodeQuery(productnumber),
+                        getAdditionalCodesByQuery(query, productnumber), Maps.newHashMap()));
     }
 
     public DataResponse getPalletNumbersResponseByQuery(final String query) {
-        return getDataResponse(query, preparePalletNumbersQuery(), getPalletNumbersByQuery(query), Maps.newHashMap());
+        return typeaheadService.findPalletNumbers(query, MAX_RESULTS).map(this::getTypeaheadResponse).orElseGet(
+                () -> getDataResponse(query, preparePalletNumbersQuery(), getPalletNumbersByQuery(query), Maps.newHashMap()));
+    }
+
+    private DataResponse getTypeaheadResponse(final TypeaheadResult<? extends AbstractDTO> result) {
+        if (result.getNumberOfResults() > MAX_RESULTS) {
+            return new DataResponse(Lists.newArrayList(), result.getNumberOfResults());
+        }
+
+        return new DataResponse(result.getValues(), result.getNumberOfResults());
     }
 
     public DataResponse getDataResponse(final String query, final String preparedQuery,
@@ -152,6 +171,13 @@ public class DataProvider {
     }
 
     public DataResponse getAttributesByQuery(String attr, String query) {
+        Optional<DataResponse> response = typeaheadService.findAttributeValues(query, attr, MAX_RESULTS)
+                .map(this::getTypeaheadResponse);
+
+        if (response.isPresent()) {
+            return response.get();
+        }
+
         Map<String, Object> parameters = Maps.newHashMap();
         parameters.put("attr", attr);
         return getDataResponse(query, prepareAttributesQuery(), getAttribiutesByQuery(attr, query), parameters);
@@ -167,11 +193,18 @@ public class DataProvider {
     }
 
     public DataResponse getProductsTypeahead(String query) {
+        Optional<TypeaheadResult<ProductDTO>> result = typeaheadService.findProducts(query, L_TYPEAHEAD_RESULTS);
+
+        if (result.isPresent()) {
+            return new DataResponse(result.get().getValues(), result.get().getValues().size());
+        }
+
         StringBuilder queryBuilder = new StringBuilder();
         queryBuilder
                 .append("SELECT product.id AS id, product.number AS code, product.number AS number, product.unit AS unit, product.name AS name ");
         queryBuilder
-                .append("FROM basic_product product WHERE product.active = true AND product.number ilike :query ORDER BY product.number ASC LIMIT 10 ");
+                .append("FROM basic_product product WHERE product.active = true AND product.number ilike :query ORDER BY product.number ASC LIMIT ")
+                .append(L_TYPEAHEAD_RESULTS);
 
         Map<String, Object> parameters = Maps.newHashMap();
 
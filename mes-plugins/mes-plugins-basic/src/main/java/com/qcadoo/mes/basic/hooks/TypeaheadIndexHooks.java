@@ -0,0 +1,26 @@
+package com.qcadoo.mes.basic.hooks;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.basic.typeahead.TypeaheadService;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+@Service
+public class TypeaheadIndexHooks {
+
+    @Autowired
+    private TypeaheadService typeaheadService;
+
+    public void onSave(final DataDefinition dataDefinition, final Entity entity) {
+        typeaheadService.onChange(dataDefinition.getName(), entity.getId());
+    }
+
+    public boolean onDelete(final DataDefinition dataDefinition, final Entity entity) {
+        typeaheadService.onChange(dataDefinition.getName(), entity.getId());
+
+        return true;
+    }
+
+}
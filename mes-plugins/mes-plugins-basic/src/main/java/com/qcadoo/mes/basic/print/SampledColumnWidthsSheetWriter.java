@@ -0,0 +1,117 @@
+package com.qcadoo.mes.basic.print;
+
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Appends rows to a sheet one after another and sizes its columns from a sample of the first rows.
+ *
+ * Unlike {@link Sheet#autoSizeColumn(int)}, which reads every row of the sheet and so needs all of them in memory, widths
+ * are computed from formatted values of already written rows, so it works with streaming workbooks (SXSSF), where only a
+ * window of recent rows is kept, and doesn't slow down with the size of a report.
+ */
+public class SampledColumnWidthsSheetWriter {
+
+    public static final int DEFAULT_SAMPLE_SIZE = 500;
+
+    private static final int L_MAX_COLUMN_WIDTH_IN_CHARACTERS = 100;
+
+    private static final int L_COLUMN_PADDING_IN_CHARACTERS = 2;
+
+    private static final int L_CHARACTER_WIDTH = 256;
+
+    private final Sheet sheet;
+
+    private final int sampleSize;
+
+    private final DataFormatter dataFormatter = new DataFormatter();
+
+    private final Map<Integer, Integer> columnLengths = Maps.newHashMap();
+
+    private int rowIndex;
+
+    private int sampledRows;
+
+    private Row lastRow;
+
+    public SampledColumnWidthsSheetWriter(final Sheet sheet, final int firstRowIndex) {
+        this(sheet, firstRowIndex, DEFAULT_SAMPLE_SIZE);
+    }
+
+    public SampledColumnWidthsSheetWriter(final Sheet sheet, final int firstRowIndex, final int sampleSize) {
+        this.sheet = sheet;
+        this.rowIndex = firstRowIndex;
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * Creates next row of the sheet. Previously created row is sampled, so it has to be filled already.
+     */
+    public Row createRow() {
+        sampleLastRow();
+
+        lastRow = sheet.createRow(rowIndex++);
+
+        return lastRow;
+    }
+
+    /**
+     * Includes row created outside of the writer, e.g. header, in column widths.
+     */
+    public void sample(final Row row) {
+        if (Objects.isNull(row)) {
+            return;
+        }
+
+        for (Cell cell : row) {
+            int length = getLength(dataFormatter.formatCellValue(cell));
+
+            columnLengths.merge(cell.getColumnIndex(), length, Math::max);
+        }
+    }
+
+    /**
+     * Sets widths of sampled columns, should be called when all rows are written.
+     */
+    public void applyColumnWidths() {
+        sampleLastRow();
+
+        for (Map.Entry<Integer, Integer> columnLength : columnLengths.entrySet()) {
+            int width = Math.min(columnLength.getValue() + L_COLUMN_PADDING_IN_CHARACTERS, L_MAX_COLUMN_WIDTH_IN_CHARACTERS);
+
+            sheet.setColumnWidth(columnLength.getKey(), width * L_CHARACTER_WIDTH);
+        }
+    }
+
+    public int getRowIndex() {
+        return rowIndex;
+    }
+
+    private void sampleLastRow() {
+        if (Objects.nonNull(lastRow) && sampledRows < sampleSize) {
+            sample(lastRow);
+
+            sampledRows++;
+        }
+
+        lastRow = null;
+    }
+
+    private int getLength(final String value) {
+        int length = 0;
+
+        for (String line : value.split("\n")) {
+            length = Math.max(length, line.length());
+        }
+
+        return length;
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.qcadoo.mes.basic.shift;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.function.Function;
+
+import org.joda.time.LocalTime;
+
+import com.qcadoo.mes.basic.constants.ShiftFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Shifts working at each minute of week, compiled from hours of shifts, so the shift working at given date is found with an
+ * array lookup instead of querying and parsing shifts.
+ *
+ * Minutes are matched the same way {@code ShiftsService.getShiftFromDateWithTime} always matched them: by hours of the day of
+ * week of the date, a range ending at an earlier hour than it starts covers minutes from its start until midnight and from
+ * midnight until its end, and when many shifts work at a minute, the first of them wins. Timetable exceptions are not taken
+ * into account.
+ */
+public final class WeeklyShiftTable {
+
+    private static final String[] L_WORKING_FIELDS = { ShiftFields.MONDAY_WORKING, ShiftFields.TUESDAY_WORKING,
+            ShiftFields.WENSDAY_WORKING, ShiftFields.THURSDAY_WORKING, ShiftFields.FRIDAY_WORKING, ShiftFields.SATURDAY_WORKING,
+            ShiftFields.SUNDAY_WORKING };
+
+    private static final String[] L_HOURS_FIELDS = { ShiftFields.MONDAY_HOURS, ShiftFields.TUESDAY_HOURS,
+            ShiftFields.WENSDAY_HOURS, ShiftFields.THURSDAY_HOURS, ShiftFields.FRIDAY_HOURS, ShiftFields.SATURDAY_HOURS,
+            ShiftFields.SUNDAY_HOURS };
+
+    private static final int L_MINUTES_PER_DAY = 24 * 60;
+
+    private static final long L_MILLIS_PER_MINUTE = 60 * 1000L;
+
+    private static final long L_MILLIS_PER_DAY = L_MINUTES_PER_DAY * L_MILLIS_PER_MINUTE;
+
+    // 1970-01-01 was Thursday
+    private static final int L_EPOCH_DAY_OF_WEEK = 3;
+
+    private final Entity[] shifts;
+
+    private final int[] shiftIndexes;
+
+    private final TimeZone timeZone;
+
+    private final long compilationTime;
+
+    private WeeklyShiftTable(final Entity[] shifts, final int[] shiftIndexes) {
+        this.shifts = shifts;
+        this.shiftIndexes = shiftIndexes;
+        this.timeZone = TimeZone.getDefault();
+        this.compilationTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Compiles table of given shifts.
+     *
+     * @param shifts
+     *            shifts in order in which they are matched
+     * @param hoursParser
+     *            converts hours of day to time ranges
+     * @return compiled table
+     */
+    public static WeeklyShiftTable compile(final List<Entity> shifts, final Function<String, LocalTime[][]> hoursParser) {
+        int[] shiftIndexes = new int[7 * L_MINUTES_PER_DAY];
+
+        Arrays.fill(shiftIndexes, -1);
+
+        for (int day = 0; day < 7; day++) {
+            for (int index = 0; index < shifts.size(); index++) {
+                Entity shift = shifts.get(index);
+
+                if (!shift.getBooleanField(L_WORKING_FIELDS[day])) {
+                    continue;
+                }
+
+                for (LocalTime[] range : hoursParser.apply(shift.getStringField(L_HOURS_FIELDS[day]))) {
+                    int from = getMinuteOfDay(range[0]);
+                    int to = getMinuteOfDay(range[1]);
+
+                    if (range[1].getHourOfDay() < range[0].getHourOfDay()) {
+                        assign(shiftIndexes, day, 0, to, index);
+                        assign(shiftIndexes, day, from, L_MINUTES_PER_DAY, index);
+                    } else {
+                        assign(shiftIndexes, day, from, to, index);
+                    }
+                }
+            }
+        }
+
+        return new WeeklyShiftTable(shifts.stream().map(Entity::copy).toArray(Entity[]::new), shiftIndexes);
+    }
+
+    private static void assign(final int[] shiftIndexes, final int day, final int from, final int to, final int index) {
+        for (int minute = from; minute < to; minute++) {
+            if (shiftIndexes[day * L_MINUTES_PER_DAY + minute] < 0) {
+                shiftIndexes[day * L_MINUTES_PER_DAY + minute] = index;
+            }
+        }
+    }
+
+    private static int getMinuteOfDay(final LocalTime time) {
+        return time.getHourOfDay() * 60 + time.getMinuteOfHour();
+    }
+
+    /**
+     * Returns copy of shift working at given date, or null if no shift works then.
+     */
+    public Entity getShiftAt(final Date date) {
+        long millis = date.getTime();
+        long localMillis = millis + timeZone.getOffset(millis);
+        int day = (int) Math.floorMod(Math.floorDiv(localMillis, L_MILLIS_PER_DAY) + L_EPOCH_DAY_OF_WEEK, 7);
+        int minute = (int) (Math.floorMod(localMillis, L_MILLIS_PER_DAY) / L_MILLIS_PER_MINUTE);
+        int index = shiftIndexes[day * L_MINUTES_PER_DAY + minute];
+
+        if (index < 0) {
+            return null;
+        }
+
+        return shifts[index].copy();
+    }
+
+    public boolean isCompiledBefore(final long time) {
+        return compilationTime < time;
+    }
+
+}
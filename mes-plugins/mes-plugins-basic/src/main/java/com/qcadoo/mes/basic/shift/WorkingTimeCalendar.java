@@ -0,0 +1,269 @@
+package com.qcadoo.mes.basic.shift;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+
+import com.google.common.base.Preconditions;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+
+/**
+ * Work time ranges of shifts compiled for consecutive days, with running sums of working time.
+ *
+ * Ranges are kept in the order in which day by day calculations visit them (day, then shift, then range of the shift), so
+ * adding working time to a date is a binary search over the running sums instead of a walk through days, and available time
+ * of days is a difference of two sums. Calendars are immutable, so they can be shared and extended with further days by
+ * {@link #append(WorkingTimeCalendar)}.
+ */
+public final class WorkingTimeCalendar {
+
+    private final LocalDate firstDay;
+
+    private final boolean withShifts;
+
+    private final boolean withWorkingWeekdays;
+
+    private final int[] dayStarts;
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    private final long[] workingTimes;
+
+    private WorkingTimeCalendar(final LocalDate firstDay, final boolean withShifts, final boolean withWorkingWeekdays,
+            final int[] dayStarts, final long[] starts, final long[] ends) {
+        this.firstDay = firstDay;
+        this.withShifts = withShifts;
+        this.withWorkingWeekdays = withWorkingWeekdays;
+        this.dayStarts = dayStarts;
+        this.starts = starts;
+        this.ends = ends;
+        this.workingTimes = new long[starts.length + 1];
+
+        for (int i = 0; i < starts.length; i++) {
+            workingTimes[i + 1] = workingTimes[i] + ends[i] - starts[i];
+        }
+    }
+
+    /**
+     * Compiles calendar of days starting at given one.
+     *
+     * @param firstDay
+     *            first day of calendar
+     * @param withShifts
+     *            true if there are any shifts, calendar without shifts can't tell working time
+     * @param withWorkingWeekdays
+     *            true if any of shifts works at any day of week
+     * @param rangesPerDay
+     *            work time ranges of shifts for each of following days
+     * @return compiled calendar
+     */
+    public static WorkingTimeCalendar compile(final LocalDate firstDay, final boolean withShifts,
+            final boolean withWorkingWeekdays, final List<List<DateTimeRange>> rangesPerDay) {
+        int[] dayStarts = new int[rangesPerDay.size() + 1];
+        int size = rangesPerDay.stream().mapToInt(List::size).sum();
+        long[] starts = new long[size];
+        long[] ends = new long[size];
+        int index = 0;
+
+        for (int day = 0; day < rangesPerDay.size(); day++) {
+            dayStarts[day] = index;
+
+            for (DateTimeRange range : rangesPerDay.get(day)) {
+                starts[index] = range.getFrom().getMillis();
+                ends[index] = range.getTo().getMillis();
+                index++;
+            }
+        }
+
+        dayStarts[rangesPerDay.size()] = index;
+
+        return new WorkingTimeCalendar(firstDay, withShifts, withWorkingWeekdays, dayStarts, starts, ends);
+    }
+
+    /**
+     * Returns calendar covering days of this one followed by days of given one, which has to start the day after this one ends.
+     */
+    public WorkingTimeCalendar append(final WorkingTimeCalendar next) {
+        Preconditions.checkArgument(next.firstDay.equals(getLastDay().plusDays(1)), "Calendars have to be consecutive.");
+
+        int days = getNumberOfDays();
+        int[] dayStarts = Arrays.copyOf(this.dayStarts, days + next.dayStarts.length);
+
+        for (int day = 0; day < next.dayStarts.length; day++) {
+            dayStarts[days + day] = starts.length + next.dayStarts[day];
+        }
+
+        long[] starts = Arrays.copyOf(this.starts, this.starts.length + next.starts.length);
+        long[] ends = Arrays.copyOf(this.ends, this.ends.length + next.ends.length);
+
+        System.arraycopy(next.starts, 0, starts, this.starts.length, next.starts.length);
+        System.arraycopy(next.ends, 0, ends, this.ends.length, next.ends.length);
+
+        return new WorkingTimeCalendar(firstDay, withShifts, withWorkingWeekdays, dayStarts, starts, ends);
+    }
+
+    public LocalDate getFirstDay() {
+        return firstDay;
+    }
+
+    public LocalDate getLastDay() {
+        return firstDay.plusDays(getNumberOfDays() - 1);
+    }
+
+    public int getNumberOfDays() {
+        return dayStarts.length - 1;
+    }
+
+    public boolean covers(final LocalDate fromDay, final LocalDate toDay) {
+        return !fromDay.isBefore(firstDay) && !toDay.isAfter(getLastDay());
+    }
+
+    public boolean hasShifts() {
+        return withShifts;
+    }
+
+    public boolean hasWorkingWeekdays() {
+        return withWorkingWeekdays;
+    }
+
+    /**
+     * Adds working time to date, consuming ranges of given days in order, where ranges of days starting before the date are
+     * trimmed to the date.
+     *
+     * @return date when given working time ends, or empty if ranges of given days are not enough
+     */
+    public Optional<Date> findDateTo(final Date dateFrom, final long milliseconds, final LocalDate fromDay,
+            final LocalDate toDay) {
+        int lastDay = getDayIndex(toDay);
+        long date = dateFrom.getTime();
+        long leftMilliseconds = milliseconds;
+        int day = getDayIndex(fromDay);
+
+        for (; day <= lastDay && getDayStart(day) < date; day++) {
+            for (int i = dayStarts[day]; i < dayStarts[day + 1]; i++) {
+                if (ends[i] <= date) {
+                    continue;
+                }
+
+                long start = Math.max(starts[i], date);
+
+                if (leftMilliseconds > ends[i] - start) {
+                    leftMilliseconds -= ends[i] - start;
+                } else {
+                    return Optional.of(new Date(start + leftMilliseconds));
+                }
+            }
+        }
+
+        if (day > lastDay) {
+            return Optional.empty();
+        }
+
+        int first = dayStarts[day];
+        int last = dayStarts[lastDay + 1];
+        long workingTime = workingTimes[first] + leftMilliseconds;
+
+        if (first == last || workingTimes[last] < workingTime) {
+            return Optional.empty();
+        }
+
+        int index = findFirstReaching(workingTime, first + 1, last) - 1;
+
+        return Optional.of(new Date(starts[index] + workingTime - workingTimes[index]));
+    }
+
+    /**
+     * Returns the nearest working date not earlier than given one, looking at ranges of the first of given days having ranges
+     * which end after the date or start after it.
+     *
+     * @return the nearest working date, or empty if none of given days works after the date
+     */
+    public Optional<Date> findNearestWorkingDate(final Date dateFrom, final LocalDate fromDay, final LocalDate toDay) {
+        int lastDay = getDayIndex(toDay);
+        long date = dateFrom.getTime();
+
+        for (int day = getDayIndex(fromDay); day <= lastDay; day = findNextWorkingDay(day + 1, lastDay)) {
+            long nearest = Long.MAX_VALUE;
+
+            for (int i = dayStarts[day]; i < dayStarts[day + 1]; i++) {
+                if (ends[i] > date || starts[i] > date) {
+                    nearest = Math.min(nearest, Math.max(starts[i], date));
+                }
+            }
+
+            if (nearest != Long.MAX_VALUE) {
+                return Optional.of(new Date(nearest));
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Returns sum of durations of all ranges of given days, in milliseconds.
+     */
+    public long getWorkingTime(final LocalDate fromDay, final LocalDate toDay) {
+        if (toDay.isBefore(fromDay)) {
+            return 0L;
+        }
+
+        return workingTimes[dayStarts[getDayIndex(toDay) + 1]] - workingTimes[dayStarts[getDayIndex(fromDay)]];
+    }
+
+    private int getDayIndex(final LocalDate day) {
+        int index = Days.daysBetween(firstDay, day).getDays();
+
+        Preconditions.checkArgument(index >= 0 && index < getNumberOfDays(), "Day " + day + " is out of calendar.");
+
+        return index;
+    }
+
+    private long getDayStart(final int day) {
+        return firstDay.plusDays(day).toDateTimeAtStartOfDay().getMillis();
+    }
+
+    private int findNextWorkingDay(final int fromDay, final int lastDay) {
+        if (fromDay > lastDay) {
+            return fromDay;
+        }
+
+        int low = fromDay;
+        int high = lastDay + 1;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (dayStarts[middle + 1] > dayStarts[fromDay]) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+
+        return low;
+    }
+
+    private int findFirstReaching(final long workingTime, final int from, final int to) {
+        int low = from;
+        int high = to;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (workingTimes[middle] >= workingTime) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+
+        return low;
+    }
+
+}
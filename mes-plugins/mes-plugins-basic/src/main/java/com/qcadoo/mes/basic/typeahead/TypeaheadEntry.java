@@ -0,0 +1,39 @@
+package com.qcadoo.mes.basic.typeahead;
+
+/**
+ * Entry of {@link TypeaheadIndex}: value found by its key, optionally narrowed down to a group, e.g. product of additional code.
+ */
+public final class TypeaheadEntry<T> {
+
+    private final long id;
+
+    private final String key;
+
+    private final String group;
+
+    private final T value;
+
+    public TypeaheadEntry(final long id, final String key, final String group, final T value) {
+        this.id = id;
+        this.key = key;
+        this.group = group;
+        this.value = value;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+}
@@ -0,0 +1,311 @@
+package com.qcadoo.mes.basic.typeahead;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Case insensitive index of keys, answering the same {@code ILIKE '%query%'} lookups data provider always ran, where {@code *}
+ * stands for any text, as {@code %} and {@code _} still do.
+ *
+ * Keys are kept sorted and each trigram of them points to sorted positions of keys containing it, so a query is matched only
+ * against keys containing all trigrams of its literal parts. Matches are ranked: keys equal to query first, then keys starting
+ * with it, then others, each in order of keys.
+ *
+ * The index itself is immutable. Entries saved or removed after it was built are kept aside, overriding indexed ones, until the
+ * index is built again.
+ */
+public final class TypeaheadIndex<T> {
+
+    private static final int L_TRIGRAM = 3;
+
+    private static final Comparator<TypeaheadEntry<?>> L_KEY_ORDER = Comparator
+            .comparing((TypeaheadEntry<?> entry) -> entry.getKey().toLowerCase(Locale.ROOT))
+            .thenComparing(TypeaheadEntry::getKey).thenComparingLong(TypeaheadEntry::getId);
+
+    private final TypeaheadEntry<T>[] entries;
+
+    private final Map<Long, int[]> postings;
+
+    private final long buildTime;
+
+    private final ConcurrentMap<Long, Optional<TypeaheadEntry<T>>> changes = new ConcurrentHashMap<>();
+
+    private TypeaheadIndex(final TypeaheadEntry<T>[] entries, final Map<Long, int[]> postings) {
+        this.entries = entries;
+        this.postings = postings;
+        this.buildTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Builds index of given entries, skipping ones without key.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> TypeaheadIndex<T> build(final List<TypeaheadEntry<T>> entries) {
+        TypeaheadEntry<T>[] sortedEntries = entries.stream().filter(entry -> Objects.nonNull(entry.getKey()))
+                .sorted(L_KEY_ORDER).toArray(TypeaheadEntry[]::new);
+        Map<Long, Posting> postings = Maps.newHashMap();
+
+        for (int index = 0; index < sortedEntries.length; index++) {
+            String key = sortedEntries[index].getKey().toLowerCase(Locale.ROOT);
+
+            for (int i = 0; i + L_TRIGRAM <= key.length(); i++) {
+                postings.computeIfAbsent(getTrigram(key, i), trigram -> new Posting()).add(index);
+            }
+        }
+
+        Map<Long, int[]> trimmedPostings = Maps.newHashMapWithExpectedSize(postings.size());
+
+        postings.forEach((trigram, posting) -> trimmedPostings.put(trigram, posting.toArray()));
+
+        return new TypeaheadIndex<>(sortedEntries, trimmedPostings);
+    }
+
+    /**
+     * Overrides indexed entry of given id with given one, or removes it if entry is null.
+     */
+    public void update(final long id, final TypeaheadEntry<T> entry) {
+        changes.put(id, Optional.ofNullable(entry).filter(changed -> Objects.nonNull(changed.getKey())));
+    }
+
+    public int getNumberOfChanges() {
+        return changes.size();
+    }
+
+    public boolean isBuiltBefore(final long time) {
+        return buildTime < time;
+    }
+
+    /**
+     * Finds entries of given group with keys matching query.
+     *
+     * @param query
+     *            text to look for, {@code *} stands for any text
+     * @param group
+     *            group of entries, or null for entries of all groups
+     * @param limit
+     *            maximum number of returned values
+     * @return best matching values and number of all matching ones
+     */
+    public TypeaheadResult<T> search(final String query, final String group, final int limit) {
+        QueryPattern pattern = QueryPattern.compile(query);
+        Matcher matcher = pattern.regex.matcher("");
+        List<List<TypeaheadEntry<T>>> ranked = Lists.newArrayList(Lists.newArrayList(), Lists.newArrayList(),
+                Lists.newArrayList());
+        boolean withChanges = !changes.isEmpty();
+        int numberOfResults = 0;
+
+        int[] candidates = getCandidates(pattern);
+        int numberOfCandidates = Objects.isNull(candidates) ? entries.length : candidates.length;
+
+        for (int i = 0; i < numberOfCandidates; i++) {
+            TypeaheadEntry<T> entry = entries[Objects.isNull(candidates) ? i : candidates[i]];
+
+            if (withChanges && changes.containsKey(entry.getId())) {
+                continue;
+            }
+
+            if (matches(entry, group, matcher)) {
+                numberOfResults++;
+
+                List<TypeaheadEntry<T>> rank = ranked.get(pattern.rank(entry.getKey()));
+
+                if (rank.size() < limit) {
+                    rank.add(entry);
+                }
+            }
+        }
+
+        for (Optional<TypeaheadEntry<T>> change : changes.values()) {
+            if (change.isPresent() && matches(change.get(), group, matcher)) {
+                numberOfResults++;
+
+                ranked.get(pattern.rank(change.get().getKey())).add(change.get());
+            }
+        }
+
+        List<T> values = Lists.newArrayList();
+
+        for (List<TypeaheadEntry<T>> rank : ranked) {
+            if (withChanges) {
+                rank.sort(L_KEY_ORDER);
+            }
+
+            for (TypeaheadEntry<T> entry : rank) {
+                if (values.size() < limit) {
+                    values.add(entry.getValue());
+                }
+            }
+        }
+
+        return new TypeaheadResult<>(values, numberOfResults);
+    }
+
+    private boolean matches(final TypeaheadEntry<T> entry, final String group, final Matcher matcher) {
+        return (Objects.isNull(group) || group.equals(entry.getGroup())) && matcher.reset(entry.getKey()).matches();
+    }
+
+    private int[] getCandidates(final QueryPattern pattern) {
+        Set<Long> trigrams = Sets.newHashSet();
+
+        for (String literal : pattern.literals) {
+            for (int i = 0; i + L_TRIGRAM <= literal.length(); i++) {
+                trigrams.add(getTrigram(literal, i));
+            }
+        }
+
+        if (trigrams.isEmpty()) {
+            return null;
+        }
+
+        List<int[]> trigramsPostings = Lists.newArrayList();
+
+        for (Long trigram : trigrams) {
+            int[] posting = postings.get(trigram);
+
+            if (Objects.isNull(posting)) {
+                return new int[0];
+            }
+
+            trigramsPostings.add(posting);
+        }
+
+        trigramsPostings.sort(Comparator.comparingInt(posting -> posting.length));
+
+        int[] candidates = trigramsPostings.get(0);
+
+        for (int i = 1; i < trigramsPostings.size() && candidates.length > 0; i++) {
+            candidates = intersect(candidates, trigramsPostings.get(i));
+        }
+
+        return candidates;
+    }
+
+    private static int[] intersect(final int[] first, final int[] second) {
+        int[] intersection = new int[Math.min(first.length, second.length)];
+        int size = 0;
+
+        for (int i = 0, j = 0; i < first.length && j < second.length;) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                intersection[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+
+        return Arrays.copyOf(intersection, size);
+    }
+
+    private static long getTrigram(final String text, final int index) {
+        return ((long) text.charAt(index) << 32) | ((long) text.charAt(index + 1) << 16) | text.charAt(index + 2);
+    }
+
+    private static final class Posting {
+
+        private int[] indexes = new int[4];
+
+        private int size;
+
+        private void add(final int index) {
+            if (size > 0 && indexes[size - 1] == index) {
+                return;
+            }
+
+            if (size == indexes.length) {
+                indexes = Arrays.copyOf(indexes, size * 2);
+            }
+
+            indexes[size++] = index;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(indexes, size);
+        }
+
+    }
+
+    private static final class QueryPattern {
+
+        private static final int L_EXACT = 0;
+
+        private static final int L_PREFIX = 1;
+
+        private static final int L_OTHER = 2;
+
+        private final Pattern regex;
+
+        private final List<String> literals;
+
+        private final String text;
+
+        private QueryPattern(final Pattern regex, final List<String> literals, final String text) {
+            this.regex = regex;
+            this.literals = literals;
+            this.text = text;
+        }
+
+        private static QueryPattern compile(final String query) {
+            String likePattern = ("%" + query + "%").replace("*", "%").replace("%%", "%");
+            StringBuilder regex = new StringBuilder();
+            StringBuilder literal = new StringBuilder();
+            List<String> literals = Lists.newArrayList();
+
+            for (int i = 0; i < likePattern.length(); i++) {
+                char character = likePattern.charAt(i);
+
+                if (character == '%' || character == '_') {
+                    literals.add(literal.toString().toLowerCase(Locale.ROOT));
+                    regex.append(Pattern.quote(literal.toString())).append(character == '%' ? ".*" : ".");
+                    literal.setLength(0);
+                } else if (character == '\\' && i + 1 < likePattern.length()) {
+                    literal.append(likePattern.charAt(++i));
+                } else {
+                    literal.append(character);
+                }
+            }
+
+            literals.add(literal.toString().toLowerCase(Locale.ROOT));
+            regex.append(Pattern.quote(literal.toString()));
+
+            boolean plain = query.chars().noneMatch(character -> "*%_\\".indexOf(character) >= 0);
+
+            return new QueryPattern(Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE
+                    | Pattern.DOTALL), literals, plain ? query.toLowerCase(Locale.ROOT) : null);
+        }
+
+        private int rank(final String key) {
+            if (Objects.isNull(text)) {
+                return L_OTHER;
+            }
+
+            String lowerKey = key.toLowerCase(Locale.ROOT);
+
+            if (lowerKey.equals(text)) {
+                return L_EXACT;
+            } else if (lowerKey.startsWith(text)) {
+                return L_PREFIX;
+            }
+
+            return L_OTHER;
+        }
+
+    }
+
+}
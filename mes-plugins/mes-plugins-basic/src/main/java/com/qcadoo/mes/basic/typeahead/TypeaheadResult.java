@@ -0,0 +1,35 @@
+package com.qcadoo.mes.basic.typeahead;
+
+import java.util.Collections;
+import java.util.List;
+
+public final class TypeaheadResult<T> {
+
+    private final List<T> values;
+
+    private final int numberOfResults;
+
+    public TypeaheadResult(final List<T> values, final int numberOfResults) {
+        this.values = values;
+        this.numberOfResults = numberOfResults;
+    }
+
+    public static <T> TypeaheadResult<T> empty() {
+        return new TypeaheadResult<>(Collections.emptyList(), 0);
+    }
+
+    /**
+     * Returns best matching values, at most as many as asked for.
+     */
+    public List<T> getValues() {
+        return values;
+    }
+
+    /**
+     * Returns number of all matching values.
+     */
+    public int getNumberOfResults() {
+        return numberOfResults;
+    }
+
+}
@@ -0,0 +1,410 @@
+package com.qcadoo.mes.basic.typeahead;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.AdditionalCodeDTO;
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.AttribiuteValueDTO;
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.PalletNumberDTO;
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.ProductDTO;
+
+/**
+ * Keeps {@link TypeaheadIndex typeahead indexes} of active products, active pallet numbers, additional codes and attribute
+ * values, so lookups don't scan their tables on every keystroke.
+ *
+ * Indexes are built in background when first asked for, and until then lookups are left to the database. Entities saved or
+ * deleted are read again once their transaction commits and replace indexed ones. Indexes are built again when they expire, so
+ * changes made by other nodes or without hooks, like activation, are seen too, or when too many entries were replaced.
+ */
+@Service
+public class TypeaheadService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TypeaheadService.class);
+
+    private static final long L_EXPIRE_AFTER_MINUTES = 10;
+
+    private static final int L_MAX_CHANGES = 10000;
+
+    private static final int L_MAX_IDS_IN_STATEMENT = 1000;
+
+    private static final String L_ATTRIBUTE = "attribute";
+
+    private static final String L_ATTRIBUTE_VALUE = "attributeValue";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Value("${typeaheadIndex:true}")
+    private boolean enabled;
+
+    private ExecutorService indexExecutor;
+
+    private final IndexHolder<ProductDTO> products = new IndexHolder<>(
+            "SELECT product.id AS id, product.number AS number, product.unit AS unit, product.name AS name "
+                    + "FROM basic_product product WHERE product.active = true",
+            "basic_product", "product.id", (resultSet, rowNum) -> {
+                ProductDTO product = new ProductDTO();
+
+                product.setId(resultSet.getLong("id"));
+                product.setCode(resultSet.getString("number"));
+                product.setNumber(resultSet.getString("number"));
+                product.setUnit(resultSet.getString("unit"));
+                product.setName(resultSet.getString("name"));
+
+                return new TypeaheadEntry<>(product.getId(), product.getNumber(), null, product);
+            });
+
+    private final IndexHolder<PalletNumberDTO> palletNumbers = new IndexHolder<>(
+            "SELECT palletnumber.id AS id, palletnumber.number AS number "
+                    + "FROM basic_palletnumber palletnumber WHERE palletnumber.active = true",
+            "basic_palletnumber", "palletnumber.id", (resultSet, rowNum) -> {
+                PalletNumberDTO palletNumber = new PalletNumberDTO();
+
+                palletNumber.setId(resultSet.getLong("id"));
+                palletNumber.setCode(resultSet.getString("number"));
+                palletNumber.setNumber(resultSet.getString("number"));
+
+                return new TypeaheadEntry<>(palletNumber.getId(), palletNumber.getNumber(), null, palletNumber);
+            });
+
+    private final IndexHolder<AdditionalCodeDTO> additionalCodes = new IndexHolder<>(
+            "SELECT additionalcode.id AS id, additionalcode.code AS code, product.number AS productnumber "
+                    + "FROM basic_additionalcode additionalcode "
+                    + "JOIN basic_product product ON additionalcode.product_id = product.id WHERE true",
+            "basic_additionalcode", "additionalcode.id", (resultSet, rowNum) -> {
+                AdditionalCodeDTO additionalCode = new AdditionalCodeDTO();
+
+                additionalCode.setId(resultSet.getLong("id"));
+                additionalCode.setCode(resultSet.getString("code"));
+                additionalCode.setProductnumber(resultSet.getString("productnumber"));
+
+                return new TypeaheadEntry<>(additionalCode.getId(), additionalCode.getCode(),
+                        additionalCode.getProductnumber(), additionalCode);
+            });
+
+    private final IndexHolder<AttribiuteValueDTO> attributeValues = new IndexHolder<>(
+            "SELECT av.id AS id, av.value AS value, a.number AS attributenumber FROM basic_attributevalue av "
+                    + "LEFT JOIN basic_attribute a ON a.id = av.attribute_id WHERE true",
+            "basic_attributevalue", "av.id", (resultSet, rowNum) -> {
+                AttribiuteValueDTO attributeValue = new AttribiuteValueDTO();
+
+                attributeValue.setId(resultSet.getLong("id"));
+                attributeValue.setValue(resultSet.getString("value"));
+
+                return new TypeaheadEntry<>(attributeValue.getId(), attributeValue.getValue(),
+                        resultSet.getString("attributenumber"), attributeValue);
+            });
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            indexExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("typeaheadIndex-%d")
+                    .setDaemon(true).build());
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (Objects.nonNull(indexExecutor)) {
+            indexExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Finds active products with numbers matching query.
+     *
+     * @return matching products, or empty if there is no index to look in yet
+     */
+    public Optional<TypeaheadResult<ProductDTO>> findProducts(final String query, final int limit) {
+        return products.search(query, null, limit);
+    }
+
+    /**
+     * Finds active pallet numbers matching query.
+     *
+     * @return matching pallet numbers, or empty if there is no index to look in yet
+     */
+    public Optional<TypeaheadResult<PalletNumberDTO>> findPalletNumbers(final String query, final int limit) {
+        return palletNumbers.search(query, null, limit);
+    }
+
+    /**
+     * Finds additional codes of product with given number, or of all products if number is empty, matching query.
+     *
+     * @return matching additional codes, or empty if there is no index to look in yet
+     */
+    public Optional<TypeaheadResult<AdditionalCodeDTO>> findAdditionalCodes(final String query, final String productNumber,
+            final int limit) {
+        return additionalCodes.search(query, Strings.emptyToNull(productNumber), limit);
+    }
+
+    /**
+     * Finds values of attribute with given number matching query.
+     *
+     * @return matching attribute values, or empty if there is no index to look in yet
+     */
+    public Optional<TypeaheadResult<AttribiuteValueDTO>> findAttributeValues(final String query, final String attributeNumber,
+            final int limit) {
+        if (Objects.isNull(attributeNumber)) {
+            return Optional.of(TypeaheadResult.empty());
+        }
+
+        return attributeValues.search(query, attributeNumber, limit);
+    }
+
+    /**
+     * Marks entity of given model as changed, so it's read again once current transaction commits. Entity without id is new,
+     * then entities of given model added in current transaction are looked up just before commit.
+     */
+    public void onChange(final String modelName, final Long id) {
+        if (!enabled) {
+            return;
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            if (Objects.nonNull(id)) {
+                apply(Collections.singletonMap(modelName, Collections.singleton(id)));
+            }
+
+            return;
+        }
+
+        TransactionChanges changes = getTransactionChanges();
+
+        if (Objects.nonNull(id)) {
+            changes.ids.put(modelName, id);
+        } else {
+            Optional.ofNullable(getIndexHolder(modelName)).ifPresent(
+                    indexHolder -> changes.newIdsLowerBounds.computeIfAbsent(modelName, key -> indexHolder.getMaxId()));
+        }
+    }
+
+    private TransactionChanges getTransactionChanges() {
+        TransactionChanges changes = (TransactionChanges) TransactionSynchronizationManager.getResource(this);
+
+        if (Objects.isNull(changes)) {
+            TransactionChanges transactionChanges = new TransactionChanges();
+
+            TransactionSynchronizationManager.bindResource(this, transactionChanges);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void beforeCommit(final boolean readOnly) {
+                    if (transactionChanges.newIdsLowerBounds.isEmpty()) {
+                        return;
+                    }
+
+                    TransactionAspectSupport.currentTransactionStatus().flush();
+
+                    transactionChanges.newIdsLowerBounds.forEach((modelName, lowerBound) -> transactionChanges.ids.putAll(
+                            modelName, getIndexHolder(modelName).findIdsAfter(lowerBound)));
+                }
+
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(TypeaheadService.this);
+
+                    if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                        apply(Collections.unmodifiableMap(transactionChanges.ids.asMap()));
+                    }
+                }
+
+            });
+
+            changes = transactionChanges;
+        }
+
+        return changes;
+    }
+
+    private void apply(final Map<String, Collection<Long>> changes) {
+        indexExecutor.execute(() -> {
+            try {
+                changes.forEach(this::update);
+            } catch (RuntimeException exception) {
+                LOG.warn("Typeahead indexes couldn't be updated, they will be built again.", exception);
+
+                products.drop();
+                palletNumbers.drop();
+                additionalCodes.drop();
+                attributeValues.drop();
+            }
+        });
+    }
+
+    private void update(final String modelName, final Collection<Long> ids) {
+        Set<Long> changedIds = Sets.newHashSet(ids);
+
+        if (BasicConstants.MODEL_PRODUCT.equals(modelName)) {
+            products.update(changedIds);
+            additionalCodes.updateWhere("product.id", changedIds);
+        } else if (BasicConstants.MODEL_PALLET_NUMBER.equals(modelName)) {
+            palletNumbers.update(changedIds);
+        } else if (BasicConstants.MODEL_ADDITIONAL_CODE.equals(modelName)) {
+            additionalCodes.update(changedIds);
+        } else if (L_ATTRIBUTE_VALUE.equals(modelName)) {
+            attributeValues.update(changedIds);
+        } else if (L_ATTRIBUTE.equals(modelName)) {
+            attributeValues.updateWhere("a.id", changedIds);
+        }
+    }
+
+    private IndexHolder<?> getIndexHolder(final String modelName) {
+        if (BasicConstants.MODEL_PRODUCT.equals(modelName)) {
+            return products;
+        } else if (BasicConstants.MODEL_PALLET_NUMBER.equals(modelName)) {
+            return palletNumbers;
+        } else if (BasicConstants.MODEL_ADDITIONAL_CODE.equals(modelName)) {
+            return additionalCodes;
+        } else if (L_ATTRIBUTE_VALUE.equals(modelName)) {
+            return attributeValues;
+        }
+
+        return null;
+    }
+
+    private static final class TransactionChanges {
+
+        private final SetMultimap<String, Long> ids = HashMultimap.create();
+
+        private final Map<String, Long> newIdsLowerBounds = Maps.newHashMap();
+
+    }
+
+    private final class IndexHolder<T> {
+
+        private final String query;
+
+        private final String table;
+
+        private final String idColumn;
+
+        private final RowMapper<TypeaheadEntry<T>> rowMapper;
+
+        private final AtomicBoolean building = new AtomicBoolean();
+
+        private volatile TypeaheadIndex<T> index;
+
+        private IndexHolder(final String query, final String table, final String idColumn,
+                final RowMapper<TypeaheadEntry<T>> rowMapper) {
+            this.query = query;
+            this.table = table;
+            this.idColumn = idColumn;
+            this.rowMapper = rowMapper;
+        }
+
+        private Optional<TypeaheadResult<T>> search(final String text, final String group, final int limit) {
+            if (!enabled) {
+                return Optional.empty();
+            }
+
+            TypeaheadIndex<T> current = index;
+
+            if (Objects.isNull(current) || current.getNumberOfChanges() > L_MAX_CHANGES
+                    || current.isBuiltBefore(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(L_EXPIRE_AFTER_MINUTES))) {
+                build();
+            }
+
+            return Optional.ofNullable(current).map(indexToSearch -> indexToSearch.search(text, group, limit));
+        }
+
+        private void build() {
+            if (!building.compareAndSet(false, true)) {
+                return;
+            }
+
+            indexExecutor.execute(() -> {
+                try {
+                    index = TypeaheadIndex.build(jdbcTemplate.query(query, Collections.emptyMap(), rowMapper));
+                } catch (RuntimeException exception) {
+                    LOG.warn("Typeahead index couldn't be built.", exception);
+                } finally {
+                    building.set(false);
+                }
+            });
+        }
+
+        private void drop() {
+            index = null;
+        }
+
+        private long getMaxId() {
+            return jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM " + table, Collections.emptyMap(), Long.class);
+        }
+
+        private List<Long> findIdsAfter(final long id) {
+            return jdbcTemplate.queryForList("SELECT id FROM " + table + " WHERE id > :id", Collections.singletonMap("id", id),
+                    Long.class);
+        }
+
+        private void update(final Set<Long> ids) {
+            TypeaheadIndex<T> current = index;
+
+            if (Objects.isNull(current)) {
+                return;
+            }
+
+            for (List<Long> idsChunk : Lists.partition(Lists.newArrayList(ids), L_MAX_IDS_IN_STATEMENT)) {
+                Set<Long> removedIds = Sets.newHashSet(idsChunk);
+
+                for (TypeaheadEntry<T> entry : jdbcTemplate.query(query + " AND " + idColumn + " IN (:ids)",
+                        Collections.singletonMap("ids", idsChunk), rowMapper)) {
+                    removedIds.remove(entry.getId());
+
+                    current.update(entry.getId(), entry);
+                }
+
+                removedIds.forEach(id -> current.update(id, null));
+            }
+        }
+
+        private void updateWhere(final String column, final Set<Long> ids) {
+            TypeaheadIndex<T> current = index;
+
+            if (Objects.isNull(current)) {
+                return;
+            }
+
+            for (List<Long> idsChunk : Lists.partition(Lists.newArrayList(ids), L_MAX_IDS_IN_STATEMENT)) {
+                for (TypeaheadEntry<T> entry : jdbcTemplate.query(query + " AND " + column + " IN (:ids)",
+                        Collections.singletonMap("ids", idsChunk), rowMapper)) {
+                    current.update(entry.getId(), entry);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.qcadoo.mes.basic.print;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.junit.Test;
+
+public class SampledColumnWidthsSheetWriterTest {
+
+    @Test
+    public void shouldSizeColumnsFromSampledRowsOnly() {
+        // given
+        Sheet sheet = new HSSFWorkbook().createSheet();
+        Row headerRow = sheet.createRow(0);
+        headerRow.createCell(0).setCellValue("Number");
+        headerRow.createCell(1).setCellValue("Name");
+
+        SampledColumnWidthsSheetWriter sheetWriter = new SampledColumnWidthsSheetWriter(sheet, 1, 2);
+        sheetWriter.sample(headerRow);
+
+        // when
+        Row row = sheetWriter.createRow();
+        row.createCell(0).setCellValue("1");
+        row.createCell(1).setCellValue("Product with long name");
+
+        row = sheetWriter.createRow();
+        row.createCell(0).setCellValue("12");
+
+        row = sheetWriter.createRow();
+        row.createCell(0).setCellValue("Number out of sample");
+
+        sheetWriter.applyColumnWidths();
+
+        // then
+        assertEquals(4, sheetWriter.getRowIndex());
+        assertEquals(3, sheet.getLastRowNum());
+        assertEquals(("Number".length() + 2) * 256, sheet.getColumnWidth(0));
+        assertEquals(("Product with long name".length() + 2) * 256, sheet.getColumnWidth(1));
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.qcadoo.mes.basic.shift;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.ShiftsServiceImpl;
+import com.qcadoo.mes.basic.constants.ShiftFields;
+import com.qcadoo.model.api.Entity;
+
+public class WeeklyShiftTableTest {
+
+    private Entity morningShift;
+
+    private Entity nightShift;
+
+    private WeeklyShiftTable weeklyShiftTable;
+
+    @Before
+    public void init() {
+        morningShift = mockShift("06:00-14:00");
+        nightShift = mockShift("06:00-07:00, 22:30-06:00");
+
+        weeklyShiftTable = WeeklyShiftTable.compile(Lists.newArrayList(morningShift, nightShift),
+                new ShiftsServiceImpl()::convertDayHoursToInt);
+    }
+
+    @Test
+    public void shouldFindFirstShiftWorkingAtDate() {
+        // given
+        DateTime monday = new DateTime(2024, 1, 1, 0, 0);
+
+        // when & then
+        assertSame(morningShift, weeklyShiftTable.getShiftAt(monday.withTime(6, 0, 0, 0).toDate()));
+        assertSame(morningShift, weeklyShiftTable.getShiftAt(monday.withTime(13, 59, 59, 0).toDate()));
+        assertNull(weeklyShiftTable.getShiftAt(monday.withTime(14, 0, 0, 0).toDate()));
+    }
+
+    @Test
+    public void shouldMatchRangeEndingAtEarlierHourOnBothSidesOfMidnight() {
+        // given
+        DateTime monday = new DateTime(2024, 1, 1, 0, 0);
+
+        // when & then
+        assertSame(nightShift, weeklyShiftTable.getShiftAt(monday.withTime(22, 30, 0, 0).toDate()));
+        assertSame(nightShift, weeklyShiftTable.getShiftAt(monday.withTime(5, 59, 0, 0).toDate()));
+        assertNull(weeklyShiftTable.getShiftAt(monday.withTime(22, 29, 0, 0).toDate()));
+    }
+
+    @Test
+    public void shouldNotMatchNotWorkingDays() {
+        // given
+        DateTime saturday = new DateTime(2024, 1, 6, 10, 0);
+
+        // when & then
+        assertNull(weeklyShiftTable.getShiftAt(saturday.toDate()));
+    }
+
+    private Entity mockShift(final String hours) {
+        Entity shift = mock(Entity.class);
+
+        for (String day : new String[] { "monday", "tuesday", "wensday", "thursday", "friday" }) {
+            when(shift.getBooleanField(day + "Working")).thenReturn(true);
+            when(shift.getStringField(day + "Hours")).thenReturn(hours);
+        }
+
+        when(shift.getBooleanField(ShiftFields.SATURDAY_WORKING)).thenReturn(false);
+        when(shift.getBooleanField(ShiftFields.SUNDAY_WORKING)).thenReturn(false);
+        when(shift.copy()).thenReturn(shift);
+
+        return shift;
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.qcadoo.mes.basic.shift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+
+public class WorkingTimeCalendarTest {
+
+    private static final LocalDate MONDAY = new LocalDate(2024, 1, 1);
+
+    private static final long HOUR = 3600 * 1000L;
+
+    private WorkingTimeCalendar calendar;
+
+    @Before
+    public void init() {
+        List<List<DateTimeRange>> rangesPerDay = Lists.newArrayList();
+
+        rangesPerDay.add(Lists.newArrayList(range(MONDAY, 6, 14), range(MONDAY, 22, 30)));
+        rangesPerDay.add(Collections.emptyList());
+        rangesPerDay.add(Lists.newArrayList(range(MONDAY.plusDays(2), 6, 14)));
+
+        calendar = WorkingTimeCalendar.compile(MONDAY, true, true, rangesPerDay);
+    }
+
+    @Test
+    public void shouldAddWorkingTimeTrimmingRangesBeforeDate() {
+        // given
+        DateTime dateFrom = at(MONDAY, 12);
+
+        // when
+        DateTime dateTo = new DateTime(calendar.findDateTo(dateFrom.toDate(), 5 * HOUR, MONDAY, MONDAY.plusDays(2)).get());
+
+        // then
+        assertEquals(at(MONDAY, 25), dateTo);
+    }
+
+    @Test
+    public void shouldAddWorkingTimeUsingRangesOfLaterDays() {
+        // given
+        DateTime dateFrom = at(MONDAY, 0);
+
+        // when
+        DateTime dateTo = new DateTime(calendar.findDateTo(dateFrom.toDate(), 18 * HOUR, MONDAY, MONDAY.plusDays(2)).get());
+
+        // then
+        assertEquals(at(MONDAY.plusDays(2), 8), dateTo);
+    }
+
+    @Test
+    public void shouldNotAddWorkingTimeBeyondGivenDays() {
+        // when
+        boolean found = calendar.findDateTo(at(MONDAY, 0).toDate(), 18 * HOUR, MONDAY, MONDAY.plusDays(1)).isPresent();
+
+        // then
+        assertFalse(found);
+    }
+
+    @Test
+    public void shouldFindNearestWorkingDate() {
+        // when
+        DateTime working = new DateTime(calendar.findNearestWorkingDate(at(MONDAY, 10).toDate(), MONDAY, MONDAY).get());
+        DateTime afterShift = new DateTime(calendar.findNearestWorkingDate(at(MONDAY, 15).toDate(), MONDAY, MONDAY).get());
+        DateTime nextDay = new DateTime(
+                calendar.findNearestWorkingDate(at(MONDAY, 31).toDate(), MONDAY, MONDAY.plusDays(2)).get());
+
+        // then
+        assertEquals(at(MONDAY, 10), working);
+        assertEquals(at(MONDAY, 22), afterShift);
+        assertEquals(at(MONDAY.plusDays(2), 6), nextDay);
+    }
+
+    @Test
+    public void shouldSumWorkingTimeOfDays() {
+        // when
+        long workingTime = calendar.getWorkingTime(MONDAY, MONDAY.plusDays(2));
+
+        // then
+        assertEquals(24 * HOUR, workingTime);
+        assertEquals(0L, calendar.getWorkingTime(MONDAY.plusDays(1), MONDAY));
+    }
+
+    @Test
+    public void shouldAppendConsecutiveCalendar() {
+        // given
+        WorkingTimeCalendar next = WorkingTimeCalendar.compile(MONDAY.plusDays(3), true, true,
+                Collections.singletonList(Lists.newArrayList(range(MONDAY.plusDays(3), 6, 14))));
+
+        // when
+        WorkingTimeCalendar appended = calendar.append(next);
+
+        // then
+        assertEquals(MONDAY.plusDays(3), appended.getLastDay());
+        assertEquals(32 * HOUR, appended.getWorkingTime(MONDAY, MONDAY.plusDays(3)));
+        assertEquals(at(MONDAY.plusDays(3), 7),
+                new DateTime(appended.findDateTo(at(MONDAY, 0).toDate(), 25 * HOUR, MONDAY, MONDAY.plusDays(3)).get()));
+    }
+
+    private static DateTimeRange range(final LocalDate day, final int fromHour, final int toHour) {
+        return new DateTimeRange(at(day, fromHour), at(day, toHour));
+    }
+
+    private static DateTime at(final LocalDate day, final int hour) {
+        return day.toDateTimeAtStartOfDay().plusHours(hour);
+    }
+
+}
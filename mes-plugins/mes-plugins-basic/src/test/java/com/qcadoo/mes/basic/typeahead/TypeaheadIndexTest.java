@@ -0,0 +1,67 @@
+package com.qcadoo.mes.basic.typeahead;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class TypeaheadIndexTest {
+
+    private TypeaheadIndex<String> index;
+
+    @Before
+    public void init() {
+        index = TypeaheadIndex.build(Lists.newArrayList(entry(1L, "XBOLT-12", "A"), entry(2L, "bolt", "A"),
+                entry(3L, "Bolt-10", "B"), entry(4L, "NUT-10", "B"), entry(5L, "Washer_1", "A"), entry(6L, null, "A")));
+    }
+
+    @Test
+    public void shouldRankEqualKeysFirstThenPrefixes() {
+        // when
+        TypeaheadResult<String> result = index.search("BOLT", null, 10);
+
+        // then
+        assertEquals(Lists.newArrayList("bolt", "Bolt-10", "XBOLT-12"), result.getValues());
+        assertEquals(3, result.getNumberOfResults());
+    }
+
+    @Test
+    public void shouldCountAllMatchesButReturnOnlyLimit() {
+        // when
+        TypeaheadResult<String> result = index.search("-1", null, 2);
+
+        // then
+        assertEquals(Lists.newArrayList("Bolt-10", "NUT-10"), result.getValues());
+        assertEquals(3, result.getNumberOfResults());
+    }
+
+    @Test
+    public void shouldMatchWildcardsAndGroups() {
+        // when & then
+        assertEquals(Lists.newArrayList("XBOLT-12"), index.search("x*12", null, 10).getValues());
+        assertEquals(Lists.newArrayList("Bolt-10", "NUT-10"), index.search("_-1", "B", 10).getValues());
+        assertEquals(Lists.newArrayList("Washer_1"), index.search("her\\_", null, 10).getValues());
+        assertEquals(0, index.search("olt", "C", 10).getNumberOfResults());
+    }
+
+    @Test
+    public void shouldOverrideIndexedEntriesWithChanges() {
+        // when
+        index.update(2L, null);
+        index.update(4L, entry(4L, "BOLT-NUT", "B"));
+        index.update(7L, entry(7L, "bolt-7", "A"));
+
+        TypeaheadResult<String> result = index.search("bolt", null, 10);
+
+        // then
+        assertEquals(Lists.newArrayList("Bolt-10", "bolt-7", "BOLT-NUT", "XBOLT-12"), result.getValues());
+        assertEquals(4, result.getNumberOfResults());
+    }
+
+    private static TypeaheadEntry<String> entry(final long id, final String key, final String group) {
+        return new TypeaheadEntry<>(id, key, group, key);
+    }
+
+}
@@ -25,6 +25,7 @@ package com.qcadoo.mes.costNormsForMaterials;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.qcadoo.mes.costNormsForMaterials.constants.OrderFieldsCNFM;
 import com.qcadoo.mes.costNormsForMaterials.constants.TechnologyInstOperProductInCompFields;
 import com.qcadoo.mes.costNormsForMaterials.orderRawMaterialCosts.OrderMaterialsCostDataGenerator;
@@ -51,6 +52,7 @@ import com.qcadoo.view.constants.QcadooViewConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
@@ -58,6 +60,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -91,6 +94,9 @@ public class CostNormsForMaterialsService {
     @Autowired
     private OrderMaterialsCostDataGenerator orderMaterialsCostDataGenerator;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     public void fillInProductsGridInTechnology(final ViewDefinitionState viewDefinitionState) {
         checkArgument(viewDefinitionState != null, L_VIEW_DEFINITION_STATE_IS_NULL);
 
@@ -220,6 +226,9 @@ public class CostNormsForMaterialsService {
                     Optional<BigDecimal> costForOrder = entry.getValue().getCostOpt();
                     orderMaterialCosts.setField(TechnologyInstOperProductInCompFields.COST_FOR_ORDER,
                             numberService.setScaleWithDefaultMathContext(costForOrder.orElse(BigDecimal.ZERO)));
+                    Optional<BigDecimal> outboundQuantity = entry.getValue().getQuantityOpt();
+                    orderMaterialCosts.setField(TechnologyInstOperProductInCompFields.OUTBOUND_QUANTITY,
+                            numberService.setScaleWithDefaultMathContext(outboundQuantity.orElse(BigDecimal.ZERO)));
                     BigDecimal oldQuantity = orderMaterialCosts
                             .getDecimalField(TechnologyInstOperProductInCompFields.COST_FOR_NUMBER);
 
@@ -244,6 +253,83 @@ public class CostNormsForMaterialsService {
         return result;
     }
 
+    /**
+     * Adds quantities and costs of products just consumed by order to ones already summed up in its material costs, instead of
+     * summing up all consumption of order again.
+     *
+     * @param order
+     *            order
+     * @param consumedProducts
+     *            quantities and costs consumed since the last update, one per product
+     * @param totalsForProducts
+     *            sums up all consumption of given products, used for material costs without summed up quantity yet
+     * @return updated material costs
+     */
+    public List<Entity> addCostsForProductInOrder(final Entity order,
+            final Collection<ProductWithQuantityAndCost> consumedProducts,
+            final Function<Set<Long>, Collection<ProductWithQuantityAndCost>> totalsForProducts) {
+        if (consumedProducts.isEmpty()) {
+            return Lists.newArrayList();
+        }
+
+        Map<Long, ProductWithQuantityAndCost> consumedProductsByProductId = consumedProducts.stream()
+                .collect(Collectors.toMap(ProductWithQuantityAndCost::getProductId, Function.identity()));
+
+        lockOrderMaterialCosts(order, consumedProductsByProductId.keySet());
+
+        List<Entity> orderMaterialCostsList = orderMaterialCostsDataProvider.findAll(OrderMaterialCostsCriteria
+                .forOrder(order.getId()).setProductCriteria(in("id", consumedProductsByProductId.keySet())));
+
+        Map<Long, ProductWithQuantityAndCost> totals = Maps.newHashMap();
+        Set<Long> productIdsWithoutOutboundQuantity = Sets.newHashSet();
+
+        for (Entity orderMaterialCosts : orderMaterialCostsList) {
+            Long productId = orderMaterialCosts.getBelongsToField(TechnologyInstOperProductInCompFields.PRODUCT).getId();
+
+            if (totals.containsKey(productId) || productIdsWithoutOutboundQuantity.contains(productId)) {
+                continue;
+            }
+
+            BigDecimal outboundQuantity = orderMaterialCosts
+                    .getDecimalField(TechnologyInstOperProductInCompFields.OUTBOUND_QUANTITY);
+
+            if (outboundQuantity == null) {
+                productIdsWithoutOutboundQuantity.add(productId);
+            } else {
+                ProductWithQuantityAndCost consumedProduct = consumedProductsByProductId.get(productId);
+                BigDecimal costForOrder = BigDecimalUtils.convertNullToZero(orderMaterialCosts
+                        .getDecimalField(TechnologyInstOperProductInCompFields.COST_FOR_ORDER));
+
+                BigDecimal quantity = outboundQuantity.add(consumedProduct.getQuantityOpt().orElse(BigDecimal.ZERO),
+                        numberService.getMathContext());
+                BigDecimal cost = costForOrder.add(consumedProduct.getCostOpt().orElse(BigDecimal.ZERO),
+                        numberService.getMathContext());
+
+                totals.put(productId, new ProductWithQuantityAndCost(productId, quantity, cost));
+            }
+        }
+
+        if (!productIdsWithoutOutboundQuantity.isEmpty()) {
+            for (ProductWithQuantityAndCost total : totalsForProducts.apply(productIdsWithoutOutboundQuantity)) {
+                totals.put(total.getProductId(), total);
+            }
+        }
+
+        return updateCostsForProductInOrder(order, totals.values());
+    }
+
+    private void lockOrderMaterialCosts(final Entity order, final Set<Long> productIds) {
+        String query = "SELECT id FROM costnormsformaterials_technologyinstoperproductincomp "
+                + "WHERE order_id = :orderId AND product_id IN (:productIds) FOR UPDATE";
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("orderId", order.getId());
+        params.put("productIds", productIds);
+
+        jdbcTemplate.queryForList(query, params, Long.class);
+    }
+
     private BigDecimal zeroToOne(final BigDecimal bigDecimal) {
         if (BigDecimalUtils.valueEquals(bigDecimal, BigDecimal.ZERO)) {
             return BigDecimal.ONE;
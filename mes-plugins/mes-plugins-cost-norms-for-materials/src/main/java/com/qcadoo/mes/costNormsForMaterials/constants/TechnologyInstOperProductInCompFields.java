@@ -47,4 +47,6 @@ public final class TechnologyInstOperProductInCompFields {
 
     public static final String AVERAGE_OFFER_COST = "averageOfferCost";
 
+    public static final String OUTBOUND_QUANTITY = "outboundQuantity";
+
 }
@@ -30,6 +30,7 @@ import org.springframework.stereotype.Service;
 
 import com.qcadoo.mes.costNormsForMaterials.constants.OrderFieldsCNFM;
 import com.qcadoo.mes.costNormsForMaterials.orderRawMaterialCosts.OrderMaterialsCostDataGenerator;
+import com.qcadoo.mes.orders.OrderChangesService;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
@@ -40,12 +41,15 @@ public class OrderHooksCNFM {
     @Autowired
     private OrderMaterialsCostDataGenerator orderMaterialsCostDataGenerator;
 
+    @Autowired
+    private OrderChangesService orderChangesService;
+
     public void fillOrderOperationProductsInComponents(final DataDefinition orderDD, final Entity order) {
         Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
         if (technology != null) {
             boolean shouldUpdate;
             if (order.getId() != null) {
-                Entity orderFromDb = orderDD.get(order.getId());
+                Entity orderFromDb = orderChangesService.getChanges(orderDD, order).getPersistedOrder().get();
                 shouldUpdate = orderFromDb.getBelongsToField(OrderFields.TECHNOLOGY) == null;
             } else {
                 shouldUpdate = true;
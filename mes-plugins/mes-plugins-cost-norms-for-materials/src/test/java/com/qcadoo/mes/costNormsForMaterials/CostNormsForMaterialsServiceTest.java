@@ -42,6 +42,7 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import com.google.common.base.Optional;
@@ -60,6 +61,9 @@ public class CostNormsForMaterialsServiceTest {
     @Mock
     private OrderMaterialCostsDataProvider orderMaterialCostsDataProvider;
 
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     @Mock
     private Entity order;
 
@@ -72,6 +76,7 @@ public class CostNormsForMaterialsServiceTest {
         ReflectionTestUtils.setField(costNormsForMaterialsService, "orderMaterialCostsDataProvider",
                 orderMaterialCostsDataProvider);
         ReflectionTestUtils.setField(costNormsForMaterialsService, "numberService", NumberServiceMock.scaleAware());
+        ReflectionTestUtils.setField(costNormsForMaterialsService, "jdbcTemplate", jdbcTemplate);
 
         stubOrderMaterialSearchResults(null);
     }
@@ -191,6 +196,52 @@ public class CostNormsForMaterialsServiceTest {
         verify(materialCosts.getDataDefinition()).save(materialCosts);
     }
 
+    @Test
+    public final void shouldAddConsumedQuantityAndCostToRunningSums() {
+        // given
+        Long productId = 1L;
+        Entity materialCosts = mockMaterialCostsEntity(BigDecimal.valueOf(3L), BigDecimal.valueOf(3L).setScale(5),
+                BigDecimal.valueOf(6L), BigDecimal.valueOf(9L));
+        stubDecimalField(materialCosts, TechnologyInstOperProductInCompFields.OUTBOUND_QUANTITY, BigDecimal.valueOf(3L));
+        stubDecimalField(materialCosts, TechnologyInstOperProductInCompFields.COST_FOR_ORDER, BigDecimal.valueOf(30L));
+        stubOrderMaterialSearchResults(materialCosts);
+
+        // when
+        costNormsForMaterialsService.addCostsForProductInOrder(order,
+                Collections.singleton(new ProductWithQuantityAndCost(productId, BigDecimal.ONE, BigDecimal.TEN)),
+                productIds -> {
+                    throw new IllegalStateException("Running sums should be used.");
+                });
+
+        // then
+        verifySetDecimalField(materialCosts, TechnologyInstOperProductInCompFields.COST_FOR_ORDER, BigDecimal.valueOf(40L));
+        verifySetDecimalField(materialCosts, TechnologyInstOperProductInCompFields.OUTBOUND_QUANTITY, BigDecimal.valueOf(4L));
+        verifySetDecimalField(materialCosts, TechnologyInstOperProductInCompFields.COST_FOR_NUMBER, BigDecimal.valueOf(4L));
+        verifySetDecimalField(materialCosts, TechnologyInstOperProductInCompFields.NOMINAL_COST, BigDecimal.valueOf(8L));
+        verifySetDecimalField(materialCosts, TechnologyInstOperProductInCompFields.AVERAGE_COST, BigDecimal.valueOf(4L));
+        verify(materialCosts.getDataDefinition()).save(materialCosts);
+    }
+
+    @Test
+    public final void shouldSumUpAllConsumptionWithoutRunningSums() {
+        // given
+        Long productId = 1L;
+        Entity materialCosts = mockMaterialCostsEntity(BigDecimal.valueOf(3L), BigDecimal.valueOf(3L).setScale(5),
+                BigDecimal.valueOf(6L), BigDecimal.valueOf(9L));
+        stubOrderMaterialSearchResults(materialCosts);
+
+        // when
+        costNormsForMaterialsService.addCostsForProductInOrder(order,
+                Collections.singleton(new ProductWithQuantityAndCost(productId, BigDecimal.ONE, BigDecimal.TEN)),
+                productIds -> Collections.singleton(new ProductWithQuantityAndCost(productId, BigDecimal.valueOf(6L),
+                        BigDecimal.valueOf(60L))));
+
+        // then
+        verifySetDecimalField(materialCosts, TechnologyInstOperProductInCompFields.COST_FOR_ORDER, BigDecimal.valueOf(60L));
+        verifySetDecimalField(materialCosts, TechnologyInstOperProductInCompFields.OUTBOUND_QUANTITY, BigDecimal.valueOf(6L));
+        verifySetDecimalField(materialCosts, TechnologyInstOperProductInCompFields.COST_FOR_NUMBER, BigDecimal.valueOf(6L));
+    }
+
     private void verifySetDecimalField(final Entity entity, final String fieldName, final BigDecimal expectedValue) {
         ArgumentCaptor<BigDecimal> decimalCaptor = ArgumentCaptor.forClass(BigDecimal.class);
         verify(entity).setField(eq(fieldName), decimalCaptor.capture());
@@ -41,6 +41,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.qcadoo.mes.costNormsForMaterials.constants.OrderFieldsCNFM;
 import com.qcadoo.mes.costNormsForMaterials.orderRawMaterialCosts.OrderMaterialsCostDataGenerator;
+import com.qcadoo.mes.orders.OrderChangesService;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
@@ -71,6 +72,7 @@ public class OrderHooksCNFMTest {
         orderHooksCNFM = new OrderHooksCNFM();
 
         ReflectionTestUtils.setField(orderHooksCNFM, "orderMaterialsCostDataGenerator", orderMaterialsCostDataGenerator);
+        ReflectionTestUtils.setField(orderHooksCNFM, "orderChangesService", new OrderChangesService());
     }
 
     private void stubGeneratorResults(final List<Entity> generatedMaterialCostComponentsList) {
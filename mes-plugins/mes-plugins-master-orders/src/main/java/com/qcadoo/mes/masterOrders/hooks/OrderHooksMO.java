@@ -6,6 +6,7 @@ import com.qcadoo.mes.masterOrders.constants.MasterOrderProductFields;
 import com.qcadoo.mes.masterOrders.constants.MasterOrderState;
 import com.qcadoo.mes.masterOrders.constants.MasterOrdersConstants;
 import com.qcadoo.mes.masterOrders.constants.OrderFieldsMO;
+import com.qcadoo.mes.orders.OrderChangesService;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.model.api.BigDecimalUtils;
 import com.qcadoo.model.api.DataDefinition;
@@ -33,12 +34,11 @@ public class OrderHooksMO {
     @Autowired
     private NumberService numberService;
 
-    public void onSave(final DataDefinition orderDD, final Entity order) {
-        Entity orderDb = null;
+    @Autowired
+    private OrderChangesService orderChangesService;
 
-        if (Objects.nonNull(order.getId())) {
-            orderDb = orderDD.get(order.getId());
-        }
+    public void onSave(final DataDefinition orderDD, final Entity order) {
+        Entity orderDb = orderChangesService.getChanges(orderDD, order).getPersistedOrder().orElse(null);
 
         Entity masterOrder = order.getBelongsToField(OrderFieldsMO.MASTER_ORDER);
 
@@ -9,6 +9,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.service.ResourceStockLedgerService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -24,6 +25,9 @@ public class MaterialFlowResourcesOnStartupService extends Module {
     @Autowired
     private ParameterService parameterService;
 
+    @Autowired
+    private ResourceStockLedgerService resourceStockLedgerService;
+
     @Override
     public void enableOnStartup() {
         setDocumentPositionParameters();
@@ -34,6 +38,11 @@ public class MaterialFlowResourcesOnStartupService extends Module {
         setDocumentPositionParameters();
     }
 
+    @Override
+    public void multiTenantEnable() {
+        resourceStockLedgerService.reconcile();
+    }
+
     @Transactional
     private void setDocumentPositionParameters() {
 
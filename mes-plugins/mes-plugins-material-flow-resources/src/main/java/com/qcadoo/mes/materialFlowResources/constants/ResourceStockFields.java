@@ -11,5 +11,9 @@ public final class ResourceStockFields {
 
     public static final String QUANTITY = "quantity";
 
+    public static final String BLOCKED_QUANTITY = "blockedQuantity";
+
+    public static final String RESERVED_QUANTITY = "reservedQuantity";
+
     public static final String AVAILABLE_QUANTITY = "availableQuantity";
 }
@@ -0,0 +1,62 @@
+package com.qcadoo.mes.materialFlowResources.dto;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+
+public class ResourceStockShortageDto {
+
+    private Long productId;
+
+    private String productNumber;
+
+    private BigDecimal requiredQuantity;
+
+    private BigDecimal availableQuantity;
+
+    public ResourceStockShortageDto(final Long productId, final String productNumber, final BigDecimal requiredQuantity,
+            final BigDecimal availableQuantity) {
+        this.productId = productId;
+        this.productNumber = productNumber;
+        this.requiredQuantity = requiredQuantity;
+        this.availableQuantity = availableQuantity;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public String getProductNumber() {
+        return productNumber;
+    }
+
+    public BigDecimal getRequiredQuantity() {
+        return requiredQuantity;
+    }
+
+    public BigDecimal getAvailableQuantity() {
+        return availableQuantity;
+    }
+
+    public BigDecimal getMissingQuantity() {
+        return requiredQuantity.subtract(availableQuantity);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ResourceStockShortageDto that = (ResourceStockShortageDto) o;
+        return Objects.equals(productId, that.productId) && Objects.equals(productNumber, that.productNumber)
+                && Objects.equals(requiredQuantity, that.requiredQuantity)
+                && Objects.equals(availableQuantity, that.availableQuantity);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(productId, productNumber, requiredQuantity, availableQuantity);
+    }
+}
@@ -7,6 +7,7 @@ import org.springframework.stereotype.Service;
 
 import com.qcadoo.mes.materialFlowResources.constants.ReservationFields;
 import com.qcadoo.mes.materialFlowResources.service.ResourceReservationsService;
+import com.qcadoo.mes.materialFlowResources.service.ResourceStockLedgerService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 
@@ -16,6 +17,9 @@ public class ReservationHooks {
     @Autowired
     private ResourceReservationsService resourceReservationsService;
 
+    @Autowired
+    private ResourceStockLedgerService resourceStockLedgerService;
+
     public void onSave(DataDefinition reservationDD, Entity reservation) {
         Entity newResource = reservation.getBelongsToField(ReservationFields.RESOURCE);
         Entity oldResource = null;
@@ -41,6 +45,27 @@ public class ReservationHooks {
         } else if (oldResource != null) {
             resourceReservationsService.updateResourceQuantites(oldReservation, oldQuantity.negate());
         }
+
+        markStockChanged(reservation);
+
+        if (oldReservation != null) {
+            markStockChanged(oldReservation);
+        }
+    }
+
+    public boolean onDelete(DataDefinition reservationDD, Entity reservation) {
+        markStockChanged(reservation);
+
+        return true;
+    }
+
+    private void markStockChanged(final Entity reservation) {
+        Entity location = reservation.getBelongsToField(ReservationFields.LOCATION);
+        Entity product = reservation.getBelongsToField(ReservationFields.PRODUCT);
+
+        if (location != null && product != null) {
+            resourceStockLedgerService.markChanged(location.getId(), product.getId());
+        }
     }
 
     public void onCopy(DataDefinition reservationDD, Entity reservation) {
@@ -24,6 +24,7 @@
 package com.qcadoo.mes.materialFlowResources.hooks;
 
 import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.service.ResourceStockLedgerService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 import org.apache.commons.lang3.StringUtils;
@@ -43,7 +44,12 @@ public class ResourceModelHooks {
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ResourceStockLedgerService resourceStockLedgerService;
+
     public void onSave(final DataDefinition resourceDD, final Entity resource) {
+        markStockChanged(resource);
+
         if (StringUtils.isEmpty(resource.getStringField(ResourceFields.NUMBER))) {
             Date time = resource.getDateField(ResourceFields.TIME);
 
@@ -62,6 +68,21 @@ public class ResourceModelHooks {
         }
     }
 
+    public boolean onDelete(final DataDefinition resourceDD, final Entity resource) {
+        markStockChanged(resource);
+
+        return true;
+    }
+
+    private void markStockChanged(final Entity resource) {
+        Entity location = resource.getBelongsToField(ResourceFields.LOCATION);
+        Entity product = resource.getBelongsToField(ResourceFields.PRODUCT);
+
+        if (Objects.nonNull(location) && Objects.nonNull(product)) {
+            resourceStockLedgerService.markChanged(location.getId(), product.getId());
+        }
+    }
+
     public void onCreate(final DataDefinition resourceDD, final Entity resource) {
         resource.setField(ResourceFields.IS_CORRECTED, false);
 
@@ -0,0 +1,116 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.model.api.Entity;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Collects the resource changes made while a document is accepted, so they can be written with batched statements by
+ * {@link DocumentResourcesBatchWriter} instead of saving and deleting every resource separately.
+ */
+public class DocumentResourcesBatch {
+
+    private final Long warehouseId;
+
+    private final boolean reservationsEnabled;
+
+    private final Map<Long, Entity> resourcesToUpdate = Maps.newLinkedHashMap();
+
+    private final Set<Long> resourcesToDelete = Sets.newLinkedHashSet();
+
+    private final Set<Long> palletNumbersToDispose = Sets.newLinkedHashSet();
+
+    private final Set<Long> positionsWithReservationsToDelete = Sets.newLinkedHashSet();
+
+    private final Map<Long, Set<Long>> changedStocks = Maps.newHashMap();
+
+    public DocumentResourcesBatch(final Entity warehouse, final boolean reservationsEnabled) {
+        this.warehouseId = warehouse.getId();
+        this.reservationsEnabled = reservationsEnabled;
+    }
+
+    /**
+     * Checks if resource quantities pass the resource model validation, so the resource can be written without its data
+     * definition. Other resources have to be saved separately to get the validation errors.
+     */
+    public static boolean canBeUpdatedInBatch(final Entity resource) {
+        BigDecimal quantity = resource.getDecimalField(ResourceFields.QUANTITY);
+        BigDecimal availableQuantity = resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY);
+        BigDecimal reservedQuantity = resource.getDecimalField(ResourceFields.RESERVED_QUANTITY);
+        BigDecimal quantityInAdditionalUnit = resource.getDecimalField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT);
+
+        return Objects.nonNull(quantity) && quantity.compareTo(BigDecimal.ZERO) > 0 && Objects.nonNull(availableQuantity)
+                && availableQuantity.compareTo(BigDecimal.ZERO) >= 0
+                && (Objects.isNull(reservedQuantity) || reservedQuantity.compareTo(BigDecimal.ZERO) >= 0)
+                && (Objects.isNull(quantityInAdditionalUnit) || quantityInAdditionalUnit.compareTo(BigDecimal.ZERO) > 0);
+    }
+
+    public void updateResource(final Entity resource) {
+        resourcesToUpdate.put(resource.getId(), resource);
+
+        markStockChanged(resource);
+    }
+
+    public void deleteResource(final Entity resource) {
+        resourcesToUpdate.remove(resource.getId());
+        resourcesToDelete.add(resource.getId());
+
+        markStockChanged(resource);
+
+        Entity palletNumber = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
+
+        if (Objects.nonNull(palletNumber)) {
+            palletNumbersToDispose.add(palletNumber.getId());
+        }
+    }
+
+    public void deleteReservationForPosition(final Entity position) {
+        if (reservationsEnabled && Objects.nonNull(position.getId())) {
+            positionsWithReservationsToDelete.add(position.getId());
+
+            markStockChanged(warehouseId, position.getBelongsToField(PositionFields.PRODUCT).getId());
+        }
+    }
+
+    private void markStockChanged(final Entity resource) {
+        markStockChanged(resource.getBelongsToField(ResourceFields.LOCATION).getId(),
+                resource.getBelongsToField(ResourceFields.PRODUCT).getId());
+    }
+
+    private void markStockChanged(final Long locationId, final Long productId) {
+        changedStocks.computeIfAbsent(locationId, key -> Sets.newHashSet()).add(productId);
+    }
+
+    public Collection<Entity> getResourcesToUpdate() {
+        return resourcesToUpdate.values();
+    }
+
+    public Set<Long> getResourcesToDelete() {
+        return resourcesToDelete;
+    }
+
+    public Set<Long> getPalletNumbersToDispose() {
+        return palletNumbersToDispose;
+    }
+
+    public Set<Long> getPositionsWithReservationsToDelete() {
+        return positionsWithReservationsToDelete;
+    }
+
+    public Map<Long, Set<Long>> getChangedStocks() {
+        return changedStocks;
+    }
+
+    public boolean isEmpty() {
+        return resourcesToUpdate.isEmpty() && resourcesToDelete.isEmpty() && positionsWithReservationsToDelete.isEmpty();
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.typeahead.TypeaheadService;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.security.api.SecurityService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes {@link DocumentResourcesBatch} with batched and set-based statements.
+ *
+ * Resource deletion follows the cascades declared in the resource model: positions and resource corrections are detached,
+ * reservations and attribute values are removed. Resource rows get their entity version bumped like in a regular save, and the
+ * written resources and pallet numbers are evicted from the session, so later reads in the same transaction see the new
+ * values. Disposed pallet numbers skip their hooks, so they are passed to {@link TypeaheadService} here.
+ */
+@Service
+public class DocumentResourcesBatchWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DocumentResourcesBatchWriter.class);
+
+    private static final int L_MAX_IDS_IN_STATEMENT = 1000;
+
+    private static final String L_IDS = "ids";
+
+    private static final String UPDATE_RESOURCE = "UPDATE materialflowresources_resource SET quantity = :quantity, "
+            + "availablequantity = :availableQuantity, reservedquantity = :reservedQuantity, "
+            + "quantityinadditionalunit = :quantityInAdditionalUnit, entityversion = entityversion + 1 WHERE id = :id";
+
+    private static final String DELETE_RESERVATIONS_FOR_POSITIONS = "DELETE FROM materialflowresources_reservation "
+            + "WHERE position_id IN (:ids)";
+
+    private static final List<String> DELETE_RESOURCES = Lists.newArrayList(
+            "UPDATE materialflowresources_position SET resource_id = NULL WHERE resource_id IN (:ids)",
+            "UPDATE materialflowresources_resourcecorrection SET resource_id = NULL WHERE resource_id IN (:ids)",
+            "DELETE FROM materialflowresources_reservation WHERE resource_id IN (:ids)",
+            "DELETE FROM materialflowresources_resourceattributevalue WHERE resource_id IN (:ids)",
+            "DELETE FROM materialflowresources_resource WHERE id IN (:ids)");
+
+    private static final String DISPOSE_PALLET_NUMBERS = "UPDATE basic_palletnumber SET issuedatetime = :issueDateTime, "
+            + "active = false, updatedate = :issueDateTime, updateuser = :userLogin WHERE id IN (:ids) AND NOT EXISTS "
+            + "(SELECT 1 FROM materialflowresources_resource resource WHERE resource.palletnumber_id = basic_palletnumber.id)";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SecurityService securityService;
+
+    @Autowired
+    private ResourceStockLedgerService resourceStockLedgerService;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private PersistenceContextService persistenceContextService;
+
+    @Autowired
+    private TypeaheadService typeaheadService;
+
+    public void write(final DocumentResourcesBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        updateInChunks(DELETE_RESERVATIONS_FOR_POSITIONS, batch.getPositionsWithReservationsToDelete(),
+                Collections.emptyMap());
+
+        updateResources(batch.getResourcesToUpdate());
+
+        DELETE_RESOURCES.forEach(query -> updateInChunks(query, batch.getResourcesToDelete(), Collections.emptyMap()));
+
+        Map<String, Object> disposalParameters = Maps.newHashMap();
+
+        disposalParameters.put("issueDateTime", new Date());
+        disposalParameters.put("userLogin", securityService.getCurrentUserName());
+
+        updateInChunks(DISPOSE_PALLET_NUMBERS, batch.getPalletNumbersToDispose(), disposalParameters);
+
+        batch.getPalletNumbersToDispose().forEach(
+                palletNumberId -> typeaheadService.onChange(BasicConstants.MODEL_PALLET_NUMBER, palletNumberId));
+
+        batch.getChangedStocks().forEach(resourceStockLedgerService::markChanged);
+
+        evict(batch);
+
+        LOGGER.debug("Resources batch written: " + batch.getResourcesToUpdate().size() + " updated, "
+                + batch.getResourcesToDelete().size() + " deleted");
+    }
+
+    private void evict(final DocumentResourcesBatch batch) {
+        Set<Long> resourceIds = Sets.newHashSet(batch.getResourcesToDelete());
+
+        batch.getResourcesToUpdate().forEach(resource -> resourceIds.add(resource.getId()));
+
+        persistenceContextService.evict(dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_RESOURCE), resourceIds);
+        persistenceContextService.evict(
+                dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PALLET_NUMBER),
+                batch.getPalletNumbersToDispose());
+    }
+
+    private void updateResources(final Collection<Entity> resources) {
+        if (resources.isEmpty()) {
+            return;
+        }
+
+        List<Map<String, Object>> batchParameters = Lists.newArrayList();
+
+        for (Entity resource : resources) {
+            Map<String, Object> parameters = Maps.newHashMap();
+
+            parameters.put("id", resource.getId());
+            parameters.put("quantity", resource.getDecimalField(ResourceFields.QUANTITY));
+            parameters.put("availableQuantity", resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY));
+            parameters.put("reservedQuantity", resource.getDecimalField(ResourceFields.RESERVED_QUANTITY));
+            parameters.put("quantityInAdditionalUnit", resource.getDecimalField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT));
+
+            batchParameters.add(parameters);
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object>[] batchValues = batchParameters.toArray(new Map[batchParameters.size()]);
+
+        jdbcTemplate.batchUpdate(UPDATE_RESOURCE, batchValues);
+    }
+
+    private void updateInChunks(final String query, final Collection<Long> ids, final Map<String, Object> parameters) {
+        for (List<Long> chunk : Lists.partition(Lists.newArrayList(ids), L_MAX_IDS_IN_STATEMENT)) {
+            Map<String, Object> chunkParameters = Maps.newHashMap(parameters);
+
+            chunkParameters.put(L_IDS, chunk);
+
+            jdbcTemplate.update(query, chunkParameters);
+        }
+    }
+
+}
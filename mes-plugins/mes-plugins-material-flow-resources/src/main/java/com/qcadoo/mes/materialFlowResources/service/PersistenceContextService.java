@@ -0,0 +1,63 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.beanutils.MethodUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.classic.Session;
+import org.hibernate.engine.EntityKey;
+import org.hibernate.engine.PersistenceContext;
+import org.hibernate.engine.SessionImplementor;
+import org.springframework.security.util.FieldUtils;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.model.api.DataDefinition;
+
+/**
+ * Evicts entities changed with plain SQL from the current Hibernate session, so later reads in the same transaction load
+ * them from the database instead of returning the stale instances.
+ */
+@Service
+public class PersistenceContextService {
+
+    private static final String L_BEANS_PACKAGE = "com.qcadoo.model.beans.";
+
+    public void evict(final DataDefinition dataDefinition, final Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        Session session = getCurrentSession(dataDefinition);
+        PersistenceContext persistenceContext = ((SessionImplementor) session).getPersistenceContext();
+
+        String entityName = L_BEANS_PACKAGE + dataDefinition.getPluginIdentifier() + "."
+                + StringUtils.capitalize(dataDefinition.getPluginIdentifier()) + StringUtils.capitalize(dataDefinition.getName());
+
+        List<Object> entities = Lists.newArrayList();
+
+        for (Object key : session.getStatistics().getEntityKeys()) {
+            EntityKey entityKey = (EntityKey) key;
+
+            if (entityName.equals(entityKey.getEntityName()) && ids.contains(entityKey.getIdentifier())) {
+                entities.add(persistenceContext.getEntity(entityKey));
+            }
+        }
+
+        entities.forEach(session::evict);
+    }
+
+    private Session getCurrentSession(final DataDefinition dataDefinition) {
+        Object dataAccessService = FieldUtils.getProtectedFieldValue("dataAccessService", dataDefinition);
+        Object hibernateService = FieldUtils.getProtectedFieldValue("hibernateService", dataAccessService);
+
+        try {
+            return (Session) MethodUtils.invokeExactMethod(hibernateService, "getCurrentSession", new Object[0]);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+}
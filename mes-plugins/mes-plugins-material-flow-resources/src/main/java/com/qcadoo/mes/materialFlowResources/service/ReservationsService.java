@@ -43,6 +43,9 @@ public class ReservationsService {
     @Autowired
     private MultiTenantService multiTenantService;
 
+    @Autowired
+    private ResourceStockLedgerService resourceStockLedgerService;
+
     private final static String L_QUANTITY = "quantity";
 
     public void cleanReservationsTrigger() {
@@ -87,6 +90,7 @@ public class ReservationsService {
 
         jdbcTemplate.update(query, params);
         resourceReservationsService.updateResourceQuantites(params, BigDecimalUtils.convertNullToZero(params.get(L_QUANTITY)));
+        markStockChanged(params, (Long) params.get("product_id"));
     }
 
     /**
@@ -180,6 +184,9 @@ public class ReservationsService {
                 paramsForOld.put("resource_id", oldResourceId);
                 resourceReservationsService.updateResourceQuantites(paramsForOld, oldPositionQuantity.negate());
             }
+
+            markStockChanged(params, (Long) params.get("product_id"));
+            markStockChanged(params, (Long) oldPosition.get("product_id"));
         }
 
     }
@@ -236,6 +243,7 @@ public class ReservationsService {
         jdbcTemplate.update(query, params);
         resourceReservationsService.updateResourceQuantites(params,
                 BigDecimalUtils.convertNullToZero(params.get(L_QUANTITY)).negate());
+        markStockChanged(params, (Long) params.get("product_id"));
     }
 
     /**
@@ -270,6 +278,15 @@ public class ReservationsService {
         }
     }
 
+    private void markStockChanged(final Map<String, Object> params, final Long productId) {
+        if (productId == null) {
+            return;
+        }
+        String query = "SELECT locationfrom_id FROM materialflowresources_document WHERE id = :document_id";
+        Long locationId = jdbcTemplate.queryForObject(query, params, Long.class);
+        resourceStockLedgerService.markChanged(locationId, productId);
+    }
+
     public Entity getReservationForPosition(final Entity position) {
         if (position.getId() == null) {
             return null;
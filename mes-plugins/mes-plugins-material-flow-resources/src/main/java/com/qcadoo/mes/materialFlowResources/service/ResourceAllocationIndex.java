@@ -0,0 +1,166 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+import com.qcadoo.model.api.Entity;
+import org.apache.commons.lang3.StringUtils;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * In-memory index of the resources of one warehouse, grouped by product and ordered by the warehouse algorithm.
+ *
+ * The index is loaded once per document and kept in sync with the resources changed while the document positions are
+ * allocated, so the candidates for each position are selected without querying the database again.
+ */
+public class ResourceAllocationIndex {
+
+    private final Comparator<Entity> comparator;
+
+    private final Map<Long, List<Entity>> resourcesByProduct = Maps.newHashMap();
+
+    private final Set<Long> productsToSort = Sets.newHashSet();
+
+    public ResourceAllocationIndex(final WarehouseAlgorithm warehouseAlgorithm, final List<Long> productIds,
+            final List<Entity> resources) {
+        this.comparator = comparatorFor(warehouseAlgorithm);
+
+        productIds.forEach(productId -> resourcesByProduct.put(productId, Lists.newArrayList()));
+        resources.forEach(this::update);
+    }
+
+    public List<Entity> getResources(final Entity product, final Entity position, final Entity additionalCode,
+            final boolean resourceIrrespectiveOfConversion) {
+        List<Entity> resources = Lists.newArrayList();
+
+        if (additionalCode != null) {
+            resources = getResourcesThatSatisfy(product, position, resourceIrrespectiveOfConversion,
+                    resource -> hasAdditionalCode(resource, additionalCode));
+
+            resources.addAll(getResourcesThatSatisfy(product, position, resourceIrrespectiveOfConversion,
+                    resource -> !hasAdditionalCode(resource, additionalCode)));
+        }
+
+        if (resources.isEmpty()) {
+            resources = getResourcesThatSatisfy(product, position, resourceIrrespectiveOfConversion, resource -> true);
+        }
+
+        return resources;
+    }
+
+    public void update(final Entity resource) {
+        Long productId = resource.getBelongsToField(ResourceFields.PRODUCT).getId();
+        List<Entity> resources = resourcesByProduct.get(productId);
+
+        if (resources != null) {
+            resources.removeIf(indexedResource -> indexedResource.getId().equals(resource.getId()));
+            resources.add(resource);
+
+            productsToSort.add(productId);
+        }
+    }
+
+    public void remove(final Entity resource) {
+        List<Entity> resources = resourcesByProduct.get(resource.getBelongsToField(ResourceFields.PRODUCT).getId());
+
+        if (resources != null) {
+            resources.removeIf(indexedResource -> indexedResource.getId().equals(resource.getId()));
+        }
+    }
+
+    private List<Entity> getResourcesThatSatisfy(final Entity product, final Entity position,
+            final boolean resourceIrrespectiveOfConversion, final Predicate<Entity> criterion) {
+        List<Entity> resources = Lists.newArrayList();
+
+        for (Entity resource : getSortedResources(product.getId())) {
+            if (isAvailable(resource) && hasConversion(product, position, resource) != resourceIrrespectiveOfConversion
+                    && hasBatch(position, resource) && criterion.test(resource)) {
+                resources.add(resource);
+            }
+        }
+
+        return resources;
+    }
+
+    private List<Entity> getSortedResources(final Long productId) {
+        List<Entity> resources = resourcesByProduct.getOrDefault(productId, Lists.newArrayList());
+
+        if (productsToSort.remove(productId)) {
+            resources.sort(comparator);
+        }
+
+        return resources;
+    }
+
+    private boolean isAvailable(final Entity resource) {
+        BigDecimal availableQuantity = resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY);
+
+        return availableQuantity != null && availableQuantity.compareTo(BigDecimal.ZERO) > 0;
+    }
+
+    private boolean hasConversion(final Entity product, final Entity position, final Entity resource) {
+        BigDecimal resourceConversion = resource.getDecimalField(ResourceFields.CONVERSION);
+        BigDecimal conversion = BigDecimal.ONE;
+
+        if (StringUtils.isNotEmpty(product.getStringField(ProductFields.ADDITIONAL_UNIT))) {
+            conversion = position.getDecimalField(PositionFields.CONVERSION);
+        }
+
+        return conversion != null && resourceConversion != null && conversion.compareTo(resourceConversion) == 0;
+    }
+
+    private boolean hasBatch(final Entity position, final Entity resource) {
+        Entity batch = position.getBelongsToField(PositionFields.BATCH);
+
+        if (Objects.isNull(batch)) {
+            return true;
+        }
+
+        Entity resourceBatch = resource.getBelongsToField(ResourceFields.BATCH);
+
+        return Objects.nonNull(resourceBatch) && batch.getId().equals(resourceBatch.getId());
+    }
+
+    private boolean hasAdditionalCode(final Entity resource, final Entity additionalCode) {
+        Entity resourceAdditionalCode = resource.getBelongsToField(ResourceFields.ADDITIONAL_CODE);
+
+        return Objects.nonNull(resourceAdditionalCode) && additionalCode.getId().equals(resourceAdditionalCode.getId());
+    }
+
+    static Comparator<Entity> comparatorFor(final WarehouseAlgorithm warehouseAlgorithm) {
+        Comparator<Entity> comparator;
+
+        if (WarehouseAlgorithm.LIFO.equals(warehouseAlgorithm)) {
+            comparator = Comparator.comparing(resource -> resource.getDateField(ResourceFields.TIME),
+                    Comparator.nullsFirst(Comparator.<Date> reverseOrder()));
+        } else if (WarehouseAlgorithm.FEFO.equals(warehouseAlgorithm)) {
+            comparator = Comparator.<Entity, Date> comparing(resource -> resource.getDateField(ResourceFields.EXPIRATION_DATE),
+                    Comparator.nullsLast(Comparator.<Date> naturalOrder())).thenComparing(
+                    resource -> resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY),
+                    Comparator.nullsLast(Comparator.<BigDecimal> naturalOrder()));
+        } else if (WarehouseAlgorithm.LEFO.equals(warehouseAlgorithm)) {
+            comparator = Comparator.<Entity, Date> comparing(resource -> resource.getDateField(ResourceFields.EXPIRATION_DATE),
+                    Comparator.nullsFirst(Comparator.<Date> reverseOrder())).thenComparing(
+                    resource -> resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY),
+                    Comparator.nullsLast(Comparator.<BigDecimal> naturalOrder()));
+        } else {
+            comparator = Comparator.comparing(resource -> resource.getDateField(ResourceFields.TIME),
+                    Comparator.nullsLast(Comparator.<Date> naturalOrder()));
+        }
+
+        return comparator.thenComparing(Entity::getId);
+    }
+
+}
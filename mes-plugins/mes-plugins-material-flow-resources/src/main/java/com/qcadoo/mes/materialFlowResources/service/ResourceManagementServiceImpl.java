@@ -56,7 +56,7 @@ import java.math.BigDecimal;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.stream.Collectors;
 
 @Service
 public class ResourceManagementServiceImpl implements ResourceManagementService {
@@ -71,9 +71,6 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     @Autowired
     private NumberService numberService;
 
-    @Autowired
-    private PalletNumberDisposalService palletNumberDisposalService;
-
     @Autowired
     private ResourceStockService resourceStockService;
 
@@ -92,6 +89,9 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     @Autowired
     private CalculationQuantityService calculationQuantityService;
 
+    @Autowired
+    private DocumentResourcesBatchWriter documentResourcesBatchWriter;
+
     @Override
     @Transactional
     public void createResources(final Entity document) {
@@ -391,11 +391,26 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         NotEnoughResourcesErrorMessageHolder errorMessageHolder = notEnoughResourcesErrorMessageHolderFactory.create();
         boolean isFromOrder = Objects.nonNull(document.getBelongsToField(L_ORDER));
 
-        for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
+        List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS);
+
+        ResourceAllocationIndex resourceAllocationIndex = createResourceAllocationIndex(warehouse, positions, warehouseAlgorithm);
+        DocumentResourcesBatch documentResourcesBatch = new DocumentResourcesBatch(warehouse,
+                reservationsService.reservationsEnabledForDocumentPositions(document));
+
+        List<Either<BigDecimal, List<Entity>>> eitherPositionsList = Lists.newArrayList();
+
+        for (Entity position : positions) {
+            eitherPositionsList.add(updateResources(warehouse, position, resourceAllocationIndex, documentResourcesBatch,
+                    isFromOrder));
+        }
+
+        documentResourcesBatchWriter.write(documentResourcesBatch);
+
+        for (int index = 0; index < positions.size(); index++) {
+            Entity position = positions.get(index);
             Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-            Either<BigDecimal, List<Entity>> eitherPositions = updateResources(warehouse, position, warehouseAlgorithm,
-                    isFromOrder);
+            Either<BigDecimal, List<Entity>> eitherPositions = eitherPositionsList.get(index);
 
             enoughResources = enoughResources && position.isValid();
 
@@ -474,14 +489,15 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     }
 
     private Either<BigDecimal, List<Entity>> updateResources(final Entity warehouse, final Entity position,
-            final WarehouseAlgorithm warehouseAlgorithm, boolean isFromOrder) {
+            final ResourceAllocationIndex resourceAllocationIndex, final DocumentResourcesBatch documentResourcesBatch,
+            boolean isFromOrder) {
         List<Entity> newPositions = Lists.newArrayList();
 
         Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouse, product, position, warehouseAlgorithm);
+        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(product, position, resourceAllocationIndex);
 
-        reservationsService.deleteReservationFromDocumentPosition(position);
+        documentResourcesBatch.deleteReservationForPosition(position);
 
         BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
         BigDecimal conversion = BigDecimalUtils.convertNullToOne(position.getDecimalField(PositionFields.CONVERSION));
@@ -524,11 +540,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 quantity = quantity.subtract(resourceAvailableQuantity, numberService.getMathContext());
 
                 if (resourceQuantity.compareTo(resourceAvailableQuantity) <= 0) {
-                    Entity palletNumberToDispose = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
-
-                    resource.getDataDefinition().delete(resource.getId());
-
-                    palletNumberDisposalService.tryToDispose(palletNumberToDispose);
+                    documentResourcesBatch.deleteResource(resource);
+                    resourceAllocationIndex.remove(resource);
                 } else {
                     BigDecimal newResourceQuantity = resourceQuantity.subtract(resourceAvailableQuantity);
                     BigDecimal quantityInAdditionalUnit = calculationQuantityService.calculateAdditionalQuantity(
@@ -538,11 +551,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                     resource.setField(ResourceFields.QUANTITY, newResourceQuantity);
                     resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, quantityInAdditionalUnit);
 
-                    Entity savedResource = resource.getDataDefinition().save(resource);
-
-                    if (!savedResource.isValid()) {
-                        throw new InvalidResourceException(savedResource);
-                    }
+                    updateResource(resource, documentResourcesBatch);
+                    resourceAllocationIndex.update(resource);
                 }
 
                 newPosition.setField(PositionFields.QUANTITY,
@@ -567,11 +577,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 resource.setField(ResourceFields.QUANTITY, numberService.setScaleWithDefaultMathContext(resourceQuantity));
                 resource.setField(ResourceFields.AVAILABLE_QUANTITY, resourceAvailableQuantity);
 
-                Entity savedResource = resource.getDataDefinition().save(resource);
-
-                if (!savedResource.isValid()) {
-                    throw new InvalidResourceException(savedResource);
-                }
+                updateResource(resource, documentResourcesBatch);
+                resourceAllocationIndex.update(resource);
 
                 newPosition.setField(PositionFields.QUANTITY, numberService.setScaleWithDefaultMathContext(quantity));
                 newPosition.setField(PositionFields.GIVEN_QUANTITY, givenQuantity);
@@ -602,11 +609,27 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         boolean isFromOrder = Objects.nonNull(document.getBelongsToField(L_ORDER));
 
-        for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
+        List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS);
+
+        ResourceAllocationIndex resourceAllocationIndex = createResourceAllocationIndex(warehouseFrom, positions,
+                warehouseAlgorithm);
+        DocumentResourcesBatch documentResourcesBatch = new DocumentResourcesBatch(warehouseFrom,
+                reservationsService.reservationsEnabledForDocumentPositions(document));
+
+        List<Either<BigDecimal, List<Entity>>> eitherPositionsList = Lists.newArrayList();
+
+        for (Entity position : positions) {
+            eitherPositionsList.add(moveResources(warehouseFrom, warehouseTo, position, date, resourceAllocationIndex,
+                    documentResourcesBatch, isFromOrder));
+        }
+
+        documentResourcesBatchWriter.write(documentResourcesBatch);
+
+        for (int index = 0; index < positions.size(); index++) {
+            Entity position = positions.get(index);
             Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-            Either<BigDecimal, List<Entity>> eitherPositions = moveResources(warehouseFrom, warehouseTo, position, date,
-                    warehouseAlgorithm, isFromOrder);
+            Either<BigDecimal, List<Entity>> eitherPositions = eitherPositionsList.get(index);
 
             enoughResources = enoughResources && position.isValid();
 
@@ -649,14 +672,15 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     }
 
     private Either<BigDecimal, List<Entity>> moveResources(final Entity warehouseFrom, final Entity warehouseTo,
-            final Entity position, final Object date, final WarehouseAlgorithm warehouseAlgorithm, boolean isFromOrder) {
+            final Entity position, final Object date, final ResourceAllocationIndex resourceAllocationIndex,
+            final DocumentResourcesBatch documentResourcesBatch, boolean isFromOrder) {
         List<Entity> newPositions = Lists.newArrayList();
 
         Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouseFrom, product, position, warehouseAlgorithm);
+        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(product, position, resourceAllocationIndex);
 
-        reservationsService.deleteReservationFromDocumentPosition(position);
+        documentResourcesBatch.deleteReservationForPosition(position);
 
         BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
         BigDecimal conversion = BigDecimalUtils.convertNullToOne(position.getDecimalField(PositionFields.CONVERSION));
@@ -699,11 +723,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 quantity = quantity.subtract(resourceAvailableQuantity, numberService.getMathContext());
 
                 if (resourceQuantity.compareTo(resourceAvailableQuantity) <= 0) {
-                    Entity palletNumberToDispose = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
-
-                    resource.getDataDefinition().delete(resource.getId());
-
-                    palletNumberDisposalService.tryToDispose(palletNumberToDispose);
+                    documentResourcesBatch.deleteResource(resource);
+                    resourceAllocationIndex.remove(resource);
                 } else {
                     BigDecimal newResourceQuantity = resourceQuantity.subtract(resourceAvailableQuantity);
                     BigDecimal quantityInAdditionalUnit = calculationQuantityService.calculateAdditionalQuantity(
@@ -713,11 +734,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                     resource.setField(ResourceFields.QUANTITY, newResourceQuantity);
                     resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, quantityInAdditionalUnit);
 
-                    Entity savedResource = resource.getDataDefinition().save(resource);
-
-                    if (!savedResource.isValid()) {
-                        throw new InvalidResourceException(savedResource);
-                    }
+                    updateResource(resource, documentResourcesBatch);
+                    resourceAllocationIndex.update(resource);
                 }
 
                 Entity newResource = createResource(position, warehouseTo, resource, resourceAvailableQuantity, date);
@@ -750,11 +768,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 resource.setField(ResourceFields.QUANTITY, numberService.setScaleWithDefaultMathContext(resourceQuantity));
                 resource.setField(ResourceFields.AVAILABLE_QUANTITY, resourceAvailableQuantity);
 
-                Entity savedResource = resource.getDataDefinition().save(resource);
-
-                if (!savedResource.isValid()) {
-                    throw new InvalidResourceException(savedResource);
-                }
+                updateResource(resource, documentResourcesBatch);
+                resourceAllocationIndex.update(resource);
 
                 Entity newResource = createResource(position, warehouseTo, resource, quantity, date);
 
@@ -777,6 +792,18 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         return Either.left(quantity);
     }
 
+    private void updateResource(final Entity resource, final DocumentResourcesBatch documentResourcesBatch) {
+        if (DocumentResourcesBatch.canBeUpdatedInBatch(resource)) {
+            documentResourcesBatch.updateResource(resource);
+        } else {
+            Entity savedResource = resource.getDataDefinition().save(resource);
+
+            if (!savedResource.isValid()) {
+                throw new InvalidResourceException(savedResource);
+            }
+        }
+    }
+
     private void copyResourceErrorsToPosition(final Entity position, final Entity newResource) {
         for (Map.Entry<String, ErrorMessage> error : newResource.getErrors().entrySet()) {
             if (!error.getKey().equals(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT)) {
@@ -787,8 +814,27 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         }
     }
 
-    private List<Entity> getResourcesForWarehouseProductAndAlgorithm(final Entity warehouse, final Entity product,
-            final Entity position, final WarehouseAlgorithm warehouseAlgorithm) {
+    private ResourceAllocationIndex createResourceAllocationIndex(final Entity warehouse, final List<Entity> positions,
+            final WarehouseAlgorithm warehouseAlgorithm) {
+        List<Long> productIds = positions.stream().map(position -> position.getBelongsToField(PositionFields.PRODUCT).getId())
+                .distinct().collect(Collectors.toList());
+
+        List<Entity> resources = Lists.newArrayList();
+
+        if (!productIds.isEmpty()) {
+            resources = dataDefinitionService
+                    .get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER, MaterialFlowResourcesConstants.MODEL_RESOURCE).find()
+                    .add(SearchRestrictions.belongsTo(ResourceFields.LOCATION, warehouse))
+                    .add(SearchRestrictions.in(ResourceFields.PRODUCT + ".id", productIds))
+                    .add(SearchRestrictions.gt(ResourceFields.AVAILABLE_QUANTITY, BigDecimal.ZERO))
+                    .add(SearchRestrictions.eq(ResourceFields.BLOCKED_FOR_QUALITY_CONTROL, false)).list().getEntities();
+        }
+
+        return new ResourceAllocationIndex(warehouseAlgorithm, productIds, resources);
+    }
+
+    private List<Entity> getResourcesForWarehouseProductAndAlgorithm(final Entity product, final Entity position,
+            final ResourceAllocationIndex resourceAllocationIndex) {
         List<Entity> resources = Lists.newArrayList();
 
         Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
@@ -810,125 +856,23 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
             }
 
             resources.add(resource);
-        } else if (WarehouseAlgorithm.FIFO.equals(warehouseAlgorithm)) {
-            resources = getResourcesForLocationAndProductFIFO(warehouse, product, additionalCode, position);
-        } else if (WarehouseAlgorithm.LIFO.equals(warehouseAlgorithm)) {
-            resources = getResourcesForLocationAndProductLIFO(warehouse, product, additionalCode, position);
-        } else if (WarehouseAlgorithm.FEFO.equals(warehouseAlgorithm)) {
-            resources = getResourcesForLocationAndProductFEFO(warehouse, product, additionalCode, position);
-        } else if (WarehouseAlgorithm.LEFO.equals(warehouseAlgorithm)) {
-            resources = getResourcesForLocationAndProductLEFO(warehouse, product, additionalCode, position);
-        }
-
-        return resources;
-    }
-
-    private List<Entity> getResourcesForLocationCommonCodeConversion(final Entity warehouse, final Entity product,
-            final Entity additionalCode, final Entity position, final boolean resourceIrrespectiveOfConversion,
-            final SearchOrder... searchOrders) {
-
-        class SearchCriteriaHelper {
-
-            private List<Entity> getAll() {
-                return getAllThatSatisfies(null);
-            }
-
-            private List<Entity> getAllThatSatisfies(SearchCriterion searchCriterion) {
-                SearchCriteriaBuilder scb = getSearchCriteriaForResourceForProductAndWarehouse(product, warehouse);
-
-                if (resourceIrrespectiveOfConversion) {
-                    if (StringUtils.isNotEmpty(product.getStringField(ProductFields.ADDITIONAL_UNIT))) {
-                        scb.add(SearchRestrictions.ne(PositionFields.CONVERSION,
-                                position.getDecimalField(PositionFields.CONVERSION)));
-                    } else {
-                        scb.add(SearchRestrictions.ne(ResourceFields.CONVERSION, BigDecimal.ONE));
-                    }
-                } else {
-                    if (StringUtils.isNotEmpty(product.getStringField(ProductFields.ADDITIONAL_UNIT))) {
-                        scb.add(SearchRestrictions.eq(PositionFields.CONVERSION,
-                                position.getDecimalField(PositionFields.CONVERSION)));
-                    } else {
-                        scb.add(SearchRestrictions.eq(ResourceFields.CONVERSION, BigDecimal.ONE));
-                    }
-                }
-
-                if (Objects.nonNull(position.getBelongsToField(PositionFields.BATCH))) {
-                    scb.add(SearchRestrictions.belongsTo(ResourceFields.BATCH, position.getBelongsToField(PositionFields.BATCH)));
-                }
+        } else {
+            resources = resourceAllocationIndex.getResources(product, position, additionalCode, false);
 
-                scb.add(SearchRestrictions.eq(ResourceFields.BLOCKED_FOR_QUALITY_CONTROL, false));
+            Entity documentPositionParameters = parameterService.getParameter().getBelongsToField(
+                    ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS);
 
-                Optional.ofNullable(searchCriterion).ifPresent(scb::add);
+            boolean fillResourceIrrespectiveOfConversion = documentPositionParameters
+                    .getBooleanField(DocumentPositionParametersFields.FILL_RESOURCE_IRRESPECTIVE_OF_CONVERSION);
 
-                for (SearchOrder searchOrder : searchOrders) {
-                    scb.addOrder(searchOrder);
-                }
-
-                return scb.list().getEntities();
+            if (fillResourceIrrespectiveOfConversion) {
+                resources.addAll(resourceAllocationIndex.getResources(product, position, additionalCode, true));
             }
         }
 
-        List<Entity> resources = Lists.newArrayList();
-
-        if (additionalCode != null) {
-            resources = new SearchCriteriaHelper().getAllThatSatisfies(SearchRestrictions.belongsTo(
-                    ResourceFields.ADDITIONAL_CODE, additionalCode));
-
-            resources.addAll(new SearchCriteriaHelper().getAllThatSatisfies(SearchRestrictions.or(
-                    SearchRestrictions.isNull(ResourceFields.ADDITIONAL_CODE),
-                    SearchRestrictions.ne("additionalCode.id", additionalCode.getId()))));
-        }
-
-        if (resources.isEmpty()) {
-            resources = new SearchCriteriaHelper().getAll();
-        }
-
         return resources;
     }
 
-    private List<Entity> getResourcesForLocationCommonCode(final Entity warehouse, final Entity product,
-            final Entity additionalCode, final Entity position, final SearchOrder... searchOrders) {
-        List<Entity> resources = getResourcesForLocationCommonCodeConversion(warehouse, product, additionalCode, position, false,
-                searchOrders);
-
-        Entity documentPositionParameters = parameterService.getParameter().getBelongsToField(
-                ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS);
-
-        boolean fillResourceIrrespectiveOfConversion = documentPositionParameters
-                .getBooleanField(DocumentPositionParametersFields.FILL_RESOURCE_IRRESPECTIVE_OF_CONVERSION);
-
-        if (fillResourceIrrespectiveOfConversion) {
-            resources.addAll(getResourcesForLocationCommonCodeConversion(warehouse, product, additionalCode, position, true,
-                    searchOrders));
-        }
-
-        return resources;
-    }
-
-    private List<Entity> getResourcesForLocationAndProductFIFO(final Entity warehouse, final Entity product,
-            final Entity additionalCode, final Entity position) {
-        return getResourcesForLocationCommonCode(warehouse, product, additionalCode, position,
-                SearchOrders.asc(ResourceFields.TIME));
-    }
-
-    private List<Entity> getResourcesForLocationAndProductLIFO(final Entity warehouse, final Entity product,
-            final Entity additionalCode, final Entity position) {
-        return getResourcesForLocationCommonCode(warehouse, product, additionalCode, position,
-                SearchOrders.desc(ResourceFields.TIME));
-    }
-
-    private List<Entity> getResourcesForLocationAndProductFEFO(final Entity warehouse, final Entity product,
-            final Entity additionalCode, final Entity position) {
-        return getResourcesForLocationCommonCode(warehouse, product, additionalCode, position,
-                SearchOrders.asc(ResourceFields.EXPIRATION_DATE), SearchOrders.asc(ResourceFields.AVAILABLE_QUANTITY));
-    }
-
-    private List<Entity> getResourcesForLocationAndProductLEFO(final Entity warehouse, final Entity product,
-            final Entity additionalCode, final Entity position) {
-        return getResourcesForLocationCommonCode(warehouse, product, additionalCode, position,
-                SearchOrders.desc(ResourceFields.EXPIRATION_DATE), SearchOrders.asc(ResourceFields.AVAILABLE_QUANTITY));
-    }
-
     @Transactional(isolation = Isolation.REPEATABLE_READ)
     public void fillResourcesInDocument(final ViewDefinitionState view, final Entity document) throws LockAcquisitionException {
         LOGGER.info("FILL RESOURCES STARTED IN DOCUMENT: id = " + document.getId() + " number = "
@@ -947,9 +891,11 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         boolean isFromOrder = Objects.nonNull(document.getBelongsToField(L_ORDER));
         boolean valid = true;
 
+        ResourceAllocationIndex resourceAllocationIndex = createResourceAllocationIndex(warehouse, positions, warehouseAlgorithm);
+
         for (Entity position : positions) {
             if (position.getBelongsToField(PositionFields.RESOURCE) == null) {
-                List<Entity> newPositions = matchResourcesToPosition(position, warehouse, warehouseAlgorithm, isFromOrder);
+                List<Entity> newPositions = matchResourcesToPosition(position, warehouse, resourceAllocationIndex, isFromOrder);
 
                 if (!newPositions.isEmpty()) {
                     LOGGER.info("GENERATED POSITIONS IN DOCUMENT: id = " + document.getId() + ", FOR POSITION: id = "
@@ -999,14 +945,14 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     }
 
     private List<Entity> matchResourcesToPosition(final Entity position, final Entity warehouse,
-            final WarehouseAlgorithm warehouseAlgorithm, boolean isFromOrder) {
+            final ResourceAllocationIndex resourceAllocationIndex, boolean isFromOrder) {
         DataDefinition positionDD = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
                 MaterialFlowResourcesConstants.MODEL_POSITION);
 
         List<Entity> newPositions = Lists.newArrayList();
         Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouse, product, position, warehouseAlgorithm);
+        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(product, position, resourceAllocationIndex);
 
         BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
         BigDecimal conversion = BigDecimalUtils.convertNullToOne(position.getDecimalField(PositionFields.CONVERSION));
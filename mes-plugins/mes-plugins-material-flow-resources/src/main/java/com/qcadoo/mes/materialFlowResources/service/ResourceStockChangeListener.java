@@ -0,0 +1,15 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.util.Collection;
+
+/**
+ * Notified by {@link ResourceStockLedgerService} whenever stock of products is marked as changed, so other plugins can react
+ * to warehouse changes without their own hooks on resources and reservations.
+ *
+ * Listeners are called from within the change, usually before its transaction is committed.
+ */
+public interface ResourceStockChangeListener {
+
+    void onStockChanged(final Long locationId, final Collection<Long> productIds);
+
+}
@@ -0,0 +1,236 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Keeps the quantities stored in materialflowresources_resourcestock in sync with resources and reservations.
+ *
+ * Changed (location, product) pairs are collected during the transaction and recalculated once, just before commit and
+ * after pending entity changes are flushed, so stock lookups read a single row instead of aggregating all resources and
+ * reservations of the warehouse. Quantity of resources blocked for quality control is kept apart and isn't available.
+ *
+ * Stock rows are locked before they are recalculated, in a separate statement, so the recalculation of the transaction
+ * that got the lock last sees resources committed by the others and no change is lost.
+ * {@link #reconcile()} repairs rows that drifted, on startup and periodically. Drifted rows are found without locks and
+ * repaired in chunks of one location, each in its own short transaction locking only these rows, so document acceptance
+ * isn't blocked.
+ */
+@Service
+public class ResourceStockLedgerService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourceStockLedgerService.class);
+
+    private static final int L_MAX_IDS_IN_STATEMENT = 1000;
+
+    private static final int L_RECONCILE_CHUNK_SIZE = 100;
+
+    private static final String L_LOCATION_ID = "locationId";
+
+    private static final String L_PRODUCT_IDS = "productIds";
+
+    private static final String CALCULATED_STOCK = "SELECT stock.id, "
+            + "COALESCE((SELECT SUM(resource.quantity) FROM materialflowresources_resource resource "
+            + "WHERE resource.location_id = stock.location_id AND resource.product_id = stock.product_id "
+            + "AND resource.blockedforqualitycontrol = false), 0) AS quantity, "
+            + "COALESCE((SELECT SUM(resource.quantity) FROM materialflowresources_resource resource "
+            + "WHERE resource.location_id = stock.location_id AND resource.product_id = stock.product_id "
+            + "AND resource.blockedforqualitycontrol = true), 0) AS blockedquantity, "
+            + "COALESCE((SELECT SUM(reservation.quantity) FROM materialflowresources_reservation reservation "
+            + "WHERE reservation.location_id = stock.location_id AND reservation.product_id = stock.product_id), 0) "
+            + "AS reservedquantity FROM materialflowresources_resourcestock stock";
+
+    private static final String INSERT_MISSING_STOCK = "INSERT INTO materialflowresources_resourcestock "
+            + "(location_id, product_id) SELECT DISTINCT resource.location_id, resource.product_id "
+            + "FROM materialflowresources_resource resource WHERE resource.location_id = :locationId "
+            + "AND resource.product_id IN (:productIds) AND NOT EXISTS (SELECT 1 FROM materialflowresources_resourcestock stock "
+            + "WHERE stock.location_id = resource.location_id AND stock.product_id = resource.product_id)";
+
+    private static final String LOCK_STOCK = "SELECT stock.id FROM materialflowresources_resourcestock stock "
+            + "WHERE stock.location_id = :locationId AND stock.product_id IN (:productIds) ORDER BY stock.id FOR UPDATE";
+
+    private static final String REFRESH_STOCK = "UPDATE materialflowresources_resourcestock rs SET quantity = calculated.quantity, "
+            + "blockedquantity = calculated.blockedquantity, reservedquantity = calculated.reservedquantity, "
+            + "availablequantity = calculated.quantity - calculated.reservedquantity FROM (" + CALCULATED_STOCK
+            + " WHERE stock.location_id = :locationId AND stock.product_id IN (:productIds)) calculated "
+            + "WHERE rs.id = calculated.id";
+
+    private static final String STOCK_DRIFT = "(COALESCE(rs.quantity, 0) <> calculated.quantity "
+            + "OR COALESCE(rs.blockedquantity, 0) <> calculated.blockedquantity "
+            + "OR COALESCE(rs.reservedquantity, 0) <> calculated.reservedquantity "
+            + "OR COALESCE(rs.availablequantity, 0) <> calculated.quantity - calculated.reservedquantity)";
+
+    private static final String DRIFTED_STOCK = "SELECT rs.location_id, rs.product_id "
+            + "FROM materialflowresources_resourcestock rs JOIN (" + CALCULATED_STOCK + ") calculated "
+            + "ON calculated.id = rs.id WHERE " + STOCK_DRIFT
+            + " ORDER BY rs.location_id, rs.product_id";
+
+    private static final String RECONCILE_STOCK = "UPDATE materialflowresources_resourcestock rs SET quantity = calculated.quantity, "
+            + "blockedquantity = calculated.blockedquantity, reservedquantity = calculated.reservedquantity, "
+            + "availablequantity = calculated.quantity - calculated.reservedquantity FROM (" + CALCULATED_STOCK
+            + " WHERE stock.location_id = :locationId AND stock.product_id IN (:productIds)) calculated "
+            + "WHERE rs.id = calculated.id AND " + STOCK_DRIFT;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    @Autowired(required = false)
+    private List<ResourceStockChangeListener> resourceStockChangeListeners = Collections.emptyList();
+
+    public void markChanged(final Long locationId, final Long productId) {
+        markChanged(locationId, Collections.singletonList(productId));
+    }
+
+    /**
+     * Marks stock of given products in given location for recalculation. Inside a transaction the recalculation is deferred
+     * until commit, so many changes of the same product cost one statement.
+     */
+    public void markChanged(final Long locationId, final Collection<Long> productIds) {
+        if (Objects.isNull(locationId) || productIds.isEmpty()) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            getChangedStocks().computeIfAbsent(locationId, key -> Sets.newHashSet()).addAll(productIds);
+        } else {
+            refresh(locationId, productIds);
+        }
+
+        for (ResourceStockChangeListener resourceStockChangeListener : resourceStockChangeListeners) {
+            resourceStockChangeListener.onStockChanged(locationId, productIds);
+        }
+    }
+
+    /**
+     * Recalculates stock of given products still pending in current transaction, so it can be read before commit.
+     */
+    public void refreshPending(final Long locationId, final Collection<Long> productIds) {
+        if (!TransactionSynchronizationManager.hasResource(this)) {
+            return;
+        }
+
+        Set<Long> pendingProductIds = getChangedStocks().getOrDefault(locationId, Collections.emptySet());
+        List<Long> productIdsToRefresh = Lists.newArrayList(productIds);
+
+        productIdsToRefresh.retainAll(pendingProductIds);
+
+        if (!productIdsToRefresh.isEmpty()) {
+            TransactionAspectSupport.currentTransactionStatus().flush();
+
+            refresh(locationId, productIdsToRefresh);
+
+            pendingProductIds.removeAll(productIdsToRefresh);
+        }
+    }
+
+    public void refresh(final Long locationId, final Collection<Long> productIds) {
+        for (List<Long> chunk : Lists.partition(Lists.newArrayList(productIds), L_MAX_IDS_IN_STATEMENT)) {
+            Map<String, Object> parameters = Maps.newHashMap();
+
+            parameters.put(L_LOCATION_ID, locationId);
+            parameters.put(L_PRODUCT_IDS, chunk);
+
+            jdbcTemplate.update(INSERT_MISSING_STOCK, parameters);
+            jdbcTemplate.queryForList(LOCK_STOCK, parameters, Long.class);
+            jdbcTemplate.update(REFRESH_STOCK, parameters);
+        }
+    }
+
+    public void reconcileTrigger() {
+        multiTenantService.doInMultiTenantContext(new MultiTenantCallback() {
+
+            @Override
+            public void invoke() {
+                reconcile();
+            }
+
+        });
+    }
+
+    public void reconcile() {
+        Map<Long, List<Long>> driftedStocks = Maps.newLinkedHashMap();
+
+        for (Map<String, Object> driftedStock : jdbcTemplate.queryForList(DRIFTED_STOCK, Collections.emptyMap())) {
+            driftedStocks.computeIfAbsent(((Number) driftedStock.get("location_id")).longValue(), key -> Lists.newArrayList())
+                    .add(((Number) driftedStock.get("product_id")).longValue());
+        }
+
+        int repaired = 0;
+
+        for (Map.Entry<Long, List<Long>> driftedStock : driftedStocks.entrySet()) {
+            for (List<Long> chunk : Lists.partition(driftedStock.getValue(), L_RECONCILE_CHUNK_SIZE)) {
+                repaired += reconcile(driftedStock.getKey(), chunk);
+            }
+        }
+
+        if (repaired > 0) {
+            LOGGER.warn("Resource stock reconciled, " + repaired + " rows were out of sync");
+        }
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    private int reconcile(final Long locationId, final List<Long> productIds) {
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        parameters.put(L_LOCATION_ID, locationId);
+        parameters.put(L_PRODUCT_IDS, productIds);
+
+        jdbcTemplate.queryForList(LOCK_STOCK, parameters, Long.class);
+
+        return jdbcTemplate.update(RECONCILE_STOCK, parameters);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Long, Set<Long>> getChangedStocks() {
+        Map<Long, Set<Long>> changedStocks = (Map<Long, Set<Long>>) TransactionSynchronizationManager.getResource(this);
+
+        if (Objects.isNull(changedStocks)) {
+            Map<Long, Set<Long>> stocks = Maps.newHashMap();
+
+            TransactionSynchronizationManager.bindResource(this, stocks);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void beforeCommit(final boolean readOnly) {
+                    TransactionAspectSupport.currentTransactionStatus().flush();
+
+                    stocks.forEach(ResourceStockLedgerService.this::refresh);
+                }
+
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(ResourceStockLedgerService.this);
+                }
+
+            });
+
+            changedStocks = stocks;
+        }
+
+        return changedStocks;
+    }
+
+}
@@ -1,7 +1,11 @@
 package com.qcadoo.mes.materialFlowResources.service;
 
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
+import com.qcadoo.mes.materialFlowResources.dto.ResourceStockShortageDto;
 import com.qcadoo.model.api.Entity;
 
 public interface ResourceStockService {
@@ -12,5 +16,9 @@ public interface ResourceStockService {
 
     BigDecimal getResourceStockQuantity(Entity product, Entity location);
 
+    Map<Long, BigDecimal> getResourceStockAvailableQuantities(final Collection<Long> productIds, final Entity location);
+
+    List<ResourceStockShortageDto> getResourcesStockShortages(final Entity document);
+
     void checkResourcesStock(Entity document);
 }
@@ -1,14 +1,17 @@
 package com.qcadoo.mes.materialFlowResources.service;
 
 import java.math.BigDecimal;
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
@@ -22,6 +25,8 @@ import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
 import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
 import com.qcadoo.mes.materialFlowResources.constants.ResourceStockFields;
 import com.qcadoo.mes.materialFlowResources.dto.ResourceStockDto;
+import com.qcadoo.mes.materialFlowResources.dto.ResourceStockShortageDto;
+import com.qcadoo.model.api.BigDecimalUtils;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -29,12 +34,17 @@ import com.qcadoo.model.api.Entity;
 @Service
 public class ResourceStockServiceImpl implements ResourceStockService {
 
+    private static final int L_MAX_IDS_IN_STATEMENT = 1000;
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ResourceStockLedgerService resourceStockLedgerService;
+
     @Override
     public void createResourceStock(final Entity resource) {
         Entity product = resource.getBelongsToField(ResourceFields.PRODUCT);
@@ -71,9 +81,11 @@ public class ResourceStockServiceImpl implements ResourceStockService {
     }
 
     private Optional<ResourceStockDto> getResourceStockForProductAndLocation(Entity product, Entity location) {
+        resourceStockLedgerService.refreshPending(location.getId(), Collections.singletonList(product.getId()));
+
         StringBuilder query = new StringBuilder();
-        query.append("SELECT rs.* ");
-        query.append("FROM materialflowresources_resourcestockdto rs ");
+        query.append("SELECT rs.quantity + rs.blockedquantity AS quantity, rs.availablequantity ");
+        query.append("FROM materialflowresources_resourcestock rs ");
         query.append("WHERE rs.location_id = :locationId AND rs.product_id = :productId ");
         query.append("LIMIT 1");
 
@@ -90,37 +102,67 @@ public class ResourceStockServiceImpl implements ResourceStockService {
     }
 
     @Override
-    public void checkResourcesStock(Entity document) {
-        List<String> invalidProducts = new ArrayList<>();
-        List<Entity> mergedPositions = mergePositionsBeforeValidation(document.getHasManyField(DocumentFields.POSITIONS));
-        for (Entity position : mergedPositions) {
-            if ((position.getDecimalField(PositionFields.QUANTITY)
-                    .compareTo(getResourceStockAvailableQuantity(position.getBelongsToField(PositionFields.PRODUCT),
-                            document.getBelongsToField(DocumentFields.LOCATION_FROM))) > 0)) {
-                Entity product = position.getBelongsToField(PositionFields.PRODUCT);
-                invalidProducts.add(product.getStringField(ProductFields.NUMBER));
-            }
+    public Map<Long, BigDecimal> getResourceStockAvailableQuantities(final Collection<Long> productIds, final Entity location) {
+        Map<Long, BigDecimal> availableQuantities = Maps.newHashMap();
+
+        if (Objects.isNull(location) || productIds.isEmpty()) {
+            return availableQuantities;
         }
-        if (!invalidProducts.isEmpty()) {
-            addDocumentErrors(document, invalidProducts);
+
+        resourceStockLedgerService.refreshPending(location.getId(), productIds);
+
+        String query = "SELECT rs.product_id, rs.availablequantity FROM materialflowresources_resourcestock rs "
+                + "WHERE rs.location_id = :locationId AND rs.product_id IN (:productIds)";
+
+        for (List<Long> chunk : Lists.partition(Lists.newArrayList(productIds), L_MAX_IDS_IN_STATEMENT)) {
+            Map<String, Object> params = Maps.newHashMap();
+            params.put("locationId", location.getId());
+            params.put("productIds", chunk);
+
+            jdbcTemplate.query(query, params, (RowCallbackHandler) rs -> availableQuantities.merge(rs.getLong("product_id"),
+                    BigDecimalUtils.convertNullToZero(rs.getBigDecimal("availablequantity")), BigDecimal::add));
         }
+
+        return availableQuantities;
     }
 
-    private List<Entity> mergePositionsBeforeValidation(final List<Entity> positions) {
-        List<Entity> mergedPositions = Lists.newArrayList();
-        for (Entity position : positions) {
-            Optional<Entity> mergedPosition = mergedPositions.stream()
-                    .filter(merged -> merged.getBelongsToField(PositionFields.PRODUCT).getId()
-                            .equals(position.getBelongsToField(PositionFields.PRODUCT).getId()))
-                    .findAny();
-            if (mergedPosition.isPresent()) {
-                mergedPosition.get().setField(PositionFields.QUANTITY, mergedPosition.get()
-                        .getDecimalField(PositionFields.QUANTITY).add(position.getDecimalField(PositionFields.QUANTITY)));
-            } else {
-                mergedPositions.add(position.copy());
+    @Override
+    public List<ResourceStockShortageDto> getResourcesStockShortages(final Entity document) {
+        Map<Long, BigDecimal> requiredQuantities = Maps.newLinkedHashMap();
+        Map<Long, String> productNumbers = Maps.newHashMap();
+
+        for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
+            Entity product = position.getBelongsToField(PositionFields.PRODUCT);
+
+            requiredQuantities.merge(product.getId(),
+                    BigDecimalUtils.convertNullToZero(position.getDecimalField(PositionFields.QUANTITY)), BigDecimal::add);
+            productNumbers.putIfAbsent(product.getId(), product.getStringField(ProductFields.NUMBER));
+        }
+
+        Map<Long, BigDecimal> availableQuantities = getResourceStockAvailableQuantities(requiredQuantities.keySet(),
+                document.getBelongsToField(DocumentFields.LOCATION_FROM));
+
+        List<ResourceStockShortageDto> shortages = Lists.newArrayList();
+
+        requiredQuantities.forEach((productId, requiredQuantity) -> {
+            BigDecimal availableQuantity = availableQuantities.getOrDefault(productId, BigDecimal.ZERO);
+
+            if (requiredQuantity.compareTo(availableQuantity) > 0) {
+                shortages.add(new ResourceStockShortageDto(productId, productNumbers.get(productId), requiredQuantity,
+                        availableQuantity));
             }
+        });
+
+        return shortages;
+    }
+
+    @Override
+    public void checkResourcesStock(Entity document) {
+        List<String> invalidProducts = getResourcesStockShortages(document).stream()
+                .map(ResourceStockShortageDto::getProductNumber).collect(Collectors.toList());
+        if (!invalidProducts.isEmpty()) {
+            addDocumentErrors(document, invalidProducts);
         }
-        return mergedPositions;
     }
 
     private void addDocumentErrors(Entity document, List<String> invalidProducts) {
@@ -0,0 +1,145 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.model.api.Entity;
+
+public class DocumentResourcesBatchTest {
+
+    private static final Long L_WAREHOUSE_ID = 1L;
+
+    private static final Long L_PRODUCT_ID = 2L;
+
+    private Entity warehouse;
+
+    private Entity product;
+
+    @Before
+    public void init() {
+        warehouse = mockEntity(L_WAREHOUSE_ID);
+        product = mockEntity(L_PRODUCT_ID);
+    }
+
+    @Test
+    public void shouldCollectUpdatedResource() {
+        // given
+        DocumentResourcesBatch batch = new DocumentResourcesBatch(warehouse, false);
+        Entity resource = mockResource(10L, null);
+
+        // when
+        batch.updateResource(resource);
+        batch.updateResource(resource);
+
+        // then
+        assertEquals(Lists.newArrayList(resource), Lists.newArrayList(batch.getResourcesToUpdate()));
+        assertTrue(batch.getResourcesToDelete().isEmpty());
+        assertEquals(ImmutableMap.of(L_WAREHOUSE_ID, Sets.newHashSet(L_PRODUCT_ID)), batch.getChangedStocks());
+        assertFalse(batch.isEmpty());
+    }
+
+    @Test
+    public void shouldDeleteResourceUpdatedEarlierAndDisposeItsPalletNumber() {
+        // given
+        DocumentResourcesBatch batch = new DocumentResourcesBatch(warehouse, false);
+        Entity palletNumber = mockEntity(20L);
+        Entity resource = mockResource(10L, palletNumber);
+        Entity resourceWithoutPallet = mockResource(11L, null);
+
+        // when
+        batch.updateResource(resource);
+        batch.deleteResource(resource);
+        batch.deleteResource(resourceWithoutPallet);
+
+        // then
+        assertTrue(batch.getResourcesToUpdate().isEmpty());
+        assertEquals(Sets.newHashSet(10L, 11L), batch.getResourcesToDelete());
+        assertEquals(Sets.newHashSet(20L), batch.getPalletNumbersToDispose());
+        assertEquals(ImmutableMap.of(L_WAREHOUSE_ID, Sets.newHashSet(L_PRODUCT_ID)), batch.getChangedStocks());
+    }
+
+    @Test
+    public void shouldDeleteReservationsOnlyWhenEnabled() {
+        // given
+        DocumentResourcesBatch batchWithReservations = new DocumentResourcesBatch(warehouse, true);
+        DocumentResourcesBatch batchWithoutReservations = new DocumentResourcesBatch(warehouse, false);
+        Entity position = mockEntity(30L);
+        Entity newPosition = mockEntity(null);
+
+        given(position.getBelongsToField(PositionFields.PRODUCT)).willReturn(product);
+
+        // when
+        batchWithReservations.deleteReservationForPosition(position);
+        batchWithReservations.deleteReservationForPosition(newPosition);
+        batchWithoutReservations.deleteReservationForPosition(position);
+
+        // then
+        assertEquals(Sets.newHashSet(30L), batchWithReservations.getPositionsWithReservationsToDelete());
+        assertEquals(ImmutableMap.of(L_WAREHOUSE_ID, Sets.newHashSet(L_PRODUCT_ID)), batchWithReservations.getChangedStocks());
+        assertTrue(batchWithoutReservations.isEmpty());
+    }
+
+    @Test
+    public void shouldUpdateInBatchOnlyResourcesWhichPassModelValidation() {
+        // given
+        Entity validResource = mockQuantities(BigDecimal.TEN, BigDecimal.ZERO, null, BigDecimal.ONE);
+        Entity resourceWithoutAdditionalUnit = mockQuantities(BigDecimal.TEN, BigDecimal.ONE, BigDecimal.ZERO, null);
+        Entity resourceWithZeroQuantity = mockQuantities(BigDecimal.ZERO, BigDecimal.ZERO, null, BigDecimal.ONE);
+        Entity resourceWithNegativeAvailableQuantity = mockQuantities(BigDecimal.ONE, BigDecimal.ONE.negate(), null, null);
+        Entity resourceWithNegativeReservedQuantity = mockQuantities(BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE.negate(),
+                null);
+        Entity resourceWithZeroAdditionalQuantity = mockQuantities(BigDecimal.ONE, BigDecimal.ONE, null, BigDecimal.ZERO);
+
+        // when & then
+        assertTrue(DocumentResourcesBatch.canBeUpdatedInBatch(validResource));
+        assertTrue(DocumentResourcesBatch.canBeUpdatedInBatch(resourceWithoutAdditionalUnit));
+        assertFalse(DocumentResourcesBatch.canBeUpdatedInBatch(resourceWithZeroQuantity));
+        assertFalse(DocumentResourcesBatch.canBeUpdatedInBatch(resourceWithNegativeAvailableQuantity));
+        assertFalse(DocumentResourcesBatch.canBeUpdatedInBatch(resourceWithNegativeReservedQuantity));
+        assertFalse(DocumentResourcesBatch.canBeUpdatedInBatch(resourceWithZeroAdditionalQuantity));
+    }
+
+    private Entity mockResource(final Long id, final Entity palletNumber) {
+        Entity resource = mockEntity(id);
+
+        given(resource.getBelongsToField(ResourceFields.LOCATION)).willReturn(warehouse);
+        given(resource.getBelongsToField(ResourceFields.PRODUCT)).willReturn(product);
+        given(resource.getBelongsToField(ResourceFields.PALLET_NUMBER)).willReturn(palletNumber);
+
+        return resource;
+    }
+
+    private Entity mockQuantities(final BigDecimal quantity, final BigDecimal availableQuantity,
+            final BigDecimal reservedQuantity, final BigDecimal quantityInAdditionalUnit) {
+        Entity resource = mock(Entity.class);
+
+        given(resource.getDecimalField(ResourceFields.QUANTITY)).willReturn(quantity);
+        given(resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)).willReturn(availableQuantity);
+        given(resource.getDecimalField(ResourceFields.RESERVED_QUANTITY)).willReturn(reservedQuantity);
+        given(resource.getDecimalField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT)).willReturn(quantityInAdditionalUnit);
+
+        return resource;
+    }
+
+    private Entity mockEntity(final Long id) {
+        Entity entity = mock(Entity.class);
+
+        given(entity.getId()).willReturn(id);
+
+        return entity;
+    }
+
+}
@@ -0,0 +1,192 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.typeahead.TypeaheadService;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.security.api.SecurityService;
+
+public class DocumentResourcesBatchWriterTest {
+
+    private static final Long L_WAREHOUSE_ID = 1L;
+
+    private static final Long L_PRODUCT_ID = 2L;
+
+    private DocumentResourcesBatchWriter documentResourcesBatchWriter;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private SecurityService securityService;
+
+    @Mock
+    private ResourceStockLedgerService resourceStockLedgerService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private PersistenceContextService persistenceContextService;
+
+    @Mock
+    private TypeaheadService typeaheadService;
+
+    @Mock
+    private DataDefinition resourceDD, palletNumberDD;
+
+    @Mock
+    private Entity warehouse, product;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        documentResourcesBatchWriter = new DocumentResourcesBatchWriter();
+
+        ReflectionTestUtils.setField(documentResourcesBatchWriter, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(documentResourcesBatchWriter, "securityService", securityService);
+        ReflectionTestUtils.setField(documentResourcesBatchWriter, "resourceStockLedgerService", resourceStockLedgerService);
+        ReflectionTestUtils.setField(documentResourcesBatchWriter, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(documentResourcesBatchWriter, "persistenceContextService", persistenceContextService);
+        ReflectionTestUtils.setField(documentResourcesBatchWriter, "typeaheadService", typeaheadService);
+
+        given(warehouse.getId()).willReturn(L_WAREHOUSE_ID);
+        given(product.getId()).willReturn(L_PRODUCT_ID);
+        given(securityService.getCurrentUserName()).willReturn("admin");
+        given(dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_RESOURCE)).willReturn(resourceDD);
+        given(dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PALLET_NUMBER)).willReturn(
+                palletNumberDD);
+    }
+
+    @Test
+    public void shouldNotWriteEmptyBatch() {
+        // given
+        DocumentResourcesBatch batch = new DocumentResourcesBatch(warehouse, true);
+
+        // when
+        documentResourcesBatchWriter.write(batch);
+
+        // then
+        verifyZeroInteractions(jdbcTemplate, resourceStockLedgerService, persistenceContextService, typeaheadService);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void shouldUpdateResourcesWithEntityVersionAndEvictThem() {
+        // given
+        DocumentResourcesBatch batch = new DocumentResourcesBatch(warehouse, false);
+        Entity resource = mockResource(10L, null);
+
+        given(resource.getDecimalField(ResourceFields.QUANTITY)).willReturn(BigDecimal.TEN);
+        given(resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)).willReturn(BigDecimal.ONE);
+        given(resource.getDecimalField(ResourceFields.RESERVED_QUANTITY)).willReturn(BigDecimal.ZERO);
+        given(resource.getDecimalField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT)).willReturn(BigDecimal.TEN);
+
+        batch.updateResource(resource);
+
+        // when
+        documentResourcesBatchWriter.write(batch);
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Map[]> parametersCaptor = ArgumentCaptor.forClass(Map[].class);
+
+        verify(jdbcTemplate).batchUpdate(queryCaptor.capture(), parametersCaptor.capture());
+
+        assertTrue(queryCaptor.getValue().contains("entityversion = entityversion + 1"));
+        assertEquals(1, parametersCaptor.getValue().length);
+
+        Map<String, Object> parameters = parametersCaptor.getValue()[0];
+
+        assertEquals(10L, parameters.get("id"));
+        assertEquals(BigDecimal.TEN, parameters.get("quantity"));
+        assertEquals(BigDecimal.ONE, parameters.get("availableQuantity"));
+        assertEquals(BigDecimal.ZERO, parameters.get("reservedQuantity"));
+        assertEquals(BigDecimal.TEN, parameters.get("quantityInAdditionalUnit"));
+
+        verify(jdbcTemplate, never()).update(anyString(), anyMap());
+        verify(resourceStockLedgerService).markChanged(L_WAREHOUSE_ID, Sets.newHashSet(L_PRODUCT_ID));
+        verify(persistenceContextService).evict(resourceDD, Sets.newHashSet(10L));
+        verifyZeroInteractions(typeaheadService);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void shouldDeleteResourcesAndDisposeTheirPalletNumbers() {
+        // given
+        DocumentResourcesBatch batch = new DocumentResourcesBatch(warehouse, false);
+        Entity palletNumber = mock(Entity.class);
+
+        given(palletNumber.getId()).willReturn(20L);
+
+        batch.deleteResource(mockResource(10L, palletNumber));
+        batch.deleteResource(mockResource(11L, null));
+
+        // when
+        documentResourcesBatchWriter.write(batch);
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Map> parametersCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), any(Map[].class));
+        verify(jdbcTemplate, times(6)).update(queryCaptor.capture(), parametersCaptor.capture());
+
+        List<String> queries = queryCaptor.getAllValues();
+        List<Map> parameters = parametersCaptor.getAllValues();
+
+        assertTrue(queries.get(4).startsWith("DELETE FROM materialflowresources_resource "));
+        assertEquals(Lists.newArrayList(10L, 11L), parameters.get(4).get("ids"));
+        assertTrue(queries.get(5).startsWith("UPDATE basic_palletnumber "));
+        assertEquals(Lists.newArrayList(20L), parameters.get(5).get("ids"));
+        assertEquals("admin", parameters.get(5).get("userLogin"));
+
+        verify(resourceStockLedgerService).markChanged(L_WAREHOUSE_ID, Sets.newHashSet(L_PRODUCT_ID));
+        verify(persistenceContextService).evict(resourceDD, Sets.newHashSet(10L, 11L));
+        verify(persistenceContextService).evict(palletNumberDD, Sets.newHashSet(20L));
+        verify(typeaheadService).onChange(BasicConstants.MODEL_PALLET_NUMBER, 20L);
+    }
+
+    private Entity mockResource(final Long id, final Entity palletNumber) {
+        Entity resource = mock(Entity.class);
+
+        given(resource.getId()).willReturn(id);
+        given(resource.getBelongsToField(ResourceFields.LOCATION)).willReturn(warehouse);
+        given(resource.getBelongsToField(ResourceFields.PRODUCT)).willReturn(product);
+        given(resource.getBelongsToField(ResourceFields.PALLET_NUMBER)).willReturn(palletNumber);
+
+        return resource;
+    }
+
+}
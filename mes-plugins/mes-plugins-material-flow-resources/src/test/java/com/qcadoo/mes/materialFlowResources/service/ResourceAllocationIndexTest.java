@@ -0,0 +1,150 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+import com.qcadoo.model.api.Entity;
+
+public class ResourceAllocationIndexTest {
+
+    private static final Long L_PRODUCT_ID = 1L;
+
+    private Entity product;
+
+    private Entity position;
+
+    @Before
+    public void init() {
+        product = mockEntity(L_PRODUCT_ID);
+        position = mock(Entity.class);
+
+        given(position.getDecimalField(PositionFields.CONVERSION)).willReturn(BigDecimal.ONE);
+    }
+
+    @Test
+    public void shouldReturnResourcesInFifoOrder() {
+        // given
+        Entity newer = mockResource(10L, new Date(2000L), null, BigDecimal.TEN);
+        Entity older = mockResource(11L, new Date(1000L), null, BigDecimal.TEN);
+
+        ResourceAllocationIndex index = new ResourceAllocationIndex(WarehouseAlgorithm.FIFO, Lists.newArrayList(L_PRODUCT_ID),
+                Lists.newArrayList(newer, older));
+
+        // when
+        List<Entity> resources = index.getResources(product, position, null, false);
+
+        // then
+        assertEquals(Lists.newArrayList(older, newer), resources);
+    }
+
+    @Test
+    public void shouldReturnResourcesInLifoOrder() {
+        // given
+        Entity newer = mockResource(10L, new Date(2000L), null, BigDecimal.TEN);
+        Entity older = mockResource(11L, new Date(1000L), null, BigDecimal.TEN);
+
+        ResourceAllocationIndex index = new ResourceAllocationIndex(WarehouseAlgorithm.LIFO, Lists.newArrayList(L_PRODUCT_ID),
+                Lists.newArrayList(older, newer));
+
+        // when
+        List<Entity> resources = index.getResources(product, position, null, false);
+
+        // then
+        assertEquals(Lists.newArrayList(newer, older), resources);
+    }
+
+    @Test
+    public void shouldReturnResourcesInFefoOrderWithoutExpirationDateLast() {
+        // given
+        Entity withoutExpiration = mockResource(10L, new Date(1000L), null, BigDecimal.ONE);
+        Entity expiringLater = mockResource(11L, new Date(1000L), new Date(5000L), BigDecimal.ONE);
+        Entity expiringSooner = mockResource(12L, new Date(1000L), new Date(3000L), BigDecimal.ONE);
+
+        ResourceAllocationIndex index = new ResourceAllocationIndex(WarehouseAlgorithm.FEFO, Lists.newArrayList(L_PRODUCT_ID),
+                Lists.newArrayList(withoutExpiration, expiringLater, expiringSooner));
+
+        // when
+        List<Entity> resources = index.getResources(product, position, null, false);
+
+        // then
+        assertEquals(Lists.newArrayList(expiringSooner, expiringLater, withoutExpiration), resources);
+    }
+
+    @Test
+    public void shouldSkipRemovedAndExhaustedResources() {
+        // given
+        Entity removed = mockResource(10L, new Date(1000L), null, BigDecimal.TEN);
+        Entity exhausted = mockResource(11L, new Date(2000L), null, BigDecimal.TEN);
+
+        ResourceAllocationIndex index = new ResourceAllocationIndex(WarehouseAlgorithm.FIFO, Lists.newArrayList(L_PRODUCT_ID),
+                Lists.newArrayList(removed, exhausted));
+
+        given(exhausted.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)).willReturn(BigDecimal.ZERO);
+
+        // when
+        index.remove(removed);
+        index.update(exhausted);
+
+        List<Entity> resources = index.getResources(product, position, null, false);
+
+        // then
+        assertTrue(resources.isEmpty());
+    }
+
+    @Test
+    public void shouldReturnResourcesWithAdditionalCodeFirst() {
+        // given
+        Entity additionalCode = mockEntity(100L);
+        Entity otherAdditionalCode = mockEntity(101L);
+
+        Entity withoutCode = mockResource(10L, new Date(1000L), null, BigDecimal.TEN);
+        Entity withOtherCode = mockResource(11L, new Date(2000L), null, BigDecimal.TEN);
+        Entity withCode = mockResource(12L, new Date(3000L), null, BigDecimal.TEN);
+
+        given(withOtherCode.getBelongsToField(ResourceFields.ADDITIONAL_CODE)).willReturn(otherAdditionalCode);
+        given(withCode.getBelongsToField(ResourceFields.ADDITIONAL_CODE)).willReturn(additionalCode);
+
+        ResourceAllocationIndex index = new ResourceAllocationIndex(WarehouseAlgorithm.FIFO, Lists.newArrayList(L_PRODUCT_ID),
+                Lists.newArrayList(withoutCode, withOtherCode, withCode));
+
+        // when
+        List<Entity> resources = index.getResources(product, position, additionalCode, false);
+
+        // then
+        assertEquals(Lists.newArrayList(withCode, withoutCode, withOtherCode), resources);
+    }
+
+    private Entity mockResource(final Long id, final Date time, final Date expirationDate, final BigDecimal availableQuantity) {
+        Entity resource = mockEntity(id);
+
+        given(resource.getBelongsToField(ResourceFields.PRODUCT)).willReturn(product);
+        given(resource.getDateField(ResourceFields.TIME)).willReturn(time);
+        given(resource.getDateField(ResourceFields.EXPIRATION_DATE)).willReturn(expirationDate);
+        given(resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)).willReturn(availableQuantity);
+        given(resource.getDecimalField(ResourceFields.CONVERSION)).willReturn(BigDecimal.ONE);
+
+        return resource;
+    }
+
+    private Entity mockEntity(final Long id) {
+        Entity entity = mock(Entity.class);
+
+        given(entity.getId()).willReturn(id);
+
+        return entity;
+    }
+
+}
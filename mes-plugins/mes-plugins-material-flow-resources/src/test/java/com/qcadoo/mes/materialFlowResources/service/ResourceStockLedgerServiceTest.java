@@ -0,0 +1,208 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(TransactionAspectSupport.class)
+public class ResourceStockLedgerServiceTest {
+
+    private static final Long L_LOCATION_ID = 1L;
+
+    private ResourceStockLedgerService resourceStockLedgerService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+        PowerMockito.mockStatic(TransactionAspectSupport.class);
+
+        given(TransactionAspectSupport.currentTransactionStatus()).willReturn(transactionStatus);
+
+        resourceStockLedgerService = new ResourceStockLedgerService();
+
+        ReflectionTestUtils.setField(resourceStockLedgerService, "jdbcTemplate", jdbcTemplate);
+    }
+
+    @After
+    public void cleanUp() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        TransactionSynchronizationManager.unbindResourceIfPossible(resourceStockLedgerService);
+    }
+
+    @Test
+    public void shouldRefreshStockAtOnceWithoutTransaction() {
+        // when
+        resourceStockLedgerService.markChanged(L_LOCATION_ID, Lists.newArrayList(2L, 3L));
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+
+        verify(jdbcTemplate, times(2)).update(queryCaptor.capture(), anyMap());
+
+        assertTrue(queryCaptor.getAllValues().get(0).startsWith("INSERT INTO materialflowresources_resourcestock"));
+        assertTrue(queryCaptor.getAllValues().get(1).startsWith("UPDATE materialflowresources_resourcestock"));
+        assertEquals(Lists.newArrayList(2L, 3L), captureLockParameters(1).get(0).get("productIds"));
+    }
+
+    @Test
+    public void shouldRefreshChangedStockOnceBeforeCommit() {
+        // given
+        TransactionSynchronizationManager.initSynchronization();
+
+        // when
+        resourceStockLedgerService.markChanged(L_LOCATION_ID, 2L);
+        resourceStockLedgerService.markChanged(L_LOCATION_ID, Lists.newArrayList(2L, 3L));
+
+        // then
+        verifyZeroInteractions(jdbcTemplate);
+
+        // when
+        beforeCommit();
+
+        // then
+        verify(transactionStatus).flush();
+
+        List<Map<String, Object>> parameters = captureLockParameters(1);
+
+        assertEquals(L_LOCATION_ID, parameters.get(0).get("locationId"));
+        assertEquals(Lists.newArrayList(2L, 3L), parameters.get(0).get("productIds"));
+    }
+
+    @Test
+    public void shouldRefreshPendingStockBeforeRead() {
+        // given
+        TransactionSynchronizationManager.initSynchronization();
+
+        resourceStockLedgerService.markChanged(L_LOCATION_ID, Lists.newArrayList(2L, 3L));
+
+        // when
+        resourceStockLedgerService.refreshPending(L_LOCATION_ID, Lists.newArrayList(3L, 4L));
+
+        // then
+        verify(transactionStatus).flush();
+        assertEquals(Lists.newArrayList(3L), captureLockParameters(1).get(0).get("productIds"));
+
+        // when
+        beforeCommit();
+
+        // then
+        assertEquals(Lists.newArrayList(2L), captureLockParameters(2).get(1).get("productIds"));
+    }
+
+    @Test
+    public void shouldNotRefreshStockNotPendingBeforeRead() {
+        // given
+        TransactionSynchronizationManager.initSynchronization();
+
+        // when
+        resourceStockLedgerService.refreshPending(L_LOCATION_ID, Lists.newArrayList(3L));
+
+        // then
+        verifyZeroInteractions(jdbcTemplate, transactionStatus);
+    }
+
+    @Test
+    public void shouldReconcileOnlyDriftedStockByLocation() {
+        // given
+        List<Map<String, Object>> driftedStocks = Lists.newArrayList();
+
+        driftedStocks.add(ImmutableMap.<String, Object> of("location_id", L_LOCATION_ID, "product_id", 2L));
+        driftedStocks.add(ImmutableMap.<String, Object> of("location_id", L_LOCATION_ID, "product_id", 3L));
+        driftedStocks.add(ImmutableMap.<String, Object> of("location_id", 5L, "product_id", 2L));
+
+        given(jdbcTemplate.queryForList(anyString(), anyMap())).willReturn(driftedStocks);
+        given(jdbcTemplate.update(anyString(), anyMap())).willReturn(1);
+
+        // when
+        resourceStockLedgerService.reconcile();
+
+        // then
+        List<Map<String, Object>> parameters = captureLockParameters(2);
+
+        assertEquals(ImmutableMap.of("locationId", L_LOCATION_ID, "productIds", Lists.newArrayList(2L, 3L)),
+                parameters.get(0));
+        assertEquals(ImmutableMap.of("locationId", 5L, "productIds", Lists.newArrayList(2L)), parameters.get(1));
+
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+
+        verify(jdbcTemplate, times(2)).update(queryCaptor.capture(), anyMap());
+
+        for (String query : queryCaptor.getAllValues()) {
+            assertTrue(query.contains("stock.location_id = :locationId AND stock.product_id IN (:productIds)"));
+        }
+    }
+
+    @Test
+    public void shouldNotLockStockWhenNothingDrifted() {
+        // given
+        given(jdbcTemplate.queryForList(anyString(), anyMap())).willReturn(Lists.newArrayList());
+
+        // when
+        resourceStockLedgerService.reconcile();
+
+        // then
+        verify(jdbcTemplate, never()).queryForList(anyString(), anyMap(), eq(Long.class));
+        verify(jdbcTemplate, never()).update(anyString(), anyMap());
+    }
+
+    private void beforeCommit() {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.beforeCommit(false);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> captureLockParameters(final int locks) {
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Map> parametersCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate, times(locks)).queryForList(queryCaptor.capture(), parametersCaptor.capture(), eq(Long.class));
+
+        for (String query : queryCaptor.getAllValues()) {
+            assertTrue(query.endsWith("ORDER BY stock.id FOR UPDATE"));
+        }
+
+        return (List<Map<String, Object>>) (List<?>) parametersCaptor.getAllValues();
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.qcadoo.mes.orderSupplies.controllers;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.qcadoo.mes.orderSupplies.constants.CoverageProductState;
+import com.qcadoo.mes.orderSupplies.coverage.LiveCoverageService;
+import com.qcadoo.mes.orderSupplies.coverage.LiveCoverageTimeline;
+
+@Controller
+@RequestMapping("/rest/liveCoverage")
+public class LiveCoverageController {
+
+    @Autowired
+    private LiveCoverageService liveCoverageService;
+
+    @ResponseBody
+    @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<LiveCoverageTimeline> getTimelines(
+            @RequestParam(value = "productIds", required = false) final List<Long> productIds,
+            @RequestParam(value = "onlyLacks", required = false, defaultValue = "false") final boolean onlyLacks) {
+        List<LiveCoverageTimeline> timelines;
+
+        if (Objects.isNull(productIds) || productIds.isEmpty()) {
+            timelines = liveCoverageService.getTimelines();
+        } else {
+            timelines = liveCoverageService.getTimelines(productIds);
+        }
+
+        if (onlyLacks) {
+            return timelines.stream()
+                    .filter(timeline -> !CoverageProductState.COVERED.getStringValue().equals(timeline.getState()))
+                    .collect(Collectors.toList());
+        }
+
+        return timelines;
+    }
+
+}
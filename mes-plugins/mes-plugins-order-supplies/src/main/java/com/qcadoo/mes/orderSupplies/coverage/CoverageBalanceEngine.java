@@ -0,0 +1,363 @@
+package com.qcadoo.mes.orderSupplies.coverage;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.orderSupplies.constants.CoverageProductLoggingEventType;
+import com.qcadoo.mes.orderSupplies.constants.CoverageProductLoggingState;
+import com.qcadoo.mes.orderSupplies.constants.CoverageProductState;
+import com.qcadoo.mes.orderSupplies.constants.CoverageType;
+import com.qcadoo.model.api.BigDecimalUtils;
+
+/**
+ * Computes coverage of products in time on flat records instead of coverage product and logging entities.
+ *
+ * Demand, deliveries, production and warehouse states are collected as events keyed by product id, then all events are sorted
+ * once by product, date and event type and a single sweep computes running reserve / missing quantities, states, lack from
+ * dates and totals of every product. Entities are created afterwards only for products which will be saved.
+ *
+ * One instance lives for a single coverage generation.
+ */
+class CoverageBalanceEngine {
+
+    private static final Comparator<CoverageEvent> EVENTS_ORDER = Comparator.comparingLong(CoverageEvent::getProductId)
+            .thenComparingLong(CoverageEvent::getDate)
+            .thenComparing(CoverageEvent::getEventType, Comparator.reverseOrder());
+
+    private final MathContext mathContext;
+
+    private final Map<Long, ProductBalance> productBalances = Maps.newLinkedHashMap();
+
+    private final List<CoverageEvent> events = Lists.newArrayList();
+
+    CoverageBalanceEngine(final MathContext mathContext) {
+        this.mathContext = mathContext;
+    }
+
+    boolean containsProduct(final Long productId) {
+        return productBalances.containsKey(productId);
+    }
+
+    void addDemand(final Long productId, final String productType, final CoverageEvent event) {
+        ProductBalance productBalance = productBalances.get(productId);
+
+        if (Objects.isNull(productBalance)) {
+            productBalance = new ProductBalance(productId, productType);
+
+            productBalances.put(productId, productBalance);
+        }
+
+        productBalance.demandQuantity = productBalance.demandQuantity.add(event.changes, mathContext);
+
+        events.add(event);
+    }
+
+    void addDelivery(final CoverageEvent event) {
+        ProductBalance productBalance = productBalances.get(event.productId);
+
+        if (Objects.nonNull(productBalance)) {
+            productBalance.deliveredQuantity = productBalance.deliveredQuantity.add(event.changes, mathContext);
+
+            events.add(event);
+        }
+    }
+
+    void addProduction(final CoverageEvent event) {
+        ProductBalance productBalance = productBalances.get(event.productId);
+
+        if (Objects.nonNull(productBalance)) {
+            productBalance.produceQuantity = productBalance.produceQuantity.add(event.changes, mathContext);
+
+            events.add(event);
+        }
+    }
+
+    void addWarehouseStates(final String warehouseNumber, final Date date, final Map<Long, BigDecimal> quantities) {
+        for (ProductBalance productBalance : productBalances.values()) {
+            BigDecimal quantity = BigDecimalUtils.convertNullToZero(quantities.get(productBalance.productId));
+
+            productBalance.locationsQuantity = productBalance.locationsQuantity.add(quantity, mathContext);
+
+            events.add(CoverageEvent.forWarehouseState(productBalance.productId, date, warehouseNumber, quantity));
+        }
+    }
+
+    void computeBalances() {
+        events.sort(EVENTS_ORDER);
+
+        ProductBalance productBalance = null;
+        BigDecimal reserveMissingQuantity = BigDecimal.ZERO;
+
+        for (CoverageEvent event : events) {
+            if (Objects.isNull(productBalance) || productBalance.productId != event.productId) {
+                productBalance = productBalances.get(event.productId);
+                reserveMissingQuantity = BigDecimal.ZERO;
+            }
+
+            productBalance.events.add(event);
+
+            if (CoverageProductLoggingEventType.WAREHOUSE_STATE.getStringValue().equals(event.eventType)) {
+                reserveMissingQuantity = reserveMissingQuantity.add(event.reserveMissingQuantity, mathContext);
+            } else if (CoverageProductLoggingEventType.DELIVERY.getStringValue().equals(event.eventType)
+                    || CoverageProductLoggingEventType.ORDER_OUTPUT.getStringValue().equals(event.eventType)) {
+                reserveMissingQuantity = reserveMissingQuantity.add(event.changes, mathContext);
+
+                fillEventState(productBalance, event, reserveMissingQuantity);
+            } else if (CoverageProductLoggingEventType.OPERATION_INPUT.getStringValue().equals(event.eventType)
+                    || CoverageProductLoggingEventType.ORDER_INPUT.getStringValue().equals(event.eventType)) {
+                reserveMissingQuantity = reserveMissingQuantity.subtract(event.changes, mathContext);
+
+                fillEventState(productBalance, event, reserveMissingQuantity);
+            }
+        }
+
+        events.clear();
+
+        for (ProductBalance balance : productBalances.values()) {
+            fillProductState(balance);
+        }
+    }
+
+    List<ProductBalance> getProductBalances(final String coverageType) {
+        return productBalances.values().stream().filter(productBalance -> isOfCoverageType(productBalance, coverageType))
+                .collect(Collectors.toList());
+    }
+
+    private void fillEventState(final ProductBalance productBalance, final CoverageEvent event,
+            final BigDecimal reserveMissingQuantity) {
+        if (reserveMissingQuantity.compareTo(BigDecimal.ZERO) >= 0) {
+            event.state = CoverageProductLoggingState.COVERED.getStringValue();
+        } else {
+            event.state = CoverageProductLoggingState.LACK.getStringValue();
+
+            if (Objects.isNull(productBalance.lackFromDate)) {
+                productBalance.lackFromDate = new Date(event.date);
+            }
+        }
+
+        event.reserveMissingQuantity = reserveMissingQuantity;
+    }
+
+    private void fillProductState(final ProductBalance productBalance) {
+        BigDecimal coveredQuantity = productBalance.deliveredQuantity.add(productBalance.locationsQuantity, mathContext)
+                .add(productBalance.produceQuantity, mathContext);
+
+        productBalance.coveredQuantity = coveredQuantity;
+        productBalance.reserveMissingQuantity = coveredQuantity.subtract(productBalance.demandQuantity, mathContext);
+
+        if (productBalance.reserveMissingQuantity.compareTo(BigDecimal.ZERO) >= 0) {
+            if (Objects.isNull(productBalance.lackFromDate)) {
+                productBalance.state = CoverageProductState.COVERED.getStringValue();
+            } else {
+                productBalance.state = CoverageProductState.DELAY.getStringValue();
+            }
+        } else {
+            productBalance.state = CoverageProductState.LACK.getStringValue();
+        }
+    }
+
+    private boolean isOfCoverageType(final ProductBalance productBalance, final String coverageType) {
+        if (CoverageType.WITHOUT_PRODUCTS_FROM_WAREHOUSE.getStringValue().equals(coverageType)) {
+            return productBalance.locationsQuantity.compareTo(productBalance.demandQuantity) < 0;
+        } else if (CoverageType.ONLY_SHORCOMINGS_AND_DELAYS.getStringValue().equals(coverageType)) {
+            return CoverageProductState.LACK.getStringValue().equals(productBalance.state)
+                    || CoverageProductState.DELAY.getStringValue().equals(productBalance.state);
+        }
+
+        return true;
+    }
+
+    static class ProductBalance {
+
+        private final long productId;
+
+        private final String productType;
+
+        private final List<CoverageEvent> events = Lists.newArrayList();
+
+        private BigDecimal demandQuantity = BigDecimal.ZERO;
+
+        private BigDecimal deliveredQuantity = BigDecimal.ZERO;
+
+        private BigDecimal locationsQuantity = BigDecimal.ZERO;
+
+        private BigDecimal produceQuantity = BigDecimal.ZERO;
+
+        private BigDecimal coveredQuantity = BigDecimal.ZERO;
+
+        private BigDecimal reserveMissingQuantity = BigDecimal.ZERO;
+
+        private Date lackFromDate;
+
+        private String state;
+
+        private ProductBalance(final long productId, final String productType) {
+            this.productId = productId;
+            this.productType = productType;
+        }
+
+        long getProductId() {
+            return productId;
+        }
+
+        String getProductType() {
+            return productType;
+        }
+
+        List<CoverageEvent> getEvents() {
+            return events;
+        }
+
+        BigDecimal getDemandQuantity() {
+            return demandQuantity;
+        }
+
+        BigDecimal getDeliveredQuantity() {
+            return deliveredQuantity;
+        }
+
+        BigDecimal getLocationsQuantity() {
+            return locationsQuantity;
+        }
+
+        BigDecimal getProduceQuantity() {
+            return produceQuantity;
+        }
+
+        BigDecimal getCoveredQuantity() {
+            return coveredQuantity;
+        }
+
+        BigDecimal getReserveMissingQuantity() {
+            return reserveMissingQuantity;
+        }
+
+        Date getLackFromDate() {
+            return lackFromDate;
+        }
+
+        String getState() {
+            return state;
+        }
+
+    }
+
+    static class CoverageEvent {
+
+        private final long productId;
+
+        private final long date;
+
+        private final String eventType;
+
+        private final BigDecimal changes;
+
+        private final Long orderId;
+
+        private final Long operationId;
+
+        private final Long deliveryId;
+
+        private final String deliveryNumberExternal;
+
+        private final String warehouseNumber;
+
+        private BigDecimal reserveMissingQuantity;
+
+        private String state;
+
+        private CoverageEvent(final long productId, final Date date, final String eventType, final BigDecimal changes,
+                final Long orderId, final Long operationId, final Long deliveryId, final String deliveryNumberExternal,
+                final String warehouseNumber) {
+            this.productId = productId;
+            this.date = date.getTime();
+            this.eventType = eventType;
+            this.changes = changes;
+            this.orderId = orderId;
+            this.operationId = operationId;
+            this.deliveryId = deliveryId;
+            this.deliveryNumberExternal = deliveryNumberExternal;
+            this.warehouseNumber = warehouseNumber;
+        }
+
+        static CoverageEvent forOrder(final long productId, final Date date, final String eventType, final BigDecimal changes,
+                final Long orderId, final Long operationId) {
+            return new CoverageEvent(productId, date, eventType, changes, orderId, operationId, null, null, null);
+        }
+
+        static CoverageEvent forDelivery(final long productId, final Date date, final BigDecimal changes, final Long deliveryId,
+                final String deliveryNumberExternal) {
+            CoverageEvent event = new CoverageEvent(productId, date, CoverageProductLoggingEventType.DELIVERY.getStringValue(),
+                    changes, null, null, deliveryId, deliveryNumberExternal, null);
+
+            event.state = CoverageProductLoggingState.COVERED.getStringValue();
+
+            return event;
+        }
+
+        static CoverageEvent forWarehouseState(final long productId, final Date date, final String warehouseNumber,
+                final BigDecimal quantity) {
+            CoverageEvent event = new CoverageEvent(productId, date,
+                    CoverageProductLoggingEventType.WAREHOUSE_STATE.getStringValue(), null, null, null, null, null,
+                    warehouseNumber);
+
+            event.reserveMissingQuantity = quantity;
+
+            return event;
+        }
+
+        long getProductId() {
+            return productId;
+        }
+
+        long getDate() {
+            return date;
+        }
+
+        String getEventType() {
+            return eventType;
+        }
+
+        BigDecimal getChanges() {
+            return changes;
+        }
+
+        Long getOrderId() {
+            return orderId;
+        }
+
+        Long getOperationId() {
+            return operationId;
+        }
+
+        Long getDeliveryId() {
+            return deliveryId;
+        }
+
+        String getDeliveryNumberExternal() {
+            return deliveryNumberExternal;
+        }
+
+        String getWarehouseNumber() {
+            return warehouseNumber;
+        }
+
+        BigDecimal getReserveMissingQuantity() {
+            return reserveMissingQuantity;
+        }
+
+        String getState() {
+            return state;
+        }
+
+    }
+
+}
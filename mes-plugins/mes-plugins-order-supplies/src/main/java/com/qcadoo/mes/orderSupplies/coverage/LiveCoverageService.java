@@ -0,0 +1,451 @@
+package com.qcadoo.mes.orderSupplies.coverage;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.deliveries.constants.DeliveredProductFields;
+import com.qcadoo.mes.deliveries.constants.DeliveriesConstants;
+import com.qcadoo.mes.deliveries.constants.OrderedProductFields;
+import com.qcadoo.mes.deliveries.states.constants.DeliveryStateStringValues;
+import com.qcadoo.mes.materialFlow.constants.LocationFields;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.service.ResourceStockChangeListener;
+import com.qcadoo.mes.orderSupplies.constants.CoverageLocationFields;
+import com.qcadoo.mes.orderSupplies.constants.CoverageOrderStateFields;
+import com.qcadoo.mes.orderSupplies.constants.CoverageType;
+import com.qcadoo.mes.orderSupplies.constants.OrderSuppliesConstants;
+import com.qcadoo.mes.orderSupplies.constants.ParameterFieldsOS;
+import com.qcadoo.mes.orderSupplies.coverage.CoverageBalanceEngine.CoverageEvent;
+import com.qcadoo.mes.orderSupplies.coverage.CoverageBalanceEngine.ProductBalance;
+import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+import com.qcadoo.model.api.search.SearchQueryBuilder;
+
+/**
+ * Standing "live" material requirement coverage. Projected balance timelines of products are computed with
+ * {@link CoverageBalanceEngine} from the coverage register, deliveries and resource stock, using coverage settings from
+ * parameters, and kept in memory until register, delivery or stock changes of the product are committed.
+ *
+ * Only products which are read and changed since are recalculated, so opening the coverage doesn't wait for a full
+ * generation. Timelines are also recalculated after {@link #L_MAX_AGE_IN_MILLIS}, because events dated in the past are moved
+ * to the time of calculation. Generated coverages ({@link MaterialRequirementCoverageService}) aren't affected.
+ */
+@Service
+public class LiveCoverageService implements ResourceStockChangeListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LiveCoverageService.class);
+
+    private static final int L_BATCH_SIZE = 1000;
+
+    private static final long L_MAX_AGE_IN_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private static final String L_PRODUCT_IDS = "productIds";
+
+    private static final String L_STATES = "states";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private NumberService numberService;
+
+    @Autowired
+    private ParameterService parameterService;
+
+    private final Map<Long, LiveCoverageTimeline> timelines = new ConcurrentHashMap<>();
+
+    private final Map<Long, Long> productGenerations = new ConcurrentHashMap<>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Returns timelines of all products with demand in the coverage register.
+     */
+    public List<LiveCoverageTimeline> getTimelines() {
+        return getTimelines(getProductIdsWithDemand(getOrderStates(parameterService.getParameter())));
+    }
+
+    /**
+     * Returns timelines of given products, products without demand are skipped.
+     */
+    public List<LiveCoverageTimeline> getTimelines(final Collection<Long> productIds) {
+        long now = System.currentTimeMillis();
+
+        Map<Long, LiveCoverageTimeline> result = Maps.newLinkedHashMap();
+        List<Long> outdatedProductIds = Lists.newArrayList();
+
+        for (Long productId : Sets.newLinkedHashSet(productIds)) {
+            LiveCoverageTimeline timeline = timelines.get(productId);
+
+            if (Objects.isNull(timeline) || now - timeline.getBuiltAt().getTime() > L_MAX_AGE_IN_MILLIS) {
+                outdatedProductIds.add(productId);
+            }
+
+            result.put(productId, timeline);
+        }
+
+        for (List<Long> productIdsChunk : Lists.partition(outdatedProductIds, L_BATCH_SIZE)) {
+            result.putAll(calculateTimelines(productIdsChunk));
+        }
+
+        return result.values().stream().filter(LiveCoverageTimeline::hasDemand).collect(Collectors.toList());
+    }
+
+    public LiveCoverageTimeline getTimeline(final Long productId) {
+        List<LiveCoverageTimeline> productTimelines = getTimelines(Collections.singletonList(productId));
+
+        if (productTimelines.isEmpty()) {
+            return null;
+        }
+
+        return productTimelines.get(0);
+    }
+
+    /**
+     * Drops timelines of given products once the current transaction is committed, immediately if there is none. Products are
+     * collected even if no timeline is kept yet, because a calculation started before the commit reads stale data, and it
+     * mustn't be kept.
+     */
+    public void invalidate(final Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            getPendingProductIds().addAll(productIds);
+        } else {
+            drop(productIds);
+        }
+    }
+
+    public void invalidate(final Long productId) {
+        if (Objects.nonNull(productId)) {
+            invalidate(Collections.singletonList(productId));
+        }
+    }
+
+    public void invalidateOrder(final Long orderId) {
+        if (Objects.nonNull(orderId)) {
+            invalidate(getProductIds("SELECT DISTINCT registry.product.id AS productId "
+                    + "FROM #orderSupplies_coverageRegister AS registry WHERE registry.order.id = :id", orderId));
+        }
+    }
+
+    public void invalidateDelivery(final Long deliveryId) {
+        if (Objects.nonNull(deliveryId)) {
+            invalidate(getProductIds("SELECT DISTINCT deliveryProduct.product.id AS productId "
+                    + "FROM #deliveries_orderedProduct AS deliveryProduct WHERE deliveryProduct.delivery.id = :id", deliveryId));
+            invalidate(getProductIds("SELECT DISTINCT deliveryProduct.product.id AS productId "
+                    + "FROM #deliveries_deliveredProduct AS deliveryProduct WHERE deliveryProduct.delivery.id = :id",
+                    deliveryId));
+        }
+    }
+
+    /**
+     * Drops all timelines once the current transaction is committed, immediately if there is none.
+     */
+    public void invalidateAll() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCommit() {
+                    dropAll();
+                }
+
+            });
+        } else {
+            dropAll();
+        }
+    }
+
+    @Override
+    public void onStockChanged(final Long locationId, final Collection<Long> productIds) {
+        invalidate(productIds);
+    }
+
+    private void dropAll() {
+        generation.incrementAndGet();
+        timelines.clear();
+    }
+
+    private void drop(final Collection<Long> productIds) {
+        for (Long productId : productIds) {
+            productGenerations.merge(productId, 1L, Long::sum);
+            timelines.remove(productId);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Long> getPendingProductIds() {
+        Set<Long> pendingProductIds = (Set<Long>) TransactionSynchronizationManager.getResource(this);
+
+        if (Objects.isNull(pendingProductIds)) {
+            Set<Long> productIds = Sets.newHashSet();
+
+            TransactionSynchronizationManager.bindResource(this, productIds);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCommit() {
+                    drop(productIds);
+                }
+
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(LiveCoverageService.this);
+                }
+
+            });
+
+            pendingProductIds = productIds;
+        }
+
+        return pendingProductIds;
+    }
+
+    private Map<Long, LiveCoverageTimeline> calculateTimelines(final List<Long> productIds) {
+        long startGeneration = generation.get();
+        Map<Long, Long> startProductGenerations = Maps.newHashMap();
+
+        productIds.forEach(
+                productId -> startProductGenerations.put(productId, productGenerations.getOrDefault(productId, 0L)));
+
+        Date actualDate = new Date();
+        Entity parameter = parameterService.getParameter();
+        List<String> states = getOrderStates(parameter);
+
+        CoverageBalanceEngine coverageBalanceEngine = new CoverageBalanceEngine(numberService.getMathContext());
+
+        addRegisterEvents(coverageBalanceEngine, productIds, states, actualDate);
+        addWarehouseStates(coverageBalanceEngine, productIds, parameter, actualDate);
+        addDeliveries(coverageBalanceEngine, productIds,
+                parameter.getBooleanField(ParameterFieldsOS.INCLUDE_DRAFT_DELIVERIES), actualDate);
+
+        coverageBalanceEngine.computeBalances();
+
+        Map<Long, ProductBalance> productBalances = coverageBalanceEngine
+                .getProductBalances(CoverageType.ALL.getStringValue()).stream()
+                .collect(Collectors.toMap(ProductBalance::getProductId, productBalance -> productBalance));
+
+        Map<Long, LiveCoverageTimeline> calculatedTimelines = Maps.newHashMap();
+
+        for (Long productId : productIds) {
+            ProductBalance productBalance = productBalances.get(productId);
+
+            LiveCoverageTimeline timeline = Objects.isNull(productBalance) ? LiveCoverageTimeline.withoutDemand(productId,
+                    actualDate) : LiveCoverageTimeline.of(productBalance, actualDate);
+
+            calculatedTimelines.put(productId, timeline);
+
+            timelines.compute(productId, (key, current) -> {
+                if (startGeneration == generation.get()
+                        && startProductGenerations.get(key).equals(productGenerations.getOrDefault(key, 0L))) {
+                    return timeline;
+                }
+
+                return current;
+            });
+        }
+
+        LOG.debug("Live coverage calculated for " + productIds.size() + " products in "
+                + (System.currentTimeMillis() - actualDate.getTime()) + " ms");
+
+        return calculatedTimelines;
+    }
+
+    private void addRegisterEvents(final CoverageBalanceEngine coverageBalanceEngine, final List<Long> productIds,
+            final List<String> states, final Date actualDate) {
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT registry.product.id AS productId, registry.productType AS productType, ");
+        query.append("registry.order.id AS orderId, operation.id AS operationId, registry.date AS date, ");
+        query.append("registry.quantity AS quantity, registry.eventType AS eventType ");
+        query.append("FROM #orderSupplies_coverageRegister AS registry LEFT JOIN registry.operation AS operation ");
+
+        if (!states.isEmpty()) {
+            query.append("JOIN registry.order AS ord ");
+        }
+
+        query.append("WHERE registry.product.id IN (:productIds) AND registry.quantity > 0 ");
+        query.append("AND registry.eventType IN ('03operationInput','04orderInput','05orderOutput') ");
+
+        if (!states.isEmpty()) {
+            query.append("AND ord.state IN (:states) ");
+        }
+
+        query.append("ORDER BY registry.eventType");
+
+        SearchQueryBuilder queryBuilder = getCoverageRegisterDD().find(query.toString()).setParameterList(L_PRODUCT_IDS,
+                productIds);
+
+        if (!states.isEmpty()) {
+            queryBuilder.setParameterList(L_STATES, states);
+        }
+
+        for (Entity registerEntry : queryBuilder.list().getEntities()) {
+            String eventType = registerEntry.getStringField("eventType");
+            Long productId = getId(registerEntry, "productId");
+
+            if ("05orderOutput".equals(eventType)) {
+                coverageBalanceEngine.addProduction(createCoverageEvent(registerEntry, productId, eventType,
+                        getEventDate(registerEntry.getDateField("date"), actualDate, 1)));
+            } else {
+                coverageBalanceEngine.addDemand(productId, registerEntry.getStringField("productType"),
+                        createCoverageEvent(registerEntry, productId, eventType,
+                                getEventDate(registerEntry.getDateField("date"), actualDate, 3)));
+            }
+        }
+    }
+
+    private CoverageEvent createCoverageEvent(final Entity registerEntry, final Long productId, final String eventType,
+            final Date date) {
+        return CoverageEvent.forOrder(productId, date, eventType,
+                numberService.setScaleWithDefaultMathContext(registerEntry.getDecimalField("quantity")),
+                getId(registerEntry, "orderId"), getId(registerEntry, "operationId"));
+    }
+
+    private void addWarehouseStates(final CoverageBalanceEngine coverageBalanceEngine, final List<Long> productIds,
+            final Entity parameter, final Date actualDate) {
+        for (Entity coverageLocation : parameter.getHasManyField(ParameterFieldsOS.COVERAGE_LOCATIONS)) {
+            Entity location = coverageLocation.getBelongsToField(CoverageLocationFields.LOCATION);
+
+            String query = "SELECT stock.product.id AS productId, stock.quantity + stock.blockedQuantity AS quantity "
+                    + "FROM #materialFlowResources_resourceStock AS stock "
+                    + "WHERE stock.location.id = :locationId AND stock.product.id IN (:productIds)";
+
+            Map<Long, BigDecimal> quantities = Maps.newHashMap();
+
+            for (Entity stock : getResourceStockDD().find(query).setParameter("locationId", location.getId())
+                    .setParameterList(L_PRODUCT_IDS, productIds).list().getEntities()) {
+                quantities.put(getId(stock, "productId"), numberService.setScaleWithDefaultMathContext(
+                        BigDecimalUtils.convertNullToZero(stock.getDecimalField("quantity"))));
+            }
+
+            coverageBalanceEngine.addWarehouseStates(location.getStringField(LocationFields.NUMBER), actualDate, quantities);
+        }
+    }
+
+    private void addDeliveries(final CoverageBalanceEngine coverageBalanceEngine, final List<Long> productIds,
+            final boolean includeDraftDeliveries, final Date actualDate) {
+        List<String> states = Lists.newArrayList(DeliveryStateStringValues.APPROVED);
+
+        if (includeDraftDeliveries) {
+            states.add(DeliveryStateStringValues.DRAFT);
+            states.add(DeliveryStateStringValues.PREPARED);
+            states.add(DeliveryStateStringValues.DURING_CORRECTION);
+        }
+
+        addDeliveries(coverageBalanceEngine, DeliveriesConstants.MODEL_ORDERED_PRODUCT, OrderedProductFields.ORDERED_QUANTITY,
+                productIds, states, actualDate);
+        addDeliveries(coverageBalanceEngine, DeliveriesConstants.MODEL_DELIVERED_PRODUCT,
+                DeliveredProductFields.DELIVERED_QUANTITY, productIds,
+                Collections.singletonList(DeliveryStateStringValues.RECEIVE_CONFIRM_WAITING), actualDate);
+    }
+
+    private void addDeliveries(final CoverageBalanceEngine coverageBalanceEngine, final String modelName,
+            final String quantityFieldName, final List<Long> productIds, final List<String> states, final Date actualDate) {
+        String query = "SELECT deliveryProduct.product.id AS productId, deliveryProduct." + quantityFieldName + " AS quantity, "
+                + "delivery.id AS deliveryId, delivery.externalNumber AS externalNumber, delivery.deliveryDate AS deliveryDate "
+                + "FROM #deliveries_" + modelName + " AS deliveryProduct JOIN deliveryProduct.delivery AS delivery "
+                + "WHERE deliveryProduct.product.id IN (:productIds) AND delivery.deliveryDate IS NOT NULL "
+                + "AND delivery.state IN (:states) AND delivery.active = true ORDER BY delivery.id";
+
+        List<Entity> deliveryProducts = dataDefinitionService.get(DeliveriesConstants.PLUGIN_IDENTIFIER, modelName).find(query)
+                .setParameterList(L_PRODUCT_IDS, productIds).setParameterList(L_STATES, states).list().getEntities();
+
+        for (Entity deliveryProduct : deliveryProducts) {
+            BigDecimal quantity = BigDecimalUtils.convertNullToZero(deliveryProduct.getDecimalField("quantity"));
+
+            coverageBalanceEngine.addDelivery(CoverageEvent.forDelivery(getId(deliveryProduct, "productId"),
+                    getEventDate(deliveryProduct.getDateField("deliveryDate"), actualDate, 2),
+                    numberService.setScaleWithDefaultMathContext(quantity), getId(deliveryProduct, "deliveryId"),
+                    deliveryProduct.getStringField("externalNumber")));
+        }
+    }
+
+    private List<Long> getProductIdsWithDemand(final List<String> states) {
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT DISTINCT registry.product.id AS productId FROM #orderSupplies_coverageRegister AS registry ");
+
+        if (!states.isEmpty()) {
+            query.append("JOIN registry.order AS ord ");
+        }
+
+        query.append("WHERE registry.eventType IN ('03operationInput','04orderInput') AND registry.quantity > 0 ");
+
+        if (!states.isEmpty()) {
+            query.append("AND ord.state IN (:states)");
+        }
+
+        SearchQueryBuilder queryBuilder = getCoverageRegisterDD().find(query.toString());
+
+        if (!states.isEmpty()) {
+            queryBuilder.setParameterList(L_STATES, states);
+        }
+
+        return queryBuilder.list().getEntities().stream().map(entry -> getId(entry, "productId")).collect(Collectors.toList());
+    }
+
+    private List<Long> getProductIds(final String query, final Long id) {
+        return getCoverageRegisterDD().find(query).setParameter("id", id).list().getEntities().stream()
+                .map(entry -> getId(entry, "productId")).collect(Collectors.toList());
+    }
+
+    private List<String> getOrderStates(final Entity parameter) {
+        return parameter.getHasManyField(ParameterFieldsOS.COVERAGE_ORDER_STATES).stream()
+                .map(orderState -> orderState.getStringField(CoverageOrderStateFields.STATE)).collect(Collectors.toList());
+    }
+
+    private Date getEventDate(final Date date, final Date actualDate, final int secondsAfterActualDate) {
+        if (date.before(actualDate)) {
+            return new DateTime(actualDate).plusSeconds(secondsAfterActualDate).toDate();
+        }
+
+        return date;
+    }
+
+    private Long getId(final Entity projection, final String fieldName) {
+        Number id = (Number) projection.getField(fieldName);
+
+        if (Objects.isNull(id)) {
+            return null;
+        }
+
+        return id.longValue();
+    }
+
+    private DataDefinition getCoverageRegisterDD() {
+        return dataDefinitionService.get(OrderSuppliesConstants.PLUGIN_IDENTIFIER,
+                OrderSuppliesConstants.MODEL_COVERAGE_REGISTER);
+    }
+
+    private DataDefinition getResourceStockDD() {
+        return dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER, "resourceStock");
+    }
+
+}
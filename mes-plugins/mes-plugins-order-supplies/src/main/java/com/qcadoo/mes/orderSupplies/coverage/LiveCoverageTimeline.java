@@ -0,0 +1,194 @@
+package com.qcadoo.mes.orderSupplies.coverage;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.orderSupplies.constants.CoverageProductLoggingEventType;
+import com.qcadoo.mes.orderSupplies.coverage.CoverageBalanceEngine.CoverageEvent;
+import com.qcadoo.mes.orderSupplies.coverage.CoverageBalanceEngine.ProductBalance;
+
+/**
+ * Projected balance of a product in time, kept by {@link LiveCoverageService}. Balance starts with the warehouse state and
+ * changes with every demand, delivery and production event, points are sorted by date.
+ */
+public final class LiveCoverageTimeline {
+
+    private final Long productId;
+
+    private final Date builtAt;
+
+    private final long[] dates;
+
+    private final BigDecimal[] balances;
+
+    private final BigDecimal demandQuantity;
+
+    private final BigDecimal deliveredQuantity;
+
+    private final BigDecimal locationsQuantity;
+
+    private final BigDecimal produceQuantity;
+
+    private final BigDecimal reserveMissingQuantity;
+
+    private final Date lackFromDate;
+
+    private final String state;
+
+    private LiveCoverageTimeline(final Long productId, final Date builtAt, final long[] dates, final BigDecimal[] balances,
+            final ProductBalance productBalance) {
+        this.productId = productId;
+        this.builtAt = builtAt;
+        this.dates = dates;
+        this.balances = balances;
+
+        if (Objects.isNull(productBalance)) {
+            this.demandQuantity = BigDecimal.ZERO;
+            this.deliveredQuantity = BigDecimal.ZERO;
+            this.locationsQuantity = BigDecimal.ZERO;
+            this.produceQuantity = BigDecimal.ZERO;
+            this.reserveMissingQuantity = BigDecimal.ZERO;
+            this.lackFromDate = null;
+            this.state = null;
+        } else {
+            this.demandQuantity = productBalance.getDemandQuantity();
+            this.deliveredQuantity = productBalance.getDeliveredQuantity();
+            this.locationsQuantity = productBalance.getLocationsQuantity();
+            this.produceQuantity = productBalance.getProduceQuantity();
+            this.reserveMissingQuantity = productBalance.getReserveMissingQuantity();
+            this.lackFromDate = productBalance.getLackFromDate();
+            this.state = productBalance.getState();
+        }
+    }
+
+    static LiveCoverageTimeline of(final ProductBalance productBalance, final Date builtAt) {
+        List<CoverageEvent> events = Lists.newArrayList();
+
+        for (CoverageEvent event : productBalance.getEvents()) {
+            if (!CoverageProductLoggingEventType.WAREHOUSE_STATE.getStringValue().equals(event.getEventType())) {
+                events.add(event);
+            }
+        }
+
+        long[] dates = new long[events.size()];
+        BigDecimal[] balances = new BigDecimal[events.size()];
+
+        for (int i = 0; i < events.size(); i++) {
+            dates[i] = events.get(i).getDate();
+            balances[i] = events.get(i).getReserveMissingQuantity();
+        }
+
+        return new LiveCoverageTimeline(productBalance.getProductId(), builtAt, dates, balances, productBalance);
+    }
+
+    static LiveCoverageTimeline withoutDemand(final Long productId, final Date builtAt) {
+        return new LiveCoverageTimeline(productId, builtAt, new long[0], new BigDecimal[0], null);
+    }
+
+    public boolean hasDemand() {
+        return Objects.nonNull(state);
+    }
+
+    /**
+     * Returns projected balance after all events which happen until given date, warehouse state if there are none.
+     */
+    public BigDecimal getBalanceAt(final Date date) {
+        int index = findLastIndexUntil(date.getTime());
+
+        if (index < 0) {
+            return locationsQuantity;
+        }
+
+        return balances[index];
+    }
+
+    public List<Point> getPoints() {
+        List<Point> points = Lists.newArrayListWithCapacity(dates.length);
+
+        for (int i = 0; i < dates.length; i++) {
+            points.add(new Point(new Date(dates[i]), balances[i]));
+        }
+
+        return points;
+    }
+
+    private int findLastIndexUntil(final long date) {
+        int low = 0;
+        int high = dates.length - 1;
+        int found = -1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+
+            if (dates[middle] <= date) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return found;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public Date getBuiltAt() {
+        return builtAt;
+    }
+
+    public BigDecimal getDemandQuantity() {
+        return demandQuantity;
+    }
+
+    public BigDecimal getDeliveredQuantity() {
+        return deliveredQuantity;
+    }
+
+    public BigDecimal getLocationsQuantity() {
+        return locationsQuantity;
+    }
+
+    public BigDecimal getProduceQuantity() {
+        return produceQuantity;
+    }
+
+    public BigDecimal getReserveMissingQuantity() {
+        return reserveMissingQuantity;
+    }
+
+    public Date getLackFromDate() {
+        return lackFromDate;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public static class Point {
+
+        private final Date date;
+
+        private final BigDecimal balance;
+
+        private Point(final Date date, final BigDecimal balance) {
+            this.date = date;
+            this.balance = balance;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public BigDecimal getBalance() {
+            return balance;
+        }
+
+    }
+
+}
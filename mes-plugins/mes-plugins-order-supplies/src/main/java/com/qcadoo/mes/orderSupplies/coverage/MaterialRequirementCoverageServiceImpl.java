@@ -23,14 +23,15 @@
  */
 package com.qcadoo.mes.orderSupplies.coverage;
 
-import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.mes.deliveries.DeliveriesService;
+import com.qcadoo.mes.deliveries.constants.DeliveredProductFields;
 import com.qcadoo.mes.deliveries.constants.DeliveriesConstants;
-import com.qcadoo.mes.deliveries.constants.DeliveryFields;
+import com.qcadoo.mes.deliveries.constants.OrderedProductFields;
 import com.qcadoo.mes.deliveries.states.constants.DeliveryStateStringValues;
 import com.qcadoo.mes.materialFlow.constants.LocationFields;
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
@@ -38,15 +39,13 @@ import com.qcadoo.mes.orderSupplies.OrderSuppliesService;
 import com.qcadoo.mes.orderSupplies.constants.CoverageLocationFields;
 import com.qcadoo.mes.orderSupplies.constants.CoverageOrderStateFields;
 import com.qcadoo.mes.orderSupplies.constants.CoverageProductFields;
-import com.qcadoo.mes.orderSupplies.constants.CoverageProductLoggingEventType;
-import com.qcadoo.mes.orderSupplies.constants.CoverageProductLoggingFields;
-import com.qcadoo.mes.orderSupplies.constants.CoverageProductLoggingState;
 import com.qcadoo.mes.orderSupplies.constants.CoverageProductState;
 import com.qcadoo.mes.orderSupplies.constants.CoverageRegisterFields;
-import com.qcadoo.mes.orderSupplies.constants.CoverageType;
 import com.qcadoo.mes.orderSupplies.constants.MaterialRequirementCoverageFields;
 import com.qcadoo.mes.orderSupplies.constants.OrderSuppliesConstants;
 import com.qcadoo.mes.orderSupplies.constants.ProductType;
+import com.qcadoo.mes.orderSupplies.coverage.CoverageBalanceEngine.CoverageEvent;
+import com.qcadoo.mes.orderSupplies.coverage.CoverageBalanceEngine.ProductBalance;
 import com.qcadoo.mes.orderSupplies.register.RegisterService;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
@@ -62,7 +61,6 @@ import com.qcadoo.model.api.search.SearchRestrictions;
 
 import java.math.BigDecimal;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -92,6 +90,12 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
 
     private static final String L_PLANNED_QUANTITY = "planedQuantity";
 
+    private static final int L_BATCH_SIZE = 1000;
+
+    private static final String L_REGISTRY_PROJECTION = "SELECT registry.product.id AS productId, "
+            + "registry.productType AS productType, registry.order.id AS orderId, operation.id AS operationId, "
+            + "registry.date AS date, registry.quantity AS quantity, registry.eventType AS eventType ";
+
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
@@ -113,9 +117,6 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
     @Autowired
     private ParameterService parameterService;
 
-    @Autowired
-    private MaterialRequirementCoverageHelper materialRequirementCoverageHelper;
-
     @Transactional
     @Override
     public void estimateProductCoverageInTime(final Entity materialRequirementCoverage) {
@@ -135,9 +136,7 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
         List<Entity> coverageLocations = materialRequirementCoverage
                 .getHasManyField(MaterialRequirementCoverageFields.COVERAGE_LOCATIONS);
 
-        List<Entity> includedDeliveries = getDeliveriesFromDB(coverageToDate, includeDraftDeliveries);
-
-        Map<Long, Entity> productAndCoverageProducts = Maps.newHashMap();
+        CoverageBalanceEngine coverageBalanceEngine = new CoverageBalanceEngine(numberService.getMathContext());
 
         List<Entity> orderStates = materialRequirementCoverage
                 .getHasManyField(MaterialRequirementCoverageFields.COVERAGE_ORDER_STATES);
@@ -149,9 +148,9 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
 
         if (coverageBasedOnProductionCounting) {
             Entity assignedOrder = materialRequirementCoverage.getBelongsToField(L_ORDER);
-            fillFromProductionCounting(productAndCoverageProducts, assignedOrder, coverageToDate, actualDate, orderStates);
+            fillFromProductionCounting(coverageBalanceEngine, assignedOrder, coverageToDate, actualDate, orderStates);
         } else {
-            fillFromRegistry(productAndCoverageProducts, coverageToDate, actualDate, orderStates);
+            fillFromRegistry(coverageBalanceEngine, coverageToDate, actualDate, orderStates);
 
             Entity assignedOrder = materialRequirementCoverage.getBelongsToField(L_ORDER);
 
@@ -161,49 +160,49 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
                         .filter(state -> state.getStringField(CoverageOrderStateFields.STATE).equals(
                                 assignedOrder.getStringField(OrderFields.STATE))).findAny();
                 if (!maybeState.isPresent()) {
-                    fillFromRegistryAssignedOrder(productAndCoverageProducts, assignedOrder, coverageToDate, actualDate);
+                    fillFromRegistryAssignedOrder(coverageBalanceEngine, assignedOrder, coverageToDate, actualDate);
                 }
             }
 
         }
 
-        estimateProductLocationsInTime(materialRequirementCoverage, productAndCoverageProducts, coverageLocations, actualDate);
+        estimateProductLocationsInTime(coverageBalanceEngine, coverageLocations, actualDate);
 
-        estimateProductDeliveriesInTime(materialRequirementCoverage, productAndCoverageProducts, includedDeliveries, actualDate,
-                coverageToDate, includeDraftDeliveries);
+        estimateProductDeliveriesInTime(coverageBalanceEngine, actualDate, coverageToDate, includeDraftDeliveries);
 
         if (coverageBasedOnProductionCounting) {
-            estimateProductProducedInTimeFromPQ(productAndCoverageProducts, coverageToDate, actualDate, orderStates);
+            estimateProductProducedInTimeFromPQ(coverageBalanceEngine, coverageToDate, actualDate, orderStates);
         } else {
-            estimateProductProducedInTime(productAndCoverageProducts, coverageToDate, actualDate, orderStates);
+            estimateProductProducedInTime(coverageBalanceEngine, coverageToDate, actualDate, orderStates);
         }
 
-        additionalProcessProductCoverage(materialRequirementCoverage, productAndCoverageProducts);
+        coverageBalanceEngine.computeBalances();
+
+        List<ProductBalance> productBalances = coverageBalanceEngine.getProductBalances(coverageType);
 
-        fillCoverageProductStatesAndQuantities(productAndCoverageProducts);
+        Map<Long, Entity> productAndCoverageProducts = createCoverageProducts(productBalances);
+
+        additionalProcessProductCoverage(materialRequirementCoverage, productAndCoverageProducts);
 
         fillCoverageProductSupplier(productAndCoverageProducts);
 
         materialRequirementCoverage.getDataDefinition().save(materialRequirementCoverage);
 
-        saveCoverage(materialRequirementCoverage, filterCoverageProducts(productAndCoverageProducts, coverageType));
+        saveCoverage(materialRequirementCoverage, productBalances, productAndCoverageProducts);
 
         LOG.info("Finish generation material requirement - id : " + materialRequirementCoverage.getId());
     }
 
-    private void estimateProductProducedInTimeFromPQ(final Map<Long, Entity> productAndCoverageProducts,
+    private void estimateProductProducedInTimeFromPQ(final CoverageBalanceEngine coverageBalanceEngine,
             final Date coverageToDate, final Date actualDate, final List<Entity> orderStates) {
-
-        List<String> states = Lists.newArrayList();
-
-        if (orderStates != null && !orderStates.isEmpty()) {
-            states = orderStates.stream().map(o -> o.getStringField(CoverageOrderStateFields.STATE)).collect(Collectors.toList());
-        }
+        List<String> states = getStates(orderStates);
 
         StringBuilder query = new StringBuilder();
-        query.append("SELECT registry FROM #orderSupplies_productionCountingQuantityOutput AS registry ");
+        query.append("SELECT registry.productId AS productId, registry.orderId AS orderId, ");
+        query.append("registry.operationId AS operationId, registry.finishDate AS date, registry.quantity AS quantity, ");
+        query.append("registry.eventType AS eventType FROM #orderSupplies_productionCountingQuantityOutput AS registry ");
 
-        query.append("WHERE registry.finishDate <= :dateTo ");
+        query.append("WHERE registry.finishDate <= :dateTo AND registry.quantity > 0 ");
 
         if (!states.isEmpty()) {
             query.append("AND orderState IN (:states)");
@@ -215,34 +214,22 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
             queryBuilder.setParameterList("states", states);
         }
 
-        List<Entity> regs = queryBuilder.list().getEntities();
-
-        for (Entity reg : regs) {
-            if (BigDecimal.ZERO.compareTo(reg.getDecimalField(CoverageRegisterFields.QUANTITY)) < 0) {
-                Entity coverageProductLogging = materialRequirementCoverageHelper.createProductLoggingForOrderProduced(reg, actualDate, coverageToDate);
-
-                materialRequirementCoverageHelper.fillCoverageProductForOrderProduced(productAndCoverageProducts, Long.valueOf(reg.getIntegerField("productId")),
-                        coverageProductLogging);
-            }
-        }
+        addProductions(coverageBalanceEngine, queryBuilder.list().getEntities(), actualDate);
     }
 
-    private void estimateProductProducedInTime(final Map<Long, Entity> productAndCoverageProducts, final Date coverageToDate,
+    private void estimateProductProducedInTime(final CoverageBalanceEngine coverageBalanceEngine, final Date coverageToDate,
             final Date actualDate, final List<Entity> orderStates) {
-        List<String> states = Lists.newArrayList();
-
-        if (orderStates != null && !orderStates.isEmpty()) {
-            states = orderStates.stream().map(o -> o.getStringField(CoverageOrderStateFields.STATE)).collect(Collectors.toList());
-        }
+        List<String> states = getStates(orderStates);
 
         StringBuilder query = new StringBuilder();
-        query.append("SELECT registry FROM #orderSupplies_coverageRegister AS registry ");
+        query.append(L_REGISTRY_PROJECTION);
+        query.append("FROM #orderSupplies_coverageRegister AS registry LEFT JOIN registry.operation AS operation ");
 
         if (!states.isEmpty()) {
             query.append("JOIN registry.order AS ord ");
         }
 
-        query.append("WHERE registry.date <= :dateTo AND eventType IN ('05orderOutput') ");
+        query.append("WHERE registry.date <= :dateTo AND registry.eventType IN ('05orderOutput') AND registry.quantity > 0 ");
 
         if (!states.isEmpty()) {
             query.append("AND ord.state IN (:states)");
@@ -254,66 +241,21 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
             queryBuilder.setParameterList("states", states);
         }
 
-        List<Entity> regs = queryBuilder.list().getEntities();
-
-        for (Entity reg : regs) {
-            if (BigDecimal.ZERO.compareTo(reg.getDecimalField(CoverageRegisterFields.QUANTITY)) < 0) {
-                Entity coverageProductLogging = createProductLoggingForOrderProduced(reg, actualDate, coverageToDate);
-
-                fillCoverageProductForOrderProduced(productAndCoverageProducts, reg.getBelongsToField("product"),
-                        coverageProductLogging);
-            }
-        }
+        addProductions(coverageBalanceEngine, queryBuilder.list().getEntities(), actualDate);
     }
 
-    private void fillCoverageProductForOrderProduced(final Map<Long, Entity> productAndCoverageProducts, final Entity product,
-            final Entity coverageProductLogging) {
-        if (coverageProductLogging != null) {
-            if (productAndCoverageProducts.containsKey(product.getId())) {
-                updateCoverageProductForOrderProduced(productAndCoverageProducts, product, coverageProductLogging);
+    private void addProductions(final CoverageBalanceEngine coverageBalanceEngine, final List<Entity> registerEntries,
+            final Date actualDate) {
+        for (Entity registerEntry : registerEntries) {
+            Long productId = getId(registerEntry, "productId");
+
+            if (coverageBalanceEngine.containsProduct(productId)) {
+                coverageBalanceEngine.addProduction(createCoverageEventForOrder(registerEntry,
+                        getCoverageProductLoggingDateForOrderProduced(registerEntry.getDateField("date"), actualDate)));
             }
         }
     }
 
-    private void updateCoverageProductForOrderProduced(final Map<Long, Entity> productAndCoverageProducts, final Entity product,
-            final Entity coverageProductLogging) {
-        Entity addedCoverageProduct = productAndCoverageProducts.get(product.getId());
-
-        BigDecimal demandQuantity = BigDecimalUtils.convertNullToZero(addedCoverageProduct
-                .getDecimalField(CoverageProductFields.PRODUCE_QUANTITY));
-
-        demandQuantity = demandQuantity.add(coverageProductLogging.getDecimalField(CoverageProductLoggingFields.CHANGES),
-                numberService.getMathContext());
-
-        List<Entity> coverageProductLoggings = Lists.newArrayList(addedCoverageProduct
-                .getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS));
-        coverageProductLoggings.add(coverageProductLogging);
-
-        addedCoverageProduct.setField(CoverageProductFields.PRODUCE_QUANTITY,
-                numberService.setScaleWithDefaultMathContext(demandQuantity));
-        addedCoverageProduct.setField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS, coverageProductLoggings);
-
-        productAndCoverageProducts.put(product.getId(), addedCoverageProduct);
-    }
-
-    private Entity createProductLoggingForOrderProduced(final Entity registerEntry, final Date actualDate,
-            final Date coverageToDate) {
-        Entity coverageProductLogging = orderSuppliesService.getCoverageProductLoggingDD().create();
-
-        coverageProductLogging
-                .setField(
-                        CoverageProductLoggingFields.DATE,
-                        getCoverageProductLoggingDateForOrderProduced(registerEntry.getDateField(CoverageRegisterFields.DATE),
-                                actualDate));
-        coverageProductLogging.setField(CoverageProductLoggingFields.ORDER, registerEntry.getBelongsToField("order"));
-        coverageProductLogging.setField(CoverageProductLoggingFields.OPERATION, registerEntry.getBelongsToField("operation"));
-        coverageProductLogging.setField(CoverageProductLoggingFields.CHANGES,
-                numberService.setScaleWithDefaultMathContext(registerEntry.getDecimalField("quantity")));
-        coverageProductLogging.setField(CoverageProductLoggingFields.EVENT_TYPE, registerEntry.getStringField("eventType"));
-
-        return coverageProductLogging;
-    }
-
     private Date getCoverageProductLoggingDateForOrderProduced(final Date finishDate, final Date actualDate) {
         Date coverageDate = null;
 
@@ -326,79 +268,97 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
         return coverageDate;
     }
 
-    private void saveCoverage(final Entity materialRequirementCoverage, final List<Entity> entities) {
+    private void saveCoverage(final Entity materialRequirementCoverage, final List<ProductBalance> productBalances,
+            final Map<Long, Entity> productAndCoverageProducts) {
         List<Entity> selectedOrders = materialRequirementCoverage.getHasManyField("coverageOrders");
 
+        List<ProductBalance> savedProductBalances = productBalances;
+
         if (!selectedOrders.isEmpty()) {
-            List<Entity> filtredEntities = entities.stream()
-                    .filter(e -> e.getBooleanField(CoverageProductFields.FROM_SELECTED_ORDER)).collect(Collectors.toList());
+            savedProductBalances = productBalances
+                    .stream()
+                    .filter(productBalance -> productAndCoverageProducts.get(productBalance.getProductId()).getBooleanField(
+                            CoverageProductFields.FROM_SELECTED_ORDER)).collect(Collectors.toList());
+        }
 
-            for (Entity covProduct : filtredEntities) {
-                saveCoverageProduct(materialRequirementCoverage, covProduct);
-                for (Entity log : covProduct.getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS)) {
-                    saveCoverageProductLogging(log);
-                }
-            }
-        } else {
-            for (Entity covProduct : entities) {
-                saveCoverageProduct(materialRequirementCoverage, covProduct);
-                for (Entity log : covProduct.getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS)) {
-                    saveCoverageProductLogging(log);
-                }
-            }
+        for (List<ProductBalance> productBalancesChunk : Lists.partition(savedProductBalances, L_BATCH_SIZE)) {
+            saveCoverageProducts(materialRequirementCoverage, productBalancesChunk, productAndCoverageProducts);
         }
     }
 
-    private void saveCoverageProductLogging(final Entity log) {
-        String sqlLog = "INSERT INTO ordersupplies_coverageproductlogging(coverageproduct_id, date, "
-                + "order_id, delivery_id, operation_id, reservemissingquantity, changes, eventtype, state, warehouseNumber, deliveryNumberExternal) "
-                + "VALUES (currval('ordersupplies_coverageproduct_id_seq'), :date, :order_id, :delivery_id, :operation_id, "
-                + ":reservemissingquantity, :changes, :eventtype, :state, :warehouseNumber, :deliveryNumberExternal);";
+    private void saveCoverageProducts(final Entity materialRequirementCoverage, final List<ProductBalance> productBalances,
+            final Map<Long, Entity> productAndCoverageProducts) {
+        List<Long> coverageProductIds = allocateCoverageProductIds(productBalances.size());
 
-        Map<String, Object> parametersLogg = Maps.newHashMap();
+        List<Map<String, Object>> coverageProductsParameters = Lists.newArrayListWithCapacity(productBalances.size());
+        List<Map<String, Object>> coverageProductLoggingsParameters = Lists.newArrayList();
 
-        parametersLogg.put("date", log.getDateField(CoverageProductLoggingFields.DATE));
+        for (int i = 0; i < productBalances.size(); i++) {
+            ProductBalance productBalance = productBalances.get(i);
+            Entity coverageProduct = productAndCoverageProducts.get(productBalance.getProductId());
+            Long coverageProductId = coverageProductIds.get(i);
 
-        if (log.getBelongsToField(CoverageProductLoggingFields.DELIVERY) != null) {
-            parametersLogg.put("delivery_id", log.getBelongsToField(CoverageProductLoggingFields.DELIVERY).getId());
-        } else {
-            parametersLogg.put("delivery_id", null);
+            Map<String, Object> parameters = createCoverageProductParameters(materialRequirementCoverage, coverageProduct);
+
+            parameters.put("id", coverageProductId);
+
+            coverageProductsParameters.add(parameters);
+
+            for (CoverageEvent coverageEvent : productBalance.getEvents()) {
+                Map<String, Object> parametersLogg = createCoverageProductLoggingParameters(coverageEvent);
+
+                parametersLogg.put("coverageproduct_id", coverageProductId);
+
+                coverageProductLoggingsParameters.add(parametersLogg);
+            }
         }
 
-        if (log.getBelongsToField(CoverageProductLoggingFields.ORDER) != null) {
-            parametersLogg.put("order_id", log.getBelongsToField(CoverageProductLoggingFields.ORDER).getId());
-        } else {
-            parametersLogg.put("order_id", null);
+        batchInsert("ordersupplies_coverageproduct", coverageProductsParameters);
+
+        for (List<Map<String, Object>> parametersChunk : Lists.partition(coverageProductLoggingsParameters, L_BATCH_SIZE)) {
+            batchInsert("ordersupplies_coverageproductlogging", parametersChunk);
         }
+    }
 
-        if (log.getBelongsToField(CoverageProductLoggingFields.OPERATION) != null) {
-            parametersLogg.put("operation_id", log.getBelongsToField(CoverageProductLoggingFields.OPERATION).getId());
-        } else {
-            parametersLogg.put("operation_id", null);
+    private List<Long> allocateCoverageProductIds(final int count) {
+        return jdbcTemplate.queryForList(
+                "SELECT nextval('ordersupplies_coverageproduct_id_seq') FROM generate_series(1, :count)",
+                new MapSqlParameterSource("count", count), Long.class);
+    }
 
+    private void batchInsert(final String tableName, final List<Map<String, Object>> rows) {
+        if (rows.isEmpty()) {
+            return;
         }
 
-        parametersLogg.put("reservemissingquantity", log.getDecimalField(CoverageProductLoggingFields.RESERVE_MISSING_QUANTITY));
-        parametersLogg.put("changes", log.getDecimalField(CoverageProductLoggingFields.CHANGES));
-        parametersLogg.put("eventtype", log.getStringField(CoverageProductLoggingFields.EVENT_TYPE));
-        parametersLogg.put("state", log.getStringField(CoverageProductLoggingFields.STATE));
-        parametersLogg.put("warehouseNumber", log.getStringField(CoverageProductLoggingFields.WAREHOUSE_NUMBER));
-        parametersLogg.put("deliveryNumberExternal", log.getStringField("deliveryNumberExternal"));
+        List<String> columns = Lists.newArrayList(rows.get(0).keySet());
 
-        SqlParameterSource nParameters = new MapSqlParameterSource(parametersLogg);
+        String sql = "INSERT INTO " + tableName + " (" + String.join(", ", columns) + ") VALUES ("
+                + columns.stream().map(column -> ":" + column).collect(Collectors.joining(", ")) + ")";
 
-        jdbcTemplate.update(sqlLog, nParameters);
+        jdbcTemplate.batchUpdate(sql, rows.stream().map(MapSqlParameterSource::new).toArray(SqlParameterSource[]::new));
     }
 
-    private void saveCoverageProduct(final Entity materialRequirementCoverage, final Entity coverageProduct) {
-        String sql = "INSERT INTO ordersupplies_coverageproduct "
-                + "(materialrequirementcoverage_id, product_id, lackfromdate, demandquantity, coveredquantity, "
-                + "reservemissingquantity, deliveredquantity, locationsquantity, state, productnumber, productname, "
-                + "productunit, produceQuantity, fromSelectedOrder, company_id) "
-                + "VALUES (:materialrequirementcoverage_id, :product_id, :lackfromdate, :demandquantity, :coveredquantity, "
-                + ":reservemissingquantity, :deliveredquantity, :locationsquantity, :state, :productnumber, :productname, "
-                + ":productunit, :produceQuantity, :fromSelectedOrder, :company_id)";
+    private Map<String, Object> createCoverageProductLoggingParameters(final CoverageEvent coverageEvent) {
+        Map<String, Object> parametersLogg = Maps.newHashMap();
+
+        parametersLogg.put("date", new Date(coverageEvent.getDate()));
+        parametersLogg.put("delivery_id", coverageEvent.getDeliveryId());
+        parametersLogg.put("order_id", coverageEvent.getOrderId());
+        parametersLogg.put("operation_id", coverageEvent.getOperationId());
+        parametersLogg.put("reservemissingquantity", coverageEvent.getReserveMissingQuantity());
+        parametersLogg.put("changes", coverageEvent.getChanges());
+        parametersLogg.put("eventtype", coverageEvent.getEventType());
+        parametersLogg.put("state", coverageEvent.getState());
+        parametersLogg.put("warehouseNumber", coverageEvent.getWarehouseNumber());
+        parametersLogg.put("deliveryNumberExternal", coverageEvent.getDeliveryNumberExternal());
 
+        return parametersLogg;
+    }
+
+    // Do not remove, around by aspect
+    private Map<String, Object> createCoverageProductParameters(final Entity materialRequirementCoverage,
+            final Entity coverageProduct) {
         Map<String, Object> parameters = Maps.newHashMap();
 
         parameters.put("materialrequirementcoverage_id", materialRequirementCoverage.getId());
@@ -428,9 +388,7 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
                 coverageProduct.getBelongsToField(CoverageProductFields.PRODUCT).getStringField(ProductFields.UNIT));
         parameters.put("fromSelectedOrder", coverageProduct.getBooleanField(CoverageProductFields.FROM_SELECTED_ORDER));
 
-        SqlParameterSource namedParameters = new MapSqlParameterSource(parameters);
-
-        jdbcTemplate.update(sql, namedParameters);
+        return parameters;
     }
 
     // Do not remove, around by aspect
@@ -530,19 +488,16 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
         return registerProducts.stream().map(p -> ((Number) p.getField("productId")).longValue()).collect(Collectors.toList());
     }
 
-    private void fillFromProductionCounting(final Map<Long, Entity> productAndCoverageProducts, Entity assignedOrder, final Date coverageToDate,
-            final Date actualDate, final List<Entity> orderStates) {
-        List<String> states = Lists.newArrayList();
-
-        if (!orderStates.isEmpty()) {
-            states = orderStates.stream().map(order -> order.getStringField(CoverageOrderStateFields.STATE))
-                    .collect(Collectors.toList());
-        }
+    private void fillFromProductionCounting(final CoverageBalanceEngine coverageBalanceEngine, final Entity assignedOrder,
+            final Date coverageToDate, final Date actualDate, final List<Entity> orderStates) {
+        List<String> states = getStates(orderStates);
 
         StringBuilder query = new StringBuilder();
-        query.append("SELECT registry FROM #orderSupplies_productionCountingQuantityInput AS registry ");
+        query.append("SELECT registry.productId AS productId, registry.productType AS productType, registry.orderId AS orderId, ");
+        query.append("registry.operationId AS operationId, registry.startDate AS date, registry.quantity AS quantity, ");
+        query.append("registry.eventType AS eventType FROM #orderSupplies_productionCountingQuantityInput AS registry ");
 
-        query.append("WHERE 1=1 AND registry.startDate <= :dateTo ");
+        query.append("WHERE registry.startDate <= :dateTo AND registry.quantity > 0 ");
 
         boolean appendOrderId = false;
 
@@ -574,36 +529,23 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
             queryBuilder.setLong("orderId", assignedOrder.getId());
         }
 
-        List<Entity> regs = queryBuilder.list().getEntities();
-
-        for (Entity reg : regs) {
-            if (BigDecimal.ZERO.compareTo(reg.getDecimalField(CoverageRegisterFields.QUANTITY)) < 0) {
-                Entity coverageProductLogging = materialRequirementCoverageHelper.createCoverageProductLoggingForOrder(reg,
-                        actualDate);
-
-                materialRequirementCoverageHelper.fillCoverageProductForOrder(productAndCoverageProducts,
-                        reg.getIntegerField("productId"), reg.getStringField("productType"), coverageProductLogging);
-            }
-        }
+        addDemands(coverageBalanceEngine, queryBuilder.list().getEntities(), actualDate);
     }
 
-    private void fillFromRegistry(final Map<Long, Entity> productAndCoverageProducts, final Date coverageToDate,
+    private void fillFromRegistry(final CoverageBalanceEngine coverageBalanceEngine, final Date coverageToDate,
             final Date actualDate, final List<Entity> orderStates) {
-        List<String> states = Lists.newArrayList();
-
-        if (!orderStates.isEmpty()) {
-            states = orderStates.stream().map(order -> order.getStringField(CoverageOrderStateFields.STATE))
-                    .collect(Collectors.toList());
-        }
+        List<String> states = getStates(orderStates);
 
         StringBuilder query = new StringBuilder();
-        query.append("SELECT registry FROM #orderSupplies_coverageRegister AS registry ");
+        query.append(L_REGISTRY_PROJECTION);
+        query.append("FROM #orderSupplies_coverageRegister AS registry LEFT JOIN registry.operation AS operation ");
 
         if (!states.isEmpty()) {
             query.append("JOIN registry.order AS ord ");
         }
 
-        query.append("WHERE registry.date <= :dateTo AND eventType IN ('04orderInput','03operationInput') ");
+        query.append("WHERE registry.date <= :dateTo AND registry.eventType IN ('04orderInput','03operationInput') ");
+        query.append("AND registry.quantity > 0 ");
 
         if (!states.isEmpty()) {
             query.append("AND ord.state IN (:states)");
@@ -615,54 +557,57 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
             queryBuilder.setParameterList("states", states);
         }
 
-        List<Entity> regs = queryBuilder.list().getEntities();
-
-        for (Entity reg : regs) {
-            if (BigDecimal.ZERO.compareTo(reg.getDecimalField(CoverageRegisterFields.QUANTITY)) < 0) {
-                Entity coverageProductLogging = createCoverageProductLoggingForOrder(reg, actualDate);
-
-                fillCoverageProductForOrder(productAndCoverageProducts, reg.getBelongsToField("product"),
-                        reg.getStringField("productType"), coverageProductLogging);
-            }
-        }
+        addDemands(coverageBalanceEngine, queryBuilder.list().getEntities(), actualDate);
     }
 
-    private void fillFromRegistryAssignedOrder(final Map<Long, Entity> productAndCoverageProducts, final Entity assignedOrder,
+    private void fillFromRegistryAssignedOrder(final CoverageBalanceEngine coverageBalanceEngine, final Entity assignedOrder,
             final Date coverageToDate, final Date actualDate) {
-        String query = "SELECT registry FROM #orderSupplies_coverageRegister AS registry "
-                + "WHERE registry.date <= :dateTo AND eventType IN ('04orderInput','03operationInput') "
-                + "AND order_id = :orderId ";
+        String query = L_REGISTRY_PROJECTION
+                + "FROM #orderSupplies_coverageRegister AS registry LEFT JOIN registry.operation AS operation "
+                + "WHERE registry.date <= :dateTo AND registry.eventType IN ('04orderInput','03operationInput') "
+                + "AND registry.quantity > 0 AND registry.order.id = :orderId ";
         SearchQueryBuilder queryBuilder = getCoverageRegisterDD().find(query).setParameter("dateTo", coverageToDate);
 
         queryBuilder.setParameter("orderId", assignedOrder.getId());
 
-        List<Entity> regs = queryBuilder.list().getEntities();
+        addDemands(coverageBalanceEngine, queryBuilder.list().getEntities(), actualDate);
+    }
 
-        for (Entity reg : regs) {
-            if (BigDecimal.ZERO.compareTo(reg.getDecimalField(CoverageRegisterFields.QUANTITY)) < 0) {
-                Entity coverageProductLogging = createCoverageProductLoggingForOrder(reg, actualDate);
-                fillCoverageProductForOrder(productAndCoverageProducts, reg.getBelongsToField("product"),
-                        reg.getStringField("productType"), coverageProductLogging);
-            }
+    private List<String> getStates(final List<Entity> orderStates) {
+        if (Objects.isNull(orderStates) || orderStates.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return orderStates.stream().map(order -> order.getStringField(CoverageOrderStateFields.STATE))
+                .collect(Collectors.toList());
+    }
+
+    private void addDemands(final CoverageBalanceEngine coverageBalanceEngine, final List<Entity> registerEntries,
+            final Date actualDate) {
+        for (Entity registerEntry : registerEntries) {
+            coverageBalanceEngine.addDemand(getId(registerEntry, "productId"), registerEntry.getStringField("productType"),
+                    createCoverageEventForOrder(registerEntry,
+                            getCoverageProductLoggingDateForOrder(registerEntry.getDateField("date"), actualDate)));
         }
     }
 
-    private Entity createCoverageProductLoggingForOrder(final Entity registerEntry, final Date actualDate) {
-        Entity coverageProductLogging = orderSuppliesService.getCoverageProductLoggingDD().create();
+    private CoverageEvent createCoverageEventForOrder(final Entity registerEntry, final Date coverageDate) {
+        return CoverageEvent.forOrder(getId(registerEntry, "productId"), coverageDate, registerEntry.getStringField("eventType"),
+                numberService.setScaleWithDefaultMathContext(registerEntry.getDecimalField("quantity")),
+                getId(registerEntry, "orderId"), getId(registerEntry, "operationId"));
+    }
+
+    private Long getId(final Entity projection, final String fieldName) {
+        Number id = (Number) projection.getField(fieldName);
 
-        coverageProductLogging.setField(CoverageProductLoggingFields.DATE,
-                getCoverageProductLoggingDateForOrder(registerEntry, actualDate));
-        coverageProductLogging.setField(CoverageProductLoggingFields.ORDER, registerEntry.getBelongsToField("order"));
-        coverageProductLogging.setField(CoverageProductLoggingFields.OPERATION, registerEntry.getBelongsToField("operation"));
-        coverageProductLogging.setField(CoverageProductLoggingFields.CHANGES,
-                numberService.setScaleWithDefaultMathContext(registerEntry.getDecimalField("quantity")));
-        coverageProductLogging.setField(CoverageProductLoggingFields.EVENT_TYPE, registerEntry.getStringField("eventType"));
+        if (Objects.isNull(id)) {
+            return null;
+        }
 
-        return coverageProductLogging;
+        return id.longValue();
     }
 
-    private Date getCoverageProductLoggingDateForOrder(final Entity registerEntry, final Date actualDate) {
-        Date startDate = registerEntry.getDateField("date");
+    private Date getCoverageProductLoggingDateForOrder(final Date startDate, final Date actualDate) {
         Date coverageDate;
 
         if (startDate.before(actualDate)) {
@@ -674,46 +619,54 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
         return coverageDate;
     }
 
-    private void estimateProductDeliveriesInTime(final Entity materialRequirementCoverage,
-            final Map<Long, Entity> productAndCoverageProducts, final List<Entity> includedDeliveries, final Date actualDate,
-            final Date coverageToDate, final Boolean includeDraftDeliveries) {
-        for (Entity delivery : includedDeliveries) {
-            Date coverageDate = getCoverageProductLoggingDateForDelivery(delivery, actualDate);
-
-            List<Entity> deliveryProducts;
-
-            if (DeliveryStateStringValues.RECEIVE_CONFIRM_WAITING.equals(delivery.getStringField(DeliveryFields.STATE))) {
-                deliveryProducts = delivery.getHasManyField(DeliveryFields.DELIVERED_PRODUCTS);
-            } else {
-                deliveryProducts = delivery.getHasManyField(DeliveryFields.ORDERED_PRODUCTS);
-            }
+    private void estimateProductDeliveriesInTime(final CoverageBalanceEngine coverageBalanceEngine, final Date actualDate,
+            final Date coverageToDate, final boolean includeDraftDeliveries) {
+        List<String> states = Lists.newArrayList(DeliveryStateStringValues.APPROVED);
 
-            for (Entity deliveryProduct : deliveryProducts) {
-                estimateProductDelivery(productAndCoverageProducts, new CoverageProductForDelivery(coverageDate, delivery,
-                        deliveryProduct));
-            }
+        if (includeDraftDeliveries) {
+            states.add(DeliveryStateStringValues.DRAFT);
+            states.add(DeliveryStateStringValues.PREPARED);
+            states.add(DeliveryStateStringValues.DURING_CORRECTION);
         }
+
+        addDeliveries(coverageBalanceEngine, getDeliveryProducts(DeliveriesConstants.MODEL_ORDERED_PRODUCT,
+                OrderedProductFields.ORDERED_QUANTITY, states, coverageToDate), actualDate);
+        addDeliveries(coverageBalanceEngine, getDeliveryProducts(DeliveriesConstants.MODEL_DELIVERED_PRODUCT,
+                DeliveredProductFields.DELIVERED_QUANTITY,
+                Collections.singletonList(DeliveryStateStringValues.RECEIVE_CONFIRM_WAITING), coverageToDate), actualDate);
     }
 
-    private void estimateProductDelivery(final Map<Long, Entity> productAndCoverageProducts,
-            final CoverageProductForDelivery coverageProductForDelivery) {
-        if (productAndCoverageProducts.containsKey(coverageProductForDelivery.getProduct().getId())) {
-            BigDecimal quantity = coverageProductForDelivery.getDeliveryQuantity();
+    private List<Entity> getDeliveryProducts(final String modelName, final String quantityFieldName, final List<String> states,
+            final Date coverageToDate) {
+        String query = "SELECT deliveryProduct.product.id AS productId, deliveryProduct." + quantityFieldName + " AS quantity, "
+                + "delivery.id AS deliveryId, delivery.externalNumber AS externalNumber, delivery.deliveryDate AS deliveryDate "
+                + "FROM #deliveries_" + modelName + " AS deliveryProduct JOIN deliveryProduct.delivery AS delivery "
+                + "WHERE delivery.deliveryDate <= :dateTo AND delivery.state IN (:states) AND delivery.active = true "
+                + "ORDER BY delivery.id, deliveryProduct.id";
+
+        return dataDefinitionService.get(DeliveriesConstants.PLUGIN_IDENTIFIER, modelName).find(query)
+                .setParameter("dateTo", coverageToDate).setParameterList("states", states).list().getEntities();
+    }
 
-            coverageProductForDelivery.setQuantity(quantity);
+    private void addDeliveries(final CoverageBalanceEngine coverageBalanceEngine, final List<Entity> deliveryProducts,
+            final Date actualDate) {
+        for (Entity deliveryProduct : deliveryProducts) {
+            Long productId = getId(deliveryProduct, "productId");
 
-            Entity coverageProductLogging = createCoverageProductLoggingForDelivery(coverageProductForDelivery);
+            if (coverageBalanceEngine.containsProduct(productId)) {
+                BigDecimal quantity = BigDecimalUtils.convertNullToZero(deliveryProduct.getDecimalField("quantity"));
 
-            fillCoverageProductForDelivery(productAndCoverageProducts, coverageProductForDelivery.getProduct(),
-                    coverageProductLogging);
+                coverageBalanceEngine.addDelivery(CoverageEvent.forDelivery(productId,
+                        getCoverageProductLoggingDateForDelivery(deliveryProduct.getDateField("deliveryDate"), actualDate),
+                        numberService.setScaleWithDefaultMathContext(quantity), getId(deliveryProduct, "deliveryId"),
+                        deliveryProduct.getStringField("externalNumber")));
+            }
         }
     }
 
-    private Date getCoverageProductLoggingDateForDelivery(final Entity delivery, final Date actualDate) {
+    private Date getCoverageProductLoggingDateForDelivery(final Date deliveryDate, final Date actualDate) {
         Date coverageDate;
 
-        Date deliveryDate = delivery.getDateField(DeliveryFields.DELIVERY_DATE);
-
         if (deliveryDate.before(actualDate)) {
             coverageDate = new DateTime(actualDate).plusSeconds(2).toDate();
         } else {
@@ -723,155 +676,71 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
         return coverageDate;
     }
 
-    private Entity createCoverageProductLoggingForDelivery(final CoverageProductForDelivery coverageProductForDelivery) {
-        Entity coverageProductLogging = orderSuppliesService.getCoverageProductLoggingDD().create();
-
-        coverageProductLogging.setField(CoverageProductLoggingFields.DATE, coverageProductForDelivery.getCoverageDate());
-        coverageProductLogging.setField(CoverageProductLoggingFields.DELIVERY, coverageProductForDelivery.getDelivery());
-        coverageProductLogging.setField(CoverageProductLoggingFields.CHANGES,
-                numberService.setScaleWithDefaultMathContext(coverageProductForDelivery.getQuantity()));
-        coverageProductLogging.setField(CoverageProductLoggingFields.EVENT_TYPE,
-                CoverageProductLoggingEventType.DELIVERY.getStringValue());
-        coverageProductLogging.setField(CoverageProductLoggingFields.STATE, CoverageProductLoggingState.COVERED.getStringValue());
-
-        return coverageProductLogging;
-    }
-
-    private void fillCoverageProductForDelivery(final Map<Long, Entity> productAndCoverageProducts, final Entity product,
-            final Entity coverageProductLogging) {
-        if (coverageProductLogging != null) {
-            if (productAndCoverageProducts.containsKey(product.getId())) {
-                updateCoverageProductForDelivery(productAndCoverageProducts, product, coverageProductLogging);
-            } else {
-                addCoverageProductForDelivery(productAndCoverageProducts, product, coverageProductLogging);
-            }
-        }
-    }
-
-    private void addCoverageProductForDelivery(final Map<Long, Entity> productAndCoverageProducts, final Entity product,
-            final Entity coverageProductLogging) {
-        Entity coverageProduct = orderSuppliesService.getCoverageProductDD().create();
-
-        coverageProduct.setField(CoverageProductFields.PRODUCT, product);
-        coverageProduct.setField(CoverageProductFields.DELIVERED_QUANTITY, numberService
-                .setScaleWithDefaultMathContext(coverageProductLogging.getDecimalField(CoverageProductLoggingFields.CHANGES)));
-        coverageProduct.setField(CoverageProductFields.STATE, CoverageProductState.COVERED.getStringValue());
-        coverageProduct.setField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS, Lists.newArrayList(coverageProductLogging));
-
-        productAndCoverageProducts.put(product.getId(), coverageProduct);
-    }
-
-    private void updateCoverageProductForDelivery(final Map<Long, Entity> productAndCoverageProducts, final Entity product,
-            final Entity coverageProductLogging) {
-        Entity addedCoverageProduct = productAndCoverageProducts.get(product.getId());
-
-        BigDecimal deliveredQuantity = BigDecimalUtils.convertNullToZero(addedCoverageProduct
-                .getDecimalField(CoverageProductFields.DELIVERED_QUANTITY));
-
-        deliveredQuantity = deliveredQuantity.add(coverageProductLogging.getDecimalField(CoverageProductLoggingFields.CHANGES),
-                numberService.getMathContext());
+    private void estimateProductLocationsInTime(final CoverageBalanceEngine coverageBalanceEngine,
+            final List<Entity> coverageLocations, final Date actualDate) {
+        for (Entity coverageLocation : coverageLocations) {
+            Entity location = coverageLocation.getBelongsToField(CoverageLocationFields.LOCATION);
 
-        List<Entity> coverageProductLoggings = Lists.newArrayList(addedCoverageProduct
-                .getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS));
-        coverageProductLoggings.add(coverageProductLogging);
+            String sql = "SELECT resource.product.id AS product, SUM(resource.quantity) AS quantity "
+                    + "FROM #materialFlowResources_resource AS resource "
+                    + "WHERE resource.location.id = :locationId GROUP BY resource.product.id";
 
-        addedCoverageProduct.setField(CoverageProductFields.DELIVERED_QUANTITY,
-                numberService.setScaleWithDefaultMathContext(deliveredQuantity));
-        addedCoverageProduct.setField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS, coverageProductLoggings);
+            List<Entity> resources = getResourceDD().find(sql).setParameter("locationId", location.getId()).list().getEntities();
 
-        productAndCoverageProducts.put(product.getId(), addedCoverageProduct);
-    }
+            Map<Long, BigDecimal> map = resources.stream().collect(
+                    Collectors.toMap(res -> (Long) res.getField("product"),
+                            res -> numberService.setScaleWithDefaultMathContext(res.getDecimalField("quantity"))));
 
-    private void fillCoverageProductForOrder(final Map<Long, Entity> productAndCoverageProducts, final Entity product,
-            final String productType, final Entity coverageProductLogging) {
-        if (coverageProductLogging != null) {
-            if (productAndCoverageProducts.containsKey(product.getId())) {
-                updateCoverageProductForOrder(productAndCoverageProducts, product, productType, coverageProductLogging);
-            } else {
-                addCoverageProductForOrder(productAndCoverageProducts, product, productType, coverageProductLogging);
-            }
+            coverageBalanceEngine.addWarehouseStates(location.getStringField(LocationFields.NUMBER), actualDate, map);
         }
     }
 
-    private void addCoverageProductForOrder(final Map<Long, Entity> productAndCoverageProducts, final Entity product,
-            final String productType, final Entity coverageProductLogging) {
-        Entity coverageProduct = orderSuppliesService.getCoverageProductDD().create();
+    private Map<Long, Entity> createCoverageProducts(final List<ProductBalance> productBalances) {
+        Map<Long, Entity> products = getProducts(productBalances.stream().map(ProductBalance::getProductId)
+                .collect(Collectors.toList()));
 
-        coverageProduct.setField(CoverageProductFields.PRODUCT, product);
-        coverageProduct.setField(CoverageProductFields.PRODUCT_TYPE, productType);
-        coverageProduct.setField(CoverageProductFields.DEMAND_QUANTITY, numberService
-                .setScaleWithDefaultMathContext(coverageProductLogging.getDecimalField(CoverageProductLoggingFields.CHANGES)));
-        coverageProduct.setField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS, Lists.newArrayList(coverageProductLogging));
+        Map<Long, Entity> productAndCoverageProducts = Maps.newLinkedHashMap();
 
-        productAndCoverageProducts.put(product.getId(), coverageProduct);
-    }
-
-    private void updateCoverageProductForOrder(final Map<Long, Entity> productAndCoverageProducts, final Entity product,
-            final String productType, final Entity coverageProductLogging) {
-        Entity addedCoverageProduct = productAndCoverageProducts.get(product.getId());
+        for (ProductBalance productBalance : productBalances) {
+            Entity coverageProduct = orderSuppliesService.getCoverageProductDD().create();
 
-        BigDecimal demandQuantity = BigDecimalUtils.convertNullToZero(addedCoverageProduct
-                .getDecimalField(CoverageProductFields.DEMAND_QUANTITY));
+            coverageProduct.setField(CoverageProductFields.PRODUCT, products.get(productBalance.getProductId()));
+            coverageProduct.setField(CoverageProductFields.PRODUCT_TYPE, productBalance.getProductType());
+            coverageProduct.setField(CoverageProductFields.DEMAND_QUANTITY,
+                    numberService.setScaleWithDefaultMathContext(productBalance.getDemandQuantity()));
+            coverageProduct.setField(CoverageProductFields.COVERED_QUANTITY,
+                    numberService.setScaleWithDefaultMathContext(productBalance.getCoveredQuantity()));
+            coverageProduct.setField(CoverageProductFields.RESERVE_MISSING_QUANTITY,
+                    numberService.setScaleWithDefaultMathContext(productBalance.getReserveMissingQuantity()));
+            coverageProduct.setField(CoverageProductFields.DELIVERED_QUANTITY,
+                    numberService.setScaleWithDefaultMathContext(productBalance.getDeliveredQuantity()));
+            coverageProduct.setField(CoverageProductFields.LOCATIONS_QUANTITY,
+                    numberService.setScaleWithDefaultMathContext(productBalance.getLocationsQuantity()));
 
-        demandQuantity = demandQuantity.add(coverageProductLogging.getDecimalField(CoverageProductLoggingFields.CHANGES),
-                numberService.getMathContext());
+            if (BigDecimal.ZERO.compareTo(productBalance.getProduceQuantity()) != 0) {
+                coverageProduct.setField(CoverageProductFields.PRODUCE_QUANTITY,
+                        numberService.setScaleWithDefaultMathContext(productBalance.getProduceQuantity()));
+            }
 
-        List<Entity> coverageProductLoggings = Lists.newArrayList(addedCoverageProduct
-                .getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS));
-        coverageProductLoggings.add(coverageProductLogging);
+            coverageProduct.setField(CoverageProductFields.LACK_FROM_DATE, productBalance.getLackFromDate());
+            coverageProduct.setField(CoverageProductFields.STATE, productBalance.getState());
 
-        addedCoverageProduct.setField(CoverageProductFields.DEMAND_QUANTITY,
-                numberService.setScaleWithDefaultMathContext(demandQuantity));
-        addedCoverageProduct.setField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS, coverageProductLoggings);
+            productAndCoverageProducts.put(productBalance.getProductId(), coverageProduct);
+        }
 
-        productAndCoverageProducts.put(product.getId(), addedCoverageProduct);
+        return productAndCoverageProducts;
     }
 
-    private void estimateProductLocationsInTime(final Entity materialRequirementCoverage,
-            final Map<Long, Entity> productAndCoverageProducts, final List<Entity> coverageLocations, final Date actualDate) {
-        for (Entity coverageLocation : coverageLocations) {
-            Entity location = coverageLocation.getBelongsToField(CoverageLocationFields.LOCATION);
-
-            String sql = "SELECT resource.product.id AS product, SUM(resource.quantity) AS quantity "
-                    + "FROM #materialFlowResources_resource AS resource "
-                    + "WHERE resource.location.id = :locationId GROUP BY resource.product.id";
+    private Map<Long, Entity> getProducts(final List<Long> productIds) {
+        Map<Long, Entity> products = Maps.newHashMapWithExpectedSize(productIds.size());
 
-            List<Entity> resources = getResourceDD().find(sql).setParameter("locationId", location.getId()).list().getEntities();
-
-            Map<Long, BigDecimal> map = resources.stream().collect(
-                    Collectors.toMap(res -> (Long) res.getField("product"), res -> res.getDecimalField("quantity")));
-
-            for (Entry<Long, Entity> productAndCoverageProduct : productAndCoverageProducts.entrySet()) {
-                Entity addedCoverageProduct = productAndCoverageProduct.getValue();
-
-                BigDecimal locationsQuantity = BigDecimalUtils.convertNullToZero(map.get(productAndCoverageProduct.getKey()));
-                Entity coverageProductLogging = createCoverageProductLoggingForLocations(location, actualDate, locationsQuantity);
-                List<Entity> coverageProductLoggings = Lists.newArrayList(addedCoverageProduct
-                        .getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS));
-                coverageProductLoggings.add(coverageProductLogging);
-                BigDecimal lQuantity = BigDecimalUtils.convertNullToZero(addedCoverageProduct
-                        .getDecimalField(CoverageProductFields.LOCATIONS_QUANTITY));
-
-                lQuantity = lQuantity.add(locationsQuantity, numberService.getMathContext());
-                addedCoverageProduct.setField(CoverageProductFields.LOCATIONS_QUANTITY, lQuantity);
-                addedCoverageProduct.setField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS, coverageProductLoggings);
+        for (List<Long> productIdsChunk : Lists.partition(productIds, L_BATCH_SIZE)) {
+            for (Entity product : getProductDD().find().add(SearchRestrictions.in("id", productIdsChunk)).list().getEntities()) {
+                products.put(product.getId(), product);
             }
         }
-    }
-
-    private Entity createCoverageProductLoggingForLocations(final Entity location, final Date actualDate,
-            final BigDecimal locationsQuantity) {
-        Entity coverageProductLogging = orderSuppliesService.getCoverageProductLoggingDD().create();
-
-        coverageProductLogging.setField(CoverageProductLoggingFields.DATE, actualDate);
-        coverageProductLogging.setField(CoverageProductLoggingFields.RESERVE_MISSING_QUANTITY,
-                numberService.setScaleWithDefaultMathContext(locationsQuantity));
-        coverageProductLogging.setField(CoverageProductLoggingFields.EVENT_TYPE,
-                CoverageProductLoggingEventType.WAREHOUSE_STATE.getStringValue());
-        coverageProductLogging.setField(CoverageProductLoggingFields.WAREHOUSE_NUMBER,
-                location.getStringField(LocationFields.NUMBER));
 
-        return coverageProductLogging;
+        return products;
     }
 
     private void fillCoverageProductSupplier(final Map<Long, Entity> productAndCoverageProducts) {
@@ -886,181 +755,6 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
                                 supplier -> coverageProduct.setField(CoverageProductFields.COMPANY, supplier)));
     }
 
-    private void fillCoverageProductStatesAndQuantities(final Map<Long, Entity> productAndCoverageProducts) {
-        for (Entry<Long, Entity> productAndCoverageProduct : productAndCoverageProducts.entrySet()) {
-            Entity coverageProduct = productAndCoverageProduct.getValue();
-
-            fillCoverageProductLoggingsStates(coverageProduct);
-            fillCoverageProductQuantities(coverageProduct);
-        }
-    }
-
-    private void fillCoverageProductQuantities(final Entity coverageProduct) {
-        BigDecimal demandQuantity = BigDecimalUtils.convertNullToZero(coverageProduct
-                .getDecimalField(CoverageProductFields.DEMAND_QUANTITY));
-        BigDecimal deliveredQuantity = BigDecimalUtils.convertNullToZero(coverageProduct
-                .getDecimalField(CoverageProductFields.DELIVERED_QUANTITY));
-        BigDecimal locationsQuantity = BigDecimalUtils.convertNullToZero(coverageProduct
-                .getDecimalField(CoverageProductFields.LOCATIONS_QUANTITY));
-        BigDecimal produceQuantity = BigDecimalUtils.convertNullToZero(coverageProduct
-                .getDecimalField(CoverageProductFields.PRODUCE_QUANTITY));
-
-        BigDecimal coveredQuantity = deliveredQuantity.add(locationsQuantity, numberService.getMathContext());
-        coveredQuantity = coveredQuantity.add(produceQuantity, numberService.getMathContext());
-
-        BigDecimal reserveMissingQuantity = coveredQuantity.subtract(demandQuantity, numberService.getMathContext());
-
-        Date lackFromDate = coverageProduct.getDateField(CoverageProductFields.LACK_FROM_DATE);
-
-        String state;
-
-        if (reserveMissingQuantity.compareTo(BigDecimal.ZERO) >= 0) {
-            if (lackFromDate == null) {
-                state = CoverageProductState.COVERED.getStringValue();
-            } else {
-                state = CoverageProductState.DELAY.getStringValue();
-            }
-        } else {
-            state = CoverageProductState.LACK.getStringValue();
-        }
-
-        coverageProduct.setField(CoverageProductFields.DEMAND_QUANTITY,
-                numberService.setScaleWithDefaultMathContext(demandQuantity));
-        coverageProduct.setField(CoverageProductFields.COVERED_QUANTITY,
-                numberService.setScaleWithDefaultMathContext(coveredQuantity));
-        coverageProduct.setField(CoverageProductFields.RESERVE_MISSING_QUANTITY,
-                numberService.setScaleWithDefaultMathContext(reserveMissingQuantity));
-        coverageProduct.setField(CoverageProductFields.DELIVERED_QUANTITY,
-                numberService.setScaleWithDefaultMathContext(deliveredQuantity));
-        coverageProduct.setField(CoverageProductFields.LOCATIONS_QUANTITY,
-                numberService.setScaleWithDefaultMathContext(locationsQuantity));
-        coverageProduct.setField(CoverageProductFields.STATE, state);
-    }
-
-    private void fillCoverageProductLoggingsStates(final Entity coverageProduct) {
-        List<Entity> coverageProductLoggings = Lists.newLinkedList(coverageProduct
-                .getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS));
-        Collections.sort(coverageProductLoggings, new Comparator<Entity>() {
-
-            @Override
-            public int compare(final Entity entity1, final Entity entity2) {
-                return ComparisonChain
-                        .start()
-                        .compare(entity1.getDateField(CoverageProductLoggingFields.DATE),
-                                entity2.getDateField(CoverageProductLoggingFields.DATE))
-                        .compare(entity2.getStringField(CoverageProductLoggingFields.EVENT_TYPE),
-                                entity1.getStringField(CoverageProductLoggingFields.EVENT_TYPE)).result();
-            }
-        });
-
-        BigDecimal reserveMissingQuantity = BigDecimal.ZERO;
-
-        for (Entity coverageProductLogging : coverageProductLoggings) {
-            String eventType = coverageProductLogging.getStringField(CoverageProductLoggingFields.EVENT_TYPE);
-
-            if (CoverageProductLoggingEventType.WAREHOUSE_STATE.getStringValue().equals(eventType)) {
-                BigDecimal quantity = coverageProductLogging
-                        .getDecimalField(CoverageProductLoggingFields.RESERVE_MISSING_QUANTITY);
-
-                reserveMissingQuantity = reserveMissingQuantity.add(quantity, numberService.getMathContext());
-            } else if (CoverageProductLoggingEventType.DELIVERY.getStringValue().equals(eventType)
-                    || CoverageProductLoggingEventType.ORDER_OUTPUT.getStringValue().equals(eventType)) {
-                BigDecimal quantity = coverageProductLogging.getDecimalField(CoverageProductLoggingFields.CHANGES);
-
-                reserveMissingQuantity = reserveMissingQuantity.add(quantity, numberService.getMathContext());
-
-                fillCoverageProductLogginState(coverageProduct, coverageProductLogging, reserveMissingQuantity);
-            } else if (CoverageProductLoggingEventType.OPERATION_INPUT.getStringValue().equals(eventType)
-                    || CoverageProductLoggingEventType.ORDER_INPUT.getStringValue().equals(eventType)) {
-                BigDecimal quantity = coverageProductLogging.getDecimalField(CoverageProductLoggingFields.CHANGES);
-
-                reserveMissingQuantity = reserveMissingQuantity.subtract(quantity, numberService.getMathContext());
-
-                fillCoverageProductLogginState(coverageProduct, coverageProductLogging, reserveMissingQuantity);
-            }
-        }
-
-        coverageProduct.setField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS, coverageProductLoggings);
-    }
-
-    private void fillCoverageProductLogginState(final Entity coverageProduct, final Entity coverageProductLogging,
-            final BigDecimal reserveMissingQuantity) {
-        String state = null;
-
-        if (reserveMissingQuantity.compareTo(BigDecimal.ZERO) >= 0) {
-            state = CoverageProductLoggingState.COVERED.getStringValue();
-        } else {
-            state = CoverageProductLoggingState.LACK.getStringValue();
-
-            Date lackFromDate = coverageProduct.getDateField(CoverageProductFields.LACK_FROM_DATE);
-
-            if (lackFromDate == null) {
-                lackFromDate = coverageProductLogging.getDateField(CoverageProductLoggingFields.DATE);
-
-                coverageProduct.setField(CoverageProductFields.LACK_FROM_DATE, lackFromDate);
-            }
-        }
-
-        coverageProductLogging.setField(CoverageProductLoggingFields.RESERVE_MISSING_QUANTITY, reserveMissingQuantity);
-        coverageProductLogging.setField(CoverageProductLoggingFields.STATE, state);
-    }
-
-    private List<Entity> filterCoverageProducts(final Map<Long, Entity> productAndCoverageProducts, final String coverageType) {
-        return filterCoverageProductsWithCoverageType(getCoverageProducts(productAndCoverageProducts), coverageType);
-    }
-
-    private List<Entity> getCoverageProducts(final Map<Long, Entity> productAndCoverageProducts) {
-
-        return Lists.newArrayList(productAndCoverageProducts.values());
-    }
-
-    private List<Entity> filterCoverageProductsWithCoverageType(final List<Entity> coverageProducts, final String coverageType) {
-        List<Entity> filteredCoverageProducts = Lists.newArrayList();
-
-        for (Entity coverageProduct : coverageProducts) {
-            if (CoverageType.WITHOUT_PRODUCTS_FROM_WAREHOUSE.getStringValue().equals(coverageType)) {
-                BigDecimal locationsQuantity = coverageProduct.getDecimalField(CoverageProductFields.LOCATIONS_QUANTITY);
-                BigDecimal demandQuantity = coverageProduct.getDecimalField(CoverageProductFields.DEMAND_QUANTITY);
-
-                if (locationsQuantity.compareTo(demandQuantity) < 0) {
-                    filteredCoverageProducts.add(coverageProduct);
-                }
-            } else if (CoverageType.ONLY_SHORCOMINGS_AND_DELAYS.getStringValue().equals(coverageType)) {
-                String coverageProductState = coverageProduct.getStringField(CoverageProductFields.STATE);
-
-                if (CoverageProductState.LACK.getStringValue().equals(coverageProductState)
-                        || CoverageProductState.DELAY.getStringValue().equals(coverageProductState)) {
-                    filteredCoverageProducts.add(coverageProduct);
-                }
-            } else {
-                filteredCoverageProducts.add(coverageProduct);
-            }
-        }
-
-        return filteredCoverageProducts;
-    }
-
-    private List<Entity> getDeliveriesFromDB(final Date coverageToDate, final boolean includeDraftDeliveries) {
-        if (includeDraftDeliveries) {
-            return getDeliveryDD()
-                    .find()
-                    .add(SearchRestrictions.le(DeliveryFields.DELIVERY_DATE, coverageToDate))
-                    .add(SearchRestrictions.or(SearchRestrictions.eq(DeliveryFields.STATE, DeliveryStateStringValues.DRAFT),
-                            SearchRestrictions.eq(DeliveryFields.STATE, DeliveryStateStringValues.PREPARED),
-                            SearchRestrictions.eq(DeliveryFields.STATE, DeliveryStateStringValues.DURING_CORRECTION),
-                            SearchRestrictions.eq(DeliveryFields.STATE, DeliveryStateStringValues.APPROVED),
-                            SearchRestrictions.eq(DeliveryFields.STATE, DeliveryStateStringValues.RECEIVE_CONFIRM_WAITING)))
-                    .add(SearchRestrictions.eq(DeliveryFields.ACTIVE, true)).list().getEntities();
-        } else {
-            return getDeliveryDD()
-                    .find()
-                    .add(SearchRestrictions.le(DeliveryFields.DELIVERY_DATE, coverageToDate))
-                    .add(SearchRestrictions.or(SearchRestrictions.eq(DeliveryFields.STATE, DeliveryStateStringValues.APPROVED),
-                            SearchRestrictions.eq(DeliveryFields.STATE, DeliveryStateStringValues.RECEIVE_CONFIRM_WAITING)))
-                    .add(SearchRestrictions.eq(DeliveryFields.ACTIVE, true)).list().getEntities();
-        }
-    }
-
     private boolean checkIfProductsAreSame(final Entity order, final Long product) {
         Entity orderProduct = order.getBelongsToField(OrderFields.PRODUCT);
 
@@ -1086,8 +780,8 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
                 MaterialFlowResourcesConstants.MODEL_RESOURCE);
     }
 
-    private DataDefinition getDeliveryDD() {
-        return dataDefinitionService.get(DeliveriesConstants.PLUGIN_IDENTIFIER, DeliveriesConstants.MODEL_DELIVERY);
+    private DataDefinition getProductDD() {
+        return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT);
     }
 
     private DataDefinition getTechnologyDD() {
@@ -0,0 +1,74 @@
+package com.qcadoo.mes.orderSupplies.hooks;
+
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.deliveries.constants.OrderedProductFields;
+import com.qcadoo.mes.orderSupplies.constants.CoverageRegisterFields;
+import com.qcadoo.mes.orderSupplies.coverage.LiveCoverageService;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+@Service
+public class LiveCoverageModelHooks {
+
+    @Autowired
+    private LiveCoverageService liveCoverageService;
+
+    public void onSaveCoverageRegister(final DataDefinition coverageRegisterDD, final Entity coverageRegister) {
+        invalidateProduct(coverageRegister, CoverageRegisterFields.PRODUCT);
+    }
+
+    public boolean onDeleteCoverageRegister(final DataDefinition coverageRegisterDD, final Entity coverageRegister) {
+        invalidateProduct(coverageRegister, CoverageRegisterFields.PRODUCT);
+
+        return true;
+    }
+
+    public void onSaveOrder(final DataDefinition orderDD, final Entity order) {
+        liveCoverageService.invalidateOrder(order.getId());
+    }
+
+    public boolean onDeleteOrder(final DataDefinition orderDD, final Entity order) {
+        liveCoverageService.invalidateOrder(order.getId());
+
+        return true;
+    }
+
+    public void onSaveDelivery(final DataDefinition deliveryDD, final Entity delivery) {
+        liveCoverageService.invalidateDelivery(delivery.getId());
+    }
+
+    public void onSaveDeliveryProduct(final DataDefinition deliveryProductDD, final Entity deliveryProduct) {
+        invalidateProduct(deliveryProduct, OrderedProductFields.PRODUCT);
+
+        if (Objects.nonNull(deliveryProduct.getId())) {
+            Entity delivery = deliveryProduct.getBelongsToField(OrderedProductFields.DELIVERY);
+
+            if (Objects.nonNull(delivery)) {
+                liveCoverageService.invalidateDelivery(delivery.getId());
+            }
+        }
+    }
+
+    public boolean onDeleteDeliveryProduct(final DataDefinition deliveryProductDD, final Entity deliveryProduct) {
+        invalidateProduct(deliveryProduct, OrderedProductFields.PRODUCT);
+
+        return true;
+    }
+
+    public void onSaveParameter(final DataDefinition parameterDD, final Entity parameter) {
+        liveCoverageService.invalidateAll();
+    }
+
+    private void invalidateProduct(final Entity entity, final String productFieldName) {
+        Entity product = entity.getBelongsToField(productFieldName);
+
+        if (Objects.nonNull(product)) {
+            liveCoverageService.invalidate(product.getId());
+        }
+    }
+
+}
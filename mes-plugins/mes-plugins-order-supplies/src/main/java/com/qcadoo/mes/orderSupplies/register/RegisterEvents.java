@@ -34,6 +34,7 @@ import com.qcadoo.mes.orderSupplies.constants.CoverageProductLoggingEventType;
 import com.qcadoo.mes.orderSupplies.constants.CoverageRegisterFields;
 import com.qcadoo.mes.orderSupplies.constants.OrderFieldsOS;
 import com.qcadoo.mes.orderSupplies.constants.OrderSuppliesConstants;
+import com.qcadoo.mes.orders.OrderChangesService;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.orders.hooks.OrderHooks;
 import com.qcadoo.mes.orders.states.constants.OrderState;
@@ -92,6 +93,9 @@ public class RegisterEvents {
     @Autowired
     private TechnologyService technologyService;
 
+    @Autowired
+    private OrderChangesService orderChangesService;
+
     public void onSaveOrder(final DataDefinition orderDD, final Entity order) {
 
         Entity orderDB = null;
@@ -104,12 +108,7 @@ public class RegisterEvents {
         boolean registerFilled = order.getBooleanField(OrderFieldsOS.REGISTER_FILLED);
 
         if (order.getId() != null) {
-            StringBuilder query = new StringBuilder();
-            query.append("SELECT ord.id as id, technology.id as technology, ord.number as number, ord.startDate as startDate, ");
-            query.append("ord.finishDate as finishDate, ord.plannedQuantity as plannedQuantity, ");
-            query.append("ord.typeOfProductionRecording as typeOfProductionRecording ");
-            query.append("FROM #orders_order ord WHERE id = :id");
-            orderDB = orderDD.find(query.toString()).setLong("id", order.getId()).setMaxResults(1).uniqueResult();
+            orderDB = orderChangesService.getChanges(orderDD, order).getPersistedOrder().orElse(null);
         }
 
         if (OrderState.of(order) == OrderState.IN_PROGRESS && checkIfOrderChange(order, orderDB)) {
@@ -344,11 +343,11 @@ public class RegisterEvents {
     private boolean checkIfTechnologyInOrderChange(final Entity order, final Entity orderDB) {
         Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
 
-        Long technologyDBId = orderDB.getLongField(OrderFields.TECHNOLOGY);
-        if (technologyDBId == null) {
+        Entity technologyDB = orderDB.getBelongsToField(OrderFields.TECHNOLOGY);
+        if (technologyDB == null) {
             return true;
         }
-        if (!technology.getId().equals(technologyDBId)) {
+        if (!technology.getId().equals(technologyDB.getId())) {
             return true;
         }
 
@@ -0,0 +1,90 @@
+package com.qcadoo.mes.orderSupplies.coverage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.qcadoo.mes.orderSupplies.constants.CoverageProductLoggingEventType;
+import com.qcadoo.mes.orderSupplies.constants.CoverageProductLoggingState;
+import com.qcadoo.mes.orderSupplies.constants.CoverageProductState;
+import com.qcadoo.mes.orderSupplies.constants.CoverageType;
+import com.qcadoo.mes.orderSupplies.coverage.CoverageBalanceEngine.CoverageEvent;
+import com.qcadoo.mes.orderSupplies.coverage.CoverageBalanceEngine.ProductBalance;
+
+public class CoverageBalanceEngineTest {
+
+    private static final long L_PRODUCT_ID = 1L;
+
+    private static final long L_OTHER_PRODUCT_ID = 2L;
+
+    private CoverageBalanceEngine coverageBalanceEngine;
+
+    @Before
+    public void init() {
+        coverageBalanceEngine = new CoverageBalanceEngine(MathContext.DECIMAL64);
+    }
+
+    @Test
+    public void shouldComputeRunningBalanceInOrderOfDates() {
+        // given
+        coverageBalanceEngine.addDemand(L_PRODUCT_ID, null, demand(L_PRODUCT_ID, 20, "8"));
+        coverageBalanceEngine.addDemand(L_PRODUCT_ID, null, demand(L_PRODUCT_ID, 10, "5"));
+        coverageBalanceEngine.addWarehouseStates("W1", new Date(1), Collections.singletonMap(L_PRODUCT_ID, new BigDecimal(6)));
+        coverageBalanceEngine.addDelivery(CoverageEvent.forDelivery(L_PRODUCT_ID, new Date(30), new BigDecimal(10), 7L, "D7"));
+
+        // when
+        coverageBalanceEngine.computeBalances();
+
+        // then
+        ProductBalance productBalance = coverageBalanceEngine.getProductBalances(CoverageType.ALL.getStringValue()).get(0);
+        List<CoverageEvent> events = productBalance.getEvents();
+
+        assertEquals(4, events.size());
+        assertEquals(CoverageProductLoggingEventType.WAREHOUSE_STATE.getStringValue(), events.get(0).getEventType());
+        assertEquals(0, new BigDecimal(1).compareTo(events.get(1).getReserveMissingQuantity()));
+        assertEquals(CoverageProductLoggingState.COVERED.getStringValue(), events.get(1).getState());
+        assertEquals(0, new BigDecimal(-7).compareTo(events.get(2).getReserveMissingQuantity()));
+        assertEquals(CoverageProductLoggingState.LACK.getStringValue(), events.get(2).getState());
+        assertEquals(0, new BigDecimal(3).compareTo(events.get(3).getReserveMissingQuantity()));
+        assertEquals("D7", events.get(3).getDeliveryNumberExternal());
+
+        assertEquals(new Date(20), productBalance.getLackFromDate());
+        assertEquals(0, new BigDecimal(16).compareTo(productBalance.getCoveredQuantity()));
+        assertEquals(CoverageProductState.DELAY.getStringValue(), productBalance.getState());
+    }
+
+    @Test
+    public void shouldIgnoreDeliveriesOfProductsWithoutDemandAndFilterByCoverageType() {
+        // given
+        coverageBalanceEngine.addDemand(L_PRODUCT_ID, null, demand(L_PRODUCT_ID, 10, "5"));
+        coverageBalanceEngine.addDemand(L_OTHER_PRODUCT_ID, null, demand(L_OTHER_PRODUCT_ID, 10, "5"));
+        coverageBalanceEngine.addDelivery(CoverageEvent.forDelivery(L_PRODUCT_ID, new Date(5), new BigDecimal(5), 7L, "D7"));
+        coverageBalanceEngine.addDelivery(CoverageEvent.forDelivery(3L, new Date(5), new BigDecimal(5), 7L, "D7"));
+
+        // when
+        coverageBalanceEngine.computeBalances();
+
+        // then
+        List<ProductBalance> productBalances = coverageBalanceEngine
+                .getProductBalances(CoverageType.ONLY_SHORCOMINGS_AND_DELAYS.getStringValue());
+
+        assertEquals(1, productBalances.size());
+        assertEquals(L_OTHER_PRODUCT_ID, productBalances.get(0).getProductId());
+        assertEquals(new Date(10), productBalances.get(0).getLackFromDate());
+        assertNull(coverageBalanceEngine.getProductBalances(CoverageType.ALL.getStringValue()).get(0).getLackFromDate());
+    }
+
+    private CoverageEvent demand(final long productId, final long date, final String quantity) {
+        return CoverageEvent.forOrder(productId, new Date(date), CoverageProductLoggingEventType.ORDER_INPUT.getStringValue(),
+                new BigDecimal(quantity), 1L, null);
+    }
+
+}
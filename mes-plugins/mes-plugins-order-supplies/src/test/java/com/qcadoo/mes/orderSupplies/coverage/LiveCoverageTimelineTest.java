@@ -0,0 +1,55 @@
+package com.qcadoo.mes.orderSupplies.coverage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.qcadoo.mes.orderSupplies.constants.CoverageProductLoggingEventType;
+import com.qcadoo.mes.orderSupplies.constants.CoverageType;
+import com.qcadoo.mes.orderSupplies.coverage.CoverageBalanceEngine.CoverageEvent;
+
+public class LiveCoverageTimelineTest {
+
+    private static final long L_PRODUCT_ID = 1L;
+
+    @Test
+    public void shouldReturnBalanceAfterLastEventUntilDate() {
+        // given
+        CoverageBalanceEngine coverageBalanceEngine = new CoverageBalanceEngine(MathContext.DECIMAL64);
+
+        coverageBalanceEngine.addDemand(L_PRODUCT_ID, null, CoverageEvent.forOrder(L_PRODUCT_ID, new Date(10),
+                CoverageProductLoggingEventType.ORDER_INPUT.getStringValue(), new BigDecimal(5), 1L, null));
+        coverageBalanceEngine.addWarehouseStates("W1", new Date(1), Collections.singletonMap(L_PRODUCT_ID, new BigDecimal(3)));
+        coverageBalanceEngine.addDelivery(CoverageEvent.forDelivery(L_PRODUCT_ID, new Date(20), new BigDecimal(4), 7L, "D7"));
+        coverageBalanceEngine.computeBalances();
+
+        // when
+        LiveCoverageTimeline timeline = LiveCoverageTimeline
+                .of(coverageBalanceEngine.getProductBalances(CoverageType.ALL.getStringValue()).get(0), new Date(1));
+
+        // then
+        assertEquals(2, timeline.getPoints().size());
+        assertEquals(0, new BigDecimal(3).compareTo(timeline.getBalanceAt(new Date(5))));
+        assertEquals(0, new BigDecimal(-2).compareTo(timeline.getBalanceAt(new Date(10))));
+        assertEquals(0, new BigDecimal(-2).compareTo(timeline.getBalanceAt(new Date(19))));
+        assertEquals(0, new BigDecimal(2).compareTo(timeline.getBalanceAt(new Date(100))));
+        assertEquals(new Date(10), timeline.getLackFromDate());
+    }
+
+    @Test
+    public void shouldNotHaveDemandWhenCreatedWithoutDemand() {
+        // when
+        LiveCoverageTimeline timeline = LiveCoverageTimeline.withoutDemand(L_PRODUCT_ID, new Date());
+
+        // then
+        assertFalse(timeline.hasDemand());
+        assertEquals(0, BigDecimal.ZERO.compareTo(timeline.getBalanceAt(new Date())));
+    }
+
+}
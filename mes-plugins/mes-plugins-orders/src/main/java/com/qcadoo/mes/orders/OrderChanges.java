@@ -0,0 +1,74 @@
+package com.qcadoo.mes.orders;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Objects;
+import java.util.Optional;
+
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Changes of order being saved, compared to its persisted state.
+ */
+public final class OrderChanges {
+
+    private final Entity order;
+
+    private final Entity persistedOrder;
+
+    OrderChanges(final Entity order, final Entity persistedOrder) {
+        this.order = order;
+        this.persistedOrder = persistedOrder;
+    }
+
+    /**
+     * Tells if order wasn't persisted yet.
+     */
+    public boolean isNew() {
+        return Objects.isNull(persistedOrder);
+    }
+
+    /**
+     * Returns order as it's persisted, shared by all hooks of the save, so it mustn't be changed nor saved.
+     */
+    public Optional<Entity> getPersistedOrder() {
+        return Optional.ofNullable(persistedOrder);
+    }
+
+    /**
+     * Tells if value of any of given fields differs from persisted one. Belongs to fields are compared by ids, numbers by values.
+     * All fields of new order are changed.
+     */
+    public boolean isChanged(final String... fieldNames) {
+        if (isNew()) {
+            return true;
+        }
+
+        for (String fieldName : fieldNames) {
+            if (!valueEquals(normalize(order.getField(fieldName)), normalize(persistedOrder.getField(fieldName)))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static Object normalize(final Object value) {
+        if (value instanceof Entity) {
+            return ((Entity) value).getId();
+        } else if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+
+        return value;
+    }
+
+    private static boolean valueEquals(final Object value, final Object persistedValue) {
+        if (value instanceof Number && persistedValue instanceof Number) {
+            return new BigDecimal(value.toString()).compareTo(new BigDecimal(persistedValue.toString())) == 0;
+        }
+
+        return Objects.equals(value, persistedValue);
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.qcadoo.mes.orders;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Persisted state of orders being saved, loaded once and shared by validators and onSave hooks of all plugins, instead of each
+ * of them loading it again.
+ *
+ * State is kept for the saved order entity until the end of transaction. It's loaded again when validators and onSave hook of
+ * orders, registered before ones of other plugins, start, so each save sees state persisted before it, even when the same entity
+ * is saved twice. Without transaction state is loaded on each call.
+ */
+@Service
+public class OrderChangesService {
+
+    /**
+     * Returns changes of given order, compared to its persisted state.
+     */
+    public OrderChanges getChanges(final DataDefinition orderDD, final Entity order) {
+        return new OrderChanges(order, getPersistedOrder(orderDD, order));
+    }
+
+    /**
+     * Forgets persisted state of given order, so it's loaded again, called when its save starts.
+     */
+    public void reset(final Entity order) {
+        Map<Entity, Entity> persistedOrders = getPersistedOrders();
+
+        if (Objects.nonNull(persistedOrders)) {
+            persistedOrders.remove(order);
+        }
+    }
+
+    private Entity getPersistedOrder(final DataDefinition orderDD, final Entity order) {
+        if (Objects.isNull(order.getId())) {
+            return null;
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return orderDD.get(order.getId());
+        }
+
+        Map<Entity, Entity> persistedOrders = getPersistedOrders();
+
+        if (Objects.isNull(persistedOrders)) {
+            persistedOrders = new IdentityHashMap<>();
+
+            TransactionSynchronizationManager.bindResource(this, persistedOrders);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(OrderChangesService.this);
+                }
+
+            });
+        }
+
+        Entity persistedOrder = persistedOrders.get(order);
+
+        if (Objects.isNull(persistedOrder) || !persistedOrder.getId().equals(order.getId())) {
+            persistedOrder = orderDD.get(order.getId());
+
+            persistedOrders.put(order, persistedOrder);
+        }
+
+        return persistedOrder;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Entity, Entity> getPersistedOrders() {
+        return (Map<Entity, Entity>) TransactionSynchronizationManager.getResource(this);
+    }
+
+}
@@ -70,6 +70,9 @@ public class TechnologyServiceO {
     @Autowired
     private BarcodeOperationComponentService barcodeOperationComponentService;
 
+    @Autowired
+    private OrderChangesService orderChangesService;
+
     public static final String WITH_PATTERN_TECHNOLOGY = "01patternTechnology";
 
     @Transactional
@@ -115,11 +118,7 @@ public class TechnologyServiceO {
     }
 
     private Entity getExistingOrder(final Entity order) {
-        if (order.getId() == null) {
-            return null;
-        }
-
-        return order.getDataDefinition().get(order.getId());
+        return orderChangesService.getChanges(order.getDataDefinition(), order).getPersistedOrder().orElse(null);
     }
 
     private boolean isTechnologyCopied(final Entity order) {
@@ -45,8 +45,11 @@ import com.qcadoo.mes.basic.ProductService;
 import com.qcadoo.mes.basic.ShiftsService;
 import com.qcadoo.mes.basic.constants.ProductFamilyElementType;
 import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.controllers.dataProvider.DailyProductionChartDataProvider;
 import com.qcadoo.mes.basic.shift.Shift;
 import com.qcadoo.mes.orders.OperationalTasksService;
+import com.qcadoo.mes.orders.OrderChanges;
+import com.qcadoo.mes.orders.OrderChangesService;
 import com.qcadoo.mes.orders.OrderPackService;
 import com.qcadoo.mes.orders.OrderService;
 import com.qcadoo.mes.orders.OrderStateChangeReasonService;
@@ -129,7 +132,15 @@ public class OrderHooks {
     @Autowired
     private AdditionalUnitService additionalUnitService;
 
+    @Autowired
+    private DailyProductionChartDataProvider dailyProductionChartDataProvider;
+
+    @Autowired
+    private OrderChangesService orderChangesService;
+
     public boolean validatesWith(final DataDefinition orderDD, final Entity order) {
+        orderChangesService.reset(order);
+
         Entity parameter = parameterService.getParameter();
 
         boolean isValid = checkOrderDates(orderDD, order);
@@ -229,6 +240,8 @@ public class OrderHooks {
     }
 
     public void onSave(final DataDefinition orderDD, final Entity order) {
+        orderChangesService.reset(order);
+
         copyStartDate(orderDD, order);
         copyEndDate(orderDD, order);
         copyProductQuantity(orderDD, order);
@@ -238,16 +251,17 @@ public class OrderHooks {
         setRemainingQuantity(order);
         setAdditionalFields(order);
         changedProductionLineInOperationalTasksWhenChanged(orderDD, order);
+        dailyProductionChartDataProvider.invalidate();
     }
 
     private void changedProductionLineInOperationalTasksWhenChanged(final DataDefinition orderDD, final Entity order) {
-        Long orderId = order.getId();
+        OrderChanges orderChanges = orderChangesService.getChanges(orderDD, order);
 
-        if (Objects.isNull(orderId)) {
+        if (orderChanges.isNew() || !orderChanges.isChanged(OrderFields.PRODUCTION_LINE)) {
             return;
         }
 
-        Entity orderFromDB = orderDD.get(orderId);
+        Entity orderFromDB = orderChanges.getPersistedOrder().get();
 
         Entity productionLine = order.getBelongsToField(OrderFields.PRODUCTION_LINE);
         Entity orderProductionLine = orderFromDB.getBelongsToField(OrderFields.PRODUCTION_LINE);
@@ -378,16 +392,15 @@ public class OrderHooks {
 
     private boolean checkOperationalTasks(final DataDefinition orderDD, final Entity order) {
         if (!order.getHasManyField(OrderFields.OPERATIONAL_TASKS).isEmpty()) {
-            Entity orderFromDB = orderDD.get(order.getId());
+            OrderChanges orderChanges = orderChangesService.getChanges(orderDD, order);
 
-            if (!order.getBelongsToField(OrderFields.PRODUCT).equals(orderFromDB.getBelongsToField(OrderFields.PRODUCT))) {
+            if (orderChanges.isChanged(OrderFields.PRODUCT)) {
                 order.addError(orderDD.getField(OrderFields.PRODUCT),
                         "orders.validate.global.error.operationalTasks.productChange");
 
                 return false;
             }
-            if (!order.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE)
-                    .equals(orderFromDB.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE))) {
+            if (orderChanges.isChanged(OrderFields.TECHNOLOGY_PROTOTYPE)) {
                 order.addError(orderDD.getField(OrderFields.TECHNOLOGY_PROTOTYPE),
                         "orders.validate.global.error.operationalTasks.technologyChange");
 
@@ -446,10 +459,10 @@ public class OrderHooks {
             return false;
         }
 
-        Long orderId = order.getId();
+        Optional<Entity> maybeOrderFromDB = orderChangesService.getChanges(orderDD, order).getPersistedOrder();
 
-        if (Objects.nonNull(orderId)) {
-            Entity orderFromDB = orderDD.get(orderId);
+        if (maybeOrderFromDB.isPresent()) {
+            Entity orderFromDB = maybeOrderFromDB.get();
 
             BigDecimal commissionedCorrectedQuantity = order.getDecimalField(OrderFields.COMMISSIONED_CORRECTED_QUANTITY);
             BigDecimal commissionedCorrectedQuantityFromDB = orderFromDB
@@ -483,10 +496,10 @@ public class OrderHooks {
 
     private boolean checkProductQuantitiesForOrderPacks(final DataDefinition orderDD, final Entity order,
             final BigDecimal sumQuantityOrderPacks) {
-        Long orderId = order.getId();
+        Optional<Entity> maybeOrderFromDB = orderChangesService.getChanges(orderDD, order).getPersistedOrder();
 
-        if (Objects.nonNull(orderId)) {
-            Entity orderFromDB = orderDD.get(orderId);
+        if (maybeOrderFromDB.isPresent()) {
+            Entity orderFromDB = maybeOrderFromDB.get();
 
             if (orderFromDB.getDecimalField(OrderFields.PLANNED_QUANTITY)
                     .compareTo(order.getDecimalField(OrderFields.PLANNED_QUANTITY)) == 0) {
@@ -520,17 +533,12 @@ public class OrderHooks {
     }
 
     private boolean checkOrderTechnologicalProcessesQuantity(final DataDefinition orderDD, final Entity order) {
-        Long orderId = order.getId();
-
-        if (Objects.nonNull(orderId)) {
-            Entity orderFromDB = orderDD.get(orderId);
-
-            BigDecimal plannedQuantity = order.getDecimalField(OrderFields.PLANNED_QUANTITY);
-            BigDecimal plannedQuantityFromDB = orderFromDB.getDecimalField(OrderFields.PLANNED_QUANTITY);
+        OrderChanges orderChanges = orderChangesService.getChanges(orderDD, order);
 
+        if (!orderChanges.isNew()) {
             List<Entity> orderTechnologicalProcesses = order.getHasManyField(OrderFields.ORDER_TECHNOLOGICAL_PROCESSES);
 
-            if ((plannedQuantity.compareTo(plannedQuantityFromDB) != 0) && !orderTechnologicalProcesses.isEmpty()) {
+            if (orderChanges.isChanged(OrderFields.PLANNED_QUANTITY) && !orderTechnologicalProcesses.isEmpty()) {
                 order.addGlobalMessage("orderTechnologicalProcesses.validate.global.message.quantityMessage");
             }
         }
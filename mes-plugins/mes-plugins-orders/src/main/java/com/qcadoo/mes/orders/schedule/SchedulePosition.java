@@ -0,0 +1,139 @@
+package com.qcadoo.mes.orders.schedule;
+
+import java.util.Date;
+
+/**
+ * Schedule position with ids of its order, operation and workstation, as read and written by {@link ScheduleRepository}.
+ */
+public class SchedulePosition {
+
+    private Long id;
+
+    private Long orderId;
+
+    private Long parentOrderId;
+
+    private Long technologyOperationComponentId;
+
+    private Long parentTechnologyOperationComponentId;
+
+    private Long operationId;
+
+    private Integer machineWorkTime;
+
+    private Integer additionalTime;
+
+    private Long workstationId;
+
+    private Long workstationStaffId;
+
+    private Long staffId;
+
+    private Date startTime;
+
+    private Date endTime;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(Long orderId) {
+        this.orderId = orderId;
+    }
+
+    public Long getParentOrderId() {
+        return parentOrderId;
+    }
+
+    public void setParentOrderId(Long parentOrderId) {
+        this.parentOrderId = parentOrderId;
+    }
+
+    public Long getTechnologyOperationComponentId() {
+        return technologyOperationComponentId;
+    }
+
+    public void setTechnologyOperationComponentId(Long technologyOperationComponentId) {
+        this.technologyOperationComponentId = technologyOperationComponentId;
+    }
+
+    public Long getParentTechnologyOperationComponentId() {
+        return parentTechnologyOperationComponentId;
+    }
+
+    public void setParentTechnologyOperationComponentId(Long parentTechnologyOperationComponentId) {
+        this.parentTechnologyOperationComponentId = parentTechnologyOperationComponentId;
+    }
+
+    public Long getOperationId() {
+        return operationId;
+    }
+
+    public void setOperationId(Long operationId) {
+        this.operationId = operationId;
+    }
+
+    public Integer getMachineWorkTime() {
+        return machineWorkTime;
+    }
+
+    public void setMachineWorkTime(Integer machineWorkTime) {
+        this.machineWorkTime = machineWorkTime;
+    }
+
+    public Integer getAdditionalTime() {
+        return additionalTime;
+    }
+
+    public void setAdditionalTime(Integer additionalTime) {
+        this.additionalTime = additionalTime;
+    }
+
+    public Long getWorkstationId() {
+        return workstationId;
+    }
+
+    public void setWorkstationId(Long workstationId) {
+        this.workstationId = workstationId;
+    }
+
+    public Long getWorkstationStaffId() {
+        return workstationStaffId;
+    }
+
+    public void setWorkstationStaffId(Long workstationStaffId) {
+        this.workstationStaffId = workstationStaffId;
+    }
+
+    public Long getStaffId() {
+        return staffId;
+    }
+
+    public void setStaffId(Long staffId) {
+        this.staffId = staffId;
+    }
+
+    public Date getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(Date startTime) {
+        this.startTime = startTime;
+    }
+
+    public Date getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(Date endTime) {
+        this.endTime = endTime;
+    }
+}
@@ -0,0 +1,230 @@
+package com.qcadoo.mes.orders.schedule;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+import com.qcadoo.mes.technologies.constants.AssignedToOperation;
+
+/**
+ * Reads schedule positions with everything needed to plan them in one go and writes planned positions back with batched
+ * updates.
+ */
+@Repository
+public class ScheduleRepository {
+
+    private static final int L_MAX_IDS_IN_STATEMENT = 1000;
+
+    private static final String L_SCHEDULE_ID = "scheduleId";
+
+    private static final String L_IDS = "ids";
+
+    private static final String REJECTED = "04rejected";
+
+    private static final String POSITIONS_QUERY = "SELECT sp.id, sp.order_id AS orderId, %s AS parentOrderId, "
+            + "sp.technologyoperationcomponent_id AS technologyOperationComponentId, "
+            + "toc.parent_id AS parentTechnologyOperationComponentId, toc.operation_id AS operationId, "
+            + "sp.machineworktime AS machineWorkTime, sp.additionaltime AS additionalTime, sp.workstation_id AS workstationId, "
+            + "w.staff_id AS workstationStaffId, sp.staff_id AS staffId, sp.starttime AS startTime, sp.endtime AS endTime "
+            + "FROM orders_scheduleposition sp "
+            + "JOIN technologies_technologyoperationcomponent toc ON sp.technologyoperationcomponent_id = toc.id "
+            + "JOIN orders_order o ON sp.order_id = o.id LEFT JOIN basic_workstation w ON sp.workstation_id = w.id "
+            + "WHERE sp.schedule_id = :scheduleId ";
+
+    private static final String WORKSTATIONS_QUERY = "SELECT toc.id AS technologyOperationComponentId, w.id, w.buffer, "
+            + "w.productionline_id AS productionLineId FROM technologies_technologyoperationcomponent toc "
+            + "JOIN jointable_technologyoperationcomponent_workstation jtw ON jtw.technologyoperationcomponent_id = toc.id "
+            + "JOIN basic_workstation w ON w.id = jtw.workstation_id "
+            + "WHERE toc.id IN (:ids) AND toc.assignedtooperation = :workstations "
+            + "UNION ALL "
+            + "SELECT toc.id AS technologyOperationComponentId, w.id, w.buffer, w.productionline_id AS productionLineId "
+            + "FROM technologies_technologyoperationcomponent toc "
+            + "JOIN basic_workstation w ON w.workstationtype_id = toc.workstationtype_id "
+            + "WHERE toc.id IN (:ids) AND toc.assignedtooperation <> :workstations "
+            + "ORDER BY technologyOperationComponentId, id";
+
+    private static final String WORKSTATIONS_FINISH_DATES_QUERY = "SELECT workstation_id AS id, MAX(finishdate) AS finishDate "
+            + "FROM orders_operationaltask WHERE workstation_id IN (:ids) AND state <> '" + REJECTED + "' "
+            + "AND finishdate > :scheduleStartTime GROUP BY workstation_id";
+
+    private static final String OPERATIONS_SKILLS_QUERY = "SELECT operation_id, skill_id, MAX(requiredlevel) AS level "
+            + "FROM technologies_operationskill WHERE operation_id IN (:ids) GROUP BY operation_id, skill_id";
+
+    private static final String STAFF_SKILLS_QUERY = "SELECT staff_id, skill_id, MAX(level) AS level FROM basic_staffskill "
+            + "WHERE skill_id IN (:ids) GROUP BY staff_id, skill_id";
+
+    private static final String STAFF_QUERY = "SELECT id FROM basic_staff ORDER BY id";
+
+    private static final String WORKERS_FINISH_DATES_QUERY = "SELECT staff_id AS id, MAX(finishdate) AS finishDate "
+            + "FROM orders_operationaltask WHERE staff_id IS NOT NULL AND state <> '" + REJECTED + "' GROUP BY staff_id";
+
+    private static final String WORKSTATIONS_LAST_WORKERS_QUERY = "SELECT DISTINCT ON (workstation_id) workstation_id, staff_id "
+            + "FROM orders_operationaltask WHERE workstation_id IN (:ids) AND staff_id IS NOT NULL AND state <> '" + REJECTED
+            + "' ORDER BY workstation_id, finishdate DESC";
+
+    private static final String UPDATE_POSITION_WORKSTATION = "UPDATE orders_scheduleposition SET "
+            + "workstation_id = :workstationId, starttime = :startTime, endtime = :endTime, staff_id = NULL WHERE id = :id";
+
+    private static final String UPDATE_POSITION_STAFF = "UPDATE orders_scheduleposition SET staff_id = :staffId WHERE id = :id";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Returns positions of schedule in order in which they are assigned to workstations: orders and operations from the
+     * deepest ones, so components are planned before operations using them. Parent orders are filled only when requested,
+     * because they come from orders for subproducts generation.
+     */
+    public List<SchedulePosition> getPositionsForWorkstations(final Long scheduleId, final boolean descendingWorkTime,
+            final boolean withParentOrders) {
+        StringBuilder query = new StringBuilder(getPositionsQuery(withParentOrders));
+        query.append("ORDER BY ");
+        query.append("string_to_array(regexp_replace(SPLIT_PART(o.number, '-', 2), '[^0-9.]', '0', 'g'), '.')::int[] desc, ");
+        query.append("string_to_array(regexp_replace(rtrim(toc.nodenumber, '.'), '[^0-9.]', '0', 'g'), '.')::int[] desc, ");
+        if (descendingWorkTime) {
+            query.append("sp.machineworktime desc");
+        } else {
+            query.append("sp.machineworktime asc");
+        }
+
+        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource(L_SCHEDULE_ID, scheduleId),
+                BeanPropertyRowMapper.newInstance(SchedulePosition.class));
+    }
+
+    public List<SchedulePosition> getPositionsForWorkers(final Long scheduleId) {
+        return jdbcTemplate.query(getPositionsQuery(false) + "ORDER BY sp.starttime",
+                new MapSqlParameterSource(L_SCHEDULE_ID, scheduleId), BeanPropertyRowMapper.newInstance(SchedulePosition.class));
+    }
+
+    private String getPositionsQuery(final boolean withParentOrders) {
+        return String.format(POSITIONS_QUERY, withParentOrders ? "o.parent_id" : "NULL::bigint");
+    }
+
+    /**
+     * Returns workstations which can execute given technology operation components, directly assigned ones or ones of
+     * assigned workstation type, ordered by technology operation component and workstation ids.
+     */
+    public List<ScheduleWorkstation> getWorkstations(final Collection<Long> technologyOperationComponentIds) {
+        List<ScheduleWorkstation> workstations = Lists.newArrayList();
+
+        for (List<Long> ids : Lists.partition(Lists.newArrayList(technologyOperationComponentIds), L_MAX_IDS_IN_STATEMENT)) {
+            MapSqlParameterSource parameters = new MapSqlParameterSource(L_IDS, ids);
+            parameters.addValue("workstations", AssignedToOperation.WORKSTATIONS.getStringValue());
+
+            workstations.addAll(jdbcTemplate.query(WORKSTATIONS_QUERY, parameters,
+                    BeanPropertyRowMapper.newInstance(ScheduleWorkstation.class)));
+        }
+
+        return workstations;
+    }
+
+    /**
+     * Returns latest finish dates of not rejected operational tasks of given workstations, which finish after schedule start.
+     * Workstations without such tasks are left out.
+     */
+    public Map<Long, Date> getWorkstationsFinishDates(final Collection<Long> workstationIds, final Date scheduleStartTime) {
+        Map<Long, Date> finishDates = Maps.newHashMap();
+
+        for (List<Long> ids : Lists.partition(Lists.newArrayList(workstationIds), L_MAX_IDS_IN_STATEMENT)) {
+            MapSqlParameterSource parameters = new MapSqlParameterSource(L_IDS, ids);
+            parameters.addValue("scheduleStartTime", scheduleStartTime);
+
+            jdbcTemplate.query(WORKSTATIONS_FINISH_DATES_QUERY, parameters, (RowCallbackHandler) resultSet -> finishDates
+                    .put(resultSet.getLong("id"), resultSet.getTimestamp("finishDate")));
+        }
+
+        return finishDates;
+    }
+
+    /**
+     * Returns skills required by given operations: operation ids in rows, skill ids in columns and required levels as values.
+     */
+    public Table<Long, Long, Integer> getOperationsSkills(final Collection<Long> operationIds) {
+        return getLevels(OPERATIONS_SKILLS_QUERY, "operation_id", operationIds);
+    }
+
+    /**
+     * Returns given skills of staff: staff ids in rows, skill ids in columns and levels as values.
+     */
+    public Table<Long, Long, Integer> getStaffSkills(final Collection<Long> skillIds) {
+        return getLevels(STAFF_SKILLS_QUERY, "staff_id", skillIds);
+    }
+
+    private Table<Long, Long, Integer> getLevels(final String query, final String rowColumn, final Collection<Long> ids) {
+        Table<Long, Long, Integer> levels = HashBasedTable.create();
+
+        for (List<Long> chunk : Lists.partition(Lists.newArrayList(ids), L_MAX_IDS_IN_STATEMENT)) {
+            jdbcTemplate.query(query, new MapSqlParameterSource(L_IDS, chunk), (RowCallbackHandler) resultSet -> levels
+                    .put(resultSet.getLong(rowColumn), resultSet.getLong("skill_id"), resultSet.getInt("level")));
+        }
+
+        return levels;
+    }
+
+    public List<Long> getStaffIds() {
+        return jdbcTemplate.queryForList(STAFF_QUERY, EmptySqlParameterSource.INSTANCE, Long.class);
+    }
+
+    /**
+     * Returns latest finish dates of not rejected operational tasks of workers. Workers without tasks are left out.
+     */
+    public Map<Long, Date> getWorkersFinishDates() {
+        Map<Long, Date> finishDates = Maps.newHashMap();
+
+        jdbcTemplate.query(WORKERS_FINISH_DATES_QUERY, EmptySqlParameterSource.INSTANCE,
+                (RowCallbackHandler) resultSet -> finishDates.put(resultSet.getLong("id"), resultSet.getTimestamp("finishDate")));
+
+        return finishDates;
+    }
+
+    /**
+     * Returns workers of latest finishing not rejected operational tasks of given workstations.
+     */
+    public Map<Long, Long> getWorkstationsLastWorkers(final Collection<Long> workstationIds) {
+        Map<Long, Long> lastWorkers = Maps.newHashMap();
+
+        for (List<Long> ids : Lists.partition(Lists.newArrayList(workstationIds), L_MAX_IDS_IN_STATEMENT)) {
+            jdbcTemplate.query(WORKSTATIONS_LAST_WORKERS_QUERY, new MapSqlParameterSource(L_IDS, ids),
+                    (RowCallbackHandler) resultSet -> lastWorkers.put(resultSet.getLong("workstation_id"),
+                            resultSet.getLong("staff_id")));
+        }
+
+        return lastWorkers;
+    }
+
+    public void updatePositionsWorkstations(final Collection<SchedulePosition> positions) {
+        jdbcTemplate.batchUpdate(UPDATE_POSITION_WORKSTATION, toParameters(positions));
+    }
+
+    public void updatePositionsStaff(final Collection<SchedulePosition> positions) {
+        jdbcTemplate.batchUpdate(UPDATE_POSITION_STAFF, toParameters(positions));
+    }
+
+    private SqlParameterSource[] toParameters(final Collection<SchedulePosition> positions) {
+        return positions.stream().map(position -> {
+            MapSqlParameterSource parameters = new MapSqlParameterSource("id", position.getId());
+
+            parameters.addValue("workstationId", position.getWorkstationId());
+            parameters.addValue("staffId", position.getStaffId());
+            parameters.addValue("startTime", position.getStartTime());
+            parameters.addValue("endTime", position.getEndTime());
+
+            return parameters;
+        }).toArray(SqlParameterSource[]::new);
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.qcadoo.mes.orders.schedule;
+
+import static java.util.Map.Entry.comparingByValue;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+import com.qcadoo.mes.orders.constants.ScheduleFields;
+import com.qcadoo.mes.orders.constants.ScheduleWorkerAssignCriterion;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Assigns workers to schedule positions already assigned to workstations.
+ *
+ * Skills required by operations, skills of workers, when workers finish their operational tasks and who worked last on each
+ * workstation are read once, positions are then assigned in order of their start, and all of them are written back with one
+ * batch update.
+ */
+@Service
+public class ScheduleWorkersAssignmentService {
+
+    @Autowired
+    private ScheduleRepository scheduleRepository;
+
+    @Transactional
+    public void assignWorkersToOperations(final Entity schedule) {
+        String workerAssignCriterion = schedule.getStringField(ScheduleFields.WORKER_ASSIGN_CRITERION);
+        List<SchedulePosition> positions = scheduleRepository.getPositionsForWorkers(schedule.getId()).stream()
+                .filter(position -> getSeconds(position.getMachineWorkTime()) != 0
+                        && Objects.nonNull(position.getWorkstationId()))
+                .collect(Collectors.toList());
+
+        if (positions.isEmpty()) {
+            return;
+        }
+
+        if (ScheduleWorkerAssignCriterion.WORKSTATION_DEFAULT_OPERATOR.getStringValue().equals(workerAssignCriterion)) {
+            positions.forEach(position -> position.setStaffId(position.getWorkstationStaffId()));
+        } else {
+            WorkersAvailability availability = new WorkersAvailability(schedule, positions);
+
+            for (SchedulePosition position : positions) {
+                Map<Long, Date> operationWorkersFinishDates = availability.getFreeWorkers(position);
+
+                position.setStaffId(null);
+
+                chooseWorker(workerAssignCriterion, availability.getLastWorker(position.getWorkstationId()),
+                        operationWorkersFinishDates).ifPresent(workerId -> availability.assign(position, workerId));
+            }
+        }
+
+        scheduleRepository.updatePositionsStaff(positions);
+    }
+
+    private Optional<Long> chooseWorker(final String workerAssignCriterion, final Long workstationLastWorkerId,
+            final Map<Long, Date> operationWorkersFinishDates) {
+        if (operationWorkersFinishDates.containsKey(workstationLastWorkerId)) {
+            return Optional.of(workstationLastWorkerId);
+        }
+
+        Optional<Entry<Long, Date>> chosenEntry;
+
+        if (ScheduleWorkerAssignCriterion.WORKSTATION_LAST_OPERATOR_LATEST_FINISHED.getStringValue()
+                .equals(workerAssignCriterion)) {
+            chosenEntry = operationWorkersFinishDates.entrySet().stream().max(comparingByValue());
+        } else {
+            chosenEntry = operationWorkersFinishDates.entrySet().stream().min(comparingByValue());
+        }
+
+        return chosenEntry.map(Entry::getKey);
+    }
+
+    private static int getSeconds(final Integer seconds) {
+        return Objects.isNull(seconds) ? 0 : seconds;
+    }
+
+    /**
+     * State of assignment: which workers have skills required by operations, when they are free and who worked last on each
+     * workstation. Workers qualified for an operation are computed once per operation.
+     */
+    private class WorkersAvailability {
+
+        private final Date scheduleStartTime;
+
+        private final Table<Long, Long, Integer> operationsSkills;
+
+        private final Table<Long, Long, Integer> staffSkills;
+
+        private final Map<Long, Date> workersFinishDates;
+
+        private final Map<Long, Long> workstationsLastWorkers;
+
+        private final Map<Long, List<Long>> operationsWorkers = Maps.newHashMap();
+
+        private List<Long> staffIds;
+
+        WorkersAvailability(final Entity schedule, final List<SchedulePosition> positions) {
+            this.scheduleStartTime = schedule.getDateField(ScheduleFields.START_TIME);
+
+            Set<Long> operationsIds = positions.stream().map(SchedulePosition::getOperationId).filter(Objects::nonNull)
+                    .collect(Collectors.toSet());
+            Set<Long> workstationsIds = positions.stream().map(SchedulePosition::getWorkstationId).collect(Collectors.toSet());
+
+            operationsSkills = scheduleRepository.getOperationsSkills(operationsIds);
+            staffSkills = operationsSkills.isEmpty() ? null : scheduleRepository.getStaffSkills(operationsSkills.columnKeySet());
+            workersFinishDates = scheduleRepository.getWorkersFinishDates();
+            workstationsLastWorkers = scheduleRepository.getWorkstationsLastWorkers(workstationsIds);
+        }
+
+        Long getLastWorker(final Long workstationId) {
+            return workstationsLastWorkers.get(workstationId);
+        }
+
+        /**
+         * Returns workers qualified for operation of given position, who are free when it starts, with dates they are free
+         * since, in order of their ids.
+         */
+        Map<Long, Date> getFreeWorkers(final SchedulePosition position) {
+            Map<Long, Date> freeWorkers = Maps.newLinkedHashMap();
+
+            for (Long workerId : getWorkers(position.getOperationId())) {
+                Date finishDate = workersFinishDates.getOrDefault(workerId, scheduleStartTime);
+
+                if (finishDate.compareTo(position.getStartTime()) <= 0) {
+                    freeWorkers.put(workerId, finishDate);
+                }
+            }
+
+            return freeWorkers;
+        }
+
+        void assign(final SchedulePosition position, final Long workerId) {
+            workersFinishDates.put(workerId, position.getEndTime());
+            workstationsLastWorkers.put(position.getWorkstationId(), workerId);
+
+            position.setStaffId(workerId);
+        }
+
+        private List<Long> getWorkers(final Long operationId) {
+            return operationsWorkers.computeIfAbsent(operationId, id -> {
+                Map<Long, Integer> requiredLevels = Objects.isNull(id) ? Maps.newHashMap() : operationsSkills.row(id);
+
+                if (requiredLevels.isEmpty()) {
+                    return getStaffIds();
+                }
+
+                return staffSkills.rowMap().entrySet().stream()
+                        .filter(staffSkill -> hasSkills(staffSkill.getValue(), requiredLevels)).map(Entry::getKey).sorted()
+                        .collect(Collectors.toList());
+            });
+        }
+
+        private boolean hasSkills(final Map<Long, Integer> levels, final Map<Long, Integer> requiredLevels) {
+            return requiredLevels.entrySet().stream().allMatch(requiredLevel -> levels.containsKey(requiredLevel.getKey())
+                    && levels.get(requiredLevel.getKey()) >= requiredLevel.getValue());
+        }
+
+        private List<Long> getStaffIds() {
+            if (Objects.isNull(staffIds)) {
+                staffIds = Lists.newArrayList(scheduleRepository.getStaffIds());
+            }
+
+            return staffIds;
+        }
+
+    }
+
+}
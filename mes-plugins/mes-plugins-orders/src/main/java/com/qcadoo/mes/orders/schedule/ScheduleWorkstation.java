@@ -0,0 +1,47 @@
+package com.qcadoo.mes.orders.schedule;
+
+/**
+ * Workstation which can execute given technology operation component.
+ */
+public class ScheduleWorkstation {
+
+    private Long technologyOperationComponentId;
+
+    private Long id;
+
+    private boolean buffer;
+
+    private Long productionLineId;
+
+    public Long getTechnologyOperationComponentId() {
+        return technologyOperationComponentId;
+    }
+
+    public void setTechnologyOperationComponentId(Long technologyOperationComponentId) {
+        this.technologyOperationComponentId = technologyOperationComponentId;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public boolean isBuffer() {
+        return buffer;
+    }
+
+    public void setBuffer(boolean buffer) {
+        this.buffer = buffer;
+    }
+
+    public Long getProductionLineId() {
+        return productionLineId;
+    }
+
+    public void setProductionLineId(Long productionLineId) {
+        this.productionLineId = productionLineId;
+    }
+}
@@ -0,0 +1,299 @@
+package com.qcadoo.mes.orders.schedule;
+
+import static java.util.Map.Entry.comparingByValue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.orders.constants.ScheduleFields;
+import com.qcadoo.mes.orders.constants.ScheduleSortOrder;
+import com.qcadoo.mes.orders.constants.ScheduleWorkstationAssignCriterion;
+import com.qcadoo.mes.productionLines.constants.ProductionLinesConstants;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.plugin.api.PluginManager;
+
+/**
+ * Assigns schedule positions to workstations.
+ *
+ * Positions, workstations which can execute their operations and occupancy of these workstations by operational tasks are
+ * read once, positions are planned in memory one after another, each one starting when its workstation is free and its
+ * components are finished, and all planned positions are written back with one batch update.
+ */
+@Service
+public class ScheduleWorkstationsAssignmentService {
+
+    private static final String ORDERS_FOR_SUBPRODUCTS_GENERATION = "ordersForSubproductsGeneration";
+
+    @Autowired
+    private ScheduleRepository scheduleRepository;
+
+    @Autowired
+    private ShiftsService shiftsService;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private PluginManager pluginManager;
+
+    @Transactional
+    public void assignOperationsToWorkstations(final Entity schedule) {
+        boolean withOrderChildren = pluginManager.isPluginEnabled(ORDERS_FOR_SUBPRODUCTS_GENERATION);
+        List<SchedulePosition> positions = scheduleRepository.getPositionsForWorkstations(schedule.getId(),
+                ScheduleSortOrder.DESCENDING.getStringValue().equals(schedule.getStringField(ScheduleFields.SORT_ORDER)),
+                withOrderChildren);
+
+        if (positions.isEmpty()) {
+            return;
+        }
+
+        SchedulePlan plan = new SchedulePlan(schedule, positions, withOrderChildren);
+
+        List<SchedulePosition> plannedPositions = Lists.newArrayList();
+        Set<Long> ordersToAvoid = Sets.newHashSet();
+
+        for (SchedulePosition position : positions) {
+            if (ordersToAvoid.contains(position.getOrderId())) {
+                continue;
+            }
+
+            List<ScheduleWorkstation> workstations = plan.getWorkstations(position);
+
+            if (workstations.isEmpty() || getSeconds(position.getMachineWorkTime()) == 0) {
+                ordersToAvoid.add(position.getOrderId());
+
+                continue;
+            }
+
+            Map<Long, Date> operationWorkstationsFinishDates = Maps.newLinkedHashMap();
+            Map<Long, Date> operationWorkstationsStartDates = Maps.newHashMap();
+
+            Date componentsFinishDate = plan.getComponentsFinishDate(position);
+
+            for (ScheduleWorkstation workstation : workstations) {
+                Date startDate = plan.getNearestWorkingDate(workstation,
+                        later(plan.getWorkstationFinishDate(workstation), componentsFinishDate));
+
+                operationWorkstationsStartDates.put(workstation.getId(), startDate);
+                operationWorkstationsFinishDates.put(workstation.getId(), plan.getFinishDate(workstation, startDate, position));
+            }
+
+            Entry<Long, Date> chosenEntry = chooseWorkstation(plan, operationWorkstationsFinishDates);
+
+            plan.assign(position, chosenEntry.getKey(), operationWorkstationsStartDates.get(chosenEntry.getKey()),
+                    chosenEntry.getValue());
+
+            plannedPositions.add(position);
+        }
+
+        if (!plannedPositions.isEmpty()) {
+            scheduleRepository.updatePositionsWorkstations(plannedPositions);
+        }
+    }
+
+    private Entry<Long, Date> chooseWorkstation(final SchedulePlan plan, final Map<Long, Date> operationWorkstationsFinishDates) {
+        if (ScheduleWorkstationAssignCriterion.SHORTEST_TIME.getStringValue().equals(plan.getWorkstationAssignCriterion())) {
+            return operationWorkstationsFinishDates.entrySet().stream().min(comparingByValue()).get();
+        }
+
+        return operationWorkstationsFinishDates.entrySet().stream().filter(entry -> plan.isUsed(entry.getKey())).findFirst()
+                .orElse(operationWorkstationsFinishDates.entrySet().iterator().next());
+    }
+
+    private static Date later(final Date date, final Date otherDate) {
+        if (Objects.isNull(otherDate) || date.after(otherDate)) {
+            return date;
+        }
+
+        return otherDate;
+    }
+
+    private static int getSeconds(final Integer seconds) {
+        return Objects.isNull(seconds) ? 0 : seconds;
+    }
+
+    /**
+     * State of planning: when workstations are free, when positions finish and calendars of production lines, with results of
+     * calendar computations kept for the run, as many positions start on the same workstations at the same dates.
+     */
+    private class SchedulePlan {
+
+        private final Date scheduleStartTime;
+
+        private final boolean scheduleForBuffer;
+
+        private final boolean additionalTimeExtendsOperation;
+
+        private final String workstationAssignCriterion;
+
+        private final boolean withOrderChildren;
+
+        private final ListMultimap<Long, ScheduleWorkstation> workstationsByOperation = ArrayListMultimap.create();
+
+        private final ListMultimap<Long, SchedulePosition> positionsByParentOperation = ArrayListMultimap.create();
+
+        private final ListMultimap<Long, SchedulePosition> rootPositionsByParentOrder = ArrayListMultimap.create();
+
+        private final Map<Long, Date> workstationsFinishDates;
+
+        private final Map<Long, Entity> productionLines = Maps.newHashMap();
+
+        private final Map<List<Object>, Date> nearestWorkingDates = Maps.newHashMap();
+
+        private final Map<List<Object>, Date> finishDates = Maps.newHashMap();
+
+        SchedulePlan(final Entity schedule, final List<SchedulePosition> positions, final boolean withOrderChildren) {
+            this.scheduleStartTime = schedule.getDateField(ScheduleFields.START_TIME);
+            this.scheduleForBuffer = schedule.getBooleanField(ScheduleFields.SCHEDULE_FOR_BUFFER);
+            this.additionalTimeExtendsOperation = schedule.getBooleanField(ScheduleFields.ADDITIONAL_TIME_EXTENDS_OPERATION);
+            this.workstationAssignCriterion = schedule.getStringField(ScheduleFields.WORKSTATION_ASSIGN_CRITERION);
+            this.withOrderChildren = withOrderChildren;
+
+            for (SchedulePosition position : positions) {
+                if (Objects.nonNull(position.getParentTechnologyOperationComponentId())) {
+                    positionsByParentOperation.put(position.getParentTechnologyOperationComponentId(), position);
+                } else if (Objects.nonNull(position.getParentOrderId())) {
+                    rootPositionsByParentOrder.put(position.getParentOrderId(), position);
+                }
+            }
+
+            Set<Long> operationsIds = positions.stream().map(SchedulePosition::getTechnologyOperationComponentId)
+                    .collect(Collectors.toSet());
+
+            for (ScheduleWorkstation workstation : scheduleRepository.getWorkstations(operationsIds)) {
+                workstationsByOperation.put(workstation.getTechnologyOperationComponentId(), workstation);
+            }
+
+            Set<Long> workstationsIds = workstationsByOperation.values().stream()
+                    .filter(workstation -> !(scheduleForBuffer && workstation.isBuffer())).map(ScheduleWorkstation::getId)
+                    .collect(Collectors.toSet());
+
+            workstationsFinishDates = workstationsIds.isEmpty() ? Maps.newHashMap()
+                    : scheduleRepository.getWorkstationsFinishDates(workstationsIds, scheduleStartTime);
+        }
+
+        String getWorkstationAssignCriterion() {
+            return workstationAssignCriterion;
+        }
+
+        List<ScheduleWorkstation> getWorkstations(final SchedulePosition position) {
+            List<ScheduleWorkstation> workstations = workstationsByOperation.get(position.getTechnologyOperationComponentId());
+
+            if (scheduleForBuffer) {
+                List<ScheduleWorkstation> bufferWorkstations = workstations.stream().filter(ScheduleWorkstation::isBuffer)
+                        .collect(Collectors.toList());
+
+                if (!bufferWorkstations.isEmpty()) {
+                    return bufferWorkstations;
+                }
+            }
+
+            return workstations;
+        }
+
+        boolean isUsed(final Long workstationId) {
+            return workstationsFinishDates.containsKey(workstationId);
+        }
+
+        Date getWorkstationFinishDate(final ScheduleWorkstation workstation) {
+            if (scheduleForBuffer && workstation.isBuffer()) {
+                return scheduleStartTime;
+            }
+
+            return workstationsFinishDates.getOrDefault(workstation.getId(), scheduleStartTime);
+        }
+
+        /**
+         * Returns the latest end of operations producing components of given position, including root operations of child
+         * orders, or null when there are none.
+         */
+        Date getComponentsFinishDate(final SchedulePosition position) {
+            List<SchedulePosition> children = positionsByParentOperation.get(position.getTechnologyOperationComponentId())
+                    .stream().filter(child -> child.getOrderId().equals(position.getOrderId())).collect(Collectors.toList());
+
+            if (withOrderChildren) {
+                children.addAll(rootPositionsByParentOrder.get(position.getOrderId()));
+            }
+
+            Date finishDate = null;
+
+            for (SchedulePosition child : children) {
+                Date childEndTime = child.getEndTime();
+
+                if (Objects.isNull(childEndTime)) {
+                    continue;
+                }
+
+                if (!additionalTimeExtendsOperation) {
+                    childEndTime = Date.from(childEndTime.toInstant().plusSeconds(getSeconds(child.getAdditionalTime())));
+                }
+
+                finishDate = later(childEndTime, finishDate);
+            }
+
+            return finishDate;
+        }
+
+        Date getNearestWorkingDate(final ScheduleWorkstation workstation, final Date date) {
+            return nearestWorkingDates.computeIfAbsent(Arrays.asList(workstation.getProductionLineId(), date), key -> {
+                DateTime dateTime = new DateTime(date);
+
+                return shiftsService.getNearestWorkingDate(dateTime, getProductionLine(workstation.getProductionLineId()))
+                        .orElse(dateTime).toDate();
+            });
+        }
+
+        Date getFinishDate(final ScheduleWorkstation workstation, final Date startDate, final SchedulePosition position) {
+            int machineWorkTime = getSeconds(position.getMachineWorkTime());
+
+            Date finishDate = finishDates.computeIfAbsent(
+                    Arrays.asList(workstation.getProductionLineId(), startDate, machineWorkTime),
+                    key -> shiftsService.findDateToForProductionLine(startDate, machineWorkTime,
+                            getProductionLine(workstation.getProductionLineId())));
+
+            if (additionalTimeExtendsOperation) {
+                finishDate = Date.from(finishDate.toInstant().plusSeconds(getSeconds(position.getAdditionalTime())));
+            }
+
+            return finishDate;
+        }
+
+        void assign(final SchedulePosition position, final Long workstationId, final Date startTime, final Date endTime) {
+            workstationsFinishDates.put(workstationId, endTime);
+
+            position.setWorkstationId(workstationId);
+            position.setStartTime(startTime);
+            position.setEndTime(endTime);
+            position.setStaffId(null);
+        }
+
+        private Entity getProductionLine(final Long productionLineId) {
+            if (Objects.isNull(productionLineId)) {
+                return null;
+            }
+
+            return productionLines.computeIfAbsent(productionLineId, id -> dataDefinitionService
+                    .get(ProductionLinesConstants.PLUGIN_IDENTIFIER, ProductionLinesConstants.MODEL_PRODUCTION_LINE).get(id));
+        }
+
+    }
+
+}
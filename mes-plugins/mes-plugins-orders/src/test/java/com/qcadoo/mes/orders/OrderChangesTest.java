@@ -0,0 +1,74 @@
+package com.qcadoo.mes.orders;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.model.api.Entity;
+
+public class OrderChangesTest {
+
+    private Entity order;
+
+    private Entity persistedOrder;
+
+    @Before
+    public void init() {
+        order = mockEntity(1L);
+        persistedOrder = mockEntity(1L);
+    }
+
+    @Test
+    public final void shouldCompareBelongsToFieldsByIdsAndNumbersByValues() {
+        // given
+        given(order.getField(OrderFields.PRODUCTION_LINE)).willReturn(2L);
+        given(persistedOrder.getField(OrderFields.PRODUCTION_LINE)).willReturn(mockEntity(2L));
+        given(order.getField(OrderFields.PLANNED_QUANTITY)).willReturn(new BigDecimal("10.00000"));
+        given(persistedOrder.getField(OrderFields.PLANNED_QUANTITY)).willReturn(BigDecimal.TEN);
+        given(order.getField(OrderFields.START_DATE)).willReturn(new Date(1000L));
+        given(persistedOrder.getField(OrderFields.START_DATE)).willReturn(new Date(1000L));
+
+        // when
+        OrderChanges orderChanges = new OrderChanges(order, persistedOrder);
+
+        // then
+        assertFalse(orderChanges.isNew());
+        assertFalse(orderChanges.isChanged(OrderFields.PRODUCTION_LINE, OrderFields.PLANNED_QUANTITY, OrderFields.START_DATE));
+    }
+
+    @Test
+    public final void shouldFindChangedField() {
+        // given
+        given(order.getField(OrderFields.PRODUCTION_LINE)).willReturn(mockEntity(2L));
+        given(persistedOrder.getField(OrderFields.PRODUCTION_LINE)).willReturn(mockEntity(3L));
+        given(order.getField(OrderFields.TECHNOLOGY)).willReturn(mockEntity(4L));
+
+        // when
+        OrderChanges orderChanges = new OrderChanges(order, persistedOrder);
+
+        // then
+        assertTrue(orderChanges.isChanged(OrderFields.PRODUCTION_LINE));
+        assertTrue(orderChanges.isChanged(OrderFields.PLANNED_QUANTITY, OrderFields.TECHNOLOGY));
+        assertFalse(orderChanges.isChanged(OrderFields.PLANNED_QUANTITY));
+    }
+
+    @Test
+    public final void shouldTreatAllFieldsOfNewOrderAsChanged() {
+        // when
+        OrderChanges orderChanges = new OrderChanges(mockEntity(), null);
+
+        // then
+        assertTrue(orderChanges.isNew());
+        assertFalse(orderChanges.getPersistedOrder().isPresent());
+        assertTrue(orderChanges.isChanged(OrderFields.PLANNED_QUANTITY));
+    }
+
+}
@@ -166,11 +166,17 @@ public final class ProductionTrackingListenerServicePFTD {
 
         boolean errorsDisplayed = false;
 
+        List<Long> outboundDocumentIds = Lists.newArrayList();
+
         for (Long warehouseId : groupedRecordInProducts.keySet()) {
             Entity warehouseFrom = getLocationDD().get(warehouseId);
             Entity outboundDocument = createInternalOutboundDocumentForComponents(warehouseFrom, order,
                     groupedRecordInProducts.get(warehouseId), productionTracking.getBelongsToField(L_USER));
 
+            if (Objects.nonNull(outboundDocument) && Objects.nonNull(outboundDocument.getId())) {
+                outboundDocumentIds.add(outboundDocument.getId());
+            }
+
             if (Objects.nonNull(outboundDocument) && !outboundDocument.isValid()) {
                 for (ErrorMessage error : outboundDocument.getGlobalErrors()) {
                     if (error.getMessage().equalsIgnoreCase(L_ERROR_NOT_ENOUGH_RESOURCES)) {
@@ -193,7 +199,7 @@ public final class ProductionTrackingListenerServicePFTD {
             return;
         }
 
-        updateCostsForOrder(order);
+        addCostsForOrder(order, outboundDocumentIds);
     }
 
     public Entity createInternalOutboundDocumentForComponents(final Entity locationFrom, final Entity order,
@@ -608,10 +614,12 @@ public final class ProductionTrackingListenerServicePFTD {
         return order.getBelongsToField(OrderFields.PRODUCT).getId().equals(product.getId());
     }
 
+    /**
+     * Sums up again quantities and costs of all products consumed by order in internal outbound documents and updates its
+     * material costs with them, also correcting running sums kept by {@link #addCostsForOrder(Entity, List)}.
+     */
     public void updateCostsForOrder(final Entity order) {
-        DataDefinition positionDD = getPositionDD();
-
-        SearchQueryBuilder searchQueryBuilder = positionDD
+        SearchQueryBuilder searchQueryBuilder = getPositionDD()
                 .find("SELECT pr.id AS product, SUM(p.quantity) AS quantity, SUM(p.quantity * p.price) AS price "
                         + "FROM #materialFlowResources_position p JOIN p.document AS d join p.product AS pr "
                         + "WHERE d.order = :order_id AND d.type = :type " + "GROUP BY d.order, d.type, pr.id");
@@ -619,6 +627,47 @@ public final class ProductionTrackingListenerServicePFTD {
         searchQueryBuilder.setLong("order_id", order.getId());
         searchQueryBuilder.setString("type", DocumentType.INTERNAL_OUTBOUND.getStringValue());
 
+        List<Entity> updatedCosts = costNormsForMaterialsService.updateCostsForProductInOrder(order,
+                getProductsWithQuantitiesAndCosts(searchQueryBuilder));
+
+        order.setField(OrderFieldsCNFM.TECHNOLOGY_INST_OPER_PRODUCT_IN_COMPS, updatedCosts);
+    }
+
+    /**
+     * Adds quantities and costs of products consumed by given internal outbound documents of order to running sums kept in its
+     * material costs, so accepting a production tracking doesn't sum up all earlier consumption of order again.
+     */
+    private void addCostsForOrder(final Entity order, final List<Long> outboundDocumentIds) {
+        if (outboundDocumentIds.isEmpty()) {
+            return;
+        }
+
+        SearchQueryBuilder searchQueryBuilder = getPositionDD()
+                .find("SELECT pr.id AS product, SUM(p.quantity) AS quantity, SUM(p.quantity * p.price) AS price "
+                        + "FROM #materialFlowResources_position p JOIN p.document AS d join p.product AS pr "
+                        + "WHERE d.id IN (:document_ids) GROUP BY pr.id");
+
+        searchQueryBuilder.setParameterList("document_ids", outboundDocumentIds);
+
+        costNormsForMaterialsService.addCostsForProductInOrder(order, getProductsWithQuantitiesAndCosts(searchQueryBuilder),
+                productIds -> getTotalCostsForProducts(order, productIds));
+    }
+
+    private List<ProductWithQuantityAndCost> getTotalCostsForProducts(final Entity order, final Collection<Long> productIds) {
+        SearchQueryBuilder searchQueryBuilder = getPositionDD()
+                .find("SELECT pr.id AS product, SUM(p.quantity) AS quantity, SUM(p.quantity * p.price) AS price "
+                        + "FROM #materialFlowResources_position p JOIN p.document AS d join p.product AS pr "
+                        + "WHERE d.order = :order_id AND d.type = :type AND pr.id IN (:product_ids) "
+                        + "GROUP BY d.order, d.type, pr.id");
+
+        searchQueryBuilder.setLong("order_id", order.getId());
+        searchQueryBuilder.setString("type", DocumentType.INTERNAL_OUTBOUND.getStringValue());
+        searchQueryBuilder.setParameterList("product_ids", productIds);
+
+        return getProductsWithQuantitiesAndCosts(searchQueryBuilder);
+    }
+
+    private List<ProductWithQuantityAndCost> getProductsWithQuantitiesAndCosts(final SearchQueryBuilder searchQueryBuilder) {
         SearchResult result = searchQueryBuilder.list();
 
         List<ProductWithQuantityAndCost> productsWithQuantitiesAndCosts = Lists.newArrayList();
@@ -630,10 +679,7 @@ public final class ProductionTrackingListenerServicePFTD {
             productsWithQuantitiesAndCosts.add(new ProductWithQuantityAndCost(product, quantity, cost));
         }
 
-        List<Entity> updatedCosts = costNormsForMaterialsService.updateCostsForProductInOrder(order,
-                productsWithQuantitiesAndCosts);
-
-        order.setField(OrderFieldsCNFM.TECHNOLOGY_INST_OPER_PRODUCT_IN_COMPS, updatedCosts);
+        return productsWithQuantitiesAndCosts;
     }
 
     private DataDefinition getDocumentDD() {
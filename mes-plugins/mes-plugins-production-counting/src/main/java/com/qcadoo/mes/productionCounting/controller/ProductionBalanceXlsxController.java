@@ -0,0 +1,49 @@
+package com.qcadoo.mes.productionCounting.controller;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Objects;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import com.qcadoo.mes.productionCounting.ProductionCountingService;
+import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
+import com.qcadoo.mes.productionCounting.xls.ProductionBalanceXlsService;
+import com.qcadoo.model.api.Entity;
+
+@Controller
+public class ProductionBalanceXlsxController {
+
+    private static final String L_XLSX_CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    @Autowired
+    private ProductionCountingService productionCountingService;
+
+    @Autowired
+    private ProductionBalanceXlsService productionBalanceXlsService;
+
+    @RequestMapping(value = "productionCounting/productionBalance.xlsx", method = RequestMethod.GET)
+    public void generateProductionBalanceXlsx(@RequestParam("id") final Long productionBalanceId, final Locale locale,
+            final HttpServletResponse response) throws IOException {
+        Entity productionBalance = productionCountingService.getProductionBalance(productionBalanceId);
+
+        if (Objects.isNull(productionBalance)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+
+            return;
+        }
+
+        response.setContentType(L_XLSX_CONTENT_TYPE);
+        response.setHeader("Content-Disposition", "attachment; filename=\"productionBalance_"
+                + productionBalance.getStringField(ProductionBalanceFields.NUMBER) + ".xlsx\"");
+
+        productionBalanceXlsService.generateXlsxDocument(productionBalance, locale, response.getOutputStream());
+    }
+
+}
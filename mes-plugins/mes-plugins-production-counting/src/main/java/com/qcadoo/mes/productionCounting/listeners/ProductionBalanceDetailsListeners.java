@@ -132,6 +132,10 @@ public class ProductionBalanceDetailsListeners {
                 ProductionCountingConstants.MODEL_PRODUCTION_BALANCE });
     }
 
+    public void printProductionBalanceXlsx(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        view.redirectTo("/productionCounting/productionBalance.xlsx?id=" + state.getFieldValue(), true, false);
+    }
+
     public final void addAllRelatedOrders(final ViewDefinitionState view, final ComponentState state, final String[] args) {
         GridComponent ordersGrid = (GridComponent) view.getComponentByReference(ProductionBalanceFields.ORDERS);
         FormComponent form = (FormComponent) view.getComponentByReference(QcadooViewConstants.L_FORM);
@@ -69,9 +69,20 @@ public class ProductionTrackingStateService extends BasicStateService implements
             productionTrackingListenerService.onLeavingDraft(entity);
         }
 
+        if (changesProductionCountings(sourceState, targetState)) {
+            productionTrackingListenerService.lockOrder(entity);
+        }
+
         return entity;
     }
 
+    private boolean changesProductionCountings(final String sourceState, final String targetState) {
+        return ProductionTrackingStateStringValues.ACCEPTED.equals(targetState)
+                || ProductionTrackingStateStringValues.CORRECTED.equals(targetState)
+                || ProductionTrackingStateStringValues.DECLINED.equals(targetState)
+                && ProductionTrackingStateStringValues.ACCEPTED.equals(sourceState);
+    }
+
     @Override
     public Entity onAfterSave(Entity entity, String sourceState, String targetState, Entity stateChangeEntity,
             StateChangeEntityDescriber describer) {
@@ -24,10 +24,10 @@
 package com.qcadoo.mes.productionCounting.states.listener;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.constants.ProductFields;
-import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
 import com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingFields;
 import com.qcadoo.mes.basicProductionCounting.constants.OrderFieldsBPC;
 import com.qcadoo.mes.orders.constants.OrderFields;
@@ -50,10 +50,13 @@ import com.qcadoo.model.api.validators.ErrorMessage;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
@@ -80,9 +83,6 @@ public final class ProductionTrackingListenerService {
     @Autowired
     private ProductionCountingService productionCountingService;
 
-    @Autowired
-    private BasicProductionCountingService basicProductionCountingService;
-
     @Autowired
     private OrderStateChangeAspect orderStateChangeAspect;
 
@@ -95,6 +95,9 @@ public final class ProductionTrackingListenerService {
     @Autowired
     private ParameterService parameterService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     public void onChangeFromDraftToAny(final Entity productionTracking) {
         productionTracking.setField(ProductionTrackingFields.LAST_STATE_CHANGE_FAILS, false);
         productionTracking.setField(ProductionTrackingFields.LAST_STATE_CHANGE_FAIL_CAUSE, null);
@@ -140,15 +143,26 @@ public final class ProductionTrackingListenerService {
         }
     }
 
+    /**
+     * Locks order of production tracking until the end of transaction, so trackings of the same order, registered at once by
+     * many terminals, update its countings and quantities one after another instead of deadlocking each other.
+     */
+    public void lockOrder(final Entity productionTracking) {
+        Entity order = productionTracking.getBelongsToField(ProductionTrackingFields.ORDER);
+
+        jdbcTemplate.queryForList("SELECT id FROM orders_order WHERE id = :orderId FOR UPDATE",
+                Collections.singletonMap("orderId", order.getId()), Long.class);
+    }
+
     public void onAccept(final Entity productionTracking) {
-        updateBasicProductionCounting(productionTracking, new Addition());
-        setOrderDoneAndWastesQuantity(productionTracking, new Addition());
+        List<Entity> basicProductionCountings = updateBasicProductionCounting(productionTracking, new Addition());
+        setOrderDoneAndWastesQuantity(productionTracking, basicProductionCountings, new Addition());
         closeOrder(productionTracking);
     }
 
     public void onChangeFromAcceptedToDeclined(final Entity productionTracking) {
-        updateBasicProductionCounting(productionTracking, new Substraction());
-        setOrderDoneAndWastesQuantity(productionTracking, new Substraction());
+        List<Entity> basicProductionCountings = updateBasicProductionCounting(productionTracking, new Substraction());
+        setOrderDoneAndWastesQuantity(productionTracking, basicProductionCountings, new Substraction());
     }
 
     public boolean checkIfUsedQuantitiesWereNotFilled(final Entity productionTracking) {
@@ -261,18 +275,19 @@ public final class ProductionTrackingListenerService {
         }
     }
 
-    private void setOrderDoneAndWastesQuantity(final Entity productionTracking, final Operation operation) {
+    private void setOrderDoneAndWastesQuantity(final Entity productionTracking, final List<Entity> basicProductionCountings,
+            final Operation operation) {
         Entity order = productionTracking.getBelongsToField(ProductionTrackingFields.ORDER);
         order = order.getDataDefinition().get(order.getId());
-        Entity mainProduct = order.getBelongsToField(OrderFields.PRODUCT);
+        Long mainProductId = order.getBelongsToField(OrderFields.PRODUCT).getId();
         Entity mainTrackingOperationProductOutComponent = productionTracking
-                .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS).find()
-                .add(SearchRestrictions.belongsTo(TrackingOperationProductOutComponentFields.PRODUCT, mainProduct))
-                .setMaxResults(1).uniqueResult();
+                .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS).stream()
+                .filter(trackingOperationProductOutComponent -> mainProductId.equals(trackingOperationProductOutComponent
+                        .getBelongsToField(TrackingOperationProductOutComponentFields.PRODUCT).getId()))
+                .findFirst().orElse(null);
 
         if (mainTrackingOperationProductOutComponent != null) {
-            order.setField(OrderFields.DONE_QUANTITY,
-                    basicProductionCountingService.getProducedQuantityFromBasicProductionCountings(order));
+            order.setField(OrderFields.DONE_QUANTITY, getProducedQuantity(basicProductionCountings, mainProductId));
 
             order.setField(OrderFields.WASTES_QUANTITY,
                     getWastesQuantity(mainTrackingOperationProductOutComponent, order, operation));
@@ -298,7 +313,13 @@ public final class ProductionTrackingListenerService {
         return orderWastesQuantity;
     }
 
-    private void updateBasicProductionCounting(final Entity productionTracking, final Operation operation) {
+    /**
+     * Applies quantities of tracking to countings of order, fetched in one query. Each changed counting is saved once, in order
+     * of ids, so concurrent trackings lock countings in the same order.
+     *
+     * @return all countings of order, with applied quantities
+     */
+    private List<Entity> updateBasicProductionCounting(final Entity productionTracking, final Operation operation) {
         final Entity order = productionTracking.getBelongsToField(ProductionTrackingFields.ORDER);
 
         final List<Entity> trackingOperationProductInComponents = productionTracking
@@ -306,8 +327,17 @@ public final class ProductionTrackingListenerService {
         final List<Entity> trackingOperationProductOutComponents = productionTracking
                 .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS);
 
+        final List<Entity> basicProductionCountings = getBasicProductionCountings(order);
+        final Map<Long, Entity> basicProductionCountingsByProductId = Maps.newHashMap();
+        final Map<Long, Entity> changedBasicProductionCountings = Maps.newTreeMap();
+
+        basicProductionCountings.forEach(basicProductionCounting -> basicProductionCountingsByProductId.putIfAbsent(
+                basicProductionCounting.getBelongsToField(BasicProductionCountingFields.PRODUCT).getId(),
+                basicProductionCounting));
+
         trackingOperationProductInComponents.forEach(trackingOperationProductInComponent -> {
-            Entity basicProductionCounting = getBasicProductionCounting(trackingOperationProductInComponent, order);
+            Entity basicProductionCounting = basicProductionCountingsByProductId
+                    .get(trackingOperationProductInComponent.getBelongsToField(L_PRODUCT).getId());
 
             if (basicProductionCounting == null) {
                 return;
@@ -319,11 +349,12 @@ public final class ProductionTrackingListenerService {
             final BigDecimal result = operation.perform(usedQuantity, productQuantity);
 
             basicProductionCounting.setField(BasicProductionCountingFields.USED_QUANTITY, result);
-            basicProductionCounting.getDataDefinition().save(basicProductionCounting);
+            changedBasicProductionCountings.put(basicProductionCounting.getId(), basicProductionCounting);
         });
 
         trackingOperationProductOutComponents.forEach(trackingOperationProductOutComponent -> {
-            Entity basicProductionCounting = getBasicProductionCounting(trackingOperationProductOutComponent, order);
+            Entity basicProductionCounting = basicProductionCountingsByProductId
+                    .get(trackingOperationProductOutComponent.getBelongsToField(L_PRODUCT).getId());
 
             if (basicProductionCounting == null) {
                 return;
@@ -336,8 +367,24 @@ public final class ProductionTrackingListenerService {
             final BigDecimal result = operation.perform(usedQuantity, productQuantity);
 
             basicProductionCounting.setField(BasicProductionCountingFields.PRODUCED_QUANTITY, result);
-            basicProductionCounting.getDataDefinition().save(basicProductionCounting);
+            changedBasicProductionCountings.put(basicProductionCounting.getId(), basicProductionCounting);
         });
+
+        changedBasicProductionCountings.values()
+                .forEach(basicProductionCounting -> basicProductionCounting.getDataDefinition().save(basicProductionCounting));
+
+        return basicProductionCountings;
+    }
+
+    private BigDecimal getProducedQuantity(final List<Entity> basicProductionCountings, final Long productId) {
+        BigDecimal producedQuantity = basicProductionCountings.stream()
+                .filter(basicProductionCounting -> productId.equals(
+                        basicProductionCounting.getBelongsToField(BasicProductionCountingFields.PRODUCT).getId()))
+                .map(basicProductionCounting -> BigDecimalUtils.convertNullToZero(
+                        basicProductionCounting.getDecimalField(BasicProductionCountingFields.PRODUCED_QUANTITY)))
+                .reduce(BigDecimal.ZERO, (sum, quantity) -> sum.add(quantity, numberService.getMathContext()));
+
+        return numberService.setScaleWithDefaultMathContext(producedQuantity);
     }
 
     private void checkIfTimesIsSet(final Entity productionTracking) {
@@ -382,17 +429,14 @@ public final class ProductionTrackingListenerService {
         }
     }
 
-    private Entity getBasicProductionCounting(final Entity trackingOperationProductComponent, final Entity order) {
-        Entity product = trackingOperationProductComponent.getBelongsToField(L_PRODUCT);
-
-        return order.getHasManyField(OrderFieldsBPC.BASIC_PRODUCTION_COUNTINGS).find()
-                .add(SearchRestrictions.belongsTo(BasicProductionCountingFields.PRODUCT, product)).setMaxResults(1)
-                .uniqueResult();
+    private List<Entity> getBasicProductionCountings(final Entity order) {
+        return order.getHasManyField(OrderFieldsBPC.BASIC_PRODUCTION_COUNTINGS).find().addOrder(asc("id")).list()
+                .getEntities();
     }
 
     public void onCorrected(final Entity productionTracking) {
-        updateBasicProductionCounting(productionTracking, new Substraction());
-        setOrderDoneAndWastesQuantity(productionTracking, new Substraction());
+        List<Entity> basicProductionCountings = updateBasicProductionCounting(productionTracking, new Substraction());
+        setOrderDoneAndWastesQuantity(productionTracking, basicProductionCountings, new Substraction());
     }
 
     private interface Operation {
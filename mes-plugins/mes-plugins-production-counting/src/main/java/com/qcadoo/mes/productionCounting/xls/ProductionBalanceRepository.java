@@ -1,12 +1,19 @@
 package com.qcadoo.mes.productionCounting.xls;
 
+import static com.google.common.base.Preconditions.checkState;
+
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.qcadoo.mes.costCalculation.constants.MaterialCostsUsed;
 import com.qcadoo.mes.costCalculation.constants.SourceOfOperationCosts;
@@ -24,10 +31,42 @@ import com.qcadoo.model.api.Entity;
 @Repository
 class ProductionBalanceRepository {
 
+    private static final String L_MATERIAL_COSTS_TABLE = "productionbalance_materialcosts";
+
+    private static final String L_PRODUCTION_COSTS_TABLE = "productionbalance_productioncosts";
+
+    private static final String L_ORDERS_BALANCE_TABLE = "productionbalance_ordersbalance";
+
+    private static final String L_COMPONENTS_BALANCE_TABLE = "productionbalance_componentsbalance";
+
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
-    List<ProducedQuantity> getProducedQuantities(final List<Long> ordersIds) {
+    /**
+     * Computes per order aggregates shared by material costs, production costs and balance sheets once and keeps them in
+     * temporary tables, which are dropped on commit. Each aggregate is computed from the previous ones, so orders, trackings and
+     * counting quantities are joined only once per report. Has to be called in a transaction, before any of these sheets is
+     * read, and sheets have to be read by the same transaction, because temporary tables are visible only to its connection.
+     */
+    void createWorkingSet(final Entity entity, final List<Long> ordersIds) {
+        checkState(TransactionSynchronizationManager.isActualTransactionActive(),
+                "Production balance working set has to be created in a transaction");
+
+        MapSqlParameterSource parameters = new MapSqlParameterSource("ordersIds", ordersIds);
+
+        createTemporaryTable(L_MATERIAL_COSTS_TABLE, getMaterialCostsQuery(entity), parameters);
+        createTemporaryTable(L_PRODUCTION_COSTS_TABLE, getProductionCostsQuery(entity), parameters);
+        createTemporaryTable(L_ORDERS_BALANCE_TABLE, getOrdersBalanceQuery(entity), parameters);
+        createTemporaryTable(L_COMPONENTS_BALANCE_TABLE, getComponentsBalanceQuery(entity), parameters);
+    }
+
+    private void createTemporaryTable(final String tableName, final String query, final SqlParameterSource parameters) {
+        jdbcTemplate.update("DROP TABLE IF EXISTS " + tableName, EmptySqlParameterSource.INSTANCE);
+        jdbcTemplate.update("CREATE TEMPORARY TABLE " + tableName + " ON COMMIT DROP AS " + query, parameters);
+        jdbcTemplate.update("ANALYZE " + tableName, EmptySqlParameterSource.INSTANCE);
+    }
+
+    void getProducedQuantities(final List<Long> ordersIds, final Consumer<ProducedQuantity> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
@@ -61,8 +100,7 @@ class ProductionBalanceRepository {
         query.append("GROUP BY orderNumber, productNumber, productName, productUnit, prodWaste.producedWastes ");
         query.append("ORDER BY orderNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(ProducedQuantity.class));
+        query(query.toString(), ordersIds, ProducedQuantity.class, consumer);
     }
 
     private void appendProducedQuantity(StringBuilder query) {
@@ -73,7 +111,12 @@ class ProductionBalanceRepository {
         query.append("WHERE o.id IN (:ordersIds) ");
     }
 
-    List<MaterialCost> getMaterialCosts(Entity entity, List<Long> ordersIds) {
+    void getMaterialCosts(final Consumer<MaterialCost> consumer) {
+        query("SELECT * FROM " + L_MATERIAL_COSTS_TABLE + " ORDER BY orderNumber, operationNumber, productNumber ",
+                MaterialCost.class, consumer);
+    }
+
+    private String getMaterialCostsQuery(final Entity entity) {
         StringBuilder query = new StringBuilder();
         appendCumulatedPlannedQuantities(query);
         appendMaterialCostsSelectionClause(query, entity);
@@ -98,10 +141,8 @@ class ProductionBalanceRepository {
         query.append(
                 "LEFT JOIN productioncounting_trackingoperationproductincomponent topic ON topic.productiontracking_id = pt.id AND topic.product_id = p.id ");
         query.append("GROUP BY o.id, o.number, op.number, p.number, p.name, p.unit, topic.wasteunit, q.replacementTo) ");
-        query.append("ORDER BY orderNumber, operationNumber, productNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(MaterialCost.class));
+        return query.toString();
     }
 
     private void appendForEachPlannedQuantities(StringBuilder query) {
@@ -256,7 +297,7 @@ class ProductionBalanceRepository {
         query.append("(COALESCE(SUM(topic.usedquantity), 0) - MIN(q.childsQuantity)) ");
     }
 
-    List<PieceworkDetails> getPieceworkDetails(List<Long> ordersIds) {
+    void getPieceworkDetails(List<Long> ordersIds, Consumer<PieceworkDetails> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
@@ -271,11 +312,10 @@ class ProductionBalanceRepository {
         query.append("GROUP BY orderNumber, operationNumber ");
         query.append("ORDER BY orderNumber, operationNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(PieceworkDetails.class));
+        query(query.toString(), ordersIds, PieceworkDetails.class, consumer);
     }
 
-    List<LaborTime> getLaborTime(List<Long> ordersIds) {
+    void getLaborTime(List<Long> ordersIds, Consumer<LaborTime> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
@@ -298,11 +338,10 @@ class ProductionBalanceRepository {
                 "GROUP BY orderNumber, operationNumber, staffNumber, staffName, staffSurname, staffLaborHourlyCost, wageGroupName ");
         query.append("ORDER BY orderNumber, operationNumber, staffNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(LaborTime.class));
+        query(query.toString(), ordersIds, LaborTime.class, consumer);
     }
 
-    List<LaborTimeDetails> getLaborTimeDetails(Entity entity, List<Long> ordersIds) {
+    void getLaborTimeDetails(Entity entity, List<Long> ordersIds, Consumer<LaborTimeDetails> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("(WITH planned_time (order_id, staff_time, machine_time) AS (SELECT o.id AS orderId, ");
         appendPlannedStaffTime(entity, query);
@@ -412,11 +451,15 @@ class ProductionBalanceRepository {
         query.append("AND o.typeofproductionrecording = '03forEach') ");
         query.append("ORDER BY orderNumber, operationNumber, staffNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(LaborTimeDetails.class));
+        query(query.toString(), ordersIds, LaborTimeDetails.class, consumer);
     }
 
-    List<ProductionCost> getProductionCosts(Entity entity, List<Long> ordersIds) {
+    void getProductionCosts(final Consumer<ProductionCost> consumer) {
+        query("SELECT * FROM " + L_PRODUCTION_COSTS_TABLE + " ORDER BY orderNumber, operationNumber ", ProductionCost.class,
+                consumer);
+    }
+
+    private String getProductionCostsQuery(final Entity entity) {
         StringBuilder query = new StringBuilder();
         query.append("(WITH planned_time (order_id, staff_time, machine_time) AS (SELECT o.id AS orderId, ");
         appendPlannedStaffTime(entity, query);
@@ -555,10 +598,8 @@ class ProductionBalanceRepository {
         appendWhereClause(query);
         query.append("AND o.typeofproductionrecording = '03forEach' ");
         query.append("GROUP BY orderId, orderNumber, toc.id, operationNumber) ");
-        query.append("ORDER BY orderNumber, operationNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(ProductionCost.class));
+        return query.toString();
     }
 
     private void appendRealStaffCosts(Entity entity, StringBuilder query, String typeOfProductionRecording) {
@@ -703,10 +744,13 @@ class ProductionBalanceRepository {
         }
     }
 
-    List<OrderBalance> getOrdersBalance(Entity entity, List<Long> ordersIds, List<MaterialCost> materialCosts,
-            List<ProductionCost> productionCosts) {
+    void getOrdersBalance(final Consumer<OrderBalance> consumer) {
+        query("SELECT * FROM " + L_ORDERS_BALANCE_TABLE + " ORDER BY orderNumber ", OrderBalance.class, consumer);
+    }
+
+    private String getOrdersBalanceQuery(final Entity entity) {
         StringBuilder query = new StringBuilder();
-        appendOrdersBalanceWithQueries(materialCosts, productionCosts, query);
+        appendOrdersBalanceWithQueries(query);
         appendOrdersBalanceSelectionClause(entity, query);
         query.append("MIN(COALESCE(gmc.cost, 0)) AS materialCosts, ");
         query.append("MIN(gpc.cost) AS productionCosts, ");
@@ -742,39 +786,15 @@ class ProductionBalanceRepository {
         query.append("JOIN grouped_production_cost gpc ON gpc.order_id = o.id ");
         appendWhereClause(query);
         query.append("GROUP BY orderId, rootId, orderNumber, productNumber, productName ");
-        query.append("ORDER BY orderNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(OrderBalance.class));
+        return query.toString();
     }
 
-    private void appendOrdersBalanceWithQueries(List<MaterialCost> materialCosts, List<ProductionCost> productionCosts,
-            StringBuilder query) {
-        query.append("WITH real_material_cost (order_id, cost) AS (VALUES ");
-        if (materialCosts.isEmpty()) {
-            query.append("(NULL::numeric, NULL::numeric) ");
-        } else {
-            for (int i = 0; i < materialCosts.size(); i++) {
-                MaterialCost materialCost = materialCosts.get(i);
-                query.append("(" + materialCost.getOrderId() + ", " + materialCost.getRealCost() + ") ");
-                if (i != materialCosts.size() - 1) {
-                    query.append(", ");
-                }
-            }
-        }
-        query.append("), ");
-        query.append("grouped_material_cost AS (SELECT order_id, SUM(cost) AS cost FROM real_material_cost GROUP BY order_id), ");
-        query.append("real_production_cost (order_id, cost) AS (VALUES ");
-        for (int i = 0; i < productionCosts.size(); i++) {
-            ProductionCost productionCost = productionCosts.get(i);
-            query.append("(" + productionCost.getOrderId() + ", " + productionCost.getRealCostsSum() + ") ");
-            if (i != productionCosts.size() - 1) {
-                query.append(", ");
-            }
-        }
-        query.append("), ");
-        query.append(
-                "grouped_production_cost AS (SELECT order_id, SUM(cost) AS cost FROM real_production_cost GROUP BY order_id) ");
+    private void appendOrdersBalanceWithQueries(StringBuilder query) {
+        query.append("WITH grouped_material_cost AS (SELECT orderId AS order_id, SUM(realCost) AS cost ");
+        query.append("FROM " + L_MATERIAL_COSTS_TABLE + " GROUP BY orderId), ");
+        query.append("grouped_production_cost AS (SELECT orderId AS order_id, SUM(realCostsSum) AS cost ");
+        query.append("FROM " + L_PRODUCTION_COSTS_TABLE + " GROUP BY orderId) ");
     }
 
     private void appendOrdersBalanceSelectionClause(Entity entity, StringBuilder query) {
@@ -895,9 +915,13 @@ class ProductionBalanceRepository {
         query.append("/ 100 * MIN(COALESCE(gmc.cost, 0)) ");
     }
 
-    List<OrderBalance> getComponentsBalance(Entity entity, List<Long> ordersIds, List<OrderBalance> ordersBalance) {
+    void getComponentsBalance(final Consumer<OrderBalance> consumer) {
+        query("SELECT * FROM " + L_COMPONENTS_BALANCE_TABLE + " ORDER BY orderNumber ", OrderBalance.class, consumer);
+    }
+
+    private String getComponentsBalanceQuery(final Entity entity) {
         StringBuilder query = new StringBuilder();
-        appendComponentsBalanceWithQueries(ordersBalance, query);
+        appendComponentsBalanceWithQueries(query);
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
         query.append("prod.id AS productId, ");
@@ -948,10 +972,8 @@ class ProductionBalanceRepository {
         appendWhereClause(query);
         query.append("AND o.root_id IS NULL ");
         query.append("GROUP BY orderNumber, productId, productNumber, productName ");
-        query.append("ORDER BY orderNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(OrderBalance.class));
+        return query.toString();
     }
 
     private void appendComponentsBalanceProfitValue(Entity entity, StringBuilder query) {
@@ -997,32 +1019,13 @@ class ProductionBalanceRepository {
         query.append("ELSE 0 END ");
     }
 
-    private void appendComponentsBalanceWithQueries(List<OrderBalance> ordersBalance, StringBuilder query) {
-        query.append("WITH order_balance (order_id, root_id, material_costs, ");
-        query.append("production_costs, technical_production_costs, material_cost_margin_value, ");
-        query.append("production_cost_margin_value, additional_overhead, direct_additional_cost, total_costs ");
-        query.append(") AS (VALUES ");
-
-        for (int i = 0; i < ordersBalance.size(); i++) {
-            OrderBalance orderBalance = ordersBalance.get(i);
-            query.append("(");
-            query.append(orderBalance.getOrderId() + ", ");
-            query.append(orderBalance.getRootId() + "::INTEGER, ");
-            query.append(orderBalance.getMaterialCosts() + ", ");
-            query.append(orderBalance.getProductionCosts() + ", ");
-            query.append(orderBalance.getTechnicalProductionCosts() + ", ");
-            query.append(orderBalance.getMaterialCostMarginValue() + ", ");
-            query.append(orderBalance.getProductionCostMarginValue() + ", ");
-            query.append(orderBalance.getAdditionalOverhead() + ", ");
-            query.append(orderBalance.getDirectAdditionalCost() + ", ");
-            query.append(orderBalance.getTotalCosts());
-            query.append(") ");
-            if (i != ordersBalance.size() - 1) {
-                query.append(", ");
-            }
-
-        }
-        query.append("), ");
+    private void appendComponentsBalanceWithQueries(StringBuilder query) {
+        query.append("WITH order_balance AS (SELECT orderId AS order_id, rootId AS root_id, materialCosts AS material_costs, ");
+        query.append("productionCosts AS production_costs, technicalProductionCosts AS technical_production_costs, ");
+        query.append("materialCostMarginValue AS material_cost_margin_value, ");
+        query.append("productionCostMarginValue AS production_cost_margin_value, additionalOverhead AS additional_overhead, ");
+        query.append("directAdditionalCost AS direct_additional_cost, totalCosts AS total_costs ");
+        query.append("FROM " + L_ORDERS_BALANCE_TABLE + "), ");
         query.append("order_balance_rec AS (WITH RECURSIVE order_balance_rec AS ");
         query.append("(SELECT order_id, order_id AS root_id, material_costs, ");
         query.append("production_costs, technical_production_costs, material_cost_margin_value, ");
@@ -1042,9 +1045,9 @@ class ProductionBalanceRepository {
         query.append("FROM order_balance_rec GROUP BY order_id) ");
     }
 
-    List<OrderBalance> getProductsBalance(Entity entity, List<Long> ordersIds, List<OrderBalance> componentsBalance) {
+    void getProductsBalance(Entity entity, List<Long> ordersIds, Consumer<OrderBalance> consumer) {
         StringBuilder query = new StringBuilder();
-        appendProductsBalanceWithQueries(componentsBalance, query);
+        appendProductsBalanceWithQueries(query);
         query.append("SELECT ");
         query.append("prod.number AS productNumber, ");
         query.append("prod.name AS productName, ");
@@ -1091,8 +1094,7 @@ class ProductionBalanceRepository {
         query.append("GROUP BY productNumber, productName ");
         query.append("ORDER BY productNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(OrderBalance.class));
+        query(query.toString(), ordersIds, OrderBalance.class, consumer);
     }
 
     private void appendProductsBalanceProfitValue(Entity entity, StringBuilder query) {
@@ -1134,35 +1136,14 @@ class ProductionBalanceRepository {
         query.append("/ MIN(gcb.produced_quantity) ELSE 0 END ");
     }
 
-    private void appendProductsBalanceWithQueries(List<OrderBalance> componentsBalance, StringBuilder query) {
-        query.append("WITH component_balance (product_id, produced_quantity, material_costs, ");
-        query.append("production_costs, technical_production_costs, material_cost_margin_value, ");
-        query.append("production_cost_margin_value, additional_overhead, direct_additional_cost, total_costs ");
-        query.append(") AS (VALUES ");
-        if (componentsBalance.isEmpty()) {
-            query.append("(NULL::integer, NULL::numeric, NULL::numeric, NULL::numeric, NULL::numeric, NULL::numeric, ");
-            query.append("NULL::numeric, NULL::numeric, NULL::numeric, NULL::numeric) ");
-        } else {
-            for (int i = 0; i < componentsBalance.size(); i++) {
-                OrderBalance orderBalance = componentsBalance.get(i);
-                query.append("(");
-                query.append(orderBalance.getProductId() + ", ");
-                query.append(orderBalance.getProducedQuantity() + ", ");
-                query.append(orderBalance.getMaterialCosts() + ", ");
-                query.append(orderBalance.getProductionCosts() + ", ");
-                query.append(orderBalance.getTechnicalProductionCosts() + ", ");
-                query.append(orderBalance.getMaterialCostMarginValue() + ", ");
-                query.append(orderBalance.getProductionCostMarginValue() + ", ");
-                query.append(orderBalance.getAdditionalOverhead() + ", ");
-                query.append(orderBalance.getDirectAdditionalCost() + ", ");
-                query.append(orderBalance.getTotalCosts());
-                query.append(") ");
-                if (i != componentsBalance.size() - 1) {
-                    query.append(", ");
-                }
-            }
-        }
-        query.append("), ");
+    private void appendProductsBalanceWithQueries(StringBuilder query) {
+        query.append("WITH component_balance AS (SELECT productId AS product_id, producedQuantity AS produced_quantity, ");
+        query.append("materialCosts AS material_costs, productionCosts AS production_costs, ");
+        query.append("technicalProductionCosts AS technical_production_costs, ");
+        query.append("materialCostMarginValue AS material_cost_margin_value, ");
+        query.append("productionCostMarginValue AS production_cost_margin_value, additionalOverhead AS additional_overhead, ");
+        query.append("directAdditionalCost AS direct_additional_cost, totalCosts AS total_costs ");
+        query.append("FROM " + L_COMPONENTS_BALANCE_TABLE + "), ");
         query.append("grouped_component_balance AS (SELECT product_id, SUM(produced_quantity) AS produced_quantity, ");
         query.append("SUM(material_costs) AS material_costs, SUM(production_costs) AS production_costs, ");
         query.append(
@@ -1173,7 +1154,7 @@ class ProductionBalanceRepository {
         query.append("FROM component_balance GROUP BY product_id) ");
     }
 
-    List<Stoppage> getStoppages(List<Long> ordersIds) {
+    void getStoppages(List<Long> ordersIds, Consumer<Stoppage> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
@@ -1200,7 +1181,23 @@ class ProductionBalanceRepository {
         appendWhereClause(query);
         query.append("ORDER BY orderNumber, productionTrackingNumber, dateFrom ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(Stoppage.class));
+        query(query.toString(), ordersIds, Stoppage.class, consumer);
+    }
+
+    private <T> void query(final String query, final List<Long> ordersIds, final Class<T> rowClass, final Consumer<T> consumer) {
+        query(query, new MapSqlParameterSource("ordersIds", ordersIds), rowClass, consumer);
+    }
+
+    private <T> void query(final String query, final Class<T> rowClass, final Consumer<T> consumer) {
+        query(query, EmptySqlParameterSource.INSTANCE, rowClass, consumer);
     }
+
+    private <T> void query(final String query, final SqlParameterSource parameters, final Class<T> rowClass,
+            final Consumer<T> consumer) {
+        BeanPropertyRowMapper<T> rowMapper = BeanPropertyRowMapper.newInstance(rowClass);
+
+        jdbcTemplate.query(query, parameters,
+                (RowCallbackHandler) resultSet -> consumer.accept(rowMapper.mapRow(resultSet, resultSet.getRow())));
+    }
+
 }
@@ -1,27 +1,47 @@
 package com.qcadoo.mes.productionCounting.xls;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.hssf.usermodel.HSSFRow;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.BorderStyle;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.FillPatternType;
 import org.apache.poi.ss.usermodel.Font;
 import org.apache.poi.ss.usermodel.HorizontalAlignment;
 import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.VerticalAlignment;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.basic.print.SampledColumnWidthsSheetWriter;
 import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
 import com.qcadoo.mes.productionCounting.xls.dto.LaborTime;
 import com.qcadoo.mes.productionCounting.xls.dto.LaborTimeDetails;
@@ -38,6 +58,10 @@ import com.qcadoo.report.api.xls.XlsDocumentService;
 @Service
 public class ProductionBalanceXlsService extends XlsDocumentService {
 
+    private static final int L_ROW_ACCESS_WINDOW_SIZE = 100;
+
+    private static final String L_SHEET = "productionCounting.productionBalance.report.xls.sheet.";
+
     @Autowired
     private TranslationService translationService;
 
@@ -47,30 +71,37 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
     @Autowired
     private ProductionBalanceRepository productionBalanceRepository;
 
+    @Value("${productionBalanceConcurrentQueries:1}")
+    private int concurrentQueries;
+
+    private ExecutorService queryExecutor;
+
     private static final List<String> PRODUCTION_QUANTITIES_HEADERS = Lists.newArrayList("orderNumber", "productNumber",
             "productName", "plannedQuantity", "producedQuantity", "wastesQuantity", "producedWastes", "deviation", "productUnit");
 
+    @PostConstruct
+    public void init() {
+        if (concurrentQueries > 1) {
+            queryExecutor = Executors.newFixedThreadPool(concurrentQueries - 1,
+                    new ThreadFactoryBuilder().setNameFormat("productionBalanceQuery-%d").setDaemon(true).build());
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (Objects.nonNull(queryExecutor)) {
+            queryExecutor.shutdownNow();
+        }
+    }
+
     @Override
     protected void addHeader(HSSFSheet sheet, Locale locale, Entity entity) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        HSSFRow headerRow = sheet.createRow(0);
-        int columnIndex = 0;
-        for (String key : PRODUCTION_QUANTITIES_HEADERS) {
-            createHeaderCell(stylesContainer, headerRow,
-                    translationService.translate("productionCounting.productionBalance.report.xls.header." + key, locale),
-                    columnIndex, HorizontalAlignment.LEFT);
-            columnIndex++;
-        }
+        createProducedQuantitiesHeader(sheet, locale);
     }
 
     @Override
     protected void addSeries(HSSFSheet sheet, Entity entity) {
-        List<Long> ordersIds = getOrdersIds(entity);
-
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        createProducedQuantitiesSheet(sheet, ordersIds, stylesContainer);
+        createProducedQuantitiesSheet(sheet, getOrdersIds(entity));
     }
 
     @Override
@@ -80,40 +111,99 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
 
     @Override
     protected void addExtraSheets(final HSSFWorkbook workbook, Entity entity, Locale locale) {
+        createExtraSheets(entity, locale, sheetName -> createSheet(workbook, sheetName));
+    }
+
+    /**
+     * Writes production balance as XLSX straight to the given stream. Rows go from result sets to a streaming workbook which
+     * keeps only a window of recent rows in memory and flushes the rest to a compressed temporary file, so unlike
+     * {@link #generateDocument(Entity, Locale)} memory doesn't grow with the size of a balance and sheets aren't limited to
+     * 65536 rows.
+     */
+    @Transactional
+    public void generateXlsxDocument(final Entity productionBalance, final Locale locale, final OutputStream outputStream)
+            throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(L_ROW_ACCESS_WINDOW_SIZE);
+        workbook.setCompressTempFiles(true);
+
+        try {
+            Sheet sheet = createSafeSheet(workbook, getReportTitle(locale));
+            createProducedQuantitiesHeader(sheet, locale);
+            createProducedQuantitiesSheet(sheet, getOrdersIds(productionBalance));
+            createExtraSheets(productionBalance, locale, sheetName -> createSafeSheet(workbook, sheetName));
+
+            workbook.write(outputStream);
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    private Sheet createSafeSheet(final Workbook workbook, final String sheetName) {
+        return workbook.createSheet(WorkbookUtil.createSafeSheetName(sheetName));
+    }
+
+    /**
+     * Writes sheets following produced quantities. Costs and balances are read from the working set, which is built once on the
+     * connection of current transaction. Labor time, stoppages and piecework don't depend on it, so when
+     * productionBalanceConcurrentQueries is greater than 1 they are queried in the meantime on other connections and buffered
+     * until their sheets are written, otherwise they are streamed one after another like the rest.
+     */
+    private void createExtraSheets(final Entity entity, final Locale locale, final Function<String, Sheet> sheetFactory) {
         List<Long> ordersIds = getOrdersIds(entity);
-        List<MaterialCost> materialCosts = productionBalanceRepository.getMaterialCosts(entity, ordersIds);
-        createMaterialCostsSheet(materialCosts, createSheet(workbook,
-                translationService.translate("productionCounting.productionBalance.report.xls.sheet.materialCosts", locale)),
-                locale);
-        createLaborTimeSheet(createSheet(workbook, translationService.translate(LaborTimeSheetConstants.SHEET_TITLE, locale)),
-                ordersIds, locale);
-        List<LaborTimeDetails> laborTimeDetailsList = productionBalanceRepository.getLaborTimeDetails(entity, ordersIds);
-        createLaborTimeDetailsSheet(laborTimeDetailsList, createSheet(workbook,
-                translationService.translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails", locale)),
-                locale);
-        createPieceworkSheet(createSheet(workbook, translationService.translate(PieceworkSheetConstants.SHEET_TITLE, locale)),
-                ordersIds, locale);
-        createStoppagesSheet(
-                createSheet(workbook,
-                        translationService.translate("productionCounting.productionBalance.report.xls.sheet.stoppages", locale)),
-                ordersIds, locale);
-        List<ProductionCost> productionCosts = productionBalanceRepository.getProductionCosts(entity, ordersIds);
-        createProductionCostsSheet(productionCosts, createSheet(workbook,
-                translationService.translate("productionCounting.productionBalance.report.xls.sheet.productionCosts", locale)),
-                locale);
-        List<OrderBalance> ordersBalance = productionBalanceRepository.getOrdersBalance(entity, ordersIds, materialCosts,
-                productionCosts);
-        createOrdersBalanceSheet(ordersBalance, createSheet(workbook,
-                translationService.translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance", locale)),
-                locale);
-        List<OrderBalance> componentsBalance = productionBalanceRepository.getComponentsBalance(entity, ordersIds, ordersBalance);
-        createOrdersBalanceSheet(componentsBalance, createSheet(workbook,
-                translationService.translate("productionCounting.productionBalance.report.xls.sheet.componentsBalance", locale)),
-                locale);
-        List<OrderBalance> productsBalance = productionBalanceRepository.getProductsBalance(entity, ordersIds, componentsBalance);
-        createProductsBalanceSheet(productsBalance, createSheet(workbook,
-                translationService.translate("productionCounting.productionBalance.report.xls.sheet.productsBalance", locale)),
-                locale);
+        List<Future<?>> prefetchedRows = Lists.newArrayList();
+
+        try {
+            RowSource<LaborTime> laborTime = prefetch(
+                    consumer -> productionBalanceRepository.getLaborTime(ordersIds, consumer), prefetchedRows);
+            RowSource<LaborTimeDetails> laborTimeDetails = prefetch(
+                    consumer -> productionBalanceRepository.getLaborTimeDetails(entity, ordersIds, consumer), prefetchedRows);
+            RowSource<PieceworkDetails> pieceworkDetails = prefetch(
+                    consumer -> productionBalanceRepository.getPieceworkDetails(ordersIds, consumer), prefetchedRows);
+            RowSource<Stoppage> stoppages = prefetch(consumer -> productionBalanceRepository.getStoppages(ordersIds, consumer),
+                    prefetchedRows);
+
+            productionBalanceRepository.createWorkingSet(entity, ordersIds);
+
+            createMaterialCostsSheet(createTranslatedSheet(sheetFactory, L_SHEET + "materialCosts", locale), locale);
+            createLaborTimeSheet(createTranslatedSheet(sheetFactory, LaborTimeSheetConstants.SHEET_TITLE, locale), laborTime,
+                    locale);
+            createLaborTimeDetailsSheet(laborTimeDetails,
+                    createTranslatedSheet(sheetFactory, L_SHEET + "laborTimeDetails", locale), locale);
+            createPieceworkSheet(createTranslatedSheet(sheetFactory, PieceworkSheetConstants.SHEET_TITLE, locale),
+                    pieceworkDetails, locale);
+            createStoppagesSheet(createTranslatedSheet(sheetFactory, L_SHEET + "stoppages", locale), stoppages, locale);
+            createProductionCostsSheet(createTranslatedSheet(sheetFactory, L_SHEET + "productionCosts", locale), locale);
+            createOrdersBalanceSheet(productionBalanceRepository::getOrdersBalance,
+                    createTranslatedSheet(sheetFactory, L_SHEET + "ordersBalance", locale), locale);
+            createOrdersBalanceSheet(productionBalanceRepository::getComponentsBalance,
+                    createTranslatedSheet(sheetFactory, L_SHEET + "componentsBalance", locale), locale);
+            createProductsBalanceSheet(entity, ordersIds,
+                    createTranslatedSheet(sheetFactory, L_SHEET + "productsBalance", locale), locale);
+        } finally {
+            prefetchedRows.forEach(rows -> rows.cancel(true));
+        }
+    }
+
+    private Sheet createTranslatedSheet(final Function<String, Sheet> sheetFactory, final String sheetName, final Locale locale) {
+        return sheetFactory.apply(translationService.translate(sheetName, locale));
+    }
+
+    private <T> RowSource<T> prefetch(final RowSource<T> rowSource, final List<Future<?>> prefetchedRows) {
+        if (Objects.isNull(queryExecutor)) {
+            return rowSource;
+        }
+
+        Future<List<T>> rows = queryExecutor.submit(() -> {
+            List<T> buffer = Lists.newArrayList();
+
+            rowSource.forEach(buffer::add);
+
+            return buffer;
+        });
+
+        prefetchedRows.add(rows);
+
+        return consumer -> Futures.getUnchecked(rows).forEach(consumer);
     }
 
     private List<Long> getOrdersIds(final Entity productionBalance) {
@@ -121,33 +211,46 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         return orders.stream().map(Entity::getId).collect(Collectors.toList());
     }
 
-    private void createProducedQuantitiesSheet(HSSFSheet sheet, List<Long> ordersIds, StylesContainer stylesContainer) {
-        List<ProducedQuantity> producedQuantities = productionBalanceRepository.getProducedQuantities(ordersIds);
-        int rowIndex = 1;
-        for (ProducedQuantity producedQuantity : producedQuantities) {
-            HSSFRow row = sheet.createRow(rowIndex);
-            createRegularCell(stylesContainer, row, 0, producedQuantity.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, producedQuantity.getProductNumber());
-            createRegularCell(stylesContainer, row, 2, producedQuantity.getProductName());
-            createNumericCell(stylesContainer, row, 3, producedQuantity.getPlannedQuantity(), false);
-            createNumericCell(stylesContainer, row, 4, producedQuantity.getProducedQuantity(), true);
-            createNumericCell(stylesContainer, row, 5, producedQuantity.getWastesQuantity(), false);
-            createNumericCell(stylesContainer, row, 6, producedQuantity.getProducedWastes(), false);
-            createNumericCell(stylesContainer, row, 7, producedQuantity.getDeviation(), false);
-            createRegularCell(stylesContainer, row, 8, producedQuantity.getProductUnit());
-            rowIndex++;
+    private void createProducedQuantitiesHeader(Sheet sheet, Locale locale) {
+        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
+        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
+        Row headerRow = sheet.createRow(0);
+        int columnIndex = 0;
+        for (String key : PRODUCTION_QUANTITIES_HEADERS) {
+            createHeaderCell(stylesContainer, headerRow,
+                    translationService.translate("productionCounting.productionBalance.report.xls.header." + key, locale),
+                    columnIndex, HorizontalAlignment.LEFT);
+            columnIndex++;
         }
+    }
 
-        for (int i = 0; i < PRODUCTION_QUANTITIES_HEADERS.size(); i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+    private void createProducedQuantitiesSheet(Sheet sheet, List<Long> ordersIds) {
+        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
+        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
+        SampledColumnWidthsSheetWriter sheetWriter = new SampledColumnWidthsSheetWriter(sheet, 1);
+        sheetWriter.sample(sheet.getRow(0));
+        productionBalanceRepository.getProducedQuantities(ordersIds,
+                producedQuantity -> fillProducedQuantitiesRow(sheetWriter.createRow(), producedQuantity, stylesContainer));
+        sheetWriter.applyColumnWidths();
+    }
+
+    private void fillProducedQuantitiesRow(Row row, ProducedQuantity producedQuantity, StylesContainer stylesContainer) {
+        createRegularCell(stylesContainer, row, 0, producedQuantity.getOrderNumber());
+        createRegularCell(stylesContainer, row, 1, producedQuantity.getProductNumber());
+        createRegularCell(stylesContainer, row, 2, producedQuantity.getProductName());
+        createNumericCell(stylesContainer, row, 3, producedQuantity.getPlannedQuantity(), false);
+        createNumericCell(stylesContainer, row, 4, producedQuantity.getProducedQuantity(), true);
+        createNumericCell(stylesContainer, row, 5, producedQuantity.getWastesQuantity(), false);
+        createNumericCell(stylesContainer, row, 6, producedQuantity.getProducedWastes(), false);
+        createNumericCell(stylesContainer, row, 7, producedQuantity.getDeviation(), false);
+        createRegularCell(stylesContainer, row, 8, producedQuantity.getProductUnit());
     }
 
-    private void createMaterialCostsSheet(List<MaterialCost> materialCosts, HSSFSheet sheet, Locale locale) {
+    private void createMaterialCostsSheet(Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.materialCosts.orderNumber", locale),
@@ -203,35 +306,35 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.materialCosts.unit", locale),
                 13, HorizontalAlignment.LEFT);
 
-        int rowCounter = 0;
-        for (MaterialCost materialCost : materialCosts) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, materialCost.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, materialCost.getOperationNumber());
-            createRegularCell(stylesContainer, row, 2, materialCost.getProductNumber());
-            createRegularCell(stylesContainer, row, 3, materialCost.getProductName());
-            createRegularCell(stylesContainer, row, 4, materialCost.getReplacementTo());
-            createNumericCell(stylesContainer, row, 5, materialCost.getPlannedQuantity(), false);
-            createNumericCell(stylesContainer, row, 6, materialCost.getUsedQuantity(), true);
-            createNumericCell(stylesContainer, row, 7, materialCost.getQuantitativeDeviation(), false);
-            createRegularCell(stylesContainer, row, 8, materialCost.getProductUnit());
-            createNumericCell(stylesContainer, row, 9, materialCost.getPlannedCost(), false);
-            createNumericCell(stylesContainer, row, 10, materialCost.getRealCost(), true);
-            createNumericCell(stylesContainer, row, 11, materialCost.getValueDeviation(), false);
-            createNumericCell(stylesContainer, row, 12, materialCost.getUsedWasteQuantity(), false);
-            createRegularCell(stylesContainer, row, 13, materialCost.getUsedWasteUnit());
-            rowCounter++;
-        }
-        for (int i = 0; i <= 13; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        SampledColumnWidthsSheetWriter sheetWriter = new SampledColumnWidthsSheetWriter(sheet, rowOffset);
+        sheetWriter.sample(row);
+        productionBalanceRepository
+                .getMaterialCosts(materialCost -> fillMaterialCostsRow(sheetWriter.createRow(), materialCost, stylesContainer));
+        sheetWriter.applyColumnWidths();
+    }
+
+    private void fillMaterialCostsRow(Row row, MaterialCost materialCost, StylesContainer stylesContainer) {
+        createRegularCell(stylesContainer, row, 0, materialCost.getOrderNumber());
+        createRegularCell(stylesContainer, row, 1, materialCost.getOperationNumber());
+        createRegularCell(stylesContainer, row, 2, materialCost.getProductNumber());
+        createRegularCell(stylesContainer, row, 3, materialCost.getProductName());
+        createRegularCell(stylesContainer, row, 4, materialCost.getReplacementTo());
+        createNumericCell(stylesContainer, row, 5, materialCost.getPlannedQuantity(), false);
+        createNumericCell(stylesContainer, row, 6, materialCost.getUsedQuantity(), true);
+        createNumericCell(stylesContainer, row, 7, materialCost.getQuantitativeDeviation(), false);
+        createRegularCell(stylesContainer, row, 8, materialCost.getProductUnit());
+        createNumericCell(stylesContainer, row, 9, materialCost.getPlannedCost(), false);
+        createNumericCell(stylesContainer, row, 10, materialCost.getRealCost(), true);
+        createNumericCell(stylesContainer, row, 11, materialCost.getValueDeviation(), false);
+        createNumericCell(stylesContainer, row, 12, materialCost.getUsedWasteQuantity(), false);
+        createRegularCell(stylesContainer, row, 13, materialCost.getUsedWasteUnit());
     }
 
-    private void createPieceworkSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale) {
+    private void createPieceworkSheet(Sheet sheet, RowSource<PieceworkDetails> pieceworkDetailsRows, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService.translate(PieceworkSheetConstants.ORDER_NUMBER, locale), 0,
                 HorizontalAlignment.LEFT);
         createHeaderCell(stylesContainer, row, translationService.translate(PieceworkSheetConstants.OPERATION_NUMBER, locale), 1,
@@ -240,25 +343,24 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 translationService.translate(PieceworkSheetConstants.TOTAL_EXECUTED_OPERATION_CYCLES, locale), 2,
                 HorizontalAlignment.LEFT);
 
-        List<PieceworkDetails> pieceworkDetailsList = productionBalanceRepository.getPieceworkDetails(ordersIds);
-        int rowCounter = 0;
-        for (PieceworkDetails pieceworkDetails : pieceworkDetailsList) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, pieceworkDetails.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, pieceworkDetails.getOperationNumber());
-            createNumericCell(stylesContainer, row, 2, pieceworkDetails.getTotalExecutedOperationCycles(), false);
-            rowCounter++;
-        }
-        for (int i = 0; i <= 2; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        SampledColumnWidthsSheetWriter sheetWriter = new SampledColumnWidthsSheetWriter(sheet, rowOffset);
+        sheetWriter.sample(row);
+        pieceworkDetailsRows
+                .forEach(pieceworkDetails -> fillPieceworkRow(sheetWriter.createRow(), pieceworkDetails, stylesContainer));
+        sheetWriter.applyColumnWidths();
     }
 
-    private void createStoppagesSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale) {
+    private void fillPieceworkRow(Row row, PieceworkDetails pieceworkDetails, StylesContainer stylesContainer) {
+        createRegularCell(stylesContainer, row, 0, pieceworkDetails.getOrderNumber());
+        createRegularCell(stylesContainer, row, 1, pieceworkDetails.getOperationNumber());
+        createNumericCell(stylesContainer, row, 2, pieceworkDetails.getTotalExecutedOperationCycles(), false);
+    }
+
+    private void createStoppagesSheet(Sheet sheet, RowSource<Stoppage> stoppages, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(
                 stylesContainer, row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.stoppages.orderNumber", locale),
@@ -302,37 +404,35 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.stoppages.worker", locale),
                 11, HorizontalAlignment.LEFT);
 
-        List<Stoppage> stoppages = productionBalanceRepository.getStoppages(ordersIds);
-        int rowCounter = 0;
-        for (Stoppage stoppage : stoppages) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, stoppage.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, stoppage.getProductionTrackingNumber());
-            createRegularCell(stylesContainer, row, 2,
-                    stoppage.getProductionTrackingState() != null ? translationService.translate(
-                            "productionCounting.productionTracking.state.value." + stoppage.getProductionTrackingState(), locale)
-                            : null);
-            createTimeCell(stylesContainer, row, 3, stoppage.getDuration(), false);
-            createDateTimeCell(stylesContainer, row, 4, stoppage.getDateFrom());
-            createDateTimeCell(stylesContainer, row, 5, stoppage.getDateTo());
-            createRegularCell(stylesContainer, row, 6, stoppage.getReason());
-            createRegularCell(stylesContainer, row, 7, stoppage.getDescription());
-            createRegularCell(stylesContainer, row, 8, stoppage.getDivision());
-            createRegularCell(stylesContainer, row, 9, stoppage.getProductionLine());
-            createRegularCell(stylesContainer, row, 10, stoppage.getWorkstation());
-            createRegularCell(stylesContainer, row, 11, stoppage.getWorker());
-            rowCounter++;
-        }
-        for (int i = 0; i <= 11; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        SampledColumnWidthsSheetWriter sheetWriter = new SampledColumnWidthsSheetWriter(sheet, rowOffset);
+        sheetWriter.sample(row);
+        stoppages.forEach(stoppage -> fillStoppagesRow(sheetWriter.createRow(), stoppage, stylesContainer, locale));
+        sheetWriter.applyColumnWidths();
+    }
+
+    private void fillStoppagesRow(Row row, Stoppage stoppage, StylesContainer stylesContainer, Locale locale) {
+        createRegularCell(stylesContainer, row, 0, stoppage.getOrderNumber());
+        createRegularCell(stylesContainer, row, 1, stoppage.getProductionTrackingNumber());
+        createRegularCell(stylesContainer, row, 2,
+                stoppage.getProductionTrackingState() != null ? translationService.translate(
+                        "productionCounting.productionTracking.state.value." + stoppage.getProductionTrackingState(), locale)
+                        : null);
+        createTimeCell(stylesContainer, row, 3, stoppage.getDuration(), false);
+        createDateTimeCell(stylesContainer, row, 4, stoppage.getDateFrom());
+        createDateTimeCell(stylesContainer, row, 5, stoppage.getDateTo());
+        createRegularCell(stylesContainer, row, 6, stoppage.getReason());
+        createRegularCell(stylesContainer, row, 7, stoppage.getDescription());
+        createRegularCell(stylesContainer, row, 8, stoppage.getDivision());
+        createRegularCell(stylesContainer, row, 9, stoppage.getProductionLine());
+        createRegularCell(stylesContainer, row, 10, stoppage.getWorkstation());
+        createRegularCell(stylesContainer, row, 11, stoppage.getWorker());
     }
 
-    private void createLaborTimeSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale) {
+    private void createLaborTimeSheet(Sheet sheet, RowSource<LaborTime> laborTimeRows, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.ORDER_NUMBER, locale), 0,
                 HorizontalAlignment.LEFT);
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.OPERATION_NUMBER, locale), 1,
@@ -350,30 +450,28 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.LABOR_TIME, locale), 7,
                 HorizontalAlignment.LEFT);
 
-        List<LaborTime> laborTimeList = productionBalanceRepository.getLaborTime(ordersIds);
-        int rowCounter = 0;
-        for (LaborTime laborTime : laborTimeList) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, laborTime.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, laborTime.getOperationNumber());
-            createRegularCell(stylesContainer, row, 2, laborTime.getStaffNumber());
-            createRegularCell(stylesContainer, row, 3, laborTime.getStaffName());
-            createRegularCell(stylesContainer, row, 4, laborTime.getStaffSurname());
-            createRegularCell(stylesContainer, row, 5, laborTime.getWageGroupName());
-            createNumericCell(stylesContainer, row, 6, laborTime.getStaffLaborHourlyCost(), false);
-            createTimeCell(stylesContainer, row, 7, laborTime.getLaborTime(), false);
-            rowCounter++;
-        }
-        for (int i = 0; i <= 7; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        SampledColumnWidthsSheetWriter sheetWriter = new SampledColumnWidthsSheetWriter(sheet, rowOffset);
+        sheetWriter.sample(row);
+        laborTimeRows.forEach(laborTime -> fillLaborTimeRow(sheetWriter.createRow(), laborTime, stylesContainer));
+        sheetWriter.applyColumnWidths();
+    }
+
+    private void fillLaborTimeRow(Row row, LaborTime laborTime, StylesContainer stylesContainer) {
+        createRegularCell(stylesContainer, row, 0, laborTime.getOrderNumber());
+        createRegularCell(stylesContainer, row, 1, laborTime.getOperationNumber());
+        createRegularCell(stylesContainer, row, 2, laborTime.getStaffNumber());
+        createRegularCell(stylesContainer, row, 3, laborTime.getStaffName());
+        createRegularCell(stylesContainer, row, 4, laborTime.getStaffSurname());
+        createRegularCell(stylesContainer, row, 5, laborTime.getWageGroupName());
+        createNumericCell(stylesContainer, row, 6, laborTime.getStaffLaborHourlyCost(), false);
+        createTimeCell(stylesContainer, row, 7, laborTime.getLaborTime(), false);
     }
 
-    private void createLaborTimeDetailsSheet(List<LaborTimeDetails> laborTimeDetailsList, HSSFSheet sheet, Locale locale) {
+    private void createLaborTimeDetailsSheet(RowSource<LaborTimeDetails> laborTimeDetailsRows, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row,
                 translationService.translate(
                         "productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.divisionNumber", locale),
@@ -479,48 +577,49 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                         "productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.machineTimeDeviation", locale),
                 25, HorizontalAlignment.LEFT);
 
-        int rowCounter = 0;
-        for (LaborTimeDetails laborTimeDetails : laborTimeDetailsList) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, laborTimeDetails.getDivisionNumber());
-            createRegularCell(stylesContainer, row, 1, laborTimeDetails.getProductionLineNumber());
-            createRegularCell(stylesContainer, row, 2, laborTimeDetails.getOrderNumber());
-            createRegularCell(stylesContainer, row, 3, translationService.translate(
-                    "orders.order.state.value." + laborTimeDetails.getOrderState(), locale));
-            createDateTimeCell(stylesContainer, row, 4, laborTimeDetails.getPlannedDateFrom());
-            createDateTimeCell(stylesContainer, row, 5, laborTimeDetails.getEffectiveDateFrom());
-            createDateTimeCell(stylesContainer, row, 6, laborTimeDetails.getPlannedDateTo());
-            createDateTimeCell(stylesContainer, row, 7, laborTimeDetails.getEffectiveDateTo());
-            createRegularCell(stylesContainer, row, 8, laborTimeDetails.getProductNumber());
-            createRegularCell(stylesContainer, row, 9, laborTimeDetails.getOrderName());
-            createNumericCell(stylesContainer, row, 10, laborTimeDetails.getPlannedQuantity(), false);
-            createNumericCell(stylesContainer, row, 11, laborTimeDetails.getAmountOfProductProduced(), false);
-            createRegularCell(stylesContainer, row, 12, laborTimeDetails.getStaffNumber());
-            createRegularCell(stylesContainer, row, 13, laborTimeDetails.getStaffName());
-            createRegularCell(stylesContainer, row, 14, laborTimeDetails.getStaffSurname());
-            createRegularCell(stylesContainer, row, 15, laborTimeDetails.getOperationNumber());
-            createDateTimeCell(stylesContainer, row, 16, laborTimeDetails.getTimeRangeFrom());
-            createDateTimeCell(stylesContainer, row, 17, laborTimeDetails.getTimeRangeTo());
-            createRegularCell(stylesContainer, row, 18, laborTimeDetails.getShiftName());
-            createDateTimeCell(stylesContainer, row, 19, laborTimeDetails.getCreateDate());
-            createTimeCell(stylesContainer, row, 20, laborTimeDetails.getLaborTime(), false);
-            createTimeCell(stylesContainer, row, 21, laborTimeDetails.getPlannedLaborTime(), false);
-            createTimeCell(stylesContainer, row, 22, laborTimeDetails.getLaborTimeDeviation(), false);
-            createTimeCell(stylesContainer, row, 23, laborTimeDetails.getMachineTime(), false);
-            createTimeCell(stylesContainer, row, 24, laborTimeDetails.getPlannedMachineTime(), false);
-            createTimeCell(stylesContainer, row, 25, laborTimeDetails.getMachineTimeDeviation(), false);
-            rowCounter++;
-        }
-        for (int i = 0; i <= 25; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        SampledColumnWidthsSheetWriter sheetWriter = new SampledColumnWidthsSheetWriter(sheet, rowOffset);
+        sheetWriter.sample(row);
+        laborTimeDetailsRows.forEach(
+                laborTimeDetails -> fillLaborTimeDetailsRow(sheetWriter.createRow(), laborTimeDetails, stylesContainer, locale));
+        sheetWriter.applyColumnWidths();
     }
 
-    private void createProductionCostsSheet(List<ProductionCost> productionCosts, HSSFSheet sheet, Locale locale) {
+    private void fillLaborTimeDetailsRow(Row row, LaborTimeDetails laborTimeDetails, StylesContainer stylesContainer,
+            Locale locale) {
+        createRegularCell(stylesContainer, row, 0, laborTimeDetails.getDivisionNumber());
+        createRegularCell(stylesContainer, row, 1, laborTimeDetails.getProductionLineNumber());
+        createRegularCell(stylesContainer, row, 2, laborTimeDetails.getOrderNumber());
+        createRegularCell(stylesContainer, row, 3, translationService.translate(
+                "orders.order.state.value." + laborTimeDetails.getOrderState(), locale));
+        createDateTimeCell(stylesContainer, row, 4, laborTimeDetails.getPlannedDateFrom());
+        createDateTimeCell(stylesContainer, row, 5, laborTimeDetails.getEffectiveDateFrom());
+        createDateTimeCell(stylesContainer, row, 6, laborTimeDetails.getPlannedDateTo());
+        createDateTimeCell(stylesContainer, row, 7, laborTimeDetails.getEffectiveDateTo());
+        createRegularCell(stylesContainer, row, 8, laborTimeDetails.getProductNumber());
+        createRegularCell(stylesContainer, row, 9, laborTimeDetails.getOrderName());
+        createNumericCell(stylesContainer, row, 10, laborTimeDetails.getPlannedQuantity(), false);
+        createNumericCell(stylesContainer, row, 11, laborTimeDetails.getAmountOfProductProduced(), false);
+        createRegularCell(stylesContainer, row, 12, laborTimeDetails.getStaffNumber());
+        createRegularCell(stylesContainer, row, 13, laborTimeDetails.getStaffName());
+        createRegularCell(stylesContainer, row, 14, laborTimeDetails.getStaffSurname());
+        createRegularCell(stylesContainer, row, 15, laborTimeDetails.getOperationNumber());
+        createDateTimeCell(stylesContainer, row, 16, laborTimeDetails.getTimeRangeFrom());
+        createDateTimeCell(stylesContainer, row, 17, laborTimeDetails.getTimeRangeTo());
+        createRegularCell(stylesContainer, row, 18, laborTimeDetails.getShiftName());
+        createDateTimeCell(stylesContainer, row, 19, laborTimeDetails.getCreateDate());
+        createTimeCell(stylesContainer, row, 20, laborTimeDetails.getLaborTime(), false);
+        createTimeCell(stylesContainer, row, 21, laborTimeDetails.getPlannedLaborTime(), false);
+        createTimeCell(stylesContainer, row, 22, laborTimeDetails.getLaborTimeDeviation(), false);
+        createTimeCell(stylesContainer, row, 23, laborTimeDetails.getMachineTime(), false);
+        createTimeCell(stylesContainer, row, 24, laborTimeDetails.getPlannedMachineTime(), false);
+        createTimeCell(stylesContainer, row, 25, laborTimeDetails.getMachineTimeDeviation(), false);
+    }
+
+    private void createProductionCostsSheet(Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.productionCosts.orderNumber", locale),
@@ -590,38 +689,38 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                         "productionCounting.productionBalance.report.xls.sheet.productionCosts.realPieceworkCosts", locale),
                 16, HorizontalAlignment.LEFT);
 
-        int rowCounter = 0;
-        for (ProductionCost productionCost : productionCosts) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, productionCost.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, productionCost.getOperationNumber());
-            createNumericCell(stylesContainer, row, 2, productionCost.getPlannedCostsSum(), false);
-            createNumericCell(stylesContainer, row, 3, productionCost.getRealCostsSum(), false);
-            createNumericCell(stylesContainer, row, 4, productionCost.getSumCostsDeviation(), false);
-            createTimeCell(stylesContainer, row, 5, productionCost.getPlannedStaffTime(), false);
-            createTimeCell(stylesContainer, row, 6, productionCost.getRealStaffTime(), true);
-            createTimeCell(stylesContainer, row, 7, productionCost.getPlannedMachineTime(), false);
-            createTimeCell(stylesContainer, row, 8, productionCost.getRealMachineTime(), true);
-            createNumericCell(stylesContainer, row, 9, productionCost.getPlannedStaffCosts(), false);
-            createNumericCell(stylesContainer, row, 10, productionCost.getRealStaffCosts(), false);
-            createNumericCell(stylesContainer, row, 11, productionCost.getStaffCostsDeviation(), false);
-            createNumericCell(stylesContainer, row, 12, productionCost.getPlannedMachineCosts(), false);
-            createNumericCell(stylesContainer, row, 13, productionCost.getRealMachineCosts(), false);
-            createNumericCell(stylesContainer, row, 14, productionCost.getMachineCostsDeviation(), false);
-            createNumericCell(stylesContainer, row, 15, productionCost.getPlannedPieceworkCosts(), false);
-            createNumericCell(stylesContainer, row, 16, productionCost.getRealPieceworkCosts(), false);
-            rowCounter++;
-        }
-        for (int i = 0; i <= 16; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        SampledColumnWidthsSheetWriter sheetWriter = new SampledColumnWidthsSheetWriter(sheet, rowOffset);
+        sheetWriter.sample(row);
+        productionBalanceRepository.getProductionCosts(
+                productionCost -> fillProductionCostsRow(sheetWriter.createRow(), productionCost, stylesContainer));
+        sheetWriter.applyColumnWidths();
+    }
+
+    private void fillProductionCostsRow(Row row, ProductionCost productionCost, StylesContainer stylesContainer) {
+        createRegularCell(stylesContainer, row, 0, productionCost.getOrderNumber());
+        createRegularCell(stylesContainer, row, 1, productionCost.getOperationNumber());
+        createNumericCell(stylesContainer, row, 2, productionCost.getPlannedCostsSum(), false);
+        createNumericCell(stylesContainer, row, 3, productionCost.getRealCostsSum(), false);
+        createNumericCell(stylesContainer, row, 4, productionCost.getSumCostsDeviation(), false);
+        createTimeCell(stylesContainer, row, 5, productionCost.getPlannedStaffTime(), false);
+        createTimeCell(stylesContainer, row, 6, productionCost.getRealStaffTime(), true);
+        createTimeCell(stylesContainer, row, 7, productionCost.getPlannedMachineTime(), false);
+        createTimeCell(stylesContainer, row, 8, productionCost.getRealMachineTime(), true);
+        createNumericCell(stylesContainer, row, 9, productionCost.getPlannedStaffCosts(), false);
+        createNumericCell(stylesContainer, row, 10, productionCost.getRealStaffCosts(), false);
+        createNumericCell(stylesContainer, row, 11, productionCost.getStaffCostsDeviation(), false);
+        createNumericCell(stylesContainer, row, 12, productionCost.getPlannedMachineCosts(), false);
+        createNumericCell(stylesContainer, row, 13, productionCost.getRealMachineCosts(), false);
+        createNumericCell(stylesContainer, row, 14, productionCost.getMachineCostsDeviation(), false);
+        createNumericCell(stylesContainer, row, 15, productionCost.getPlannedPieceworkCosts(), false);
+        createNumericCell(stylesContainer, row, 16, productionCost.getRealPieceworkCosts(), false);
     }
 
-    private void createOrdersBalanceSheet(List<OrderBalance> ordersBalance, HSSFSheet sheet, Locale locale) {
+    private void createOrdersBalanceSheet(RowSource<OrderBalance> ordersBalance, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.orderNumber", locale),
@@ -722,45 +821,44 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.sellPrice", locale),
                 23, HorizontalAlignment.LEFT);
 
-        int rowCounter = 0;
-        for (OrderBalance orderBalance : ordersBalance) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, orderBalance.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, orderBalance.getProductNumber());
-            createRegularCell(stylesContainer, row, 2, orderBalance.getProductName());
-            createNumericCell(stylesContainer, row, 3, orderBalance.getProducedQuantity(), true);
-            createNumericCell(stylesContainer, row, 4, orderBalance.getMaterialCosts(), false);
-            createNumericCell(stylesContainer, row, 5, orderBalance.getProductionCosts(), false);
-            createNumericCell(stylesContainer, row, 6, orderBalance.getTechnicalProductionCosts(), true);
-            createNumericCell(stylesContainer, row, 7, orderBalance.getMaterialCostMargin(), false);
-            createNumericCell(stylesContainer, row, 8, orderBalance.getMaterialCostMarginValue(), false);
-            createNumericCell(stylesContainer, row, 9, orderBalance.getProductionCostMargin(), false);
-            createNumericCell(stylesContainer, row, 10, orderBalance.getProductionCostMarginValue(), false);
-            createNumericCell(stylesContainer, row, 11, orderBalance.getAdditionalOverhead(), false);
-            createNumericCell(stylesContainer, row, 12, orderBalance.getDirectAdditionalCost(), false);
-            createNumericCell(stylesContainer, row, 13, orderBalance.getTotalCosts(), true);
-            createNumericCell(stylesContainer, row, 14, orderBalance.getRegistrationPrice(), false);
-            createNumericCell(stylesContainer, row, 15, orderBalance.getRegistrationPriceOverhead(), false);
-            createNumericCell(stylesContainer, row, 16, orderBalance.getRegistrationPriceOverheadValue(), false);
-            createNumericCell(stylesContainer, row, 17, orderBalance.getRealProductionCosts(), false);
-            createNumericCell(stylesContainer, row, 18, orderBalance.getTechnicalProductionCostOverhead(), false);
-            createNumericCell(stylesContainer, row, 19, orderBalance.getTechnicalProductionCostOverheadValue(), false);
-            createNumericCell(stylesContainer, row, 20, orderBalance.getTotalManufacturingCost(), false);
-            createNumericCell(stylesContainer, row, 21, orderBalance.getProfit(), false);
-            createNumericCell(stylesContainer, row, 22, orderBalance.getProfitValue(), false);
-            createNumericCell(stylesContainer, row, 23, orderBalance.getSellPrice(), false);
-            rowCounter++;
-        }
-        for (int i = 0; i <= 23; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        SampledColumnWidthsSheetWriter sheetWriter = new SampledColumnWidthsSheetWriter(sheet, rowOffset);
+        sheetWriter.sample(row);
+        ordersBalance.forEach(orderBalance -> fillOrdersBalanceRow(sheetWriter.createRow(), orderBalance, stylesContainer));
+        sheetWriter.applyColumnWidths();
+    }
+
+    private void fillOrdersBalanceRow(Row row, OrderBalance orderBalance, StylesContainer stylesContainer) {
+        createRegularCell(stylesContainer, row, 0, orderBalance.getOrderNumber());
+        createRegularCell(stylesContainer, row, 1, orderBalance.getProductNumber());
+        createRegularCell(stylesContainer, row, 2, orderBalance.getProductName());
+        createNumericCell(stylesContainer, row, 3, orderBalance.getProducedQuantity(), true);
+        createNumericCell(stylesContainer, row, 4, orderBalance.getMaterialCosts(), false);
+        createNumericCell(stylesContainer, row, 5, orderBalance.getProductionCosts(), false);
+        createNumericCell(stylesContainer, row, 6, orderBalance.getTechnicalProductionCosts(), true);
+        createNumericCell(stylesContainer, row, 7, orderBalance.getMaterialCostMargin(), false);
+        createNumericCell(stylesContainer, row, 8, orderBalance.getMaterialCostMarginValue(), false);
+        createNumericCell(stylesContainer, row, 9, orderBalance.getProductionCostMargin(), false);
+        createNumericCell(stylesContainer, row, 10, orderBalance.getProductionCostMarginValue(), false);
+        createNumericCell(stylesContainer, row, 11, orderBalance.getAdditionalOverhead(), false);
+        createNumericCell(stylesContainer, row, 12, orderBalance.getDirectAdditionalCost(), false);
+        createNumericCell(stylesContainer, row, 13, orderBalance.getTotalCosts(), true);
+        createNumericCell(stylesContainer, row, 14, orderBalance.getRegistrationPrice(), false);
+        createNumericCell(stylesContainer, row, 15, orderBalance.getRegistrationPriceOverhead(), false);
+        createNumericCell(stylesContainer, row, 16, orderBalance.getRegistrationPriceOverheadValue(), false);
+        createNumericCell(stylesContainer, row, 17, orderBalance.getRealProductionCosts(), false);
+        createNumericCell(stylesContainer, row, 18, orderBalance.getTechnicalProductionCostOverhead(), false);
+        createNumericCell(stylesContainer, row, 19, orderBalance.getTechnicalProductionCostOverheadValue(), false);
+        createNumericCell(stylesContainer, row, 20, orderBalance.getTotalManufacturingCost(), false);
+        createNumericCell(stylesContainer, row, 21, orderBalance.getProfit(), false);
+        createNumericCell(stylesContainer, row, 22, orderBalance.getProfitValue(), false);
+        createNumericCell(stylesContainer, row, 23, orderBalance.getSellPrice(), false);
     }
 
-    private void createProductsBalanceSheet(List<OrderBalance> productsBalance, HSSFSheet sheet, Locale locale) {
+    private void createProductsBalanceSheet(Entity entity, List<Long> ordersIds, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.productNumber", locale),
@@ -857,48 +955,48 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.sellPrice", locale),
                 22, HorizontalAlignment.LEFT);
 
-        int rowCounter = 0;
-        for (OrderBalance orderBalance : productsBalance) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, orderBalance.getProductNumber());
-            createRegularCell(stylesContainer, row, 1, orderBalance.getProductName());
-            createNumericCell(stylesContainer, row, 2, orderBalance.getProducedQuantity(), true);
-            createNumericCell(stylesContainer, row, 3, orderBalance.getMaterialCosts(), false);
-            createNumericCell(stylesContainer, row, 4, orderBalance.getProductionCosts(), false);
-            createNumericCell(stylesContainer, row, 5, orderBalance.getTechnicalProductionCosts(), true);
-            createNumericCell(stylesContainer, row, 6, orderBalance.getMaterialCostMargin(), false);
-            createNumericCell(stylesContainer, row, 7, orderBalance.getMaterialCostMarginValue(), false);
-            createNumericCell(stylesContainer, row, 8, orderBalance.getProductionCostMargin(), false);
-            createNumericCell(stylesContainer, row, 9, orderBalance.getProductionCostMarginValue(), false);
-            createNumericCell(stylesContainer, row, 10, orderBalance.getAdditionalOverhead(), false);
-            createNumericCell(stylesContainer, row, 11, orderBalance.getDirectAdditionalCost(), false);
-            createNumericCell(stylesContainer, row, 12, orderBalance.getTotalCosts(), true);
-            createNumericCell(stylesContainer, row, 13, orderBalance.getRegistrationPrice(), false);
-            createNumericCell(stylesContainer, row, 14, orderBalance.getRegistrationPriceOverhead(), false);
-            createNumericCell(stylesContainer, row, 15, orderBalance.getRegistrationPriceOverheadValue(), false);
-            createNumericCell(stylesContainer, row, 16, orderBalance.getRealProductionCosts(), false);
-            createNumericCell(stylesContainer, row, 17, orderBalance.getTechnicalProductionCostOverhead(), false);
-            createNumericCell(stylesContainer, row, 18, orderBalance.getTechnicalProductionCostOverheadValue(), false);
-            createNumericCell(stylesContainer, row, 19, orderBalance.getTotalManufacturingCost(), false);
-            createNumericCell(stylesContainer, row, 20, orderBalance.getProfit(), false);
-            createNumericCell(stylesContainer, row, 21, orderBalance.getProfitValue(), false);
-            createNumericCell(stylesContainer, row, 22, orderBalance.getSellPrice(), false);
-            rowCounter++;
-        }
-        for (int i = 0; i <= 22; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        SampledColumnWidthsSheetWriter sheetWriter = new SampledColumnWidthsSheetWriter(sheet, rowOffset);
+        sheetWriter.sample(row);
+        productionBalanceRepository.getProductsBalance(entity, ordersIds,
+                orderBalance -> fillProductsBalanceRow(sheetWriter.createRow(), orderBalance, stylesContainer));
+        sheetWriter.applyColumnWidths();
     }
 
-    private HSSFCell createRegularCell(StylesContainer stylesContainer, HSSFRow row, int column, String content) {
-        HSSFCell cell = row.createCell(column);
+    private void fillProductsBalanceRow(Row row, OrderBalance orderBalance, StylesContainer stylesContainer) {
+        createRegularCell(stylesContainer, row, 0, orderBalance.getProductNumber());
+        createRegularCell(stylesContainer, row, 1, orderBalance.getProductName());
+        createNumericCell(stylesContainer, row, 2, orderBalance.getProducedQuantity(), true);
+        createNumericCell(stylesContainer, row, 3, orderBalance.getMaterialCosts(), false);
+        createNumericCell(stylesContainer, row, 4, orderBalance.getProductionCosts(), false);
+        createNumericCell(stylesContainer, row, 5, orderBalance.getTechnicalProductionCosts(), true);
+        createNumericCell(stylesContainer, row, 6, orderBalance.getMaterialCostMargin(), false);
+        createNumericCell(stylesContainer, row, 7, orderBalance.getMaterialCostMarginValue(), false);
+        createNumericCell(stylesContainer, row, 8, orderBalance.getProductionCostMargin(), false);
+        createNumericCell(stylesContainer, row, 9, orderBalance.getProductionCostMarginValue(), false);
+        createNumericCell(stylesContainer, row, 10, orderBalance.getAdditionalOverhead(), false);
+        createNumericCell(stylesContainer, row, 11, orderBalance.getDirectAdditionalCost(), false);
+        createNumericCell(stylesContainer, row, 12, orderBalance.getTotalCosts(), true);
+        createNumericCell(stylesContainer, row, 13, orderBalance.getRegistrationPrice(), false);
+        createNumericCell(stylesContainer, row, 14, orderBalance.getRegistrationPriceOverhead(), false);
+        createNumericCell(stylesContainer, row, 15, orderBalance.getRegistrationPriceOverheadValue(), false);
+        createNumericCell(stylesContainer, row, 16, orderBalance.getRealProductionCosts(), false);
+        createNumericCell(stylesContainer, row, 17, orderBalance.getTechnicalProductionCostOverhead(), false);
+        createNumericCell(stylesContainer, row, 18, orderBalance.getTechnicalProductionCostOverheadValue(), false);
+        createNumericCell(stylesContainer, row, 19, orderBalance.getTotalManufacturingCost(), false);
+        createNumericCell(stylesContainer, row, 20, orderBalance.getProfit(), false);
+        createNumericCell(stylesContainer, row, 21, orderBalance.getProfitValue(), false);
+        createNumericCell(stylesContainer, row, 22, orderBalance.getSellPrice(), false);
+    }
+
+    private Cell createRegularCell(StylesContainer stylesContainer, Row row, int column, String content) {
+        Cell cell = row.createCell(column);
         cell.setCellValue(content);
         cell.setCellStyle(StylesContainer.aligned(stylesContainer.regularStyle, HorizontalAlignment.LEFT));
         return cell;
     }
 
-    private HSSFCell createNumericCell(StylesContainer stylesContainer, HSSFRow row, int column, BigDecimal value, boolean bold) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
+    private Cell createNumericCell(StylesContainer stylesContainer, Row row, int column, BigDecimal value, boolean bold) {
+        Cell cell = row.createCell(column, Cell.CELL_TYPE_NUMERIC);
         cell.setCellValue(numberService.setScaleWithDefaultMathContext(value, 2).doubleValue());
         if (bold) {
             cell.setCellStyle(StylesContainer.aligned(stylesContainer.numberBoldStyle, HorizontalAlignment.RIGHT));
@@ -908,8 +1006,8 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         return cell;
     }
 
-    private HSSFCell createTimeCell(StylesContainer stylesContainer, HSSFRow row, int column, Integer value, boolean bold) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
+    private Cell createTimeCell(StylesContainer stylesContainer, Row row, int column, Integer value, boolean bold) {
+        Cell cell = row.createCell(column, Cell.CELL_TYPE_NUMERIC);
         if (value == null) {
             value = 0;
         }
@@ -926,8 +1024,8 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         return cell;
     }
 
-    private HSSFCell createDateTimeCell(StylesContainer stylesContainer, HSSFRow row, int column, Date value) {
-        HSSFCell cell = row.createCell(column);
+    private Cell createDateTimeCell(StylesContainer stylesContainer, Row row, int column, Date value) {
+        Cell cell = row.createCell(column);
         if (value != null) {
             cell.setCellValue(value);
             cell.setCellStyle(StylesContainer.aligned(stylesContainer.dateTimeStyle, HorizontalAlignment.RIGHT));
@@ -935,32 +1033,39 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         return cell;
     }
 
-    private HSSFCell createHeaderCell(StylesContainer stylesContainer, HSSFRow row, String content, int column, HorizontalAlignment horizontalAlignment) {
-        HSSFCell cell = row.createCell(column);
+    private Cell createHeaderCell(StylesContainer stylesContainer, Row row, String content, int column, HorizontalAlignment horizontalAlignment) {
+        Cell cell = row.createCell(column);
         cell.setCellValue(content);
         cell.setCellStyle(StylesContainer.aligned(stylesContainer.headerStyle, horizontalAlignment));
         return cell;
     }
 
+    @FunctionalInterface
+    private interface RowSource<T> {
+
+        void forEach(Consumer<T> consumer);
+
+    }
+
     private static class StylesContainer {
 
-        private final HSSFCellStyle regularStyle;
+        private final CellStyle regularStyle;
 
-        private final HSSFCellStyle headerStyle;
+        private final CellStyle headerStyle;
 
-        private final HSSFCellStyle timeStyle;
+        private final CellStyle timeStyle;
 
-        private final HSSFCellStyle timeBoldStyle;
+        private final CellStyle timeBoldStyle;
 
-        private final HSSFCellStyle negativeTimeStyle;
+        private final CellStyle negativeTimeStyle;
 
-        private final HSSFCellStyle numberStyle;
+        private final CellStyle numberStyle;
 
-        private final HSSFCellStyle numberBoldStyle;
+        private final CellStyle numberBoldStyle;
 
-        private final HSSFCellStyle dateTimeStyle;
+        private final CellStyle dateTimeStyle;
 
-        StylesContainer(HSSFWorkbook workbook, FontsContainer fontsContainer) {
+        StylesContainer(Workbook workbook, FontsContainer fontsContainer) {
             regularStyle = workbook.createCellStyle();
             regularStyle.setVerticalAlignment(VerticalAlignment.CENTER);
 
@@ -992,7 +1097,7 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             dateTimeStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd hh:mm"));
         }
 
-        private static HSSFCellStyle aligned(HSSFCellStyle style, HorizontalAlignment horizontalAlignment) {
+        private static CellStyle aligned(CellStyle style, HorizontalAlignment horizontalAlignment) {
             style.setAlignment(horizontalAlignment);
             return style;
         }
@@ -1002,7 +1107,7 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
 
         private final Font boldFont;
 
-        FontsContainer(HSSFWorkbook workbook) {
+        FontsContainer(Workbook workbook) {
             boldFont = workbook.createFont();
             boldFont.setBold(true);
         }
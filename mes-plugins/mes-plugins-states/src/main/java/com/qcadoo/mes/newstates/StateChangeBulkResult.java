@@ -0,0 +1,47 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.states.constants.StateChangeStatus;
+
+/**
+ * Summary of state changes performed for many entities, keeps status of every entity in the order of processing.
+ */
+public class StateChangeBulkResult {
+
+    private final Map<Long, StateChangeStatus> statuses = Maps.newLinkedHashMap();
+
+    void add(final Long entityId, final StateChangeStatus status) {
+        statuses.put(entityId, status);
+    }
+
+    public Map<Long, StateChangeStatus> getStatuses() {
+        return Collections.unmodifiableMap(statuses);
+    }
+
+    public List<Long> getSuccessfulEntityIds() {
+        return getEntityIds(StateChangeStatus.SUCCESSFUL);
+    }
+
+    public List<Long> getFailedEntityIds() {
+        return getEntityIds(StateChangeStatus.FAILURE);
+    }
+
+    public int getTotal() {
+        return statuses.size();
+    }
+
+    public boolean isSuccessful() {
+        return getFailedEntityIds().isEmpty();
+    }
+
+    private List<Long> getEntityIds(final StateChangeStatus status) {
+        return statuses.entrySet().stream().filter(entry -> status.equals(entry.getValue())).map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+}
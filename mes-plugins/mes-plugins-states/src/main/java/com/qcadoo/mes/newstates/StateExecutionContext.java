@@ -0,0 +1,84 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.Objects;
+
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.validators.ErrorMessage;
+import com.qcadoo.model.api.validators.GlobalMessage;
+import com.qcadoo.view.api.ComponentMessagesHolder;
+import com.qcadoo.view.api.ComponentState;
+
+/**
+ * State of a single {@link StateExecutorService} invocation - where messages go, who changes the state, in which shift and
+ * since when. It's created for every call and passed down the pipeline, so the executor itself keeps no per-call state and
+ * state changes can run in parallel.
+ */
+public final class StateExecutionContext {
+
+    private final ComponentMessagesHolder messagesHolder;
+
+    private final Long userId;
+
+    private final String userName;
+
+    private final Entity shift;
+
+    private final long startTime;
+
+    StateExecutionContext(final ComponentMessagesHolder messagesHolder, final Long userId, final String userName,
+            final Entity shift) {
+        this.messagesHolder = messagesHolder;
+        this.userId = userId;
+        this.userName = userName;
+        this.shift = shift;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    public ComponentMessagesHolder getMessagesHolder() {
+        return messagesHolder;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public Entity getShift() {
+        return shift;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getElapsedTime() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    void addMessage(final String message, final ComponentState.MessageType messageType) {
+        if (Objects.nonNull(messagesHolder)) {
+            messagesHolder.addMessage(message, messageType);
+        }
+    }
+
+    void addMessages(final Entity entity) {
+        if (Objects.isNull(messagesHolder)) {
+            return;
+        }
+
+        for (ErrorMessage errorMessage : entity.getGlobalErrors()) {
+            messagesHolder.addMessage(errorMessage);
+        }
+        for (ErrorMessage errorMessage : entity.getErrors().values()) {
+            messagesHolder.addMessage(errorMessage);
+        }
+
+        for (GlobalMessage globalMessage : entity.getGlobalMessages()) {
+            messagesHolder.addMessage(globalMessage);
+        }
+    }
+
+}
@@ -9,22 +9,25 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.ApplicationContext;
-import org.springframework.context.annotation.Scope;
-import org.springframework.context.annotation.ScopedProxyMode;
-import org.springframework.core.annotation.AnnotationAwareOrderComparator;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.ClassUtils;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.newstates.metrics.StateChangeMetricsSink;
+import com.qcadoo.mes.newstates.metrics.StateChangePhase;
 import com.qcadoo.mes.states.StateChangeEntityDescriber;
 import com.qcadoo.mes.states.StateEnum;
 import com.qcadoo.mes.states.constants.StateChangeStatus;
@@ -34,10 +37,6 @@ import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.exception.EntityRuntimeException;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
 import com.qcadoo.model.api.search.SearchRestrictions;
-import com.qcadoo.model.api.validators.ErrorMessage;
-import com.qcadoo.model.api.validators.GlobalMessage;
-import com.qcadoo.plugin.api.PluginUtils;
-import com.qcadoo.plugin.api.RunIfEnabled;
 import com.qcadoo.security.api.SecurityService;
 import com.qcadoo.view.api.ComponentMessagesHolder;
 import com.qcadoo.view.api.ComponentState;
@@ -47,15 +46,18 @@ import com.qcadoo.view.api.components.GridComponent;
 import com.qcadoo.view.constants.QcadooViewConstants;
 
 @Service
-@Scope(value = "request", proxyMode = ScopedProxyMode.TARGET_CLASS)
 public class StateExecutorService {
 
     private static final Logger LOG = LoggerFactory.getLogger(StateExecutorService.class);
 
     public static final String USER_CHANGE_STATE = "user";
 
+    private static final int L_FETCH_CHUNK_SIZE = 1000;
+
+    private static final ThreadLocal<StateExecutionContext> CURRENT_CONTEXT = new ThreadLocal<>();
+
     @Autowired
-    private ApplicationContext applicationContext;
+    private StateServicesRegistry stateServicesRegistry;
 
     @Autowired
     private SecurityService securityService;
@@ -63,27 +65,34 @@ public class StateExecutorService {
     @Autowired
     private ShiftsService shiftsService;
 
-    private ComponentMessagesHolder componentMessagesHolder;
+    @Autowired
+    private List<StateChangeMetricsSink> stateChangeMetricsSinks;
 
     public <M extends StateService> void changeState(final Class<M> serviceMarker, final ViewDefinitionState view,
             final String[] args) {
-        componentMessagesHolder = view;
+        StateExecutionContext context = createContext(view, StringUtils.EMPTY);
 
-        Long userId = securityService.getCurrentUserOrQcadooBotId();
-        String userName = securityService.getCurrentUserOrQcadooBotName();
+        runInContext(context, () -> {
+            changeState(serviceMarker, view, args[0], context);
 
+            return null;
+        });
+    }
+
+    private <M extends StateService> void changeState(final Class<M> serviceMarker, final ViewDefinitionState view,
+            final String targetState, final StateExecutionContext context) {
         Optional<GridComponent> maybeGridComponent = view.tryFindComponentByReference(QcadooViewConstants.L_GRID);
 
         if (maybeGridComponent.isPresent()) {
-            maybeGridComponent.get().getSelectedEntities().forEach(entity -> {
-                entity = entity.getDataDefinition().getMasterModelEntity(entity.getId());
-
-                entity.setField(USER_CHANGE_STATE, userId);
+            List<Long> entityIds = maybeGridComponent.get().getSelectedEntities().stream().map(Entity::getId)
+                    .collect(Collectors.toList());
 
-                entity = changeState(serviceMarker, entity, userName, args[0]);
+            StateChangeBulkResult result = changeStates(serviceMarker, entityIds, targetState, context);
 
-                copyMessages(entity);
-            });
+            if (result.getTotal() > 1) {
+                view.addMessage("states.messages.change.bulkSummary", ComponentState.MessageType.INFO, false,
+                        String.valueOf(result.getSuccessfulEntityIds().size()), String.valueOf(result.getTotal()));
+            }
         } else {
             Optional<FormComponent> maybeForm = view.tryFindComponentByReference(QcadooViewConstants.L_FORM);
 
@@ -92,10 +101,13 @@ public class StateExecutorService {
 
                 Entity entity = formComponent.getEntity().getDataDefinition().get(formComponent.getEntityId());
 
-                entity.setField(USER_CHANGE_STATE, userId);
+                entity.setField(USER_CHANGE_STATE, context.getUserId());
 
                 if (entity.isValid()) {
-                    entity = changeState(serviceMarker, entity, userName, args[0]);
+                    List<M> services = stateServicesRegistry.getServices(serviceMarker);
+
+                    entity = changeState(services, services.get(0).getChangeEntityDescriber(), entity, targetState, context,
+                            false);
 
                     formComponent.setEntity(entity);
                 }
@@ -103,18 +115,98 @@ public class StateExecutorService {
         }
     }
 
-    public <M extends StateService> Entity changeState(final Class<M> serviceMarker, Entity entity, final String userName,
+    /**
+     * Changes state of many entities of the same type. Service chain, user and shift are resolved once, entities are fetched in
+     * one query and every transition runs in its own transaction, so failure of one entity doesn't abort the others. State change
+     * records are saved in transactions of their own, so failed transitions stay in the history.
+     */
+    public <M extends StateService> StateChangeBulkResult changeStates(final Class<M> serviceMarker, final List<Long> entityIds,
+            final String userName, final String targetState) {
+        StateExecutionContext context = createContext(null, userName);
+
+        return runInContext(context, () -> changeStates(serviceMarker, entityIds, targetState, context));
+    }
+
+    private <M extends StateService> StateChangeBulkResult changeStates(final Class<M> serviceMarker, final List<Long> entityIds,
+            final String targetState, final StateExecutionContext context) {
+        StateChangeBulkResult result = new StateChangeBulkResult();
+
+        if (entityIds.isEmpty()) {
+            return result;
+        }
+
+        List<M> services = stateServicesRegistry.getServices(serviceMarker);
+
+        StateChangeEntityDescriber describer = services.get(0).getChangeEntityDescriber();
+
+        Map<Long, Entity> entities = fetchEntities(describer, entityIds);
+
+        for (Long entityId : entityIds) {
+            Entity entity = entities.get(entityId);
+
+            if (Objects.isNull(entity)) {
+                result.add(entityId, StateChangeStatus.FAILURE);
+
+                continue;
+            }
+
+            entity.setField(USER_CHANGE_STATE, context.getUserId());
+
+            try {
+                entity = changeState(services, describer, entity, targetState, context, true);
+
+                copyMessages(context, entity);
+
+                result.add(entityId, entity.isValid() ? StateChangeStatus.SUCCESSFUL : StateChangeStatus.FAILURE);
+            } catch (RuntimeException exception) {
+                result.add(entityId, StateChangeStatus.FAILURE);
+
+                context.addMessage("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+                context.addMessage("states.messages.change.failure.internalServerError", ComponentState.MessageType.FAILURE);
+
+                LOG.warn(String.format("Can't perform state change. Entity name : %S id : %d. Target state : %S",
+                        describer.getOwnerDataDefinition().getName(), entityId, targetState), exception);
+            }
+        }
+
+        return result;
+    }
+
+    private Map<Long, Entity> fetchEntities(final StateChangeEntityDescriber describer, final List<Long> entityIds) {
+        Map<Long, Entity> entities = Maps.newHashMapWithExpectedSize(entityIds.size());
+
+        for (List<Long> entityIdsChunk : Lists.partition(entityIds, L_FETCH_CHUNK_SIZE)) {
+            for (Entity entity : describer.getOwnerDataDefinition().find().add(SearchRestrictions.in("id", entityIdsChunk))
+                    .list().getEntities()) {
+                entities.put(entity.getId(), entity);
+            }
+        }
+
+        return entities;
+    }
+
+    public <M extends StateService> Entity changeState(final Class<M> serviceMarker, final Entity entity, final String userName,
             final String targetState) {
-        List<M> services = lookupChangeStateServices(serviceMarker);
+        List<M> services = stateServicesRegistry.getServices(serviceMarker);
 
-        StateChangeEntityDescriber describer = services.stream().findFirst().get().getChangeEntityDescriber();
+        StateChangeEntityDescriber describer = services.get(0).getChangeEntityDescriber();
+        StateExecutionContext context = createContext(null, userName);
+
+        return runInContext(context, () -> changeState(services, describer, entity, targetState, context, false));
+    }
+
+    private <M extends StateService> Entity changeState(final List<M> services, final StateChangeEntityDescriber describer,
+            Entity entity, final String targetState, final StateExecutionContext context, final boolean inNewTransactions) {
         String sourceState = entity.getStringField(describer.getOwnerStateFieldName());
 
-        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, userName, sourceState, targetState);
+        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, sourceState, targetState, context);
 
         try {
-            stateChangeEntity = saveStateChangeContext(entity, stateChangeEntity, describer, sourceState, targetState,
-                    StateChangeStatus.IN_PROGRESS);
+            Entity owner = entity;
+            Entity inProgressStateChangeEntity = stateChangeEntity;
+
+            stateChangeEntity = execute(inNewTransactions, () -> saveStateChangeContext(owner, inProgressStateChangeEntity,
+                    describer, sourceState, targetState, StateChangeStatus.IN_PROGRESS));
 
             List<Entity> stateChanges = Lists.newArrayList();
 
@@ -123,66 +215,69 @@ public class StateExecutorService {
 
             entity.setField(describer.getOwnerStateChangesFieldName(), stateChanges);
 
-            entity = performChangeState(services, entity, stateChangeEntity, describer);
+            Entity changingStateChangeEntity = stateChangeEntity;
+
+            entity = execute(inNewTransactions,
+                    () -> performChangeState(services, owner, changingStateChangeEntity, describer));
 
             if (entity.isValid()) {
-                copyMessages(entity);
+                copyMessages(context, entity);
 
-                saveStateChangeEntity(stateChangeEntity, StateChangeStatus.SUCCESSFUL);
+                saveStateChangeEntity(stateChangeEntity, StateChangeStatus.SUCCESSFUL, inNewTransactions);
 
-                message("states.messages.change.successful", ComponentState.MessageType.SUCCESS);
+                context.addMessage("states.messages.change.successful", ComponentState.MessageType.SUCCESS);
 
-                LOG.info(String.format("Change state successful. Entity name : %S id : %d. Target state : %S",
+                LOG.info(String.format("Change state successful. Entity name : %S id : %d. Target state : %S. Time : %d ms",
                         entity.getDataDefinition().getName(), entity.getId(),
-                        stateChangeEntity.getStringField(describer.getTargetStateFieldName())));
+                        stateChangeEntity.getStringField(describer.getTargetStateFieldName()), context.getElapsedTime()));
             } else {
-                saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+                saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE, inNewTransactions);
 
                 entity = rollbackStateChange(entity, sourceState);
 
-                message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+                context.addMessage("states.messages.change.failure", ComponentState.MessageType.FAILURE);
 
                 LOG.info(String.format("Change state failure. Entity name : %S id : %d. Target state : %S",
                         entity.getDataDefinition().getName(), entity.getId(),
                         stateChangeEntity.getStringField(describer.getTargetStateFieldName())));
             }
         } catch (EntityRuntimeException entityException) {
-            copyMessages(entityException.getEntity(), entity);
+            copyMessages(context, entityException.getEntity(), entity);
 
             entity = rollbackStateChange(entity, sourceState);
 
-            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE, inNewTransactions);
 
-            message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+            context.addMessage("states.messages.change.failure", ComponentState.MessageType.FAILURE);
 
             return entity;
         } catch (AnotherChangeInProgressException e) {
             entity = rollbackStateChange(entity, sourceState);
 
-            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE, inNewTransactions);
 
-            message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
-            message("states.messages.change.failure.anotherChangeInProgress", ComponentState.MessageType.FAILURE);
+            context.addMessage("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+            context.addMessage("states.messages.change.failure.anotherChangeInProgress", ComponentState.MessageType.FAILURE);
 
             LOG.info(String.format("Another state change in progress. Entity name : %S id : %d. Target state : %S",
                     entity.getDataDefinition().getName(), entity.getId(), targetState));
         } catch (StateTransitionNotAlloweException e) {
             entity = rollbackStateChange(entity, sourceState);
 
-            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE, inNewTransactions);
 
-            message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
-            message("states.messages.change.failure.transitionNotAllowed", ComponentState.MessageType.FAILURE);
+            context.addMessage("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+            context.addMessage("states.messages.change.failure.transitionNotAllowed", ComponentState.MessageType.FAILURE);
 
             LOG.info(String.format("State change - transition not allowed. Entity name : %S id : %d. Target state : %S",
                     entity.getDataDefinition().getName(), entity.getId(), targetState));
         } catch (Exception exception) {
             entity = rollbackStateChange(entity, sourceState);
 
-            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE, inNewTransactions);
 
-            message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
-            message("states.messages.change.failure.internalServerError", ComponentState.MessageType.FAILURE);
+            context.addMessage("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+            context.addMessage("states.messages.change.failure.internalServerError", ComponentState.MessageType.FAILURE);
 
             LOG.info(String.format("State change exception. Entity name : %S id : %d. Target state : %S",
                     entity.getDataDefinition().getName(), entity.getId(), targetState));
@@ -238,8 +333,14 @@ public class StateExecutorService {
             throw new EntityRuntimeException(entity);
         }
 
+        long saveStartTime = System.nanoTime();
+
         entity = entity.getDataDefinition().save(entity);
 
+        recordMetrics(describer, stateChangeEntity.getStringField(describer.getSourceStateFieldName()),
+                stateChangeEntity.getStringField(describer.getTargetStateFieldName()),
+                ClassUtils.getUserClass(this).getSimpleName(), StateChangePhase.SAVE, saveStartTime);
+
         if (!hookOnAfterSave(entity, services, stateChangeEntity.getStringField(describer.getSourceStateFieldName()),
                 stateChangeEntity.getStringField(describer.getTargetStateFieldName()), stateChangeEntity, describer)) {
             throw new EntityRuntimeException(entity);
@@ -248,6 +349,11 @@ public class StateExecutorService {
         return entity;
     }
 
+    private Entity saveStateChangeEntity(final Entity stateChangeEntity, final StateChangeStatus stateChangeStatus,
+            final boolean inNewTransaction) {
+        return execute(inNewTransaction, () -> saveStateChangeEntity(stateChangeEntity, stateChangeStatus));
+    }
+
     private Entity saveStateChangeEntity(final Entity stateChangeEntity, final StateChangeStatus stateChangeStatus) {
         stateChangeEntity.setField("status", stateChangeStatus.getStringValue());
 
@@ -256,20 +362,15 @@ public class StateExecutorService {
         return savedStateChangeEntity;
     }
 
-    private Entity buildStateChangeEntity(final StateChangeEntityDescriber describer, final Entity owner, String userName,
-            final String sourceState, final String targetState) {
+    private Entity buildStateChangeEntity(final StateChangeEntityDescriber describer, final Entity owner,
+            final String sourceState, final String targetState, final StateExecutionContext context) {
         final Entity stateChangeEntity = describer.getDataDefinition().create();
-        final Entity shift = shiftsService.getShiftFromDateWithTime(new Date());
-
-        if (StringUtils.isEmpty(userName)) {
-            userName = securityService.getCurrentUserOrQcadooBotName();
-        }
 
         stateChangeEntity.setField(describer.getDateTimeFieldName(), new Date());
         stateChangeEntity.setField(describer.getSourceStateFieldName(), sourceState);
         stateChangeEntity.setField(describer.getTargetStateFieldName(), targetState);
-        stateChangeEntity.setField(describer.getShiftFieldName(), shift);
-        stateChangeEntity.setField(describer.getWorkerFieldName(), userName);
+        stateChangeEntity.setField(describer.getShiftFieldName(), context.getShift());
+        stateChangeEntity.setField(describer.getWorkerFieldName(), context.getUserName());
         stateChangeEntity.setField(describer.getPhaseFieldName(), 0);
         stateChangeEntity.setField(describer.getOwnerFieldName(), owner);
 
@@ -289,10 +390,29 @@ public class StateExecutorService {
         return true;
     }
 
+    private void recordMetrics(final StateChangeEntityDescriber describer, final String sourceState, final String targetState,
+            final String serviceName, final StateChangePhase phase, final long startTime) {
+        long duration = System.nanoTime() - startTime;
+        String entityName = describer.getOwnerDataDefinition().getName();
+
+        for (StateChangeMetricsSink stateChangeMetricsSink : stateChangeMetricsSinks) {
+            try {
+                stateChangeMetricsSink.record(entityName, sourceState, targetState, serviceName, phase, duration);
+            } catch (RuntimeException exception) {
+                LOG.warn("Can't record state change metrics", exception);
+            }
+        }
+    }
+
     private <M extends StateService> Entity hookOnValidate(Entity entity, final Collection<M> services, final String sourceState,
             final String targetState, final Entity stateChangeEntity, final StateChangeEntityDescriber describer) {
         for (StateService service : services) {
+            long startTime = System.nanoTime();
+
             entity = service.onValidate(entity, sourceState, targetState, stateChangeEntity, describer);
+
+            recordMetrics(describer, sourceState, targetState, ClassUtils.getUserClass(service).getSimpleName(),
+                    StateChangePhase.VALIDATE, startTime);
         }
 
         return entity;
@@ -316,7 +436,12 @@ public class StateExecutorService {
             final String sourceState, final String targetState, final Entity stateChangeEntity,
             final StateChangeEntityDescriber describer) {
         for (StateService service : services) {
+            long startTime = System.nanoTime();
+
             entity = service.onBeforeSave(entity, sourceState, targetState, stateChangeEntity, describer);
+
+            recordMetrics(describer, sourceState, targetState, ClassUtils.getUserClass(service).getSimpleName(),
+                    StateChangePhase.BEFORE_SAVE, startTime);
         }
 
         return entity;
@@ -326,34 +451,24 @@ public class StateExecutorService {
             final String sourceState, final String targetState, final Entity stateChangeEntity,
             final StateChangeEntityDescriber describer) {
         for (StateService service : services) {
-            entity = service.onAfterSave(entity, sourceState, targetState, stateChangeEntity, describer);
-        }
+            long startTime = System.nanoTime();
 
-        return entity.isValid();
-    }
-
-    private <M extends StateService> List<M> lookupChangeStateServices(final Class<M> serviceMarker) {
-        Map<String, M> stateServices = applicationContext.getBeansOfType(serviceMarker);
-
-        List<M> services = Lists.newArrayList();
+            entity = service.onAfterSave(entity, sourceState, targetState, stateChangeEntity, describer);
 
-        for (M service : stateServices.values()) {
-            if (serviceEnabled(service)) {
-                services.add(service);
-            }
+            recordMetrics(describer, sourceState, targetState, ClassUtils.getUserClass(service).getSimpleName(),
+                    StateChangePhase.AFTER_SAVE, startTime);
         }
 
-        AnnotationAwareOrderComparator.sort(services);
-
-        return services;
+        return entity.isValid();
     }
 
     public <M extends StateService> void buildInitial(final Class<M> serviceMarker, final Entity entity,
             final String initialState) {
-        List<M> services = lookupChangeStateServices(serviceMarker);
+        List<M> services = stateServicesRegistry.getServices(serviceMarker);
 
         StateChangeEntityDescriber describer = services.get(0).getChangeEntityDescriber();
-        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, StringUtils.EMPTY, null, initialState);
+        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, null, initialState,
+                createContext(null, StringUtils.EMPTY));
 
         stateChangeEntity = saveStateChangeEntity(stateChangeEntity, StateChangeStatus.SUCCESSFUL);
 
@@ -361,46 +476,73 @@ public class StateExecutorService {
         entity.setField(describer.getOwnerStateChangesFieldName(), Lists.newArrayList(stateChangeEntity));
     }
 
-    private <M extends Object & StateService> boolean serviceEnabled(final M service) {
-        RunIfEnabled runIfEnabled = service.getClass().getAnnotation(RunIfEnabled.class);
+    private StateExecutionContext createContext(final ComponentMessagesHolder messagesHolder, final String userName) {
+        StateExecutionContext parentContext = CURRENT_CONTEXT.get();
 
-        if (Objects.isNull(runIfEnabled)) {
-            return true;
-        }
+        ComponentMessagesHolder contextMessagesHolder = messagesHolder;
 
-        for (String pluginIdentifier : runIfEnabled.value()) {
-            if (!PluginUtils.isEnabled(pluginIdentifier)) {
-                return false;
-            }
+        if (Objects.isNull(contextMessagesHolder) && Objects.nonNull(parentContext)) {
+            contextMessagesHolder = parentContext.getMessagesHolder();
         }
 
-        return true;
-    }
+        String contextUserName = userName;
 
-    private void copyMessages(final Entity entity, final Entity mainEntity) {
-        if (Objects.nonNull(mainEntity) && mainEntity.equals(entity)
-                && entity.getGlobalErrors() == mainEntity.getGlobalErrors()) {
-            return;
+        if (StringUtils.isEmpty(contextUserName)) {
+            contextUserName = securityService.getCurrentUserOrQcadooBotName();
         }
 
-        if (Objects.isNull(componentMessagesHolder)) {
-            return;
+        Entity shift;
+
+        if (Objects.nonNull(parentContext)) {
+            shift = parentContext.getShift();
+        } else {
+            shift = shiftsService.getShiftFromDateWithTime(new Date());
         }
 
-        for (ErrorMessage errorMessage : entity.getGlobalErrors()) {
-            componentMessagesHolder.addMessage(errorMessage);
+        return new StateExecutionContext(contextMessagesHolder, securityService.getCurrentUserOrQcadooBotId(), contextUserName,
+                shift);
+    }
+
+    private <T> T execute(final boolean inNewTransaction, final Supplier<T> action) {
+        if (inNewTransaction) {
+            return executeInNewTransaction(action);
         }
-        for (ErrorMessage errorMessage : entity.getErrors().values()) {
-            componentMessagesHolder.addMessage(errorMessage);
+
+        return action.get();
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    private <T> T executeInNewTransaction(final Supplier<T> action) {
+        return action.get();
+    }
+
+    private <T> T runInContext(final StateExecutionContext context, final Supplier<T> action) {
+        StateExecutionContext parentContext = CURRENT_CONTEXT.get();
+
+        CURRENT_CONTEXT.set(context);
+
+        try {
+            return action.get();
+        } finally {
+            if (Objects.isNull(parentContext)) {
+                CURRENT_CONTEXT.remove();
+            } else {
+                CURRENT_CONTEXT.set(parentContext);
+            }
         }
+    }
 
-        for (GlobalMessage globalMessage : entity.getGlobalMessages()) {
-            componentMessagesHolder.addMessage(globalMessage);
+    private void copyMessages(final StateExecutionContext context, final Entity entity, final Entity mainEntity) {
+        if (Objects.nonNull(mainEntity) && mainEntity.equals(entity)
+                && entity.getGlobalErrors() == mainEntity.getGlobalErrors()) {
+            return;
         }
+
+        context.addMessages(entity);
     }
 
-    private void copyMessages(final Entity entity) {
-        copyMessages(entity, null);
+    private void copyMessages(final StateExecutionContext context, final Entity entity) {
+        copyMessages(context, entity, null);
     }
 
     private Entity saveAndValidate(final Entity entity) {
@@ -417,12 +559,6 @@ public class StateExecutorService {
         return saved;
     }
 
-    private void message(final String msg, final ComponentState.MessageType messageType) {
-        if (Objects.nonNull(componentMessagesHolder)) {
-            componentMessagesHolder.addMessage(msg, messageType);
-        }
-    }
-
     private void checkForUnfinishedStateChange(final StateChangeEntityDescriber describer, final Entity owner) {
         final String ownerFieldName = describer.getOwnerFieldName();
         final String statusFieldName = describer.getStatusFieldName();
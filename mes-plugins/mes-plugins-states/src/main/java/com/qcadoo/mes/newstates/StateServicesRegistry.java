@@ -0,0 +1,69 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.qcadoo.plugin.api.PluginUtils;
+import com.qcadoo.plugin.api.RunIfEnabled;
+
+/**
+ * Resolves ordered chains of state services for service markers. Beans are looked up and sorted once per marker, only the
+ * plugin enabled check is done on every call, because plugins can be enabled or disabled at runtime.
+ */
+@Service
+public class StateServicesRegistry {
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    private final Map<Class<? extends StateService>, List<? extends StateService>> servicesByMarker = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public <M extends StateService> List<M> getServices(final Class<M> serviceMarker) {
+        List<M> allServices = (List<M>) servicesByMarker.computeIfAbsent(serviceMarker, this::lookupServices);
+
+        List<M> services = Lists.newArrayListWithCapacity(allServices.size());
+
+        for (M service : allServices) {
+            if (serviceEnabled(service)) {
+                services.add(service);
+            }
+        }
+
+        return services;
+    }
+
+    private <M extends StateService> List<M> lookupServices(final Class<M> serviceMarker) {
+        List<M> services = Lists.newArrayList(applicationContext.getBeansOfType(serviceMarker).values());
+
+        AnnotationAwareOrderComparator.sort(services);
+
+        return ImmutableList.copyOf(services);
+    }
+
+    private boolean serviceEnabled(final StateService service) {
+        RunIfEnabled runIfEnabled = service.getClass().getAnnotation(RunIfEnabled.class);
+
+        if (Objects.isNull(runIfEnabled)) {
+            return true;
+        }
+
+        for (String pluginIdentifier : runIfEnabled.value()) {
+            if (!PluginUtils.isEnabled(pluginIdentifier)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.qcadoo.mes.newstates.metrics;
+
+import java.util.Map;
+
+public class StateChangeMetricDto {
+
+    private final String entityName;
+
+    private final String sourceState;
+
+    private final String targetState;
+
+    private final String serviceName;
+
+    private final String phase;
+
+    private final long count;
+
+    private final long totalTimeInMillis;
+
+    private final long maxTimeInMillis;
+
+    private final Map<String, Long> histogram;
+
+    public StateChangeMetricDto(final String entityName, final String sourceState, final String targetState,
+            final String serviceName, final String phase, final long count, final long totalTimeInMillis,
+            final long maxTimeInMillis, final Map<String, Long> histogram) {
+        this.entityName = entityName;
+        this.sourceState = sourceState;
+        this.targetState = targetState;
+        this.serviceName = serviceName;
+        this.phase = phase;
+        this.count = count;
+        this.totalTimeInMillis = totalTimeInMillis;
+        this.maxTimeInMillis = maxTimeInMillis;
+        this.histogram = histogram;
+    }
+
+    public String getEntityName() {
+        return entityName;
+    }
+
+    public String getSourceState() {
+        return sourceState;
+    }
+
+    public String getTargetState() {
+        return targetState;
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalTimeInMillis() {
+        return totalTimeInMillis;
+    }
+
+    public long getAverageTimeInMillis() {
+        if (count == 0) {
+            return 0;
+        }
+
+        return totalTimeInMillis / count;
+    }
+
+    public long getMaxTimeInMillis() {
+        return maxTimeInMillis;
+    }
+
+    public Map<String, Long> getHistogram() {
+        return histogram;
+    }
+
+}
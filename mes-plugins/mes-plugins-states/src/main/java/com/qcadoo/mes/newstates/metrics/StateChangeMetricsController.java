@@ -0,0 +1,25 @@
+package com.qcadoo.mes.newstates.metrics;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+@Controller
+@RequestMapping("/rest/stateChangeMetrics")
+public class StateChangeMetricsController {
+
+    @Autowired
+    private StateChangeMetricsService stateChangeMetricsService;
+
+    @ResponseBody
+    @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<StateChangeMetricDto> getMetrics() {
+        return stateChangeMetricsService.getMetrics();
+    }
+
+}
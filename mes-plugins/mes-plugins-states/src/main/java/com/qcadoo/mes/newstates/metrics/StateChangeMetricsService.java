@@ -0,0 +1,128 @@
+package com.qcadoo.mes.newstates.metrics;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Keeps counts and latency histograms of state change phases in memory, per entity type, transition, state service and phase.
+ * Values are collected since application start.
+ */
+@Service
+public class StateChangeMetricsService implements StateChangeMetricsSink {
+
+    private static final long[] L_BUCKET_BOUNDS_IN_MILLIS = { 1, 5, 10, 50, 100, 500, 1000, 5000, 10000 };
+
+    private final Map<MetricKey, Histogram> histograms = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(final String entityName, final String sourceState, final String targetState, final String serviceName,
+            final StateChangePhase phase, final long durationInNanos) {
+        MetricKey metricKey = new MetricKey(entityName, sourceState, targetState, serviceName, phase);
+
+        histograms.computeIfAbsent(metricKey, key -> new Histogram()).record(TimeUnit.NANOSECONDS.toMillis(durationInNanos));
+    }
+
+    public List<StateChangeMetricDto> getMetrics() {
+        return histograms.entrySet().stream().map(entry -> entry.getValue().toDto(entry.getKey()))
+                .sorted(Comparator.comparingLong(StateChangeMetricDto::getTotalTimeInMillis).reversed())
+                .collect(Collectors.toList());
+    }
+
+    private static final class MetricKey {
+
+        private final String entityName;
+
+        private final String sourceState;
+
+        private final String targetState;
+
+        private final String serviceName;
+
+        private final StateChangePhase phase;
+
+        MetricKey(final String entityName, final String sourceState, final String targetState, final String serviceName,
+                final StateChangePhase phase) {
+            this.entityName = entityName;
+            this.sourceState = sourceState;
+            this.targetState = targetState;
+            this.serviceName = serviceName;
+            this.phase = phase;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            MetricKey that = (MetricKey) o;
+            return Objects.equals(entityName, that.entityName) && Objects.equals(sourceState, that.sourceState)
+                    && Objects.equals(targetState, that.targetState) && Objects.equals(serviceName, that.serviceName)
+                    && phase == that.phase;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(entityName, sourceState, targetState, serviceName, phase);
+        }
+
+    }
+
+    private static final class Histogram {
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder totalTime = new LongAdder();
+
+        private final AtomicLong maxTime = new AtomicLong();
+
+        private final AtomicLongArray buckets = new AtomicLongArray(L_BUCKET_BOUNDS_IN_MILLIS.length + 1);
+
+        void record(final long timeInMillis) {
+            count.increment();
+            totalTime.add(timeInMillis);
+            maxTime.accumulateAndGet(timeInMillis, Math::max);
+            buckets.incrementAndGet(getBucket(timeInMillis));
+        }
+
+        private int getBucket(final long timeInMillis) {
+            for (int i = 0; i < L_BUCKET_BOUNDS_IN_MILLIS.length; i++) {
+                if (timeInMillis <= L_BUCKET_BOUNDS_IN_MILLIS[i]) {
+                    return i;
+                }
+            }
+
+            return L_BUCKET_BOUNDS_IN_MILLIS.length;
+        }
+
+        StateChangeMetricDto toDto(final MetricKey key) {
+            Map<String, Long> histogram = Maps.newLinkedHashMap();
+
+            for (int i = 0; i < L_BUCKET_BOUNDS_IN_MILLIS.length; i++) {
+                histogram.put("<=" + L_BUCKET_BOUNDS_IN_MILLIS[i] + "ms", buckets.get(i));
+            }
+
+            histogram.put(">" + L_BUCKET_BOUNDS_IN_MILLIS[L_BUCKET_BOUNDS_IN_MILLIS.length - 1] + "ms",
+                    buckets.get(L_BUCKET_BOUNDS_IN_MILLIS.length));
+
+            return new StateChangeMetricDto(key.entityName, key.sourceState, key.targetState, key.serviceName,
+                    key.phase.getStringValue(), count.sum(), totalTime.sum(), maxTime.get(), histogram);
+        }
+
+    }
+
+}
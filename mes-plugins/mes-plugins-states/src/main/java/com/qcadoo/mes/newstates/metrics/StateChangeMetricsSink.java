@@ -0,0 +1,14 @@
+package com.qcadoo.mes.newstates.metrics;
+
+/**
+ * Receives durations of state change phases measured by {@link com.qcadoo.mes.newstates.StateExecutorService}. Every Spring
+ * bean implementing this interface is notified, so plugins can forward timings to external monitoring.
+ *
+ * Implementations are called on the thread performing the state change and should return quickly.
+ */
+public interface StateChangeMetricsSink {
+
+    void record(final String entityName, final String sourceState, final String targetState, final String serviceName,
+            final StateChangePhase phase, final long durationInNanos);
+
+}
@@ -0,0 +1,17 @@
+package com.qcadoo.mes.newstates.metrics;
+
+public enum StateChangePhase {
+
+    VALIDATE("onValidate"), BEFORE_SAVE("onBeforeSave"), SAVE("save"), AFTER_SAVE("onAfterSave");
+
+    private final String stringValue;
+
+    StateChangePhase(final String stringValue) {
+        this.stringValue = stringValue;
+    }
+
+    public String getStringValue() {
+        return stringValue;
+    }
+
+}
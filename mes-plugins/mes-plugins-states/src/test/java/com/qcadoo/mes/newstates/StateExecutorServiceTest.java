@@ -0,0 +1,194 @@
+package com.qcadoo.mes.newstates;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.states.StateChangeEntityDescriber;
+import com.qcadoo.mes.states.constants.StateChangeStatus;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchResult;
+import com.qcadoo.model.api.validators.ErrorMessage;
+import com.qcadoo.security.api.SecurityService;
+import com.qcadoo.testing.model.EntityListMock;
+import com.qcadoo.view.api.ComponentState;
+import com.qcadoo.view.api.ViewDefinitionState;
+import com.qcadoo.view.api.components.GridComponent;
+import com.qcadoo.view.constants.QcadooViewConstants;
+
+public class StateExecutorServiceTest {
+
+    private static final String L_SOURCE_STATE = "01pending";
+
+    private static final String L_TARGET_STATE = "02accepted";
+
+    private static final ErrorMessage L_HOOK_ERROR = new ErrorMessage("orders.order.error");
+
+    private StateExecutorService stateExecutorService;
+
+    @Mock
+    private StateServicesRegistry stateServicesRegistry;
+
+    @Mock
+    private SecurityService securityService;
+
+    @Mock
+    private ShiftsService shiftsService;
+
+    @Mock
+    private StateService stateService;
+
+    @Mock
+    private StateChangeEntityDescriber describer;
+
+    @Mock
+    private DataDefinition ownerDD, stateChangeDD;
+
+    @Mock
+    private Entity failingOwner, passingOwner, invalidOwner, failingStateChange, passingStateChange;
+
+    @Mock
+    private ViewDefinitionState view;
+
+    @Mock
+    private GridComponent grid;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        stateExecutorService = new StateExecutorService();
+
+        ReflectionTestUtils.setField(stateExecutorService, "stateServicesRegistry", stateServicesRegistry);
+        ReflectionTestUtils.setField(stateExecutorService, "securityService", securityService);
+        ReflectionTestUtils.setField(stateExecutorService, "shiftsService", shiftsService);
+        ReflectionTestUtils.setField(stateExecutorService, "stateChangeMetricsSinks", Collections.emptyList());
+
+        given(stateServicesRegistry.getServices(StateService.class)).willReturn(Lists.newArrayList(stateService));
+        given(stateService.getChangeEntityDescriber()).willReturn(describer);
+
+        given(describer.getOwnerDataDefinition()).willReturn(ownerDD);
+        given(describer.getDataDefinition()).willReturn(stateChangeDD);
+        given(describer.getOwnerStateFieldName()).willReturn("state");
+        given(describer.getOwnerStateChangesFieldName()).willReturn("stateChanges");
+        given(describer.getSourceStateFieldName()).willReturn("sourceState");
+        given(describer.getTargetStateFieldName()).willReturn("targetState");
+        given(describer.getStatusFieldName()).willReturn("status");
+        given(describer.getOwnerFieldName()).willReturn("owner");
+
+        given(ownerDD.getName()).willReturn("order");
+
+        stubOwner(failingOwner, 1L);
+        stubOwner(passingOwner, 2L);
+        given(passingOwner.isValid()).willReturn(true);
+        given(ownerDD.save(passingOwner)).willReturn(passingOwner);
+        given(invalidOwner.getGlobalErrors()).willReturn(Lists.newArrayList(L_HOOK_ERROR));
+
+        AtomicBoolean failingOwnerValid = new AtomicBoolean(true);
+
+        given(failingOwner.isValid()).willAnswer(invocation -> failingOwnerValid.get());
+        willAnswer(invocation -> {
+            failingOwnerValid.set(false);
+
+            return null;
+        }).given(failingOwner).setNotValid();
+
+        SearchCriteriaBuilder ownersCriteria = mockCriteria(Lists.newArrayList(failingOwner, passingOwner));
+
+        given(ownerDD.find()).willReturn(ownersCriteria);
+
+        SearchCriteriaBuilder unfinishedStateChangesCriteria = mockCriteria(Collections.emptyList());
+
+        given(stateChangeDD.find()).willReturn(unfinishedStateChangesCriteria);
+        given(stateChangeDD.create()).willReturn(failingStateChange, passingStateChange);
+
+        stubStateChange(failingStateChange);
+        stubStateChange(passingStateChange);
+
+        Answer<Entity> returnOwner = invocation -> (Entity) invocation.getArguments()[0];
+
+        given(stateService.onValidate(any(Entity.class), anyString(), anyString(), any(Entity.class), eq(describer)))
+                .willAnswer(returnOwner);
+        given(stateService.onBeforeSave(any(Entity.class), anyString(), anyString(), any(Entity.class), eq(describer)))
+                .willAnswer(returnOwner);
+        given(stateService.onAfterSave(any(Entity.class), anyString(), anyString(), any(Entity.class), eq(describer)))
+                .willAnswer(returnOwner);
+        given(stateService.onBeforeSave(eq(failingOwner), anyString(), anyString(), any(Entity.class), eq(describer)))
+                .willReturn(invalidOwner);
+
+        given(grid.getSelectedEntities()).willReturn(Lists.newArrayList(failingOwner, passingOwner));
+        given(view.tryFindComponentByReference(QcadooViewConstants.L_GRID)).willReturn(Optional.fromNullable(grid));
+    }
+
+    @Test
+    public final void shouldKeepFailureOfBeforeSaveHookInBulkChange() {
+        // when
+        stateExecutorService.changeState(StateService.class, view, new String[] { L_TARGET_STATE });
+
+        // then
+        verify(failingOwner).setField("state", L_SOURCE_STATE);
+        verify(failingOwner).setNotValid();
+        verify(ownerDD, never()).save(failingOwner);
+        verify(failingStateChange).setField("status", StateChangeStatus.FAILURE.getStringValue());
+        verify(stateChangeDD, times(2)).save(failingStateChange);
+        verify(view).addMessage(L_HOOK_ERROR);
+        verify(view).addMessage("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+        verify(view, never()).addMessage("states.messages.change.failure.internalServerError",
+                ComponentState.MessageType.FAILURE);
+
+        verify(ownerDD).save(passingOwner);
+        verify(passingStateChange).setField("status", StateChangeStatus.SUCCESSFUL.getStringValue());
+        verify(view).addMessage("states.messages.change.bulkSummary", ComponentState.MessageType.INFO, false, "1", "2");
+    }
+
+    private void stubOwner(final Entity owner, final Long id) {
+        given(owner.getId()).willReturn(id);
+        given(owner.getDataDefinition()).willReturn(ownerDD);
+        given(owner.getStringField("state")).willReturn(L_SOURCE_STATE);
+        given(owner.getHasManyField("stateChanges")).willReturn(EntityListMock.create(Lists.newArrayList()));
+    }
+
+    private void stubStateChange(final Entity stateChange) {
+        given(stateChange.getDataDefinition()).willReturn(stateChangeDD);
+        given(stateChange.getStringField("sourceState")).willReturn(L_SOURCE_STATE);
+        given(stateChange.getStringField("targetState")).willReturn(L_TARGET_STATE);
+        given(stateChange.isValid()).willReturn(true);
+        given(stateChangeDD.save(stateChange)).willReturn(stateChange);
+    }
+
+    private SearchCriteriaBuilder mockCriteria(final List<Entity> entities) {
+        SearchCriteriaBuilder criteria = mock(SearchCriteriaBuilder.class);
+        SearchResult result = mock(SearchResult.class);
+
+        given(criteria.add(any())).willReturn(criteria);
+        given(criteria.createAlias(anyString(), anyString())).willReturn(criteria);
+        given(criteria.list()).willReturn(result);
+        given(result.getEntities()).willReturn(entities);
+        given(result.getTotalNumberOfEntities()).willReturn(0);
+
+        return criteria;
+    }
+
+}
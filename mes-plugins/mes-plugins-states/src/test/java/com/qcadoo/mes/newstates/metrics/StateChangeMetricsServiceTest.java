@@ -0,0 +1,48 @@
+package com.qcadoo.mes.newstates.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class StateChangeMetricsServiceTest {
+
+    private StateChangeMetricsService stateChangeMetricsService;
+
+    @Before
+    public void init() {
+        stateChangeMetricsService = new StateChangeMetricsService();
+    }
+
+    @Test
+    public void shouldAggregateTimingsPerServiceAndPhase() {
+        // given
+        stateChangeMetricsService.record("order", "01pending", "02accepted", "OrderStateService", StateChangePhase.VALIDATE,
+                TimeUnit.MILLISECONDS.toNanos(3));
+        stateChangeMetricsService.record("order", "01pending", "02accepted", "OrderStateService", StateChangePhase.VALIDATE,
+                TimeUnit.MILLISECONDS.toNanos(700));
+        stateChangeMetricsService.record("order", "01pending", "02accepted", "order", StateChangePhase.SAVE,
+                TimeUnit.MILLISECONDS.toNanos(20));
+
+        // when
+        List<StateChangeMetricDto> metrics = stateChangeMetricsService.getMetrics();
+
+        // then
+        assertEquals(2, metrics.size());
+
+        StateChangeMetricDto slowest = metrics.get(0);
+
+        assertEquals("OrderStateService", slowest.getServiceName());
+        assertEquals("onValidate", slowest.getPhase());
+        assertEquals(2, slowest.getCount());
+        assertEquals(703, slowest.getTotalTimeInMillis());
+        assertEquals(351, slowest.getAverageTimeInMillis());
+        assertEquals(700, slowest.getMaxTimeInMillis());
+        assertEquals(Long.valueOf(1), slowest.getHistogram().get("<=5ms"));
+        assertEquals(Long.valueOf(1), slowest.getHistogram().get("<=1000ms"));
+    }
+
+}
@@ -26,17 +26,10 @@ package com.qcadoo.mes.techSubcontrForOrderSupplies.aop;
 import com.qcadoo.mes.orderSupplies.constants.CoverageProductFields;
 import com.qcadoo.mes.orderSupplies.constants.CoverageProductLoggingEventType;
 import com.qcadoo.mes.orderSupplies.constants.CoverageProductLoggingFields;
-import com.qcadoo.mes.orderSupplies.coverage.CoverageProductForDelivery;
-import com.qcadoo.mes.orderSupplies.coverage.CoverageProductForOrder;
-import com.qcadoo.mes.techSubcontrForDeliveries.constants.OrderedProductFieldsTSFD;
 import com.qcadoo.mes.techSubcontrForOrderSupplies.constants.CoverageProductFieldsTSFOS;
 import com.qcadoo.mes.techSubcontrForOrderSupplies.constants.CoverageProductLoggingFieldsTSFOS;
 import com.qcadoo.mes.techSubcontrForOrderSupplies.constants.TechSubcontrForOrderSuppliesConstants;
-import com.qcadoo.mes.techSubcontracting.constants.TechnologyOperationComponentFieldsTS;
-import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
-import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.plugin.api.PluginStateResolver;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -53,40 +46,6 @@ public class MaterialRequirementCoverageServiceImplTSFOSOverrideUtil {
         return pluginStateResolver.isEnabled(TechSubcontrForOrderSuppliesConstants.PLUGIN_IDENTIFIER);
     }
 
-    public void createCoverageProductLoggingForDeliveryWithSubcontractedOperation(
-            final CoverageProductForDelivery coverageProductForDelivery, final Entity coverageProductLogging) {
-
-        coverageProductLogging.setField(CoverageProductLoggingFieldsTSFOS.SUBCONTRACTED_OPERATION, coverageProductForDelivery
-                .getDeliveryProduct().getBelongsToField(OrderedProductFieldsTSFD.OPERATION));
-    }
-
-    public void createCoverageProductLoggingForOrderWithSubcontractedOperation(
-            final CoverageProductForOrder coverageProductForOrder, final Entity coverageProductLogging) {
-        coverageProductLogging.setField(CoverageProductLoggingFieldsTSFOS.SUBCONTRACTED_OPERATION,
-                getSubcontractedOperationForOrder(coverageProductForOrder));
-    }
-
-    private Entity getSubcontractedOperationForOrder(final CoverageProductForOrder coverageProductForOrder) {
-        Entity technologyOperationComponent = coverageProductForOrder.getTechnologyOperationComponent();
-        Entity product = coverageProductForOrder.getProduct();
-
-        List<Entity> children = technologyOperationComponent.getHasManyField(TechnologyOperationComponentFields.CHILDREN).find()
-                .add(SearchRestrictions.eq(TechnologyOperationComponentFieldsTS.IS_SUBCONTRACTING, true)).list().getEntities();
-
-        for (Entity child : children) {
-            Entity operationProductOutComponent = child
-                    .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS).find()
-                    .add(SearchRestrictions.belongsTo(OperationProductOutComponentFields.PRODUCT, product)).setMaxResults(1)
-                    .uniqueResult();
-
-            if (operationProductOutComponent != null) {
-                return child.getBelongsToField(TechnologyOperationComponentFields.OPERATION);
-            }
-        }
-
-        return null;
-    }
-
     public void fillIsSubcontractedAndIsPurchased(final List<Entity> coverageProducts) {
         for (Entity coverageProduct : coverageProducts) {
             coverageProduct.setField(CoverageProductFieldsTSFOS.IS_SUBCONTRACTED,
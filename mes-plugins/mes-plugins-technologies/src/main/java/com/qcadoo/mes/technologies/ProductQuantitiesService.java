@@ -177,6 +177,23 @@ public interface ProductQuantitiesService {
             final Entity orderedProduct, final BigDecimal givenQuantity, final Map<Long, BigDecimal> operationRuns,
             final Set<OperationProductComponentHolder> nonComponents);
 
+    /**
+     * Explodes technologies of given orders in batch. Orders with the same technology and planned quantity share one
+     * explosion, and distinct explosions may run in parallel.
+     *
+     * @param orders
+     *            Given list of orders
+     * @param useOrderedProduct
+     *            if true, order product is used as ordered product, so its size groups are taken into account
+     * @param operationRuns
+     * @param nonComponents
+     * @return Map with order ids as the keys and their operationProductComponents with quantities as the values. Containers
+     *         of orders with the same technology and quantity are shared and should not be modified.
+     */
+    Map<Long, OperationProductComponentWithQuantityContainer> getProductComponentWithQuantitiesForOrdersTechnologies(
+            final List<Entity> orders, final boolean useOrderedProduct, final Map<Long, BigDecimal> operationRuns,
+            final Set<OperationProductComponentHolder> nonComponents);
+
     /**
      * @param productComponentWithQuantitiesForOrders
      * @return
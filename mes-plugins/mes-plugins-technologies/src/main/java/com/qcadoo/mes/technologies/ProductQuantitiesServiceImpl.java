@@ -49,14 +49,21 @@ import com.qcadoo.model.api.NumberService;
 import com.qcadoo.model.api.search.SearchRestrictions;
 
 import java.math.BigDecimal;
+import java.math.MathContext;
 import java.math.RoundingMode;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -71,12 +78,39 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
 
     private static final String L_QUANTITY = "quantity";
 
+    private static final String L_PRODUCT = "product";
+
+    private static final int L_MIN_EXPLOSIONS_TO_PARALLELIZE = 8;
+
     @Autowired
     private NumberService numberService;
 
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private TechnologyQuantitiesGraphCache technologyQuantitiesGraphCache;
+
+    private ForkJoinPool explosionPool;
+
+    @PostConstruct
+    public void init() {
+        explosionPool = new ForkJoinPool(Math.min(4, Runtime.getRuntime().availableProcessors()), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+
+            thread.setName("technologyExplosion-" + thread.getPoolIndex());
+
+            return thread;
+        }, null, false);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (Objects.nonNull(explosionPool)) {
+            explosionPool.shutdownNow();
+        }
+    }
+
     @Override
     public ProductQuantitiesHolder getProductComponentQuantities(final Entity technology, final BigDecimal givenQuantity) {
         Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
@@ -294,6 +328,11 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
             operationProductComponentWithQuantityContainer = new OperationProductComponentWithQuantityContainer();
         }
 
+        if (operationProductComponentWithQuantityContainer.getSizeGroups().isEmpty()) {
+            return technologyQuantitiesGraphCache.getGraph(technology).explode(givenQuantity, operationRuns, nonComponents,
+                    numberService.getMathContext());
+        }
+
         EntityTree operationComponents = getOperationComponentsFromTechnology(technology);
         Entity root = operationComponents.getRoot();
 
@@ -314,7 +353,18 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
     private OperationProductComponentWithQuantityContainer getProductComponentWithQuantitiesForOrders(final List<Entity> orders,
             final Map<Long, BigDecimal> operationRuns, final Set<OperationProductComponentHolder> nonComponents,
             final boolean onTheFly) {
+        return groupOperationProductComponentWithQuantities(getProductComponentWithQuantitiesForOrdersTechnologies(orders, false,
+                operationRuns, nonComponents));
+    }
+
+    @Override
+    public Map<Long, OperationProductComponentWithQuantityContainer> getProductComponentWithQuantitiesForOrdersTechnologies(
+            final List<Entity> orders, final boolean useOrderedProduct, final Map<Long, BigDecimal> operationRuns,
+            final Set<OperationProductComponentHolder> nonComponents) {
         Map<Long, OperationProductComponentWithQuantityContainer> productComponentWithQuantitiesForOrders = Maps.newHashMap();
+        Map<Long, Map<BigDecimal, TechnologyExplosion>> explosionsByTechnology = Maps.newHashMap();
+        Map<Long, TechnologyExplosion> explosionsForOrders = Maps.newLinkedHashMap();
+        List<TechnologyExplosion> explosions = Lists.newArrayList();
 
         for (Entity order : orders) {
             BigDecimal plannedQuantity = order.getDecimalField(L_PLANNED_QUANTITY);
@@ -325,13 +375,108 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
                 throw new IllegalStateException("Order doesn't contain technology.");
             }
 
-            productComponentWithQuantitiesForOrders.put(
-                    order.getId(),
-                    getProductComponentWithQuantitiesForTechnology(technology, null, plannedQuantity, operationRuns,
-                            nonComponents));
+            Entity product = order.getBelongsToField(L_PRODUCT);
+
+            if (useOrderedProduct && hasSizeGroups(product)) {
+                productComponentWithQuantitiesForOrders.put(order.getId(), getProductComponentWithQuantitiesForTechnology(
+                        technology, product, plannedQuantity, operationRuns, nonComponents));
+
+                continue;
+            }
+
+            BigDecimal quantityKey = Objects.isNull(plannedQuantity) ? null : plannedQuantity.stripTrailingZeros();
+            Map<BigDecimal, TechnologyExplosion> explosionsByQuantity = explosionsByTechnology.computeIfAbsent(
+                    technology.getId(), technologyId -> Maps.newHashMap());
+            TechnologyExplosion explosion = explosionsByQuantity.get(quantityKey);
+
+            if (Objects.isNull(explosion)) {
+                explosion = new TechnologyExplosion(technologyQuantitiesGraphCache.getGraph(technology), plannedQuantity);
+
+                explosionsByQuantity.put(quantityKey, explosion);
+                explosions.add(explosion);
+            }
+
+            explosionsForOrders.put(order.getId(), explosion);
+        }
+
+        explode(explosions, numberService.getMathContext());
+
+        for (Entry<Long, TechnologyExplosion> explosionForOrder : explosionsForOrders.entrySet()) {
+            TechnologyExplosion explosion = explosionForOrder.getValue();
+
+            productComponentWithQuantitiesForOrders.put(explosionForOrder.getKey(), explosion.getQuantities());
+            operationRuns.putAll(explosion.getOperationRuns());
+            nonComponents.addAll(explosion.getNonComponents());
+        }
+
+        return productComponentWithQuantitiesForOrders;
+    }
+
+    private void explode(final List<TechnologyExplosion> explosions, final MathContext mathContext) {
+        if (explosions.size() < L_MIN_EXPLOSIONS_TO_PARALLELIZE || Objects.isNull(explosionPool)) {
+            explosions.forEach(explosion -> explosion.explode(mathContext));
+
+            return;
+        }
+
+        try {
+            explosionPool.submit(() -> explosions.parallelStream().forEach(explosion -> explosion.explode(mathContext))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Technology explosion interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private boolean hasSizeGroups(final Entity product) {
+        if (Objects.isNull(product)) {
+            return false;
+        }
+
+        Entity size = product.getBelongsToField(ProductFields.SIZE);
+
+        return Objects.nonNull(size) && !size.getHasManyField(SizeFields.SIZE_GROUPS).isEmpty();
+    }
+
+    private static class TechnologyExplosion {
+
+        private final TechnologyQuantitiesGraph graph;
+
+        private final BigDecimal givenQuantity;
+
+        private final Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
+
+        private final Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
+
+        private OperationProductComponentWithQuantityContainer quantities;
+
+        TechnologyExplosion(final TechnologyQuantitiesGraph graph, final BigDecimal givenQuantity) {
+            this.graph = graph;
+            this.givenQuantity = givenQuantity;
+        }
+
+        void explode(final MathContext mathContext) {
+            quantities = graph.explode(givenQuantity, operationRuns, nonComponents, mathContext);
+        }
+
+        OperationProductComponentWithQuantityContainer getQuantities() {
+            return quantities;
+        }
+
+        Map<Long, BigDecimal> getOperationRuns() {
+            return operationRuns;
+        }
+
+        Set<OperationProductComponentHolder> getNonComponents() {
+            return nonComponents;
         }
 
-        return groupOperationProductComponentWithQuantities(productComponentWithQuantitiesForOrders);
     }
 
     @Override
@@ -0,0 +1,340 @@
+package com.qcadoo.mes.technologies;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.model.constants.VersionableConstants;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable, compiled form of a technology operation tree used to explode product quantities.
+ *
+ * Operations and operation product components are indexed once, so {@link #explode} runs on arrays only and doesn't touch
+ * entities or the database. Components that map to the same {@link OperationProductComponentHolder} share one quantity slot,
+ * exactly like they share one key in {@link OperationProductComponentWithQuantityContainer}.
+ */
+public final class TechnologyQuantitiesGraph {
+
+    private static final int L_NONE = -1;
+
+    private final Long technologyId;
+
+    private final String technologyState;
+
+    private final Long technologyVersion;
+
+    private final int root;
+
+    private final int rootOutComponent;
+
+    private final long[] operationIds;
+
+    private final boolean[] quantitiesDivisible;
+
+    private final boolean[] tjDivisible;
+
+    private final int[][] children;
+
+    private final int[][] operationComponents;
+
+    private final int[][] parentInComponents;
+
+    private final int[][] matchedOutComponents;
+
+    private final int[] slots;
+
+    private final BigDecimal[] quantities;
+
+    private final boolean[] withoutQuantity;
+
+    private final OperationProductComponentHolder[] slotHolders;
+
+    private TechnologyQuantitiesGraph(final Entity technology, final EntityTree operationComponentsTree) {
+        technologyId = technology.getId();
+        technologyState = technology.getStringField(TechnologyFields.STATE);
+        technologyVersion = technology.getLongField(VersionableConstants.VERSION_FIELD_NAME);
+
+        List<Entity> operations = Lists.newArrayList(operationComponentsTree.iterator());
+        Map<Long, Integer> operationIndexes = Maps.newHashMap();
+
+        for (int index = 0; index < operations.size(); index++) {
+            operationIndexes.put(operations.get(index).getId(), index);
+        }
+
+        int operationsCount = operations.size();
+
+        operationIds = new long[operationsCount];
+        quantitiesDivisible = new boolean[operationsCount];
+        tjDivisible = new boolean[operationsCount];
+        children = new int[operationsCount][];
+        operationComponents = new int[operationsCount][];
+        parentInComponents = new int[operationsCount][];
+        matchedOutComponents = new int[operationsCount][];
+
+        List<Entity> components = Lists.newArrayList();
+        List<List<Entity>> inComponents = Lists.newArrayList();
+        List<List<Entity>> outComponents = Lists.newArrayList();
+        List<int[]> inComponentIndexes = Lists.newArrayList();
+        List<int[]> outComponentIndexes = Lists.newArrayList();
+
+        for (int index = 0; index < operationsCount; index++) {
+            Entity operation = operations.get(index);
+
+            operationIds[index] = operation.getId();
+            quantitiesDivisible[index] = operation
+                    .getBooleanField(TechnologyOperationComponentFields.ARE_PRODUCT_QUANTITIES_DIVISIBLE);
+            tjDivisible[index] = operation.getBooleanField(TechnologyOperationComponentFields.IS_TJ_DIVISIBLE);
+
+            List<Entity> operationInComponents = Lists.newArrayList(operation
+                    .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS).iterator());
+            List<Entity> operationOutComponents = Lists.newArrayList(operation
+                    .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS).iterator());
+
+            inComponents.add(operationInComponents);
+            outComponents.add(operationOutComponents);
+            inComponentIndexes.add(addComponents(components, operationInComponents));
+            outComponentIndexes.add(addComponents(components, operationOutComponents));
+
+            operationComponents[index] = concat(inComponentIndexes.get(index), outComponentIndexes.get(index));
+
+            List<Integer> operationChildren = Lists.newArrayList();
+
+            for (Entity child : operation.getHasManyField(TechnologyOperationComponentFields.CHILDREN)) {
+                if (operationIndexes.containsKey(child.getId())) {
+                    operationChildren.add(operationIndexes.get(child.getId()));
+                }
+            }
+
+            children[index] = operationChildren.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        slots = new int[components.size()];
+        quantities = new BigDecimal[components.size()];
+        withoutQuantity = new boolean[components.size()];
+
+        Map<OperationProductComponentHolder, Integer> slotIndexes = Maps.newLinkedHashMap();
+
+        for (int index = 0; index < components.size(); index++) {
+            Entity component = components.get(index);
+            OperationProductComponentHolder holder = new OperationProductComponentHolder(component);
+
+            slots[index] = slotIndexes.computeIfAbsent(holder, key -> slotIndexes.size());
+            quantities[index] = component.getDecimalField(OperationProductInComponentFields.QUANTITY);
+            withoutQuantity[index] = isInComponent(component)
+                    && component.getBooleanField(OperationProductInComponentFields.DIFFERENT_PRODUCTS_IN_DIFFERENT_SIZES);
+        }
+
+        slotHolders = slotIndexes.keySet().toArray(new OperationProductComponentHolder[slotIndexes.size()]);
+
+        Entity rootOperation = operationComponentsTree.getRoot();
+
+        if (Objects.isNull(rootOperation) || !operationIndexes.containsKey(rootOperation.getId())) {
+            root = L_NONE;
+            rootOutComponent = L_NONE;
+        } else {
+            root = operationIndexes.get(rootOperation.getId());
+            rootOutComponent = findRootOutComponent(technology, outComponents.get(root), outComponentIndexes.get(root));
+        }
+
+        for (int index = 0; index < operationsCount; index++) {
+            for (int child : children[index]) {
+                matchComponents(child, inComponents.get(index), inComponentIndexes.get(index), outComponents.get(child),
+                        outComponentIndexes.get(child));
+            }
+        }
+
+        for (int index = 0; index < operationsCount; index++) {
+            if (Objects.isNull(parentInComponents[index])) {
+                parentInComponents[index] = new int[0];
+                matchedOutComponents[index] = new int[0];
+            }
+        }
+    }
+
+    public static TechnologyQuantitiesGraph compile(final Entity technology) {
+        return new TechnologyQuantitiesGraph(technology, technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS));
+    }
+
+    /**
+     * Checks if this graph was compiled from given version of the technology.
+     */
+    public boolean isCompiledFrom(final Entity technology) {
+        return Objects.equals(technologyId, technology.getId())
+                && Objects.equals(technologyState, technology.getStringField(TechnologyFields.STATE))
+                && Objects.equals(technologyVersion, technology.getLongField(VersionableConstants.VERSION_FIELD_NAME));
+    }
+
+    /**
+     * Calculates product quantities and operation runs needed to produce given quantity of the technology product.
+     *
+     * Same as preloading and traversing the operation tree in {@link ProductQuantitiesServiceImpl}, for technologies used
+     * without size groups.
+     */
+    public OperationProductComponentWithQuantityContainer explode(final BigDecimal givenQuantity,
+            final Map<Long, BigDecimal> operationRuns, final Set<OperationProductComponentHolder> nonComponents,
+            final MathContext mathContext) {
+        OperationProductComponentWithQuantityContainer container = new OperationProductComponentWithQuantityContainer();
+
+        if (root == L_NONE) {
+            return container;
+        }
+
+        BigDecimal[] values = new BigDecimal[slotHolders.length];
+
+        for (int component = 0; component < slots.length; component++) {
+            values[slots[component]] = quantities[component];
+        }
+
+        for (long operationId : operationIds) {
+            operationRuns.put(operationId, BigDecimal.ONE);
+        }
+
+        int[] stack = new int[operationIds.length];
+        int stackSize = 0;
+
+        stack[stackSize++] = root;
+
+        if (rootOutComponent != L_NONE) {
+            multiply(root, givenQuantity, values[slots[rootOutComponent]], values, operationRuns, mathContext);
+        }
+
+        while (stackSize > 0) {
+            int operation = stack[--stackSize];
+
+            if (operation != root) {
+                for (int index = 0; index < parentInComponents[operation].length; index++) {
+                    int inComponent = parentInComponents[operation][index];
+                    int outComponent = matchedOutComponents[operation][index];
+
+                    multiply(operation, values[slots[inComponent]], values[slots[outComponent]], values, operationRuns,
+                            mathContext);
+
+                    nonComponents.add(slotHolders[slots[inComponent]]);
+                }
+            }
+
+            for (int index = children[operation].length - 1; index >= 0; index--) {
+                stack[stackSize++] = children[operation][index];
+            }
+        }
+
+        for (int slot = 0; slot < slotHolders.length; slot++) {
+            container.put(slotHolders[slot], values[slot]);
+        }
+
+        return container;
+    }
+
+    private void multiply(final int operation, final BigDecimal needed, final BigDecimal actual, final BigDecimal[] values,
+            final Map<Long, BigDecimal> operationRuns, final MathContext mathContext) {
+        BigDecimal multiplier = needed.divide(actual, mathContext);
+
+        if (!quantitiesDivisible[operation]) {
+            // It's intentional to round up the operation runs
+            multiplier = multiplier.setScale(0, RoundingMode.CEILING);
+        }
+
+        BigDecimal runs = multiplier;
+
+        if (!tjDivisible[operation]) {
+            runs = multiplier.setScale(0, RoundingMode.CEILING);
+        }
+
+        operationRuns.put(operationIds[operation], runs);
+
+        for (int component : operationComponents[operation]) {
+            int slot = slots[component];
+
+            if (withoutQuantity[component]) {
+                values[slot] = null;
+            } else {
+                values[slot] = values[slot].multiply(multiplier, mathContext).setScale(5, RoundingMode.CEILING);
+            }
+        }
+    }
+
+    private int findRootOutComponent(final Entity technology, final List<Entity> rootOutComponents,
+            final int[] rootOutComponentIndexes) {
+        Long technologyProductId = technology.getBelongsToField(TechnologyFields.PRODUCT).getId();
+
+        for (int index = 0; index < rootOutComponents.size(); index++) {
+            if (rootOutComponents.get(index).getBelongsToField(OperationProductOutComponentFields.PRODUCT).getId()
+                    .equals(technologyProductId)) {
+                return rootOutComponentIndexes[index];
+            }
+        }
+
+        return L_NONE;
+    }
+
+    private void matchComponents(final int operation, final List<Entity> parentInComponentEntities,
+            final int[] parentInComponentIndexes, final List<Entity> outComponentEntities, final int[] outComponentIndexes) {
+        List<Integer> matchedInComponents = Lists.newArrayList();
+        List<Integer> matchedOut = Lists.newArrayList();
+
+        for (int inIndex = 0; inIndex < parentInComponentEntities.size(); inIndex++) {
+            Entity inComponent = parentInComponentEntities.get(inIndex);
+            Entity inProduct = inComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT);
+
+            if (inComponent.getBooleanField(OperationProductInComponentFields.DIFFERENT_PRODUCTS_IN_DIFFERENT_SIZES)
+                    || Objects.isNull(inProduct)) {
+                continue;
+            }
+
+            for (int outIndex = 0; outIndex < outComponentEntities.size(); outIndex++) {
+                if (outComponentEntities.get(outIndex).getBelongsToField(OperationProductOutComponentFields.PRODUCT).getId()
+                        .equals(inProduct.getId())) {
+                    matchedInComponents.add(parentInComponentIndexes[inIndex]);
+                    matchedOut.add(outComponentIndexes[outIndex]);
+
+                    break;
+                }
+            }
+        }
+
+        parentInComponents[operation] = matchedInComponents.stream().mapToInt(Integer::intValue).toArray();
+        matchedOutComponents[operation] = matchedOut.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int[] addComponents(final List<Entity> components, final List<Entity> operationProductComponents) {
+        int[] indexes = new int[operationProductComponents.size()];
+
+        for (int index = 0; index < operationProductComponents.size(); index++) {
+            indexes[index] = components.size();
+
+            components.add(operationProductComponents.get(index));
+        }
+
+        return indexes;
+    }
+
+    private static int[] concat(final int[] first, final int[] second) {
+        int[] result = new int[first.length + second.length];
+
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+
+        return result;
+    }
+
+    private static boolean isInComponent(final Entity operationProductComponent) {
+        return TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT.equals(operationProductComponent.getDataDefinition()
+                .getName());
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.qcadoo.mes.technologies;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.model.api.Entity;
+import org.springframework.stereotype.Service;
+
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Keeps compiled {@link TechnologyQuantitiesGraph graphs} of technologies that can't be edited anymore, so quantities for
+ * orders, material requirements, coverage or costs are exploded without loading the operation tree again.
+ *
+ * Graphs are evicted when the technology state changes and are also checked against the technology state and entity version
+ * on every read.
+ */
+@Service
+public class TechnologyQuantitiesGraphCache {
+
+    private static final long L_MAXIMUM_SIZE = 500;
+
+    private static final Set<String> L_CACHEABLE_STATES = Sets.newHashSet(TechnologyStateStringValues.ACCEPTED,
+            TechnologyStateStringValues.OUTDATED);
+
+    private final Cache<Long, TechnologyQuantitiesGraph> graphs = CacheBuilder.newBuilder().maximumSize(L_MAXIMUM_SIZE)
+            .build();
+
+    public TechnologyQuantitiesGraph getGraph(final Entity technology) {
+        if (Objects.isNull(technology.getId())
+                || !L_CACHEABLE_STATES.contains(technology.getStringField(TechnologyFields.STATE))) {
+            return TechnologyQuantitiesGraph.compile(technology);
+        }
+
+        TechnologyQuantitiesGraph graph = graphs.getIfPresent(technology.getId());
+
+        if (Objects.isNull(graph) || !graph.isCompiledFrom(technology)) {
+            graph = TechnologyQuantitiesGraph.compile(technology);
+
+            graphs.put(technology.getId(), graph);
+        }
+
+        return graph;
+    }
+
+    public void evict(final Long technologyId) {
+        if (Objects.nonNull(technologyId)) {
+            graphs.invalidate(technologyId);
+        }
+    }
+
+}
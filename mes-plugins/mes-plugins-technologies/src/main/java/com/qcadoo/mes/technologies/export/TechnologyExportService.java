@@ -7,12 +7,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
@@ -24,9 +26,10 @@ import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
+import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.constants.ProductFields;
-import com.qcadoo.mes.technologies.constants.ProductStructureTreeNodeFields;
+import com.qcadoo.mes.states.constants.StateChangeStatus;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.states.constants.TechnologyStateChangeFields;
@@ -35,9 +38,9 @@ import com.qcadoo.mes.technologies.tree.ProductStructureTreeService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.EntityTree;
 import com.qcadoo.model.api.NumberService;
 import com.qcadoo.model.api.file.FileService;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
 import com.qcadoo.model.api.search.SearchOrders;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.tenant.api.MultiTenantCallback;
@@ -56,6 +59,10 @@ public class TechnologyExportService {
 
     private static final String EMPTY = "";
 
+    private static final int L_PAGE_SIZE = 100;
+
+    private static final int L_BUFFER_SIZE = 64 * 1024;
+
     @Value("${exportedCsvSeparator:','}")
     private String exportedCsvSeparator;
 
@@ -110,126 +117,169 @@ public class TechnologyExportService {
         String date = DateFormat.getDateInstance().format(exportDate);
 
         String acceptedTechnologiesFileName = "technologie_aktualne_" + dateWithTime + ".csv";
-        List<Entity> acceptedTechnologies = findAcceptedTechnologies();
-        exportTechnologiesToFile(date, acceptedTechnologiesFileName, acceptedTechnologies);
-
         String allTechnologiesFileName = "technologie_pelna_kopia_" + dateWithTime + ".csv";
-        List<Entity> allTechnologies = findAllTechnologies();
-        exportTechnologiesToFile(date, allTechnologiesFileName, allTechnologies);
+
+        File acceptedTechnologiesFile = fileService.createExportFile(acceptedTechnologiesFileName);
+        File allTechnologiesFile = fileService.createExportFile(allTechnologiesFileName);
+
+        exportToFiles(acceptedTechnologiesFile, allTechnologiesFile, date);
+
+        sendFileToFtp(acceptedTechnologiesFileName, acceptedTechnologiesFile);
+        sendFileToFtp(allTechnologiesFileName, allTechnologiesFile);
+
+        fileService.remove(acceptedTechnologiesFile.getPath());
+        fileService.remove(allTechnologiesFile.getPath());
     }
 
-    private void exportTechnologiesToFile(final String exportDate, final String fileName, final List<Entity> technologies) {
-        File exportFile = fileService.createExportFile(fileName);
+    private void exportToFiles(final File acceptedTechnologiesFile, final File allTechnologiesFile, final String exportDate) {
+        LOG.info("Start export files: " + acceptedTechnologiesFile.getName() + ", " + allTechnologiesFile.getName());
 
-        exportToFile(exportFile, technologies, exportDate);
-        sendFileToFtp(fileName, exportFile);
+        try (BufferedWriter acceptedTechnologiesWriter = createWriter(acceptedTechnologiesFile);
+                BufferedWriter allTechnologiesWriter = createWriter(allTechnologiesFile)) {
+            createHeader(acceptedTechnologiesWriter);
+            createHeader(allTechnologiesWriter);
 
-        fileService.remove(exportFile.getPath());
+            createRows(exportDate, acceptedTechnologiesWriter, allTechnologiesWriter);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+
+        LOG.info("The files exported successfully.");
     }
 
-    private void exportToFile(final File file, final List<Entity> technologies, final String exportDate) {
-        LOG.info("Start export file: " + file.getName());
+    private BufferedWriter createWriter(final File file) throws IOException {
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
 
-        try (FileOutputStream fileOutputStream = new FileOutputStream(file)) {
+        try {
             fileOutputStream.write(239);
             fileOutputStream.write(187);
             fileOutputStream.write(191);
-
-            try (BufferedWriter bufferedWriter = new BufferedWriter(
-                    new OutputStreamWriter(fileOutputStream, Charset.forName("UTF-8")))) {
-                createHeader(bufferedWriter);
-
-                createRows(technologies, exportDate, bufferedWriter);
-            }
         } catch (IOException e) {
-            throw new IllegalStateException(e.getMessage(), e);
+            fileOutputStream.close();
+
+            throw e;
         }
 
-        LOG.info("The file exported successfully.");
+        return new BufferedWriter(new OutputStreamWriter(fileOutputStream, StandardCharsets.UTF_8), L_BUFFER_SIZE);
     }
 
-    private void createRows(final List<Entity> technologies, final String exportDate, final BufferedWriter bufferedWriter)
-            throws IOException {
-        for (Entity technology : technologies) {
-            EntityTree productStructureTree = productStructureTreeService.generateProductStructureTree(null, technology);
-
-            String technologyNumber = normalizeString(technology.getStringField(TechnologyFields.NUMBER));
-            String technologyName = normalizeString(technology.getStringField(TechnologyFields.NAME));
-            String technologyState = translationService.translate(
-                    "technologies.technology.state.value." + technology.getStringField(TechnologyFields.STATE),
-                    LocaleContextHolder.getLocale());
-            String isDefaultTechnology = defaultTechnologyToString(technology.getBooleanField(TechnologyFields.MASTER));
-            String technologyStandardPerformance = numberService
-                    .format(technology.getDecimalField(TechnologyFields.STANDARD_PERFORMANCE_TECHNOLOGY));
-            String technologyStateChange = DateFormat.getDateInstance().format(productStructureTreeService
-                    .getLastTechnologyStateChange(technology).getDateField(TechnologyStateChangeFields.DATE_AND_TIME));
-            String technologyAcceptStateChange = getTechnologyAcceptStateChange(technology);
-            String technologyOutdatedStateChange = getTechnologyOutdatedStateChange(technology);
-            String technologyProduct = normalizeString(
-                    technology.getBelongsToField(TechnologyFields.PRODUCT).getStringField(ProductFields.NUMBER));
-
-            for (Entity productNode : productStructureTree) {
-                if (ProductStructureTreeService.L_MATERIAL
-                        .equals(productNode.getStringField(ProductStructureTreeNodeFields.ENTITY_TYPE))) {
-                    Entity material = productNode.getBelongsToField(ProductStructureTreeNodeFields.PRODUCT);
-
-                    bufferedWriter.append(BACKSLASH).append(technologyNumber).append(BACKSLASH);
-                    bufferedWriter.append(exportedCsvSeparator);
-                    bufferedWriter.append(BACKSLASH).append(technologyName).append(BACKSLASH);
-                    bufferedWriter.append(exportedCsvSeparator);
-                    bufferedWriter.append(BACKSLASH).append(technologyState).append(BACKSLASH);
-                    bufferedWriter.append(exportedCsvSeparator);
-                    bufferedWriter.append(BACKSLASH).append(isDefaultTechnology).append(BACKSLASH);
-                    bufferedWriter.append(exportedCsvSeparator);
-                    bufferedWriter.append(BACKSLASH).append(technologyStandardPerformance).append(BACKSLASH);
-                    bufferedWriter.append(exportedCsvSeparator);
-                    bufferedWriter.append(BACKSLASH).append(technologyStateChange).append(BACKSLASH);
-                    bufferedWriter.append(exportedCsvSeparator);
-                    bufferedWriter.append(BACKSLASH).append(technologyAcceptStateChange).append(BACKSLASH);
-                    bufferedWriter.append(exportedCsvSeparator);
-                    bufferedWriter.append(BACKSLASH).append(technologyOutdatedStateChange).append(BACKSLASH);
-                    bufferedWriter.append(exportedCsvSeparator);
-                    bufferedWriter.append(BACKSLASH).append(technologyProduct).append(BACKSLASH);
-                    bufferedWriter.append(exportedCsvSeparator);
-                    bufferedWriter.append(BACKSLASH).append(normalizeString(material.getStringField(ProductFields.NUMBER)))
-                            .append(BACKSLASH);
-                    bufferedWriter.append(exportedCsvSeparator);
-                    bufferedWriter.append(BACKSLASH).append(normalizeString(material.getStringField(ProductFields.NAME)))
-                            .append(BACKSLASH);
-                    bufferedWriter.append(exportedCsvSeparator);
-                    bufferedWriter.append(BACKSLASH)
-                            .append(numberService.format(productNode.getDecimalField(ProductStructureTreeNodeFields.QUANTITY)))
-                            .append(BACKSLASH);
-                    bufferedWriter.append(exportedCsvSeparator);
-                    bufferedWriter.append(BACKSLASH).append(normalizeString(material.getStringField(ProductFields.UNIT)))
-                            .append(BACKSLASH);
-                    bufferedWriter.append(exportedCsvSeparator);
-                    bufferedWriter.append(BACKSLASH).append(exportDate).append(BACKSLASH);
-
-                    bufferedWriter.append(NEWLINE);
+    private void createRows(final String exportDate, final BufferedWriter acceptedTechnologiesWriter,
+            final BufferedWriter allTechnologiesWriter) throws IOException {
+        TechnologyMaterialsResolver technologyMaterialsResolver = new TechnologyMaterialsResolver(productStructureTreeService);
+        DateFormat dateFormat = DateFormat.getDateInstance();
+        StringBuilder rows = new StringBuilder();
+
+        String lastTechnologyNumber = null;
+        List<Entity> technologies;
+
+        do {
+            technologies = findTechnologiesAfter(lastTechnologyNumber);
+
+            Map<Long, TechnologyStateChangeDates> technologiesStateChangeDates = getTechnologiesStateChangeDates(technologies);
+
+            for (Entity technology : technologies) {
+                rows.setLength(0);
+
+                appendRows(rows, technology, technologyMaterialsResolver.getMaterials(technology),
+                        technologiesStateChangeDates.getOrDefault(technology.getId(), new TechnologyStateChangeDates()),
+                        dateFormat, exportDate);
+
+                allTechnologiesWriter.append(rows);
+
+                if (TechnologyStateStringValues.ACCEPTED.equals(technology.getStringField(TechnologyFields.STATE))) {
+                    acceptedTechnologiesWriter.append(rows);
                 }
+
+                lastTechnologyNumber = technology.getStringField(TechnologyFields.NUMBER);
             }
+        } while (technologies.size() == L_PAGE_SIZE);
+    }
+
+    private void appendRows(final StringBuilder rows, final Entity technology,
+            final List<TechnologyMaterialsResolver.Material> materials, final TechnologyStateChangeDates stateChangeDates,
+            final DateFormat dateFormat, final String exportDate) {
+        if (materials.isEmpty()) {
+            return;
+        }
+
+        String technologyNumber = normalizeString(technology.getStringField(TechnologyFields.NUMBER));
+        String technologyName = normalizeString(technology.getStringField(TechnologyFields.NAME));
+        String technologyState = translationService.translate(
+                "technologies.technology.state.value." + technology.getStringField(TechnologyFields.STATE),
+                LocaleContextHolder.getLocale());
+        String isDefaultTechnology = defaultTechnologyToString(technology.getBooleanField(TechnologyFields.MASTER));
+        String technologyStandardPerformance = numberService
+                .format(technology.getDecimalField(TechnologyFields.STANDARD_PERFORMANCE_TECHNOLOGY));
+        String technologyStateChange = formatDate(dateFormat, stateChangeDates.getLastStateChangeDate());
+        String technologyAcceptStateChange = formatDate(dateFormat, stateChangeDates.getAcceptDate());
+        String technologyOutdatedStateChange = formatDate(dateFormat, stateChangeDates.getOutdateDate());
+        String technologyProduct = normalizeString(
+                technology.getBelongsToField(TechnologyFields.PRODUCT).getStringField(ProductFields.NUMBER));
+
+        for (TechnologyMaterialsResolver.Material material : materials) {
+            rows.append(BACKSLASH).append(technologyNumber).append(BACKSLASH);
+            rows.append(exportedCsvSeparator);
+            rows.append(BACKSLASH).append(technologyName).append(BACKSLASH);
+            rows.append(exportedCsvSeparator);
+            rows.append(BACKSLASH).append(technologyState).append(BACKSLASH);
+            rows.append(exportedCsvSeparator);
+            rows.append(BACKSLASH).append(isDefaultTechnology).append(BACKSLASH);
+            rows.append(exportedCsvSeparator);
+            rows.append(BACKSLASH).append(technologyStandardPerformance).append(BACKSLASH);
+            rows.append(exportedCsvSeparator);
+            rows.append(BACKSLASH).append(technologyStateChange).append(BACKSLASH);
+            rows.append(exportedCsvSeparator);
+            rows.append(BACKSLASH).append(technologyAcceptStateChange).append(BACKSLASH);
+            rows.append(exportedCsvSeparator);
+            rows.append(BACKSLASH).append(technologyOutdatedStateChange).append(BACKSLASH);
+            rows.append(exportedCsvSeparator);
+            rows.append(BACKSLASH).append(technologyProduct).append(BACKSLASH);
+            rows.append(exportedCsvSeparator);
+            rows.append(BACKSLASH).append(normalizeString(material.getNumber())).append(BACKSLASH);
+            rows.append(exportedCsvSeparator);
+            rows.append(BACKSLASH).append(normalizeString(material.getName())).append(BACKSLASH);
+            rows.append(exportedCsvSeparator);
+            rows.append(BACKSLASH).append(numberService.format(material.getQuantity())).append(BACKSLASH);
+            rows.append(exportedCsvSeparator);
+            rows.append(BACKSLASH).append(normalizeString(material.getUnit())).append(BACKSLASH);
+            rows.append(exportedCsvSeparator);
+            rows.append(BACKSLASH).append(exportDate).append(BACKSLASH);
+
+            rows.append(NEWLINE);
         }
     }
 
-    private String getTechnologyOutdatedStateChange(final Entity technology) {
-        Entity stateChange = productStructureTreeService.getTechnologyOutdatedStateChange(technology);
+    private Map<Long, TechnologyStateChangeDates> getTechnologiesStateChangeDates(final List<Entity> technologies) {
+        Map<Long, TechnologyStateChangeDates> technologiesStateChangeDates = Maps.newHashMap();
 
-        if (Objects.isNull(stateChange)) {
-            return EMPTY;
+        if (technologies.isEmpty()) {
+            return technologiesStateChangeDates;
         }
 
-        return DateFormat.getDateInstance().format(stateChange.getDateField(TechnologyStateChangeFields.DATE_AND_TIME));
-    }
+        List<Long> technologyIds = technologies.stream().map(Entity::getId).collect(Collectors.toList());
 
-    private String getTechnologyAcceptStateChange(final Entity technology) {
-        Entity stateChange = productStructureTreeService.getTechnologyAcceptStateChange(technology);
+        List<Entity> stateChanges = getTechnologyStateChangeDD().find()
+                .add(SearchRestrictions.in(TechnologyStateChangeFields.TECHNOLOGY + ".id", technologyIds))
+                .add(SearchRestrictions.eq(TechnologyStateChangeFields.STATUS, StateChangeStatus.SUCCESSFUL.getStringValue()))
+                .addOrder(SearchOrders.desc(TechnologyStateChangeFields.DATE_AND_TIME)).list().getEntities();
+
+        for (Entity stateChange : stateChanges) {
+            technologiesStateChangeDates
+                    .computeIfAbsent(stateChange.getBelongsToField(TechnologyStateChangeFields.TECHNOLOGY).getId(),
+                            technologyId -> new TechnologyStateChangeDates())
+                    .add(stateChange.getStringField(TechnologyStateChangeFields.TARGET_STATE),
+                            stateChange.getDateField(TechnologyStateChangeFields.DATE_AND_TIME));
+        }
 
-        if (Objects.isNull(stateChange)) {
+        return technologiesStateChangeDates;
+    }
+
+    private String formatDate(final DateFormat dateFormat, final Date date) {
+        if (Objects.isNull(date)) {
             return EMPTY;
         }
 
-        return DateFormat.getDateInstance().format(stateChange.getDateField(TechnologyStateChangeFields.DATE_AND_TIME));
+        return dateFormat.format(date);
     }
 
     private String defaultTechnologyToString(final Boolean master) {
@@ -364,21 +414,60 @@ public class TechnologyExportService {
         }
     }
 
-    private List<Entity> findAcceptedTechnologies() {
-        return getTechnologyDD().find().add(SearchRestrictions.isNull(TechnologyFields.TECHNOLOGY_TYPE))
-                .add(SearchRestrictions.eq(TechnologyFields.STATE, TechnologyStateStringValues.ACCEPTED))
-                .add(SearchRestrictions.eq(TechnologyFields.ACTIVE, true)).addOrder(SearchOrders.asc(TechnologyFields.NUMBER))
-                .list().getEntities();
-    }
+    private List<Entity> findTechnologiesAfter(final String technologyNumber) {
+        SearchCriteriaBuilder searchCriteriaBuilder = getTechnologyDD().find()
+                .add(SearchRestrictions.isNull(TechnologyFields.TECHNOLOGY_TYPE))
+                .add(SearchRestrictions.eq(TechnologyFields.ACTIVE, true));
 
-    private List<Entity> findAllTechnologies() {
-        return getTechnologyDD().find().add(SearchRestrictions.isNull(TechnologyFields.TECHNOLOGY_TYPE))
-                .add(SearchRestrictions.eq(TechnologyFields.ACTIVE, true)).addOrder(SearchOrders.asc(TechnologyFields.NUMBER))
-                .list().getEntities();
+        if (Objects.nonNull(technologyNumber)) {
+            searchCriteriaBuilder.add(SearchRestrictions.gt(TechnologyFields.NUMBER, technologyNumber));
+        }
+
+        return searchCriteriaBuilder.addOrder(SearchOrders.asc(TechnologyFields.NUMBER)).setMaxResults(L_PAGE_SIZE).list()
+                .getEntities();
     }
 
     private DataDefinition getTechnologyDD() {
         return dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER, TechnologiesConstants.MODEL_TECHNOLOGY);
     }
 
+    private DataDefinition getTechnologyStateChangeDD() {
+        return dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_TECHNOLOGY_STATE_CHANGE);
+    }
+
+    private static class TechnologyStateChangeDates {
+
+        private Date lastStateChangeDate;
+
+        private Date acceptDate;
+
+        private Date outdateDate;
+
+        void add(final String targetState, final Date dateAndTime) {
+            if (Objects.isNull(lastStateChangeDate)) {
+                lastStateChangeDate = dateAndTime;
+            }
+            if (Objects.isNull(acceptDate) && TechnologyStateStringValues.ACCEPTED.equals(targetState)) {
+                acceptDate = dateAndTime;
+            }
+            if (Objects.isNull(outdateDate) && TechnologyStateStringValues.OUTDATED.equals(targetState)) {
+                outdateDate = dateAndTime;
+            }
+        }
+
+        Date getLastStateChangeDate() {
+            return lastStateChangeDate;
+        }
+
+        Date getAcceptDate() {
+            return acceptDate;
+        }
+
+        Date getOutdateDate() {
+            return outdateDate;
+        }
+
+    }
+
 }
@@ -0,0 +1,169 @@
+package com.qcadoo.mes.technologies.export;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.tree.ProductStructureTreeService;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Resolves material leaves of technologies the same way {@link ProductStructureTreeService#generateProductStructureTree} does,
+ * but walks the operation components in memory and never persists product structure tree nodes.
+ *
+ * One instance lives for a single export run - technologies found for products and materials of sub-technologies are reused
+ * between exported technologies.
+ */
+class TechnologyMaterialsResolver {
+
+    private final ProductStructureTreeService productStructureTreeService;
+
+    private final Map<Long, Optional<Entity>> technologiesForProducts = Maps.newHashMap();
+
+    private final Map<Long, List<Material>> subTechnologiesMaterials = Maps.newHashMap();
+
+    TechnologyMaterialsResolver(final ProductStructureTreeService productStructureTreeService) {
+        this.productStructureTreeService = productStructureTreeService;
+    }
+
+    List<Material> getMaterials(final Entity technology) {
+        Entity operation = productStructureTreeService
+                .findOperationForProductAndTechnology(technology.getBelongsToField(TechnologyFields.PRODUCT), technology);
+
+        if (Objects.isNull(operation)) {
+            return Collections.emptyList();
+        }
+
+        List<Material> materials = Lists.newArrayList();
+
+        collectMaterials(operation, materials);
+
+        return materials;
+    }
+
+    private void collectMaterials(final Entity operation, final List<Material> materials) {
+        for (Entity operationProductInComponent : operation
+                .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS)) {
+            Entity product = operationProductInComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT);
+
+            if (Objects.isNull(product)) {
+                continue;
+            }
+
+            Entity subOperation = findOperationForProductWithinChildren(product, operation);
+            Optional<Entity> subTechnology = findTechnologyForProduct(product);
+
+            if (subTechnology.isPresent() && Objects.isNull(subOperation)) {
+                materials.addAll(getSubTechnologyMaterials(product, subTechnology.get()));
+            } else if (Objects.nonNull(subOperation)) {
+                collectMaterials(subOperation, materials);
+            } else {
+                materials.add(new Material(product, findQuantityOfProductInOperation(operationProductInComponent, product,
+                        operation)));
+            }
+        }
+    }
+
+    private List<Material> getSubTechnologyMaterials(final Entity product, final Entity subTechnology) {
+        List<Material> materials = subTechnologiesMaterials.get(subTechnology.getId());
+
+        if (Objects.isNull(materials)) {
+            materials = Lists.newArrayList();
+
+            Entity operation = productStructureTreeService.findOperationForProductAndTechnology(product, subTechnology);
+
+            if (Objects.nonNull(operation)) {
+                collectMaterials(operation, materials);
+            }
+
+            subTechnologiesMaterials.put(subTechnology.getId(), materials);
+        }
+
+        return materials;
+    }
+
+    private Optional<Entity> findTechnologyForProduct(final Entity product) {
+        return technologiesForProducts.computeIfAbsent(product.getId(),
+                productId -> Optional.ofNullable(productStructureTreeService.findTechnologyForProduct(product)));
+    }
+
+    private Entity findOperationForProductWithinChildren(final Entity product, final Entity operation) {
+        for (Entity child : operation.getHasManyField(TechnologyOperationComponentFields.CHILDREN)) {
+            if (Objects.nonNull(findOutComponent(product, child))) {
+                return child;
+            }
+        }
+
+        return null;
+    }
+
+    private BigDecimal findQuantityOfProductInOperation(final Entity operationProductInComponent, final Entity product,
+            final Entity operation) {
+        Entity operationProductOutComponent = findOutComponent(product, operation);
+
+        if (Objects.nonNull(operationProductOutComponent)) {
+            return operationProductOutComponent.getDecimalField(OperationProductOutComponentFields.QUANTITY);
+        }
+
+        return operationProductInComponent.getDecimalField(OperationProductInComponentFields.QUANTITY);
+    }
+
+    private Entity findOutComponent(final Entity product, final Entity operation) {
+        for (Entity operationProductOutComponent : operation
+                .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS)) {
+            Entity outProduct = operationProductOutComponent.getBelongsToField(OperationProductOutComponentFields.PRODUCT);
+
+            if (Objects.nonNull(outProduct) && product.getId().equals(outProduct.getId())) {
+                return operationProductOutComponent;
+            }
+        }
+
+        return null;
+    }
+
+    static class Material {
+
+        private final String number;
+
+        private final String name;
+
+        private final String unit;
+
+        private final BigDecimal quantity;
+
+        Material(final Entity product, final BigDecimal quantity) {
+            this.number = product.getStringField(ProductFields.NUMBER);
+            this.name = product.getStringField(ProductFields.NAME);
+            this.unit = product.getStringField(ProductFields.UNIT);
+            this.quantity = quantity;
+        }
+
+        String getNumber() {
+            return number;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getUnit() {
+            return unit;
+        }
+
+        BigDecimal getQuantity() {
+            return quantity;
+        }
+
+    }
+
+}
@@ -112,6 +112,8 @@ public class ProductQuantitiesServiceImplTest {
         productQuantitiesService = new ProductQuantitiesServiceImpl();
 
         ReflectionTestUtils.setField(productQuantitiesService, "numberService", numberService);
+        ReflectionTestUtils.setField(productQuantitiesService, "technologyQuantitiesGraphCache",
+                new TechnologyQuantitiesGraphCache());
 
         when(order.getBelongsToField("technology")).thenReturn(technology);
 
@@ -0,0 +1,160 @@
+package com.qcadoo.mes.technologies;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.EntityTree;
+
+public class TechnologyQuantitiesGraphTest {
+
+    private Entity technology;
+
+    private Entity rootOperation, childOperation;
+
+    private Entity productInComponent1, productInComponent2, productInComponent3;
+
+    private Entity productOutComponent2, productOutComponent4;
+
+    private DataDefinition ddIn, ddOut;
+
+    @Before
+    public void init() {
+        ddIn = mock(DataDefinition.class);
+        ddOut = mock(DataDefinition.class);
+
+        when(ddIn.getName()).thenReturn("operationProductInComponent");
+        when(ddOut.getName()).thenReturn("operationProductOutComponent");
+
+        technology = mockEntity(100L);
+        rootOperation = mockEntity(10L);
+        childOperation = mockEntity(11L);
+
+        Entity product1 = mockEntity(1L);
+        Entity product2 = mockEntity(2L);
+        Entity product3 = mockEntity(3L);
+        Entity product4 = mockEntity(4L);
+
+        productInComponent1 = mockComponent(21L, ddIn, childOperation, product1, new BigDecimal(5));
+        productInComponent2 = mockComponent(22L, ddIn, rootOperation, product2, new BigDecimal(2));
+        productInComponent3 = mockComponent(23L, ddIn, rootOperation, product3, BigDecimal.ONE);
+        productOutComponent2 = mockComponent(31L, ddOut, childOperation, product2, BigDecimal.ONE);
+        productOutComponent4 = mockComponent(32L, ddOut, rootOperation, product4, BigDecimal.ONE);
+
+        mockOperation(rootOperation, asList(productInComponent2, productInComponent3), asList(productOutComponent4),
+                asList(childOperation));
+        mockOperation(childOperation, asList(productInComponent1), asList(productOutComponent2), Collections.emptyList());
+
+        EntityTree tree = mock(EntityTree.class);
+
+        when(tree.iterator()).thenReturn(asList(rootOperation, childOperation).iterator());
+        when(tree.getRoot()).thenReturn(rootOperation);
+
+        when(technology.getTreeField("operationComponents")).thenReturn(tree);
+        when(technology.getBelongsToField("product")).thenReturn(product4);
+        when(technology.getStringField("state")).thenReturn("02accepted");
+    }
+
+    @Test
+    public void shouldExplodeQuantitiesAndRoundUpOperationRuns() {
+        // given
+        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
+        Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
+
+        // when
+        OperationProductComponentWithQuantityContainer quantities = TechnologyQuantitiesGraph.compile(technology).explode(
+                new BigDecimal("4.5"), operationRuns, nonComponents, MathContext.DECIMAL64);
+
+        // then
+        assertEquals(0, new BigDecimal(50).compareTo(quantities.get(productInComponent1)));
+        assertEquals(0, new BigDecimal(10).compareTo(quantities.get(productInComponent2)));
+        assertEquals(0, new BigDecimal(5).compareTo(quantities.get(productInComponent3)));
+        assertEquals(0, new BigDecimal(10).compareTo(quantities.get(productOutComponent2)));
+        assertEquals(0, new BigDecimal(5).compareTo(quantities.get(productOutComponent4)));
+
+        assertEquals(0, new BigDecimal(5).compareTo(operationRuns.get(10L)));
+        assertEquals(0, new BigDecimal(10).compareTo(operationRuns.get(11L)));
+
+        assertEquals(1, nonComponents.size());
+        assertTrue(nonComponents.contains(new OperationProductComponentHolder(productInComponent2)));
+    }
+
+    @Test
+    public void shouldReturnSameQuantitiesForEveryExplosionOfCompiledGraph() {
+        // given
+        when(rootOperation.getBooleanField("areProductQuantitiesDivisible")).thenReturn(true);
+
+        TechnologyQuantitiesGraph graph = TechnologyQuantitiesGraph.compile(technology);
+
+        // when
+        OperationProductComponentWithQuantityContainer first = graph.explode(BigDecimal.TEN, Maps.newHashMap(),
+                Sets.newHashSet(), MathContext.DECIMAL64);
+        OperationProductComponentWithQuantityContainer second = graph.explode(BigDecimal.TEN, Maps.newHashMap(),
+                Sets.newHashSet(), MathContext.DECIMAL64);
+
+        // then
+        assertEquals(first, second);
+        assertEquals(0, new BigDecimal(100).compareTo(second.get(productInComponent1)));
+    }
+
+    private void mockOperation(final Entity operation, final List<Entity> inComponents, final List<Entity> outComponents,
+            final List<Entity> children) {
+        EntityList in = mockEntityList(inComponents);
+        EntityList out = mockEntityList(outComponents);
+        EntityList childrenList = mockEntityList(children);
+
+        when(operation.getHasManyField("operationProductInComponents")).thenReturn(in);
+        when(operation.getHasManyField("operationProductOutComponents")).thenReturn(out);
+        when(operation.getHasManyField("children")).thenReturn(childrenList);
+    }
+
+    private Entity mockComponent(final Long id, final DataDefinition dataDefinition, final Entity operation,
+            final Entity product, final BigDecimal quantity) {
+        Entity component = mockEntity(id);
+
+        when(component.getDataDefinition()).thenReturn(dataDefinition);
+        when(component.getBelongsToField("operationComponent")).thenReturn(operation);
+        when(component.getBelongsToField("product")).thenReturn(product);
+        when(component.getDecimalField("quantity")).thenReturn(quantity);
+
+        return component;
+    }
+
+    private static EntityList mockEntityList(final List<Entity> list) {
+        EntityList entityList = mock(EntityList.class);
+
+        when(entityList.iterator()).thenReturn(list.iterator());
+
+        return entityList;
+    }
+
+    private Entity mockEntity(final Long id) {
+        Entity entity = mock(Entity.class);
+        DataDefinition dataDefinition = mock(DataDefinition.class);
+
+        when(entity.getId()).thenReturn(id);
+        when(entity.getDataDefinition()).thenReturn(dataDefinition);
+
+        return entity;
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.qcadoo.mes.technologies.export;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.qcadoo.mes.technologies.tree.ProductStructureTreeService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+
+public class TechnologyMaterialsResolverTest {
+
+    private ProductStructureTreeService productStructureTreeService;
+
+    private TechnologyMaterialsResolver technologyMaterialsResolver;
+
+    private Entity technology, otherTechnology, subTechnology;
+
+    private Entity finalProduct, intermediate, component, material1, material2;
+
+    private Entity rootOperation, childOperation;
+
+    @Before
+    public void init() {
+        productStructureTreeService = mock(ProductStructureTreeService.class);
+
+        technologyMaterialsResolver = new TechnologyMaterialsResolver(productStructureTreeService);
+
+        technology = mockEntity(100L);
+        otherTechnology = mockEntity(101L);
+        subTechnology = mockEntity(102L);
+
+        finalProduct = mockProduct(1L, "P1");
+        intermediate = mockProduct(2L, "P2");
+        component = mockProduct(3L, "P3");
+        material1 = mockProduct(4L, "M1");
+        material2 = mockProduct(5L, "M2");
+
+        rootOperation = mockEntity(10L);
+        childOperation = mockEntity(11L);
+
+        Entity subOperation = mockEntity(12L);
+
+        mockOperation(rootOperation,
+                asList(mockComponent(intermediate, BigDecimal.ONE), mockComponent(component, BigDecimal.TEN)),
+                asList(mockComponent(finalProduct, BigDecimal.ONE)), asList(childOperation));
+        mockOperation(childOperation, Collections.singletonList(mockComponent(material1, new BigDecimal(3))),
+                Collections.singletonList(mockComponent(intermediate, BigDecimal.ONE)), Collections.emptyList());
+        mockOperation(subOperation, Collections.singletonList(mockComponent(material2, new BigDecimal(7))),
+                Collections.singletonList(mockComponent(component, BigDecimal.ONE)), Collections.emptyList());
+
+        when(technology.getBelongsToField("product")).thenReturn(finalProduct);
+        when(otherTechnology.getBelongsToField("product")).thenReturn(finalProduct);
+
+        when(productStructureTreeService.findOperationForProductAndTechnology(finalProduct, technology))
+                .thenReturn(rootOperation);
+        when(productStructureTreeService.findOperationForProductAndTechnology(finalProduct, otherTechnology))
+                .thenReturn(rootOperation);
+        when(productStructureTreeService.findOperationForProductAndTechnology(component, subTechnology))
+                .thenReturn(subOperation);
+        when(productStructureTreeService.findTechnologyForProduct(component)).thenReturn(subTechnology);
+    }
+
+    @Test
+    public void shouldResolveMaterialsOfIntermediatesAndSubTechnologies() {
+        // when
+        List<TechnologyMaterialsResolver.Material> materials = technologyMaterialsResolver.getMaterials(technology);
+
+        // then
+        assertEquals(2, materials.size());
+        assertEquals("M1", materials.get(0).getNumber());
+        assertEquals(0, new BigDecimal(3).compareTo(materials.get(0).getQuantity()));
+        assertEquals("M2", materials.get(1).getNumber());
+        assertEquals(0, new BigDecimal(7).compareTo(materials.get(1).getQuantity()));
+    }
+
+    @Test
+    public void shouldResolveSubTechnologyOnlyOnceForExportRun() {
+        // when
+        technologyMaterialsResolver.getMaterials(technology);
+        technologyMaterialsResolver.getMaterials(otherTechnology);
+
+        // then
+        verify(productStructureTreeService, times(1)).findTechnologyForProduct(component);
+        verify(productStructureTreeService, times(1)).findOperationForProductAndTechnology(component, subTechnology);
+    }
+
+    private void mockOperation(final Entity operation, final List<Entity> inComponents, final List<Entity> outComponents,
+            final List<Entity> children) {
+        EntityList in = mockEntityList(inComponents);
+        EntityList out = mockEntityList(outComponents);
+        EntityList childrenList = mockEntityList(children);
+
+        when(operation.getHasManyField("operationProductInComponents")).thenReturn(in);
+        when(operation.getHasManyField("operationProductOutComponents")).thenReturn(out);
+        when(operation.getHasManyField("children")).thenReturn(childrenList);
+    }
+
+    private Entity mockComponent(final Entity product, final BigDecimal quantity) {
+        Entity operationProductComponent = mock(Entity.class);
+
+        when(operationProductComponent.getBelongsToField("product")).thenReturn(product);
+        when(operationProductComponent.getDecimalField("quantity")).thenReturn(quantity);
+
+        return operationProductComponent;
+    }
+
+    private Entity mockProduct(final Long id, final String number) {
+        Entity product = mockEntity(id);
+
+        when(product.getStringField("number")).thenReturn(number);
+
+        return product;
+    }
+
+    private static EntityList mockEntityList(final List<Entity> list) {
+        EntityList entityList = mock(EntityList.class);
+
+        when(entityList.iterator()).thenAnswer(invocation -> list.iterator());
+
+        return entityList;
+    }
+
+    private Entity mockEntity(final Long id) {
+        Entity entity = mock(Entity.class);
+
+        when(entity.getId()).thenReturn(id);
+
+        return entity;
+    }
+
+}